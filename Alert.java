@@ -0,0 +1 @@
+package edu.sc.seis.TauP; public class Alert { public static void error(String a, String b){} public static void warning(String a, String b){} }
@@ -0,0 +1 @@
+package edu.sc.seis.TauP; public class Arrival { public double getTime(){return 0;} public double getDistDeg(){return 0;} public String getName(){return "";} public String getPuristName(){return "";} public TimeDist[] getPierce(){return null;} public TimeDist[] getPath(){return null;} public double getRayParam(){return 0;} public double getRayParamDeg(){return 0;} public double getDist(){return 0;} public SeismicPhase getPhase(){return null;} public double getTakeoffAngle(){return 0;} public double getIncidentAngle(){return 0;} public double getSourceDepth(){return 0;} }
@@ -0,0 +1 @@
+package edu.sc.seis.TauP; public class SeismicPhase { public String getName(){return "";} }
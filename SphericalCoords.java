@@ -0,0 +1 @@
+package edu.sc.seis.TauP; public class SphericalCoords { public static double latFor(double a,double b,double c,double d){return 0;} public static double lonFor(double a,double b,double c,double d){return 0;} public static double distance(double a,double b,double c,double d){return 0;} public static double azimuth(double a,double b,double c,double d){return 0;} }
@@ -0,0 +1 @@
+package edu.sc.seis.TauP; public class TauModel { public double getRadiusOfEarth(){return 0;} }
@@ -0,0 +1 @@
+package edu.sc.seis.TauP; public class TauPException extends Exception { public TauPException(){} public TauPException(String s){super(s);} }
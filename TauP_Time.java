@@ -0,0 +1 @@
+package edu.sc.seis.TauP; import java.util.*; import java.io.*; public class TauP_Time { public TauP_Time(){} public TauP_Time(String s) throws TauModelException {} public void parsePhaseList(String s){} public void setSourceDepth(double d){} public void calculate(double d) throws TauModelException {} public void calcTime(double d) throws TauModelException {} public Arrival getArrival(int i){return null;} public List<Arrival> getArrivals(){return null;} public int getNumArrivals(){return 0;} public void clearArrivals(){} public void setPhaseNames(String[] s){} public void clearPhaseNames(){} public void depthCorrect(double d) throws TauModelException {} public void setWriter(PrintWriter w){} public void init() throws TauPException {} public void start() throws IOException, TauModelException, TauPException {} public void printNoComprendoArgs(String[] a){} public String[] parseCmdLineArgs(String[] a) throws IOException {return a;} public void destroy() throws TauPException {} public TauModel getTauModel(){return null;} public void setReceiverDepth(double d){} public void loadTauModel(String s) throws TauModelException {} public void appendPhaseName(String s){} public String[] getPhaseNames(){return null;} }
@@ -0,0 +1 @@
+package edu.sc.seis.TauP; public class TimeDist { public double getDistDeg(){return 0;} public double getDepth(){return 0;} public double getTime(){return 0;} public double getDist(){return 0;} public double getP(){return 0;} }
@@ -113,6 +113,15 @@ final class ANISOtimeCLI {
             return;
         }
 
+        if (Arrays.asList(args).contains("--server")) {
+            try {
+                ANISOtimeServer.main(args);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+            return;
+        }
+
         try {
             new ANISOtimeCLI(args).run();
         } catch (MissingArgumentException pe) {
@@ -142,6 +151,8 @@ final class ANISOtimeCLI {
         options.addOption("U", false, "Checks update even if the last activation is within a day.");
         options.addOption("u", false, "Opens a user guide. This option has the 3rd highest priority.");
         options.addOption("taup", false, "Use a TauP-compatible output.");
+        options.addOption(null, "server", false,
+                "Runs as a server answering requests from the standard input or clients on -port.");
     }
 
     private static void setArgumentOptions() {
@@ -157,6 +168,7 @@ final class ANISOtimeCLI {
         options.addOption("rs", "record-section", true,
                 "start, end (,interval) [deg]\n Computes a table of a record section for the range.");
         options.addOption("o", true, "Directory for output files");
+        options.addOption("port", true, "Port on the loopback address for the server mode.");
     }
 
     /**
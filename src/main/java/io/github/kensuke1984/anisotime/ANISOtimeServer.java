@@ -0,0 +1,406 @@
+package io.github.kensuke1984.anisotime;
+
+import org.apache.commons.cli.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ANISOtime as a long-running server. Catalogs of structures are kept once they are loaded,
+ * and travel times are computed by {@link TravelTimeQuery}, so neither JVM startup nor catalog reading is paid for
+ * each request.
+ * <p>
+ * Requests are read from the standard input, or from clients on a local port (-port), one request in a line.
+ * Each client is served in its own thread. A response starts with 'ok N' followed by N lines, or is 'error message'.
+ * Depths are in [km], angles in [deg], ray parameters in [s/deg] and times in [s].
+ * <ul>
+ * <li>time model depth &Delta;1,&Delta;2,... phase1,phase2,... [SV]: arrivals of the phases at each &Delta;.
+ * Each line is '&Delta; phase p &Delta;' T'.</li>
+ * <li>section model depth start,end[,interval] phase1,phase2,... [SV]: the same as 'time' for a record section.
+ * The interval is 1 by default.</li>
+ * <li>rayp model depth p phase1,phase2,... [SV]: the raypath of p. For each phase, a line 'phase &Delta; T N'
+ * is followed by the N points of the route 'r &theta; T', where r is in [km].</li>
+ * <li>path model depth &Delta; phase1,phase2,... [SV]: the raypaths arriving at &Delta;. For each raypath,
+ * a line 'phase p &Delta; T N' is followed by the N points of the route as in 'rayp'.</li>
+ * <li>load model: reads or computes the catalog of the model.</li>
+ * <li>stats: statistics of the cache and requests.</li>
+ * <li>quit: closes the connection.</li>
+ * </ul>
+ * A model is prem, iprem, ak135 or the path of a structure file. Phases are SH unless SV is given.
+ * A catalog is read or computed only once even if clients request it at the same time,
+ * and requests for the other models are not blocked meanwhile.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+final class ANISOtimeServer {
+
+    private final static Options options = new Options();
+
+    static {
+        options.addOption(null, "server", false, "Runs ANISOtime as a server.");
+        options.addOption("port", true, "Port on the loopback address for clients. (default: standard input)");
+        options.addOption("mod", true, "Structures to load at startup, e.g., prem,ak135");
+    }
+
+    /**
+     * Catalogs which are loaded or being loaded
+     */
+    private final Map<String, CompletableFuture<Model>> models = new ConcurrentHashMap<>();
+    private final AtomicLong nRequest = new AtomicLong();
+    private final AtomicLong nError = new AtomicLong();
+    private final AtomicLong nClient = new AtomicLong();
+    private final AtomicLong nModelHit = new AtomicLong();
+    private final AtomicLong nModelMiss = new AtomicLong();
+    private final long startTime = System.nanoTime();
+
+    private ANISOtimeServer() {
+    }
+
+    /**
+     * A catalog with its interpolants for queries
+     */
+    private static final class Model {
+        private final String NAME;
+        private final RaypathCatalog CATALOG;
+        private final TravelTimeQuery QUERY;
+        /**
+         * [s] time for reading or computing the catalog
+         */
+        private final double LOAD_TIME;
+
+        private Model(String name, RaypathCatalog catalog, double loadTime) {
+            NAME = name;
+            CATALOG = catalog;
+            QUERY = new TravelTimeQuery(catalog);
+            LOAD_TIME = loadTime;
+        }
+    }
+
+    /**
+     * @param args [-port port] [-mod model1,model2,...]
+     * @throws ParseException if the arguments are invalid
+     * @throws IOException    if any
+     */
+    public static void main(String[] args) throws ParseException, IOException {
+        CommandLine cmd = new DefaultParser().parse(options, args);
+        ANISOtimeServer server = new ANISOtimeServer();
+        if (cmd.hasOption("mod")) for (String name : cmd.getOptionValue("mod").split(",")) {
+            Model model = server.getModel(name);
+            System.err.println(model.NAME + " is loaded in " + model.LOAD_TIME + " s.");
+        }
+        if (cmd.hasOption("port")) server.listen(Integer.parseInt(cmd.getOptionValue("port")));
+        else server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Accepts clients on the loopback address until the process is killed.
+     *
+     * @param port for clients
+     * @throws IOException if the port can not be opened
+     */
+    private void listen(int port) throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("ANISOtime server is listening on " + serverSocket.getLocalSocketAddress());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> {
+                    try (Socket client = socket; BufferedReader in = new BufferedReader(
+                            new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                         PrintWriter out = new PrintWriter(
+                                 new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))) {
+                        serve(in, out);
+                    } catch (IOException e) {
+                        System.err.println("Connection is lost. " + e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Answers requests until 'quit' or the end of the input.
+     */
+    private void serve(BufferedReader in, PrintWriter out) throws IOException {
+        nClient.incrementAndGet();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (line.equals("quit")) break;
+            out.print(answer(line));
+            out.flush();
+        }
+    }
+
+    /**
+     * @param request a line of a request
+     * @return response to the request
+     */
+    String answer(String request) {
+        nRequest.incrementAndGet();
+        String[] parts = request.split("\\s+");
+        try {
+            List<String> lines;
+            switch (parts[0]) {
+                case "time":
+                    checkLength(parts, 5);
+                    lines = time(parts, Arrays.stream(parts[3].split(",")).mapToDouble(Double::parseDouble).toArray());
+                    break;
+                case "section":
+                    checkLength(parts, 5);
+                    lines = time(parts, toRange(parts[3]));
+                    break;
+                case "rayp":
+                    checkLength(parts, 5);
+                    lines = rayp(parts);
+                    break;
+                case "path":
+                    checkLength(parts, 5);
+                    lines = path(parts);
+                    break;
+                case "load":
+                    checkLength(parts, 2);
+                    Model model = getModel(parts[1]);
+                    lines = Collections.singletonList(model.NAME + " " + model.CATALOG.getRaypaths().length);
+                    break;
+                case "stats":
+                    lines = stats();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown request " + parts[0]);
+            }
+            StringBuilder sb = new StringBuilder("ok " + lines.size() + "\n");
+            for (String line : lines) sb.append(line).append('\n');
+            return sb.toString();
+        } catch (Exception e) {
+            nError.incrementAndGet();
+            return "error " + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n";
+        }
+    }
+
+    private static void checkLength(String[] parts, int length) {
+        if (parts.length < length) throw new IllegalArgumentException("Too few arguments for " + parts[0]);
+    }
+
+    /**
+     * @param range start,end[,interval] [deg]
+     * @return [deg] &Delta;s in the range
+     */
+    private static double[] toRange(String range) {
+        double[] values = Arrays.stream(range.split(",")).mapToDouble(Double::parseDouble).toArray();
+        if (values.length < 2) throw new IllegalArgumentException("A range must be start,end[,interval]");
+        double min = values[0];
+        double max = values[1];
+        double interval = 2 < values.length ? values[2] : 1;
+        if (!(0 < interval) || max < min) throw new IllegalArgumentException("Invalid range " + range);
+        double[] targets = new double[(int) Math.ceil((max - min) / interval) + 1];
+        for (int i = 0; i < targets.length; i++) targets[i] = min + interval * i;
+        targets[targets.length - 1] = max;
+        return targets;
+    }
+
+    private static Phase[] toPhases(String[] parts) {
+        boolean sv = 5 < parts.length && parts[5].equalsIgnoreCase("SV");
+        return Arrays.stream(parts[4].split(",")).map(name -> Phase.create(name, sv)).distinct()
+                .toArray(Phase[]::new);
+    }
+
+    /**
+     * @param parts  request
+     * @param deltas [deg] target &Delta;s
+     * @return arrivals of all the phases at each &Delta;
+     */
+    private List<String> time(String[] parts, double[] deltas) {
+        Model model = getModel(parts[1]);
+        double eventR = model.CATALOG.getStructure().earthRadius() - Double.parseDouble(parts[2]);
+        Phase[] phases = toPhases(parts);
+        int n = deltas.length * phases.length;
+        Phase[] queryPhases = new Phase[n];
+        double[] queryR = new double[n];
+        double[] queryDelta = new double[n];
+        for (int i = 0; i < deltas.length; i++)
+            for (int j = 0; j < phases.length; j++) {
+                int k = i * phases.length + j;
+                queryPhases[k] = phases[j];
+                queryR[k] = eventR;
+                queryDelta[k] = Math.toRadians(deltas[i]);
+            }
+        TravelTimeQuery.Arrival[][] arrivals = model.QUERY.compute(queryPhases, queryR, queryDelta);
+        List<String> lines = new ArrayList<>();
+        for (int k = 0; k < n; k++)
+            for (TravelTimeQuery.Arrival arrival : arrivals[k])
+                lines.add(deltas[k / phases.length] + " " + arrival.getPhase().getDISPLAY_NAME() + " " +
+                        Math.toRadians(arrival.getRayParameter()) + " " + Math.toDegrees(arrival.getDelta()) + " " +
+                        arrival.getTravelTime());
+        return lines;
+    }
+
+    /**
+     * @param parts request
+     * @return &Delta;, T and the route of the phases for the ray parameter
+     */
+    private List<String> rayp(String[] parts) {
+        Model model = getModel(parts[1]);
+        double eventR = model.CATALOG.getStructure().earthRadius() - Double.parseDouble(parts[2]);
+        Raypath raypath = new Raypath(Math.toDegrees(Double.parseDouble(parts[3])), model.CATALOG.getWoodhouse1981(),
+                model.CATALOG.getMesh());
+        List<String> lines = new ArrayList<>();
+        for (Phase phase : toPhases(parts)) {
+            double delta = raypath.computeDelta(phase, eventR);
+            if (Double.isNaN(delta)) continue;
+            addRoute(lines, phase.getDISPLAY_NAME() + " " + Math.toDegrees(delta) + " " +
+                    raypath.computeT(phase, eventR), raypath, phase, eventR);
+        }
+        return lines;
+    }
+
+    /**
+     * The raypaths are searched in the catalog as ANISOtimeCLI does.
+     *
+     * @param parts request
+     * @return p, &Delta;, T and the route of each raypath of the phases arriving at the &Delta;
+     */
+    private List<String> path(String[] parts) {
+        Model model = getModel(parts[1]);
+        double eventR = model.CATALOG.getStructure().earthRadius() - Double.parseDouble(parts[2]);
+        double targetDelta = Math.toRadians(Double.parseDouble(parts[3]));
+        List<String> lines = new ArrayList<>();
+        for (Phase phase : toPhases(parts))
+            for (Raypath raypath : model.CATALOG.searchPath(phase, eventR, targetDelta, false)) {
+                Phase actualPhase;
+                if (phase.isDiffracted()) {
+                    double deltaOnBoundary = Math.toDegrees(targetDelta - raypath.computeDelta(phase, eventR));
+                    if (deltaOnBoundary < 0) continue;
+                    actualPhase = Phase.create(phase.toString() + deltaOnBoundary, phase.isPSV());
+                } else actualPhase = RaypathCatalog.getActualTargetPhase(raypath, phase, eventR, targetDelta, false);
+                double delta = raypath.computeDelta(actualPhase, eventR);
+                if (Double.isNaN(delta)) continue;
+                addRoute(lines, actualPhase.getDISPLAY_NAME() + " " + Math.toRadians(raypath.getRayParameter()) + " " +
+                        Math.toDegrees(delta) + " " + raypath.computeT(actualPhase, eventR), raypath, actualPhase,
+                        eventR);
+            }
+        return lines;
+    }
+
+    /**
+     * Adds the header with the number of the points, and the points 'r &theta; T' of the route.
+     *
+     * @param lines  to add the lines to
+     * @param header of the raypath
+     */
+    private static void addRoute(List<String> lines, String header, Raypath raypath, Phase phase, double eventR) {
+        double[][] route = raypath.getRoute(phase, eventR);
+        lines.add(header + " " + route.length);
+        for (double[] point : route) lines.add(point[0] + " " + Math.toDegrees(point[1]) + " " + point[2]);
+    }
+
+    private List<String> stats() {
+        List<String> lines = new ArrayList<>();
+        lines.add("uptime " + (System.nanoTime() - startTime) / 1e9);
+        lines.add("clients " + nClient.get());
+        lines.add("requests " + nRequest.get());
+        lines.add("errors " + nError.get());
+        lines.add("modelHits " + nModelHit.get());
+        lines.add("modelMisses " + nModelMiss.get());
+        for (CompletableFuture<Model> future : models.values()) {
+            if (!future.isDone() || future.isCompletedExceptionally()) continue;
+            Model model = future.join();
+            lines.add("model " + model.NAME + " raypaths " + model.CATALOG.getRaypaths().length + " interpolants " +
+                    model.QUERY.getNumberOfInterpolants() + " loadTime " + model.LOAD_TIME);
+        }
+        return lines;
+    }
+
+    /**
+     * The first request for a model puts a future in the map and loads the catalog out of the map,
+     * and the others wait for the future. If the loading fails, the future is removed so that it can be tried again.
+     *
+     * @param name prem, iprem, ak135 or the path of a structure file
+     * @return model of the name. If it is not loaded yet, the catalog is read or computed.
+     */
+    private Model getModel(String name) {
+        String key = toKey(name);
+        CompletableFuture<Model> future = models.get(key);
+        if (future == null) {
+            CompletableFuture<Model> newFuture = new CompletableFuture<>();
+            future = models.putIfAbsent(key, newFuture);
+            if (future == null) {
+                nModelMiss.incrementAndGet();
+                try {
+                    long t = System.nanoTime();
+                    RaypathCatalog catalog = createCatalog(key);
+                    newFuture.complete(new Model(key, catalog, (System.nanoTime() - t) / 1e9));
+                } catch (RuntimeException | Error e) {
+                    models.remove(key, newFuture);
+                    newFuture.completeExceptionally(e);
+                    throw e;
+                }
+                return newFuture.join();
+            }
+        }
+        nModelHit.incrementAndGet();
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static String toKey(String name) {
+        switch (name.toLowerCase()) {
+            case "prem":
+            case "iprem":
+            case "ak135":
+                return name.toLowerCase();
+            default:
+                return Paths.get(name).toAbsolutePath().normalize().toString();
+        }
+    }
+
+    private static RaypathCatalog createCatalog(String key) {
+        switch (key) {
+            case "prem":
+                return RaypathCatalog.prem();
+            case "iprem":
+                return RaypathCatalog.iprem();
+            case "ak135":
+                return RaypathCatalog.ak135();
+        }
+        Path modelPath = Paths.get(key);
+        if (!Files.exists(modelPath)) throw new UncheckedIOException(new NoSuchFileException(modelPath + " (input model)"));
+        VelocityStructure structure;
+        try {
+            structure = new PolynomialStructure(modelPath);
+        } catch (Exception e) {
+            try {
+                structure = new NamedDiscontinuityStructure(modelPath);
+            } catch (Exception e1) {
+                throw new RuntimeException("Input model file is invalid.");
+            }
+        }
+        return RaypathCatalog.computeCatalog(structure, ComputationalMesh.simple(structure),
+                RaypathCatalog.DEFAULT_MAXIMUM_D_DELTA);
+    }
+}
@@ -67,6 +67,17 @@ public class ComputationalMesh implements Serializable {
         createSimpleMesh(structure, innerCoreInterval, outerCoreInterval, mantleInterval);
     }
 
+    /**
+     * @param innerCoreMesh [km] radii in the inner-core in ascending order
+     * @param outerCoreMesh [km] radii in the outer-core in ascending order
+     * @param mantleMesh    [km] radii in the mantle in ascending order
+     */
+    ComputationalMesh(double[] innerCoreMesh, double[] outerCoreMesh, double[] mantleMesh) {
+        this.innerCoreMesh = RealVector.unmodifiableRealVector(new ArrayRealVector(innerCoreMesh));
+        this.outerCoreMesh = RealVector.unmodifiableRealVector(new ArrayRealVector(outerCoreMesh));
+        this.mantleMesh = RealVector.unmodifiableRealVector(new ArrayRealVector(mantleMesh));
+    }
+
     /**
      * @param i        index of the mesh to be refined
      * @param n        the i th mesh is divided into n parts. (2 &lt; n)
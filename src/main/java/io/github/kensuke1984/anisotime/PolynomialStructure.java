@@ -56,8 +56,17 @@ public class PolynomialStructure implements VelocityStructure {
     private final PolynomialFunction RADIUS_SUBTRACTION;
 
     public PolynomialStructure(io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure structure) {
-        STRUCTURE = checkBoundaries(structure);
-        if (!STRUCTURE.isDefault() && !checkStructure())
+        this(structure, true);
+    }
+
+    /**
+     * @param structure structure
+     * @param check     if false, the structure is used as it is. It must be the one already checked.
+     */
+    private PolynomialStructure(io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure structure,
+                                boolean check) {
+        STRUCTURE = check ? checkBoundaries(structure) : structure;
+        if (check && !STRUCTURE.isDefault() && !checkStructure())
         	throw new RuntimeException(
         			"The structure must have strictly positive velocity and density,"
         			+ "except for vsh=vsv=0 in the outer-core.");
@@ -184,6 +193,28 @@ public class PolynomialStructure implements VelocityStructure {
         this(new io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure(path));
     }
 
+    /**
+     * The boundaries are not checked again, as the lines are of a structure already checked.
+     *
+     * @param psvLines lines by {@link #toPSVlines()}
+     * @return structure of the lines
+     * @throws IOException if the lines are invalid
+     */
+    static PolynomialStructure fromPSVlines(String[] psvLines) throws IOException {
+        io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure structure =
+                io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure.HOMOGEN.clone();
+        structure.readStructureFile(Arrays.asList(psvLines));
+        return new PolynomialStructure(structure, false);
+    }
+
+    /**
+     * @return lines of a structure file for PSV of the structure after the boundaries are checked,
+     * which have all the information of the structure
+     */
+    String[] toPSVlines() {
+        return STRUCTURE.toPSVlines();
+    }
+
     @Override
     public int hashCode() {
         int prime = 31;
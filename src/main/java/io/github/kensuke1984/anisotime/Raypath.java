@@ -5,6 +5,7 @@ import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.util.Precision;
 
 import java.io.*;
+import java.nio.DoubleBuffer;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
@@ -144,6 +145,12 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      */
     private transient Map<PhasePart, Double> jeffreysBoundaryMap;
 
+    /**
+     * Record in a catalog file if this raypath is read from it, otherwise null.
+     * &delta;&Delta; in the mantle is read from it when it is first needed. See {@link #writeRecord(DataOutput)}
+     */
+    private transient DoubleBuffer record;
+
     /**
      * The source is on the surface. PREM is used.
      *
@@ -181,6 +188,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         RAY_PARAMETER = rayParameter;
         WOODHOUSE = woodhouse;
         MESH = mesh == null ? ComputationalMesh.simple(woodhouse.getStructure()) : mesh;
+        WOODHOUSE.prepare(MESH);
         setTurningRs();
         createMaps();
         computeJeffreysRange();
@@ -189,6 +197,109 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         computeT();
     }
 
+    /**
+     * Values are read from a record written by {@link #writeRecord(DataOutput)}. Nothing is computed.
+     * The record is kept and &delta;&Delta; in the mantle is read from it when it is needed.
+     *
+     * @param rayParameter [s/rad] ray parameter P
+     * @param woodhouse    {@link Woodhouse1981}
+     * @param mesh         {@link ComputationalMesh}
+     * @param record       record of the raypath with the length of {@link #recordLength(VelocityStructure, ComputationalMesh)}
+     */
+    Raypath(double rayParameter, Woodhouse1981 woodhouse, ComputationalMesh mesh, DoubleBuffer record) {
+        RAY_PARAMETER = rayParameter;
+        WOODHOUSE = woodhouse;
+        MESH = mesh;
+        WOODHOUSE.prepare(MESH);
+        this.record = record;
+        createMaps();
+        turningRMap = Collections.synchronizedMap(new EnumMap<>(PhasePart.class));
+        int i = 0;
+        for (PhasePart pp : PhasePart.values()) {
+            turningRMap.put(pp, record.get(i++));
+            criticalTauMap.put(pp, record.get(i++));
+            tauMap.put(pp, record.get(i++));
+            deltaMap.put(pp, record.get(i++));
+            timeMap.put(pp, record.get(i++));
+            jeffreysBoundaryMap.put(pp, record.get(i++));
+            jeffreysDeltaMap.put(pp, record.get(i++));
+            jeffreysTMap.put(pp, record.get(i++));
+        }
+    }
+
+    /**
+     * The number of values for each phase part in a record
+     */
+    private static final int N_VALUES_PER_PART = 8;
+
+    /**
+     * &delta;&Delta; in the mantle is stored only for the top 700 km as in the serialized form.
+     *
+     * @return index of the first mesh point in the mantle of which &delta;&Delta; is stored.
+     */
+    private static int firstStoredDThetaIndex(VelocityStructure structure, ComputationalMesh mesh) {
+        RealVector mantle = mesh.getMesh(Partition.MANTLE);
+        double limitR = structure.earthRadius() - 700;
+        int i = 0;
+        while (i < mantle.getDimension() - 1 && mantle.getEntry(i) < limitR) i++;
+        return i;
+    }
+
+    /**
+     * @param structure velocity structure
+     * @param mesh      computational mesh
+     * @return the number of values in a record of raypaths for the structure and mesh
+     */
+    static int recordLength(VelocityStructure structure, ComputationalMesh mesh) {
+        int nTheta = mesh.getMesh(Partition.MANTLE).getDimension() - 1 - firstStoredDThetaIndex(structure, mesh);
+        return N_VALUES_PER_PART * PhasePart.values().length + 3 * nTheta;
+    }
+
+    /**
+     * Writes the values stored in the serialized form as a record of doubles with a fixed length.
+     * For each phase part in the order of {@link PhasePart#values()}, the turning radius, the critical &tau;, &tau;,
+     * &Delta;, T, the Jeffreys boundary, &Delta; and T in the Jeffreys zone, followed by &delta;&Delta; of P, SV and
+     * SH in the top 700 km of the mantle.
+     *
+     * @param output to write the record in
+     * @throws IOException if an I/O error occurs
+     */
+    void writeRecord(DataOutput output) throws IOException {
+        for (PhasePart pp : PhasePart.values()) {
+            output.writeDouble(turningRMap.get(pp));
+            output.writeDouble(criticalTauMap.get(pp));
+            output.writeDouble(tauMap.get(pp));
+            output.writeDouble(deltaMap.get(pp));
+            output.writeDouble(timeMap.get(pp));
+            output.writeDouble(jeffreysBoundaryMap.get(pp));
+            output.writeDouble(jeffreysDeltaMap.get(pp));
+            output.writeDouble(jeffreysTMap.get(pp));
+        }
+        int first = firstStoredDThetaIndex(getStructure(), MESH);
+        for (PhasePart pp : new PhasePart[]{PhasePart.P, PhasePart.SV, PhasePart.SH}) {
+            double[] theta = getDTheta(pp);
+            for (int i = first; i < theta.length; i++)
+                output.writeDouble(theta[i]);
+        }
+    }
+
+    /**
+     * @param pp phase part
+     * @return &delta;&Delta; of the pp. If it is not computed yet, it is read from the record or computed.
+     */
+    private double[] getDTheta(PhasePart pp) {
+        return dThetaMap.computeIfAbsent(pp, p -> {
+            if (Objects.isNull(record) || pp.whichPartition() != Partition.MANTLE)
+                return computeTransients(pp, r -> WOODHOUSE.computeQDelta(pp, RAY_PARAMETER, r));
+            double[] theta = new double[MESH.getMesh(Partition.MANTLE).getDimension() - 1];
+            int first = firstStoredDThetaIndex(getStructure(), MESH);
+            int start = N_VALUES_PER_PART * PhasePart.values().length + pp.ordinal() * (theta.length - first);
+            for (int i = first; i < theta.length; i++)
+                theta[i] = record.get(start + i - first);
+            return theta;
+        });
+    }
+
     /**
      * Creates maps of &tau;, &Delta; T and so on..
      */
@@ -295,6 +406,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
      */
     private void readObject(ObjectInputStream stream) throws ClassNotFoundException, IOException {
         stream.defaultReadObject();
+        WOODHOUSE.prepare(MESH);
         int existFlag = stream.readByte();
         int jeffFlag = stream.readByte();
         createMaps();
@@ -381,9 +493,9 @@ public class Raypath implements Serializable, Comparable<Raypath> {
     private void writeDTheta(ObjectOutputStream stream) throws IOException {
         RealVector mantle = MESH.getMesh(Partition.MANTLE);
         double limitR = getStructure().earthRadius() - 700;
-        double[] pTheta = dThetaMap.get(PhasePart.P);
-        double[] svTheta = dThetaMap.get(PhasePart.SV);
-        double[] shTheta = dThetaMap.get(PhasePart.SH);
+        double[] pTheta = getDTheta(PhasePart.P);
+        double[] svTheta = getDTheta(PhasePart.SV);
+        double[] shTheta = getDTheta(PhasePart.SH);
         double pJeff = jeffreysBoundaryMap.get(PhasePart.P);
         double svJeff = jeffreysBoundaryMap.get(PhasePart.SV);
         double shJeff = jeffreysBoundaryMap.get(PhasePart.SH);
@@ -899,6 +1011,17 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         }
     }
 
+    /**
+     * @param phase  Seismic {@link Phase}
+     * @param eventR [km] radius of event
+     * @return [km] the smallest radius which the raypath of the phase reaches, i.e.,
+     * the turning radius for a bouncing phase and the radius of the boundary for a reflecting one.
+     */
+    double computeDeepestR(Phase phase, double eventR) {
+        return Arrays.stream(phase.getPassParts()).filter(part -> part instanceof GeneralPart)
+                .mapToDouble(part -> getROf((GeneralPart) part, eventR, true)).min().orElse(Double.NaN);
+    }
+
     /**
      * The center of the Earth is (0, 0) Starting point is (0, eventR)
      *
@@ -1051,7 +1174,7 @@ public class Raypath implements Serializable, Comparable<Raypath> {
         double nextREnd = radii.getEntry(endIndexForMemory);
         //outside the nextREnd, if it is inside the jeffreys region, outside the region.
         double delta = simpson(qDelta, nextREnd < jeffreysBoundary ? jeffreysBoundary : nextREnd, endR);
-        double[] theta = dThetaMap.computeIfAbsent(pp, p -> computeTransients(pp, qDelta));
+        double[] theta = getDTheta(pp);
         for (int i = firstIndexForMemory; i < endIndexForMemory; i++)
             delta += theta[i];
         if (Double.isNaN(jeffreysBoundary) || jeffreysBoundary <= startR)
@@ -7,17 +7,24 @@ import org.apache.commons.math3.fitting.PolynomialCurveFitter;
 import org.apache.commons.math3.fitting.WeightedObservedPoints;
 import org.apache.commons.math3.util.Precision;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Raypath catalog for one model.
@@ -25,7 +32,7 @@ import java.util.regex.Pattern;
  * automatically is stored.
  *
  * @author Kensuke Konishi, Anselme Borgeaud
- * @version 0.2.18
+ * @version 0.2.18.3
  */
 public class RaypathCatalog implements Serializable {
     private static final Raypath[] EMPTY_RAYPATH = new Raypath[0];
@@ -152,7 +159,22 @@ public class RaypathCatalog implements Serializable {
     private static final Path AK135_PATH = SHARE_PATH.resolve("ak135.cat");
 
     /**
-     * @param out       path to output a catalog
+     * Extension of catalog files in the binary format. The files in the serialized form have '.cat',
+     * and the older versions sharing the directory do not look at the binary ones.
+     */
+    private static final String BINARY_EXTENSION = ".bcat";
+
+    /**
+     * @param path path of a default catalog in the serialized form (e.g. prem.cat)
+     * @return path of the binary catalog for the same structure (e.g. prem.bcat)
+     */
+    private static Path binaryPathOf(Path path) {
+        String name = path.getFileName().toString();
+        return path.resolveSibling(name.substring(0, name.lastIndexOf('.')) + BINARY_EXTENSION);
+    }
+
+    /**
+     * @param out       path of a default catalog. The catalog is written in the binary format in {@link #binaryPathOf(Path)}.
      * @param structure velocity structure
      * @return catalog
      */
@@ -160,7 +182,7 @@ public class RaypathCatalog implements Serializable {
         RaypathCatalog c = new RaypathCatalog(structure, ComputationalMesh.simple(structure), DEFAULT_MAXIMUM_D_DELTA);
         c.create();
         try {
-            c.write(out);
+            writeAtomically(c, binaryPathOf(out));
         } catch (IOException e1) {
             System.err.println("Catalog cannot be saved.");
         }
@@ -176,7 +198,7 @@ public class RaypathCatalog implements Serializable {
                 try {
                     long t = System.nanoTime();
                     System.err.print("Reading a catalog for PREM...");
-                    PREM = read(PREM_PATH);
+                    PREM = readDefault(PREM_PATH);
                     System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
                 } catch (Exception e) {
                     try {
@@ -203,7 +225,7 @@ public class RaypathCatalog implements Serializable {
                 try {
                     long t = System.nanoTime();
                     System.err.print("Reading a catalog for ISO_PREM...");
-                    ISO_PREM = read(ISO_PREM_PATH);
+                    ISO_PREM = readDefault(ISO_PREM_PATH);
                     System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
                 } catch (Exception e) {
                     try {
@@ -230,7 +252,7 @@ public class RaypathCatalog implements Serializable {
                 try {
                     long t = System.nanoTime();
                     System.err.print("Reading a catalog for AK135...");
-                    AK135 = read(AK135_PATH);
+                    AK135 = readDefault(AK135_PATH);
                     System.err.println(" in " + Utilities.toTimeString(System.nanoTime() - t));
                 } catch (Exception e) {
                     try {
@@ -330,9 +352,16 @@ public class RaypathCatalog implements Serializable {
         else if (structure.equals(VelocityStructure.ak135()) &&
                 mesh.equals(ComputationalMesh.simple(VelocityStructure.ak135()))) return ak135();
 
-        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(SHARE_PATH, "*.cat")) {
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(SHARE_PATH, "*.{cat,bcat}")) {
+            byte[] structureHash = hash(structure);
+            byte[] meshHash = hash(mesh);
             for (Path path : directoryStream) {
                 try {
+                    // binary catalogs are checked by their headers, and only the matching one is read.
+                    if (isBinary(path)) {
+                        if (matches(path, structureHash, meshHash, dDelta)) return read(path);
+                        continue;
+                    }
                     RaypathCatalog catalog = read(path);
                     if (catalog.getStructure().equals(structure) && catalog.MESH.equals(mesh) &&
                             catalog.MAXIMUM_D_DELTA == dDelta) return catalog;
@@ -346,8 +375,11 @@ public class RaypathCatalog implements Serializable {
         System.err.println("Computing a catalog for the input structure.");
         cat.create();
         try {
-            Path p = Files.createTempFile(SHARE_PATH, "raypath", ".cat");
-            cat.write(p);
+            // the name is taken from a temporary file so that it is unique
+            Path tmpPath = Files.createTempFile(SHARE_PATH, "raypath", ".tmp");
+            Files.delete(tmpPath);
+            Path p = binaryPathOf(tmpPath);
+            writeAtomically(cat, p);
             System.err.println(p + " is created.");
         } catch (IOException e) {
             e.printStackTrace();
@@ -356,6 +388,9 @@ public class RaypathCatalog implements Serializable {
     }
 
     /**
+     * Reads a catalog file. The binary format (see {@link #write(Path, OpenOption...)}) is memory-mapped,
+     * and the catalog file written by the serialization in the old versions is also read.
+     *
      * @param path    the path for the catalog file.
      * @param options open option
      * @return catalog read from the path
@@ -363,11 +398,282 @@ public class RaypathCatalog implements Serializable {
      * @throws ClassNotFoundException if any
      */
     public static RaypathCatalog read(Path path, OpenOption... options) throws IOException, ClassNotFoundException {
+        if (isBinary(path)) return readBinary(path);
         try (ObjectInputStream oi = new ObjectInputStream(Files.newInputStream(path, options))) {
             return (RaypathCatalog) oi.readObject();
         }
     }
 
+    /**
+     * Reads a catalog for a default structure. The binary file ({@link #binaryPathOf(Path)}) is preferred.
+     * If it does not exist (or is broken), the file in the serialized form is read,
+     * and its binary copy is written so that it is read quickly next time.
+     * The serialized file is kept for the older versions sharing the directory.
+     *
+     * @param path the path for the catalog file in the serialized form
+     * @return catalog read from the path
+     * @throws IOException            if any
+     * @throws ClassNotFoundException if any
+     */
+    private static RaypathCatalog readDefault(Path path) throws IOException, ClassNotFoundException {
+        Path binaryPath = binaryPathOf(path);
+        if (Files.exists(binaryPath)) try {
+            return readBinary(binaryPath);
+        } catch (Exception e) {
+            System.err.println("Catalog " + binaryPath + " is broken and is written again.");
+            Files.deleteIfExists(binaryPath);
+        }
+        RaypathCatalog catalog = read(path);
+        try {
+            writeAtomically(catalog, binaryPath);
+        } catch (IOException e) {
+            System.err.println("Catalog " + path + " cannot be converted to the binary format.");
+        }
+        return catalog;
+    }
+
+    /**
+     * Writes the catalog in a temporary file in the same folder and moves it to the path atomically, so that
+     * other processes looking for catalogs in the folder never see a catalog being written.
+     *
+     * @param catalog to write
+     * @param path    of the catalog in the binary format
+     * @throws IOException if any
+     */
+    private static void writeAtomically(RaypathCatalog catalog, Path path) throws IOException {
+        Path tmpPath = Files.createTempFile(path.toAbsolutePath().getParent(), "raypath", ".tmp");
+        try {
+            catalog.write(tmpPath);
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    /**
+     * Identifier at the beginning of a catalog file in the binary format
+     */
+    private static final byte[] MAGIC = "ANISOCAT".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Version of the binary format. It must be increased when the format changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * [byte] length of the header (identifier, version, hashes of the structure and the mesh, and &delta;&Delta;)
+     */
+    private static final int HEADER_LENGTH = MAGIC.length + 4 + 32 + 32 + 8;
+    /**
+     * Kinds of the structure in a catalog file. The polynomial structure is written as its lines of the PSV
+     * structure file, and the others by the serialization.
+     */
+    private static final byte POLYNOMIAL_STRUCTURE = 0;
+    private static final byte SERIALIZED_STRUCTURE = 1;
+
+    /**
+     * @param path of a file
+     * @return if the file starts with {@link #MAGIC}
+     * @throws IOException if an I/O error occurs
+     */
+    private static boolean isBinary(Path path) throws IOException {
+        byte[] bytes = new byte[MAGIC.length];
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return inputStream.readNBytes(bytes, 0, bytes.length) == bytes.length && Arrays.equals(bytes, MAGIC);
+        }
+    }
+
+    /**
+     * Only the header of the file is read.
+     *
+     * @return if the binary catalog file is for the structure, mesh and dDelta
+     */
+    private static boolean matches(Path path, byte[] structureHash, byte[] meshHash, double dDelta)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (header.hasRemaining()) if (channel.read(header) < 0) return false;
+        }
+        header.position(MAGIC.length);
+        if (header.getInt() != FORMAT_VERSION) return false;
+        byte[] hash = new byte[32];
+        header.get(hash);
+        if (!Arrays.equals(hash, structureHash)) return false;
+        header.get(hash);
+        return Arrays.equals(hash, meshHash) && header.getDouble() == dDelta;
+    }
+
+    /**
+     * @return structure in the form written in a catalog file
+     */
+    private static byte[] toBytes(VelocityStructure structure) throws IOException {
+        if (structure instanceof PolynomialStructure)
+            return String.join("\n", ((PolynomialStructure) structure).toPSVlines()).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(structure);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return SHA-256 hash of the structure in the form written in a catalog file
+     */
+    private static byte[] hash(VelocityStructure structure) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(structure instanceof PolynomialStructure ? POLYNOMIAL_STRUCTURE : SERIALIZED_STRUCTURE);
+        return digest.digest(toBytes(structure));
+    }
+
+    /**
+     * @return SHA-256 hash of the radii of the mesh
+     */
+    private static byte[] hash(ComputationalMesh mesh) {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        for (Partition partition : MESH_PARTITIONS) {
+            double[] radii = mesh.getMesh(partition).toArray();
+            buffer.clear();
+            digest.update(buffer.putInt(radii.length).array(), 0, 4);
+            for (double r : radii) {
+                buffer.clear();
+                digest.update(buffer.putDouble(r).array());
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return hexadecimal SHA-256 hash of the structure, the mesh and &delta;&Delta; of this catalog, which identifies
+     * files derived from this catalog, e.g., {@link TravelTimeTable}.
+     */
+    String getIdentifier() {
+        MessageDigest digest = sha256();
+        try {
+            digest.update(hash(getStructure()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(hash(MESH));
+        digest.update(ByteBuffer.allocate(8).putDouble(MAXIMUM_D_DELTA).array());
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * Order of the partitions of the mesh in a catalog file
+     */
+    private static final Partition[] MESH_PARTITIONS = {Partition.INNERCORE, Partition.OUTERCORE, Partition.MANTLE};
+
+    /**
+     * The file is memory-mapped. The raypaths are created from their records without any computation, and they
+     * read &delta;&Delta; in the mantle from the mapped file only when it is needed.
+     *
+     * @param path of a catalog file in the binary format
+     * @return catalog in the file
+     * @throws IOException if the file is broken or in another version of the format
+     */
+    private static RaypathCatalog readBinary(Path path) throws IOException, ClassNotFoundException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.position(MAGIC.length);
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Catalog format version " + version + " is not supported (" + FORMAT_VERSION + ").");
+        byte[] structureHash = new byte[32];
+        buffer.get(structureHash);
+        buffer.position(buffer.position() + 32);
+        double dDelta = buffer.getDouble();
+
+        byte kind = buffer.get();
+        byte[] structureBytes = new byte[buffer.getInt()];
+        buffer.get(structureBytes);
+        VelocityStructure structure;
+        if (kind == POLYNOMIAL_STRUCTURE) structure = PolynomialStructure
+                .fromPSVlines(new String(structureBytes, StandardCharsets.UTF_8).split("\n"));
+        else try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(structureBytes))) {
+            structure = (VelocityStructure) ois.readObject();
+        }
+        if (!Arrays.equals(structureHash, hash(structure)))
+            throw new IOException("Structure in " + path + " is broken.");
+        double[][] radii = new double[MESH_PARTITIONS.length][];
+        for (int i = 0; i < radii.length; i++) {
+            radii[i] = new double[buffer.getInt()];
+            buffer.asDoubleBuffer().get(radii[i]);
+            buffer.position(buffer.position() + 8 * radii[i].length);
+        }
+        ComputationalMesh mesh = new ComputationalMesh(radii[0], radii[1], radii[2]);
+        RaypathCatalog catalog = new RaypathCatalog(structure, mesh, dDelta);
+
+        int nRaypath = buffer.getInt();
+        int recordLength = buffer.getInt();
+        if (recordLength != Raypath.recordLength(structure, mesh))
+            throw new IOException("Record length in " + path + " is invalid.");
+        DoubleBuffer rayParameters = buffer.asDoubleBuffer();
+        int recordStart = buffer.position() + 8 * nRaypath;
+        Raypath[] raypaths = new Raypath[nRaypath];
+        for (int i = 0; i < nRaypath; i++) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(recordStart + 8 * recordLength * i).limit(recordStart + 8 * recordLength * (i + 1));
+            raypaths[i] = new Raypath(rayParameters.get(i), catalog.WOODHOUSE, mesh, record.slice().asDoubleBuffer());
+        }
+        buffer.position(recordStart + 8 * recordLength * nRaypath);
+
+        catalog.raypathList.addAll(readRaypaths(buffer, raypaths));
+        catalog.pDiff = readRaypath(buffer, raypaths);
+        catalog.svDiff = readRaypath(buffer, raypaths);
+        catalog.shDiff = readRaypath(buffer, raypaths);
+        for (int i = buffer.getInt(); 0 < i; i--) {
+            double boundaryR = buffer.getDouble();
+            PhasePart pp = PhasePart.valueOf(readString(buffer));
+            catalog.reflectionCatalogs.add(catalog.new ReflectionCatalog(boundaryR, pp, readRaypaths(buffer, raypaths)));
+        }
+        for (int i = buffer.getInt(); 0 < i; i--) {
+            String name = readString(buffer);
+            Phase reference = Phase.create(name, buffer.get() != 0);
+            catalog.bounceCatalogs.add(catalog.new BounceCatalog(reference, readRaypaths(buffer, raypaths)));
+        }
+        return catalog;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutput output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static Raypath readRaypath(ByteBuffer buffer, Raypath[] raypaths) {
+        int i = buffer.getInt();
+        return i < 0 ? null : raypaths[i];
+    }
+
+    private static Set<Raypath> readRaypaths(ByteBuffer buffer, Raypath[] raypaths) {
+        Set<Raypath> set = new TreeSet<>();
+        for (int i = buffer.getInt(); 0 < i; i--) set.add(raypaths[buffer.getInt()]);
+        return set;
+    }
+
+    private static void writeRaypaths(DataOutput output, Collection<Raypath> raypaths, Map<Raypath, Integer> index)
+            throws IOException {
+        output.writeInt(raypaths.size());
+        for (Raypath raypath : raypaths) output.writeInt(index.get(raypath));
+    }
+
     /**
      * If an input angle is a radian for 370 deg, then one for 10 deg returns.
      * If an input angle is a radian for 190 deg, then one for 170 deg returns.
@@ -686,68 +992,97 @@ public class RaypathCatalog implements Serializable {
      */
     private final Set<ReflectionCatalog> reflectionCatalogs = new HashSet<>();
 
+    /**
+     * A branch of the catalog, i.e., raypaths of a phase in a range of ray parameters.
+     * The edges are computed independently of the other branches,
+     * then the raypaths between them are computed by {@link #catalogInBranch(Phase, Raypath, Raypath)}.
+     */
+    private static class Branch {
+        private final Phase PHASE;
+        private final Supplier<Raypath[]> EDGE_SUPPLIER;
+        private final Consumer<Set<Raypath>> REGISTER;
+        /**
+         * Raypaths with the minimum and the maximum ray parameters, or null if the branch has no raypath.
+         */
+        private Raypath[] edges;
+        private Set<Raypath> catalog = Collections.emptySet();
+
+        private Branch(Phase phase, Supplier<Raypath[]> edgeSupplier, Consumer<Set<Raypath>> register) {
+            PHASE = phase;
+            EDGE_SUPPLIER = edgeSupplier;
+            REGISTER = register;
+        }
+
+        /**
+         * @return if the ray parameter ranges (including the edges) overlap
+         */
+        private boolean overlaps(Branch other) {
+            return edges != null && other.edges != null &&
+                    edges[0].getRayParameter() <= other.edges[1].getRayParameter() &&
+                    other.edges[0].getRayParameter() <= edges[1].getRayParameter();
+        }
+    }
+
     /**
      * Bounce waves P, S, PKP, PKIKP... Each catalog has raypaths which bounce in a same layer in the structure.
+     *
+     * @return branches for the bounce waves
      */
-    private void catalogOfBounceWaves() {
+    private List<Branch> catalogOfBounceWaves() {
         Phase[] targetPhases = new Phase[]{Phase.P, Phase.S, Phase.SV, Phase.PKP, Phase.SKS, Phase.PKIKP, Phase.SKIKS};
-        long t = System.nanoTime();
-        for (Phase targetPhase : targetPhases) {
-            List<Double[]> edgeList = computeRaypameterEdge(targetPhase);
-            System.err.print("\rCreating a catalog for " + targetPhase);
-            for (Double[] edges : edgeList)
-                bounceCatalogs.add(new BounceCatalog(targetPhase, computeRaypaths(targetPhase, edges[0], edges[1])));
-        }
-        System.err.println(
-                "\rCreating catalogs for bouncing waves done in " + Utilities.toTimeString(System.nanoTime() - t));
+        List<Branch> branches = new ArrayList<>();
+        for (Phase targetPhase : targetPhases)
+            for (Double[] edges : computeRaypameterEdge(targetPhase))
+                branches.add(new Branch(targetPhase, () -> computeEdges(targetPhase, edges[0], edges[1]),
+                        set -> bounceCatalogs.add(new BounceCatalog(targetPhase, set))));
+        return branches;
     }
 
     /**
      * @param boundaryR radius at a target jump
      * @param phase     target {@link Phase}
      * @param calcV     to compute a velocity
-     * @return Set of {@link Raypath}s which has a reflecting raypath of the phase.
-     * If no raypaths found, it returns an empty set(not null).
+     * @return edges of {@link Raypath}s which has a reflecting raypath of the phase.
+     * If no raypaths found, it returns null.
      */
-    private Set<Raypath> computeReflectingRaypaths(double boundaryR, Phase phase, DoubleUnaryOperator calcV) {
+    private Raypath[] computeReflectingEdges(double boundaryR, Phase phase, DoubleUnaryOperator calcV) {
         Raypath[] edgeRaypaths = getEdgeRaypathsInPRangeForRelectingRaypaths(boundaryR, phase, calcV);
-        if (Objects.isNull(edgeRaypaths[0]) && Objects.isNull(edgeRaypaths[1])) return Collections.emptySet();
+        if (Objects.isNull(edgeRaypaths[0]) && Objects.isNull(edgeRaypaths[1])) return null;
         else if (Objects.isNull(edgeRaypaths[0]) || Objects.isNull(edgeRaypaths[1]))
             throw new RuntimeException("UNEXPECTED " + phase + " reflecting at " + boundaryR);
-        return catalogInBranch(phase, edgeRaypaths[0], edgeRaypaths[1]);
+        return edgeRaypaths;
     }
 
     /**
      * Reflection waves PcP, ScS(SV/SH), PvXXXP and SvXXXP(SV/SH).
      * XXX should be one of the velocity boundaries in the structure.
      * TODO waves reflecting beneath CMB i.e. XXX is inside the core.
+     *
+     * @return branches for the reflection waves
      */
-    private void catalogOfReflections() {
+    private List<Branch> catalogOfReflections() {
+        List<Branch> branches = new ArrayList<>();
         //mantle
         double[] mantleBoundaries = getStructure().boundariesInMantle();
         DoubleUnaryOperator computeVph = getStructure()::computeVph;
         DoubleUnaryOperator computeVsv = getStructure()::computeVsv;
         DoubleUnaryOperator computeVsh = getStructure()::computeVsh;
-        long t = System.nanoTime();
         for (double mantleBoundary : mantleBoundaries) {
             if (mantleBoundary == getStructure().coreMantleBoundary() || !getStructure().isJump(mantleBoundary))
                 continue;
-            System.err.print("Creating a catalog for the boundary at " + mantleBoundary);
             String depthString = String.valueOf(Precision.round(getStructure().earthRadius() - mantleBoundary, 4));
-            System.err.print(" for P ..");
             //P
-            reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.P,
-                    computeReflectingRaypaths(mantleBoundary, Phase.create("Pv" + depthString + "P"), computeVph)));
-            System.err.print(" SV ..");
+            Phase p = Phase.create("Pv" + depthString + "P");
+            branches.add(new Branch(p, () -> computeReflectingEdges(mantleBoundary, p, computeVph),
+                    set -> reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.P, set))));
             //SV
-            reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.SV,
-                    computeReflectingRaypaths(mantleBoundary, Phase.create("Sv" + depthString + "S", true),
-                            computeVsv)));
-            System.err.print(" SH ..");
+            Phase sv = Phase.create("Sv" + depthString + "S", true);
+            branches.add(new Branch(sv, () -> computeReflectingEdges(mantleBoundary, sv, computeVsv),
+                    set -> reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.SV, set))));
             //SH
-            reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.SH,
-                    computeReflectingRaypaths(mantleBoundary, Phase.create("Sv" + depthString + "S"), computeVsh)));
-            System.err.print("\r");
+            Phase sh = Phase.create("Sv" + depthString + "S");
+            branches.add(new Branch(sh, () -> computeReflectingEdges(mantleBoundary, sh, computeVsh),
+                    set -> reflectionCatalogs.add(new ReflectionCatalog(mantleBoundary, PhasePart.SH, set))));
         }
         //inside outercore innercore TODO
 
@@ -757,19 +1092,21 @@ public class RaypathCatalog implements Serializable {
         double pPcP = lowerMostMantle / getStructure().computeVph(lowerMostMantle);
         double pSVcS = lowerMostMantle / getStructure().computeVsv(lowerMostMantle);
         double pScS = lowerMostMantle / getStructure().computeVsh(lowerMostMantle);
-        System.err.print("Creating a catalog for CMB");
-        reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.P, computeRaypaths(Phase.PcP, 0, pPcP)));
-        reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.SV, computeRaypaths(Phase.SVcS, 0, pSVcS)));
-        reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.SH, computeRaypaths(Phase.ScS, 0, pScS)));
+        branches.add(new Branch(Phase.PcP, () -> computeEdges(Phase.PcP, 0, pPcP),
+                set -> reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.P, set))));
+        branches.add(new Branch(Phase.SVcS, () -> computeEdges(Phase.SVcS, 0, pSVcS),
+                set -> reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.SV, set))));
+        branches.add(new Branch(Phase.ScS, () -> computeEdges(Phase.ScS, 0, pScS),
+                set -> reflectionCatalogs.add(new ReflectionCatalog(cmb, PhasePart.SH, set))));
         //ICB PKiKP SKiKS
-        System.err.print("\rCreating a catalog for ICB");
         double icb = getStructure().innerCoreBoundary();
         double loweMostOutercore = icb + ComputationalMesh.EPS;
         double pPKiKP = loweMostOutercore / getStructure().computeVph(loweMostOutercore);
-        reflectionCatalogs.add(new ReflectionCatalog(icb, PhasePart.K, computeRaypaths(Phase.PKiKP, 0, pPKiKP)));
-        reflectionCatalogs.add(new ReflectionCatalog(icb, PhasePart.K, computeRaypaths(Phase.SKiKS, 0, pPKiKP)));
-        System.err
-                .println("\rCatalogs for boundaries are computed in " + Utilities.toTimeString(System.nanoTime() - t));
+        branches.add(new Branch(Phase.PKiKP, () -> computeEdges(Phase.PKiKP, 0, pPKiKP),
+                set -> reflectionCatalogs.add(new ReflectionCatalog(icb, PhasePart.K, set))));
+        branches.add(new Branch(Phase.SKiKS, () -> computeEdges(Phase.SKiKS, 0, pPKiKP),
+                set -> reflectionCatalogs.add(new ReflectionCatalog(icb, PhasePart.K, set))));
+        return branches;
     }
 
     /**
@@ -795,17 +1132,75 @@ public class RaypathCatalog implements Serializable {
      * when running into a ray path with all NaN. what should we do.
      */
     private void create() {
+        create(true);
+    }
+
+    /**
+     * Computes a catalog which is neither stored nor looked up in the share directory.
+     *
+     * @param structure  for computation of raypaths
+     * @param mesh       for computation of raypaths
+     * @param dDelta     &delta;&Delta; [rad] for creation of a catalog
+     * @param concurrent if the branches are computed concurrently
+     * @return the computed catalog
+     */
+    static RaypathCatalog compute(VelocityStructure structure, ComputationalMesh mesh, double dDelta,
+                                  boolean concurrent) {
+        RaypathCatalog catalog = new RaypathCatalog(structure, mesh, dDelta);
+        catalog.create(concurrent);
+        return catalog;
+    }
+
+    /**
+     * @param concurrent if the branches are computed concurrently, otherwise one by one in the order
+     */
+    private void create(boolean concurrent) {
         // Compute raparameters for diffration phases.
         long time = System.nanoTime();
         System.err.println("Computing a catalog. If you use the same model, the catalog is not computed anymore.");
         Raypath firstPath = new Raypath(0, WOODHOUSE, MESH);
         raypathList.add(firstPath);
-        catalogOfReflections();
-        catalogOfBounceWaves();
+        List<Branch> branches = catalogOfReflections();
+        branches.addAll(catalogOfBounceWaves());
+        if (concurrent) computeBranches(branches);
+        else branches.forEach(branch -> {
+            branch.edges = branch.EDGE_SUPPLIER.get();
+            if (branch.edges != null) branch.catalog = catalogInBranch(branch.PHASE, branch.edges[0], branch.edges[1]);
+        });
+        branches.forEach(branch -> branch.REGISTER.accept(branch.catalog));
         computeDiffraction();
         System.err.println("A catalog was made in " + Utilities.toTimeString(System.nanoTime() - time));
     }
 
+    /**
+     * Computes the branches concurrently. The result is identical to computing them one by one in the order.
+     * A branch uses raypaths of the preceding branches in its range of ray parameters,
+     * therefore it waits for the preceding branches overlapping with it, and the others run concurrently.
+     *
+     * @param branches in the order of the serial computation
+     */
+    private void computeBranches(List<Branch> branches) {
+        long t = System.nanoTime();
+        branches.parallelStream().forEach(branch -> branch.edges = branch.EDGE_SUPPLIER.get());
+        System.err.println("Edges of " + branches.size() + " branches are computed in " +
+                Utilities.toTimeString(System.nanoTime() - t));
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        AtomicInteger nDone = new AtomicInteger();
+        for (int i = 0; i < branches.size(); i++) {
+            Branch branch = branches.get(i);
+            CompletableFuture<?>[] dependencies = IntStream.range(0, i).filter(j -> branches.get(j).overlaps(branch))
+                    .mapToObj(futures::get).toArray(CompletableFuture<?>[]::new);
+            futures.add(CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                if (branch.edges != null)
+                    branch.catalog = catalogInBranch(branch.PHASE, branch.edges[0], branch.edges[1]);
+                System.err.print("\rCreating catalogs for branches " + nDone.incrementAndGet() + "/" +
+                        branches.size());
+            }, ForkJoinPool.commonPool()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        System.err.println("\rCatalogs for branches are computed in " + Utilities.toTimeString(System.nanoTime() - t));
+    }
+
     /**
      * If any of Raypaths has NaN for Phase 'p', the condition becomes true.
      *
@@ -878,42 +1273,47 @@ public class RaypathCatalog implements Serializable {
         BiPredicate<Raypath, Raypath> closeEnough = simplePredicate(phase, MAXIMUM_D_DELTA);
         BinaryOperator<Raypath> centerRayparameterRaypath =
                 (r1, r2) -> new Raypath((r1.getRayParameter() + r2.getRayParameter()) / 2, WOODHOUSE, MESH);
-        raypathList.add(startRaypath);
-        raypathList.add(endRaypath);
         //copy from main
-        raypathList.stream().filter(r -> startRaypath.getRayParameter() <= r.getRayParameter() &&
-                r.getRayParameter() <= endRaypath.getRayParameter()).forEach(catalog::add);
-        List<Raypath> supplementList = new ArrayList<>();
+        synchronized (raypathList) {
+            raypathList.add(startRaypath);
+            raypathList.add(endRaypath);
+            raypathList.stream().filter(r -> startRaypath.getRayParameter() <= r.getRayParameter() &&
+                    r.getRayParameter() <= endRaypath.getRayParameter()).forEach(catalog::add);
+        }
+        List<Raypath[]> pairs = new ArrayList<>();
+        List<Raypath> supplementList;
         do {
-            supplementList.clear();
-            for (Raypath raypath = catalog.first(); raypath != catalog.last(); raypath = catalog.higher(raypath)) {
-                Raypath higher = catalog.higher(raypath);
-                if (closeEnough.test(raypath, higher)) continue;
-                supplementList.add(centerRayparameterRaypath.apply(raypath, higher));
-            }
+            pairs.clear();
+            for (Raypath raypath = catalog.first(); raypath != catalog.last(); raypath = catalog.higher(raypath))
+                pairs.add(new Raypath[]{raypath, catalog.higher(raypath)});
+            // midpoints in a round are independent of each other
+            supplementList = pairs.parallelStream().filter(pair -> !closeEnough.test(pair[0], pair[1]))
+                    .map(pair -> centerRayparameterRaypath.apply(pair[0], pair[1])).collect(Collectors.toList());
         } while (catalog.addAll(supplementList));
-        raypathList.addAll(catalog);
+        synchronized (raypathList) {
+            raypathList.addAll(catalog);
+        }
         return catalog;
     }
 
     /**
-     * Computes rayParameters with rayparameters between input 2 values.
+     * Computes the edges of a branch with rayparameters between input 2 values.
      * The range is set [min of them, max of them].
      *
      * @param targetPhase   target phase
      * @param rayParameter1 min/maximum of the range
      * @param rayParameter2 min/maximum of the range
-     * @return Raypaths with a rayparameter range, which have $Delta;s for the input targetPhase.
-     * The &Delta;s satisfy the condition of {@link #MAXIMUM_D_DELTA}. Never returns null, but emptySet.
+     * @return Raypaths with the minimum and maximum ray parameters in the range, which have &Delta;s for the
+     * input targetPhase, or null if there are no such raypaths.
      */
-    private Set<Raypath> computeRaypaths(Phase targetPhase, double rayParameter1, double rayParameter2) {
+    private Raypath[] computeEdges(Phase targetPhase, double rayParameter1, double rayParameter2) {
         double startP = Math.min(rayParameter1, rayParameter2);
         double endP = Math.max(rayParameter1, rayParameter2);
         Raypath[] edgeRaypaths = adjustRaypathRange(targetPhase, startP, endP);
-        if (Objects.isNull(edgeRaypaths[0]) && Objects.isNull(edgeRaypaths[1])) return Collections.emptySet();
+        if (Objects.isNull(edgeRaypaths[0]) && Objects.isNull(edgeRaypaths[1])) return null;
         else if (Objects.isNull(edgeRaypaths[0]) || Objects.isNull(edgeRaypaths[1]))
             throw new RuntimeException("UNEXPECTED " + targetPhase + " in " + startP + " " + endP);
-        return catalogInBranch(targetPhase, edgeRaypaths[0], edgeRaypaths[1]);
+        return edgeRaypaths;
     }
 
 
@@ -1048,13 +1448,90 @@ public class RaypathCatalog implements Serializable {
     }
 
     /**
-     * @param path    the path to the write file
-     * @param options if any
+     * Writes the catalog in the binary format. All the values are in big-endian.
+     * <ul>
+     * <li>header: "ANISOCAT", format version (int), SHA-256 hashes of the structure and the mesh (32 bytes each)
+     * and &delta;&Delta; (double)</li>
+     * <li>structure: kind (byte), length (int) and the lines of the PSV structure file (UTF-8),
+     * or the serialized structure if it is not polynomial</li>
+     * <li>mesh: the number of radii (int) and the radii (double) for the inner-core, outer-core and mantle</li>
+     * <li>raypaths: the number of raypaths n (int), the length of a record m (int), n ray parameters (double)
+     * and n records of m doubles (see {@link Raypath#writeRecord(DataOutput)})</li>
+     * <li>indices (int) of the raypaths in the catalog and of Pdiff, SVdiff and SHdiff (-1 if absent)</li>
+     * <li>reflection catalogs: the number of them (int), then the boundary radius (double), phase part and indices
+     * of the raypaths for each</li>
+     * <li>bounce catalogs: the number of them (int), then the reference phase, if it is P-SV (byte) and indices
+     * of the raypaths for each</li>
+     * </ul>
+     * Strings are written as their length (int) followed by UTF-8 bytes,
+     * and a set of indices as its size (int) followed by the indices.
+     * A catalog file does not depend on the classes, so it can be read after they change as long as the version of
+     * the format is the same.
+     *
+     * @param path    the path for the catalog file.
+     * @param options open option
      * @throws IOException If an I/O error happens. it throws error.
      */
     public void write(Path path, OpenOption... options) throws IOException {
-        try (ObjectOutputStream o = new ObjectOutputStream(Files.newOutputStream(path, options))) {
-            o.writeObject(this);
+        Map<Raypath, Integer> index = new HashMap<>();
+        List<Raypath> raypaths = new ArrayList<>();
+        Consumer<Raypath> register = raypath -> {
+            if (raypath != null && !index.containsKey(raypath)) {
+                index.put(raypath, raypaths.size());
+                raypaths.add(raypath);
+            }
+        };
+        // the catalogs are in hash sets, so they are sorted for the file to be determined by the content.
+        List<ReflectionCatalog> reflectionCatalogs = new ArrayList<>(this.reflectionCatalogs);
+        reflectionCatalogs.sort(Comparator.<ReflectionCatalog>comparingDouble(catalog -> catalog.BOUNDARY_R)
+                .thenComparing(catalog -> catalog.PP));
+        List<BounceCatalog> bounceCatalogs = new ArrayList<>(this.bounceCatalogs);
+        bounceCatalogs.sort(Comparator.<BounceCatalog, String>comparing(catalog -> catalog.REFERENCE_PHASE.toString())
+                .thenComparing(catalog -> catalog.REFERENCE_PHASE.isPSV()).thenComparingDouble(catalog -> catalog.CATALOG.isEmpty() ? Double.NaN :
+                        catalog.CATALOG.iterator().next().getRayParameter()));
+        raypathList.forEach(register);
+        Arrays.asList(pDiff, svDiff, shDiff).forEach(register);
+        reflectionCatalogs.forEach(reflectionCatalog -> reflectionCatalog.CATALOG.forEach(register));
+        bounceCatalogs.forEach(bounceCatalog -> bounceCatalog.CATALOG.forEach(register));
+
+        VelocityStructure structure = getStructure();
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path, options)))) {
+            dos.write(MAGIC);
+            dos.writeInt(FORMAT_VERSION);
+            dos.write(hash(structure));
+            dos.write(hash(MESH));
+            dos.writeDouble(MAXIMUM_D_DELTA);
+
+            byte[] structureBytes = toBytes(structure);
+            dos.writeByte(structure instanceof PolynomialStructure ? POLYNOMIAL_STRUCTURE : SERIALIZED_STRUCTURE);
+            dos.writeInt(structureBytes.length);
+            dos.write(structureBytes);
+            for (Partition partition : MESH_PARTITIONS) {
+                double[] radii = MESH.getMesh(partition).toArray();
+                dos.writeInt(radii.length);
+                for (double r : radii) dos.writeDouble(r);
+            }
+
+            dos.writeInt(raypaths.size());
+            dos.writeInt(Raypath.recordLength(structure, MESH));
+            for (Raypath raypath : raypaths) dos.writeDouble(raypath.getRayParameter());
+            for (Raypath raypath : raypaths) raypath.writeRecord(dos);
+
+            writeRaypaths(dos, raypathList, index);
+            for (Raypath diff : new Raypath[]{pDiff, svDiff, shDiff}) dos.writeInt(diff == null ? -1 : index.get(diff));
+            dos.writeInt(reflectionCatalogs.size());
+            for (ReflectionCatalog reflectionCatalog : reflectionCatalogs) {
+                dos.writeDouble(reflectionCatalog.BOUNDARY_R);
+                writeString(dos, reflectionCatalog.PP.name());
+                writeRaypaths(dos, reflectionCatalog.CATALOG, index);
+            }
+            dos.writeInt(bounceCatalogs.size());
+            for (BounceCatalog bounceCatalog : bounceCatalogs) {
+                writeString(dos, bounceCatalog.REFERENCE_PHASE.toString());
+                dos.writeByte(bounceCatalog.REFERENCE_PHASE.isPSV() ? 1 : 0);
+                writeRaypaths(dos, bounceCatalog.CATALOG, index);
+            }
         }
     }
 
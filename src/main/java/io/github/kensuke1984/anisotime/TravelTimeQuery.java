@@ -0,0 +1,315 @@
+package io.github.kensuke1984.anisotime;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Batch queries of travel times for many (event radius, &Delta;, phase) with a {@link RaypathCatalog}.
+ * <p>
+ * For each pair of a phase and an event radius, &Delta;, T and the deepest radius of all the raypaths in the catalog
+ * are computed once and cached as an interpolant. A query finds every pair of adjacent raypaths whose &Delta;s
+ * bracket the target &Delta;, so a triplication gives multiple arrivals. In each bracket, T is interpolated by the
+ * cubic Hermite interpolation with dT/d&Delta; = p at both ends, and p and the deepest radius are interpolated
+ * linearly. Hence no raypath is computed for a query.
+ * <p>
+ * Queries for a pair are sorted by &Delta; and swept, so that the brackets found for a query are reused for the
+ * next one. Pairs are processed in parallel. Diffracted phases are searched in the catalog one by one.
+ * <p>
+ * An interpolant is for the exact event radius, so every new radius costs one pass over the catalog.
+ * The queries should share event radii as much as possible (e.g. depths rounded by the users).
+ * Only the recently used interpolants (at most the capacity) are kept.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+public class TravelTimeQuery {
+
+    private static final Arrival[] EMPTY_ARRIVAL = new Arrival[0];
+
+    private final RaypathCatalog CATALOG;
+    /**
+     * Raypaths in the catalog in order by the ray parameter
+     */
+    private final Raypath[] RAYPATHS;
+    /**
+     * Default number of the cached interpolants
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+    /**
+     * Cached interpolants in order by access
+     */
+    private final Map<Key, Interpolant> interpolants;
+
+    /**
+     * @param catalog in which raypaths are searched
+     */
+    public TravelTimeQuery(RaypathCatalog catalog) {
+        this(catalog, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param catalog  in which raypaths are searched
+     * @param capacity the maximum number of the cached interpolants. When it is exceeded,
+     *                 the least recently used one is removed.
+     */
+    public TravelTimeQuery(RaypathCatalog catalog, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("The capacity must be positive.");
+        CATALOG = catalog;
+        RAYPATHS = catalog.getRaypaths();
+        interpolants = Collections.synchronizedMap(new LinkedHashMap<Key, Interpolant>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Interpolant> eldest) {
+                return capacity < size();
+            }
+        });
+    }
+
+    /**
+     * An arrival of a phase.
+     * This class is <b>IMMUTABLE</b>.
+     */
+    public static class Arrival {
+        private final Phase PHASE;
+        private final double DELTA;
+        private final double TRAVEL_TIME;
+        private final double RAY_PARAMETER;
+        private final double DEEPEST_R;
+
+        private Arrival(Phase phase, double delta, double travelTime, double rayParameter, double deepestR) {
+            PHASE = phase;
+            DELTA = delta;
+            TRAVEL_TIME = travelTime;
+            RAY_PARAMETER = rayParameter;
+            DEEPEST_R = deepestR;
+        }
+
+        /**
+         * @return phase of the arrival. For a diffracted phase, it has the length of the diffraction.
+         */
+        public Phase getPhase() {
+            return PHASE;
+        }
+
+        /**
+         * @return [rad] &Delta;
+         */
+        public double getDelta() {
+            return DELTA;
+        }
+
+        /**
+         * @return [s] travel time
+         */
+        public double getTravelTime() {
+            return TRAVEL_TIME;
+        }
+
+        /**
+         * @return [s/rad] ray parameter, which is dT/d&Delta;
+         */
+        public double getRayParameter() {
+            return RAY_PARAMETER;
+        }
+
+        /**
+         * @return [km] radius of the deepest point, i.e., the turning point or the reflection point
+         */
+        public double getDeepestR() {
+            return DEEPEST_R;
+        }
+
+        @Override
+        public String toString() {
+            return PHASE + " " + Math.toDegrees(DELTA) + " " + TRAVEL_TIME + " " + Math.toRadians(RAY_PARAMETER) +
+                    " " + DEEPEST_R;
+        }
+    }
+
+    /**
+     * @param phase  target phase
+     * @param eventR [km] radius of the event
+     * @param delta  [rad] epicentral distance
+     * @return arrivals in order by the ray parameter. Never returns null. zero length array is possible.
+     */
+    public Arrival[] compute(Phase phase, double eventR, double delta) {
+        return compute(new Phase[]{phase}, new double[]{eventR}, new double[]{delta})[0];
+    }
+
+    /**
+     * The i-th query is for phases[i], eventR[i] and deltas[i].
+     *
+     * @param phases target phases
+     * @param eventR [km] radii of the events
+     * @param deltas [rad] epicentral distances
+     * @return arrivals for each query in order by the ray parameter. Never returns null.
+     */
+    public Arrival[][] compute(Phase[] phases, double[] eventR, double[] deltas) {
+        if (phases.length != eventR.length || phases.length != deltas.length)
+            throw new IllegalArgumentException("The numbers of phases, event radii and distances are different.");
+        Map<Key, List<Integer>> queryMap = new HashMap<>();
+        for (int i = 0; i < phases.length; i++) {
+            if (deltas[i] < 0) throw new IllegalArgumentException("A delta must be non-negative.");
+            queryMap.computeIfAbsent(new Key(phases[i], eventR[i]), key -> new ArrayList<>()).add(i);
+        }
+        Arrival[][] arrivals = new Arrival[phases.length][];
+        queryMap.entrySet().parallelStream().forEach(entry -> {
+            Key key = entry.getKey();
+            int[] queries = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            if (key.PHASE.isDiffracted())
+                for (int i : queries) arrivals[i] = computeDiffracted(key.PHASE, key.EVENT_R, deltas[i]);
+            else interpolantOf(key).compute(queries, deltas, arrivals);
+        });
+        return arrivals;
+    }
+
+    /**
+     * The interpolant is created out of the lock of the cache, so that the pairs are processed in parallel.
+     *
+     * @param key phase and event radius
+     * @return the cached interpolant or a new one which is cached
+     */
+    private Interpolant interpolantOf(Key key) {
+        Interpolant interpolant = interpolants.get(key);
+        if (interpolant != null) return interpolant;
+        interpolant = new Interpolant(key);
+        interpolants.put(key, interpolant);
+        return interpolant;
+    }
+
+    private Arrival[] computeDiffracted(Phase phase, double eventR, double delta) {
+        Raypath[] raypaths = CATALOG.searchPath(phase, eventR, delta, false);
+        if (raypaths.length == 0) return EMPTY_ARRIVAL;
+        Raypath raypath = raypaths[0];
+        double deltaOnBoundary = Math.toDegrees(delta - raypath.computeDelta(phase, eventR));
+        if (deltaOnBoundary < 0) return EMPTY_ARRIVAL;
+        Phase actualPhase = Phase.create(phase.toString() + deltaOnBoundary, phase.isPSV());
+        return new Arrival[]{new Arrival(actualPhase, delta, raypath.computeT(actualPhase, eventR),
+                raypath.getRayParameter(), raypath.computeDeepestR(actualPhase, eventR))};
+    }
+
+    /**
+     * @return the number of cached interpolants
+     */
+    public int getNumberOfInterpolants() {
+        return interpolants.size();
+    }
+
+    private static class Key {
+        private final Phase PHASE;
+        private final double EVENT_R;
+
+        private Key(Phase phase, double eventR) {
+            PHASE = phase;
+            EVENT_R = eventR;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Double.compare(key.EVENT_R, EVENT_R) == 0 && PHASE.equals(key.PHASE);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(PHASE, EVENT_R);
+        }
+    }
+
+    /**
+     * &Delta;, T and the deepest radius of all the raypaths in the catalog for a phase and an event radius.
+     */
+    private class Interpolant {
+        private final Phase PHASE;
+        private final double[] P;
+        private final double[] DELTA;
+        private final double[] T;
+        private final double[] DEEPEST_R;
+        /**
+         * Brackets i, i.e., pairs of the raypaths i and i+1 which both exist, in order by their minimum &Delta;s.
+         */
+        private final int[] BRACKETS;
+
+        private Interpolant(Key key) {
+            PHASE = key.PHASE;
+            int n = RAYPATHS.length;
+            P = new double[n];
+            DELTA = new double[n];
+            T = new double[n];
+            DEEPEST_R = new double[n];
+            IntStream.range(0, n).parallel().forEach(i -> {
+                Raypath raypath = RAYPATHS[i];
+                P[i] = raypath.getRayParameter();
+                DELTA[i] = raypath.computeDelta(PHASE, key.EVENT_R);
+                T[i] = raypath.computeT(PHASE, key.EVENT_R);
+                DEEPEST_R[i] = Double.isNaN(DELTA[i]) ? Double.NaN : raypath.computeDeepestR(PHASE, key.EVENT_R);
+            });
+            BRACKETS = IntStream.range(0, n - 1)
+                    .filter(i -> !Double.isNaN(DELTA[i] + DELTA[i + 1] + T[i] + T[i + 1]) && P[i] < P[i + 1])
+                    .boxed().sorted(Comparator.comparingDouble(this::lower)).mapToInt(Integer::intValue).toArray();
+        }
+
+        private double lower(int bracket) {
+            return Math.min(DELTA[bracket], DELTA[bracket + 1]);
+        }
+
+        private double upper(int bracket) {
+            return Math.max(DELTA[bracket], DELTA[bracket + 1]);
+        }
+
+        /**
+         * The queries are swept in order by &Delta;. Brackets enter when their lower ends are passed
+         * and leave when their upper ends are passed.
+         *
+         * @param queries  indices of the queries
+         * @param deltas   [rad] &Delta; of all the queries
+         * @param arrivals to put the arrivals of the queries in
+         */
+        private void compute(int[] queries, double[] deltas, Arrival[][] arrivals) {
+            int[] order = Arrays.stream(queries).boxed().sorted(Comparator.comparingDouble(i -> deltas[i]))
+                    .mapToInt(Integer::intValue).toArray();
+            PriorityQueue<Integer> active = new PriorityQueue<>(Comparator.comparingDouble(this::upper));
+            int next = 0;
+            for (int query : order) {
+                double delta = deltas[query];
+                while (next < BRACKETS.length && lower(BRACKETS[next]) <= delta) active.add(BRACKETS[next++]);
+                while (!active.isEmpty() && upper(active.peek()) < delta) active.poll();
+                arrivals[query] = active.stream().sorted().map(bracket -> interpolate(bracket, delta))
+                        .filter(distinctRayParameter()).toArray(Arrival[]::new);
+            }
+        }
+
+        /**
+         * @return filter for arrivals in order by the ray parameter, which removes the same arrival from the two
+         * brackets sharing the raypath at the target &Delta;
+         */
+        private Predicate<Arrival> distinctRayParameter() {
+            double[] last = {Double.NaN};
+            return arrival -> {
+                boolean distinct = arrival.RAY_PARAMETER != last[0];
+                last[0] = arrival.RAY_PARAMETER;
+                return distinct;
+            };
+        }
+
+        private Arrival interpolate(int bracket, double delta) {
+            int j = bracket + 1;
+            double h = DELTA[j] - DELTA[bracket];
+            if (h == 0) return new Arrival(PHASE, delta, T[bracket], P[bracket], DEEPEST_R[bracket]);
+            double t = (delta - DELTA[bracket]) / h;
+            if (t == 1) return new Arrival(PHASE, delta, T[j], P[j], DEEPEST_R[j]);
+            // cubic Hermite basis
+            double t2 = t * t;
+            double t3 = t2 * t;
+            double time = (2 * t3 - 3 * t2 + 1) * T[bracket] + (t3 - 2 * t2 + t) * h * P[bracket] +
+                    (-2 * t3 + 3 * t2) * T[j] + (t3 - t2) * h * P[j];
+            return new Arrival(PHASE, delta, time, P[bracket] + t * (P[j] - P[bracket]),
+                    DEEPEST_R[bracket] + t * (DEEPEST_R[j] - DEEPEST_R[bracket]));
+        }
+    }
+
+}
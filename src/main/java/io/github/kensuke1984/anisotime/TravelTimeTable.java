@@ -0,0 +1,498 @@
+package io.github.kensuke1984.anisotime;
+
+import io.github.kensuke1984.kibrary.Environment;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Table of T(&Delta;) and p(&Delta;) of a phase for fixed event radii, made from a {@link RaypathCatalog}.
+ * <p>
+ * For each event radius, the raypaths in the catalog are divided into branches in which &Delta; is monotone in p,
+ * so a triplication gives multiple branches. Each branch is sampled at every &delta;&Delta; and at its both ends.
+ * T is interpolated by the cubic Hermite interpolation with dT/d&Delta; = p, and p is interpolated by the monotone
+ * piecewise cubic Hermite interpolation (Fritsch and Butland, 1984). A query is a binary search in each branch.
+ * A branch whose &Delta; does not change (e.g. a single raypath between two NaN ones) is not tabulated.
+ * <p>
+ * The error bound of each branch is the maximum difference of T from the direct integration for raypaths
+ * at the midpoints of some intervals.
+ * <p>
+ * Tables are stored in KibraryHOME/share, and {@link #of(RaypathCatalog, Phase, double[], double)} returns
+ * the stored one if it exists.
+ * <p>
+ * This class is <b>IMMUTABLE</b>.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ * @see <a href=https://doi.org/10.1137/0905021>Fritsch and Butland, 1984</a>
+ */
+public class TravelTimeTable {
+
+    private static final byte[] MAGIC = "ANISOTTT".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * The maximum number of raypaths computed for the error bound of a branch
+     */
+    private static final int N_CHECK = 16;
+
+    private final String CATALOG_ID;
+    private final Phase PHASE;
+    private final double D_DELTA;
+    /**
+     * [km] in ascending order
+     */
+    private final double[] EVENT_R;
+    /**
+     * BRANCHES[i] are branches for EVENT_R[i] in order by p.
+     */
+    private final Branch[][] BRANCHES;
+
+    private TravelTimeTable(String catalogID, Phase phase, double dDelta, double[] eventR, Branch[][] branches) {
+        CATALOG_ID = catalogID;
+        PHASE = phase;
+        D_DELTA = dDelta;
+        EVENT_R = eventR;
+        BRANCHES = branches;
+    }
+
+    /**
+     * If a table for the input exists in KibraryHOME/share, it is read, otherwise it is created and stored there.
+     *
+     * @param catalog to make the table from
+     * @param phase   target phase. It must not be diffracted.
+     * @param eventR  [km] radii of events
+     * @param dDelta  [rad] interval of &Delta;
+     * @return table for the input
+     */
+    public static TravelTimeTable of(RaypathCatalog catalog, Phase phase, double[] eventR, double dDelta) {
+        double[] radii = Arrays.stream(eventR).sorted().distinct().toArray();
+        String catalogID = catalog.getIdentifier();
+        Path path = Environment.KIBRARY_SHARE.resolve(fileNameOf(catalogID, phase, radii, dDelta));
+        if (Files.exists(path)) try {
+            TravelTimeTable table = read(path);
+            if (table.CATALOG_ID.equals(catalogID) && table.PHASE.equals(phase) && table.D_DELTA == dDelta &&
+                    Arrays.equals(table.EVENT_R, radii)) return table;
+        } catch (Exception e) {
+            System.err.println(path + " is broken. It is created again.");
+        }
+        TravelTimeTable table = create(catalog, phase, radii, dDelta);
+        try {
+            Path tmpPath = Files.createTempFile(Environment.KIBRARY_SHARE, "ttt", ".tmp");
+            table.write(tmpPath);
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return table;
+    }
+
+    /**
+     * Creates a table without looking for a stored one.
+     *
+     * @param catalog to make the table from
+     * @param phase   target phase. It must not be diffracted.
+     * @param eventR  [km] radii of events
+     * @param dDelta  [rad] interval of &Delta;
+     * @return table for the input
+     */
+    public static TravelTimeTable create(RaypathCatalog catalog, Phase phase, double[] eventR, double dDelta) {
+        if (phase.isDiffracted()) throw new IllegalArgumentException("Diffracted phases are not tabulated. " + phase);
+        if (!(0 < dDelta)) throw new IllegalArgumentException("dDelta must be positive. " + dDelta);
+        double[] radii = Arrays.stream(eventR).sorted().distinct().toArray();
+        Branch[][] branches = new Branch[radii.length][];
+        for (int i = 0; i < radii.length; i++)
+            branches[i] = createBranches(catalog, phase, radii[i], dDelta);
+        return new TravelTimeTable(catalog.getIdentifier(), phase, dDelta, radii, branches);
+    }
+
+    private static Branch[] createBranches(RaypathCatalog catalog, Phase phase, double eventR, double dDelta) {
+        Raypath[] raypaths = catalog.getRaypaths();
+        int n = raypaths.length;
+        double[] p = new double[n];
+        double[] delta = new double[n];
+        double[] time = new double[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            p[i] = raypaths[i].getRayParameter();
+            delta[i] = raypaths[i].computeDelta(phase, eventR);
+            time[i] = raypaths[i].computeT(phase, eventR);
+        });
+        // runs of raypaths with monotone delta. A cusp belongs to the both sides.
+        List<Branch> branchList = new ArrayList<>();
+        int start = 0;
+        int sign = 0;
+        for (int i = 0; i < n; i++) {
+            boolean connected = i + 1 < n && !Double.isNaN(delta[i] + delta[i + 1] + time[i] + time[i + 1]) &&
+                    p[i] < p[i + 1];
+            int nextSign = connected ? (int) Math.signum(delta[i + 1] - delta[i]) : 0;
+            if (!connected || (sign != 0 && nextSign != 0 && nextSign != sign)) {
+                if (start < i && delta[start] != delta[i]) branchList.add(new Branch(Arrays.copyOfRange(delta, start, i + 1),
+                        Arrays.copyOfRange(time, start, i + 1), Arrays.copyOfRange(p, start, i + 1), dDelta));
+                start = connected ? i : i + 1;
+                sign = nextSign;
+            } else if (sign == 0) sign = nextSign;
+        }
+        Branch[] branches = branchList.toArray(new Branch[0]);
+        Woodhouse1981 woodhouse = catalog.getWoodhouse1981();
+        ComputationalMesh mesh = catalog.getMesh();
+        Arrays.stream(branches).parallel().forEach(branch -> branch.computeErrorBound(
+                rayParameter -> new Raypath(rayParameter, woodhouse, mesh), phase, eventR));
+        return branches;
+    }
+
+    /**
+     * @param eventR [km] radius of an event in the table
+     * @param delta  [rad] epicentral distance
+     * @return [s] travel times of all the branches containing the &Delta; in order by p
+     * @throws IllegalArgumentException if the table does not have the eventR (see {@link #getEventR()})
+     */
+    public double[] computeT(double eventR, double delta) {
+        return Arrays.stream(BRANCHES[indexOf(eventR)]).filter(branch -> branch.contains(delta))
+                .mapToDouble(branch -> branch.computeT(delta)).toArray();
+    }
+
+    /**
+     * @param eventR [km] radius of an event in the table
+     * @param delta  [rad] epicentral distance
+     * @return [s/rad] ray parameters of all the branches containing the &Delta; in order by p
+     * @throws IllegalArgumentException if the table does not have the eventR (see {@link #getEventR()})
+     */
+    public double[] computeRayParameter(double eventR, double delta) {
+        return Arrays.stream(BRANCHES[indexOf(eventR)]).filter(branch -> branch.contains(delta))
+                .mapToDouble(branch -> branch.computeP(delta)).toArray();
+    }
+
+    /**
+     * @param eventR [km] radius of an event in the table
+     * @param delta  [rad] epicentral distance
+     * @return [s] the first arrival time, or NaN if no branch contains the &Delta;
+     * @throws IllegalArgumentException if the table does not have the eventR (see {@link #getEventR()})
+     */
+    public double computeFirstT(double eventR, double delta) {
+        double first = Double.NaN;
+        for (Branch branch : BRANCHES[indexOf(eventR)])
+            if (branch.contains(delta)) {
+                double t = branch.computeT(delta);
+                if (!(first <= t)) first = t;
+            }
+        return first;
+    }
+
+    /**
+     * @param eventR [km] radius of an event in the table
+     * @return [s] the error bound of T for the event radius
+     * @throws IllegalArgumentException if the table does not have the eventR (see {@link #getEventR()})
+     */
+    public double getErrorBound(double eventR) {
+        return Arrays.stream(BRANCHES[indexOf(eventR)]).mapToDouble(branch -> branch.errorBound).max().orElse(0);
+    }
+
+    /**
+     * @return [s] the error bound of T in the table
+     */
+    public double getErrorBound() {
+        return Arrays.stream(EVENT_R).map(this::getErrorBound).max().orElse(0);
+    }
+
+    /**
+     * @return phase of the table
+     */
+    public Phase getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * @return [km] radii of events in the table in ascending order
+     */
+    public double[] getEventR() {
+        return EVENT_R.clone();
+    }
+
+    /**
+     * The event radius must be exactly one of the tabulated ones. No interpolation between radii is done.
+     *
+     * @param eventR [km] radius of an event
+     * @return index of the radius in {@link #EVENT_R}
+     */
+    private int indexOf(double eventR) {
+        int i = Arrays.binarySearch(EVENT_R, eventR);
+        if (i < 0) throw new IllegalArgumentException("The table does not have the event radius " + eventR);
+        return i;
+    }
+
+    /**
+     * Format: magic, version, catalog identifier, phase name, P-SV or SH, &delta;&Delta;, the number of event radii,
+     * then for each radius, the radius, the number of branches and for each branch, the error bound,
+     * the number of nodes, &Delta;s, Ts and ps of the nodes.
+     *
+     * @param path    of the file
+     * @param options for writing
+     * @throws IOException if any
+     */
+    public void write(Path path, OpenOption... options) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path, options)))) {
+            dos.write(MAGIC);
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeUTF(CATALOG_ID);
+            dos.writeUTF(PHASE.toString());
+            dos.writeBoolean(PHASE.isPSV());
+            dos.writeDouble(D_DELTA);
+            dos.writeInt(EVENT_R.length);
+            for (int i = 0; i < EVENT_R.length; i++) {
+                dos.writeDouble(EVENT_R[i]);
+                dos.writeInt(BRANCHES[i].length);
+                for (Branch branch : BRANCHES[i]) {
+                    dos.writeDouble(branch.errorBound);
+                    dos.writeInt(branch.DELTA.length);
+                    for (double[] values : new double[][]{branch.DELTA, branch.T, branch.P})
+                        for (double value : values) dos.writeDouble(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param path of a file written by {@link #write(Path, OpenOption...)}
+     * @return table in the file
+     * @throws IOException if the file is broken or in another version of the format
+     */
+    public static TravelTimeTable read(Path path) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            byte[] magic = new byte[MAGIC.length];
+            dis.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException(path + " is not a travel time table.");
+            int version = dis.readInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException(path + " is in the version " + version + " (supported: " + FORMAT_VERSION + ")");
+            String catalogID = dis.readUTF();
+            String name = dis.readUTF();
+            Phase phase = Phase.create(name, dis.readBoolean());
+            double dDelta = dis.readDouble();
+            double[] eventR = new double[dis.readInt()];
+            Branch[][] branches = new Branch[eventR.length][];
+            for (int i = 0; i < eventR.length; i++) {
+                eventR[i] = dis.readDouble();
+                int nBranch = dis.readInt();
+                List<Branch> branchList = new ArrayList<>(nBranch);
+                for (int j = 0; j < nBranch; j++) {
+                    double errorBound = dis.readDouble();
+                    double[][] values = new double[3][dis.readInt()];
+                    for (double[] value : values)
+                        for (int k = 0; k < value.length; k++) value[k] = dis.readDouble();
+                    if (values[0].length < 2) continue;
+                    Branch branch = new Branch(values[0], values[1], values[2]);
+                    branch.errorBound = errorBound;
+                    branchList.add(branch);
+                }
+                branches[i] = branchList.toArray(new Branch[0]);
+            }
+            return new TravelTimeTable(catalogID, phase, dDelta, eventR, branches);
+        }
+    }
+
+    /**
+     * @return name of the file for the input
+     */
+    private static String fileNameOf(String catalogID, Phase phase, double[] eventR, double dDelta) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(catalogID.getBytes(StandardCharsets.UTF_8));
+        digest.update((phase + (phase.isPSV() ? "PSV" : "SH")).getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buffer = ByteBuffer.allocate(8 * (eventR.length + 1)).putDouble(dDelta);
+        for (double r : eventR) buffer.putDouble(r);
+        digest.update(buffer.array());
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+        return sb.substring(0, 32) + ".ttt";
+    }
+
+    /**
+     * A branch in which &Delta; is monotone in p. It has at least two nodes in ascending order of &Delta;.
+     */
+    private static class Branch {
+        private final double[] DELTA;
+        private final double[] T;
+        private final double[] P;
+        /**
+         * dp/d&Delta; at the nodes for the monotone interpolation
+         */
+        private final double[] DPDDELTA;
+        private double errorBound;
+
+        private Branch(double[] delta, double[] t, double[] p) {
+            DELTA = delta;
+            T = t;
+            P = p;
+            DPDDELTA = computeMonotoneSlopes(delta, p);
+        }
+
+        /**
+         * Samples a branch of raypaths in a catalog at every dDelta.
+         *
+         * @param delta  [rad] &Delta; of the raypaths, which is monotone
+         * @param t      [s] T of the raypaths
+         * @param p      [s/rad] p of the raypaths in ascending order
+         * @param dDelta [rad] interval of the nodes
+         */
+        private Branch(double[] delta, double[] t, double[] p, double dDelta) {
+            this(sample(delta, t, p, dDelta));
+        }
+
+        private Branch(double[][] nodes) {
+            this(nodes[0], nodes[1], nodes[2]);
+        }
+
+        /**
+         * @return &Delta;, T and p at the nodes
+         */
+        private static double[][] sample(double[] delta, double[] t, double[] p, double dDelta) {
+            int n = delta.length;
+            if (delta[n - 1] < delta[0]) {
+                delta = reverse(delta);
+                t = reverse(t);
+                p = reverse(p);
+            }
+            double min = delta[0];
+            double max = delta[n - 1];
+            List<Double> nodeList = new ArrayList<>();
+            nodeList.add(min);
+            for (double node = (Math.floor(min / dDelta) + 1) * dDelta; node < max; node += dDelta)
+                if (min < node) nodeList.add(node);
+            if (min < max) nodeList.add(max);
+            double[][] nodes = new double[3][nodeList.size()];
+            for (int i = 0; i < nodes[0].length; i++) {
+                double x = nodeList.get(i);
+                int j = intervalOf(delta, x);
+                double h = delta[j + 1] - delta[j];
+                nodes[0][i] = x;
+                if (h == 0) {
+                    nodes[1][i] = t[j];
+                    nodes[2][i] = p[j];
+                    continue;
+                }
+                double s = (x - delta[j]) / h;
+                nodes[1][i] = hermite(s, h, t[j], t[j + 1], p[j], p[j + 1]);
+                nodes[2][i] = hermiteDerivative(s, h, t[j], t[j + 1], p[j], p[j + 1]);
+            }
+            return nodes;
+        }
+
+        private boolean contains(double delta) {
+            return DELTA[0] <= delta && delta <= DELTA[DELTA.length - 1];
+        }
+
+        private double computeT(double delta) {
+            int i = intervalOf(DELTA, delta);
+            double h = DELTA[i + 1] - DELTA[i];
+            if (h == 0) return T[i];
+            return hermite((delta - DELTA[i]) / h, h, T[i], T[i + 1], P[i], P[i + 1]);
+        }
+
+        private double computeP(double delta) {
+            int i = intervalOf(DELTA, delta);
+            double h = DELTA[i + 1] - DELTA[i];
+            if (h == 0) return P[i];
+            return hermite((delta - DELTA[i]) / h, h, P[i], P[i + 1], DPDDELTA[i], DPDDELTA[i + 1]);
+        }
+
+        /**
+         * The error bound is the maximum difference of T from the direct integration for the raypaths with p
+         * at the midpoints of at most {@link #N_CHECK} intervals.
+         */
+        private void computeErrorBound(DoubleFunction<Raypath> raypathOf, Phase phase,
+                                       double eventR) {
+            int nInterval = DELTA.length - 1;
+            int step = Math.max(1, (int) Math.ceil((double) nInterval / N_CHECK));
+            double bound = 0;
+            for (int i = 0; i < nInterval; i += step) {
+                Raypath raypath = raypathOf.apply(computeP((DELTA[i] + DELTA[i + 1]) / 2));
+                double delta = raypath.computeDelta(phase, eventR);
+                double t = raypath.computeT(phase, eventR);
+                if (Double.isNaN(delta + t) || !contains(delta)) continue;
+                bound = Math.max(bound, Math.abs(computeT(delta) - t));
+            }
+            errorBound = bound;
+        }
+
+        /**
+         * @return i such that x[i] &le; value &le; x[i+1]. The value must be in [x[0], x[n-1]].
+         */
+        private static int intervalOf(double[] x, double value) {
+            int i = Arrays.binarySearch(x, value);
+            if (i < 0) i = -i - 2;
+            return Math.max(0, Math.min(i, x.length - 2));
+        }
+
+        /**
+         * @param s  (x - x0) / h
+         * @param h  x1 - x0
+         * @param y0 y(x0)
+         * @param y1 y(x1)
+         * @param d0 dy/dx(x0)
+         * @param d1 dy/dx(x1)
+         * @return y(x) by the cubic Hermite interpolation
+         */
+        private static double hermite(double s, double h, double y0, double y1, double d0, double d1) {
+            double s2 = s * s;
+            double s3 = s2 * s;
+            return (2 * s3 - 3 * s2 + 1) * y0 + (s3 - 2 * s2 + s) * h * d0 + (-2 * s3 + 3 * s2) * y1 +
+                    (s3 - s2) * h * d1;
+        }
+
+        /**
+         * @return dy/dx(x) by the cubic Hermite interpolation. See {@link #hermite(double, double, double, double, double, double)}
+         */
+        private static double hermiteDerivative(double s, double h, double y0, double y1, double d0, double d1) {
+            double s2 = s * s;
+            return ((6 * s2 - 6 * s) * y0 + (-6 * s2 + 6 * s) * y1) / h + (3 * s2 - 4 * s + 1) * d0 +
+                    (3 * s2 - 2 * s) * d1;
+        }
+
+        /**
+         * @return slopes by Fritsch and Butland (1984), which keep the interpolation monotone
+         */
+        private static double[] computeMonotoneSlopes(double[] x, double[] y) {
+            int n = x.length;
+            double[] slopes = new double[n];
+            if (n < 2) return slopes;
+            double[] h = new double[n - 1];
+            double[] secants = new double[n - 1];
+            for (int i = 0; i < n - 1; i++) {
+                h[i] = x[i + 1] - x[i];
+                secants[i] = h[i] == 0 ? 0 : (y[i + 1] - y[i]) / h[i];
+            }
+            slopes[0] = secants[0];
+            slopes[n - 1] = secants[n - 2];
+            for (int i = 1; i < n - 1; i++) {
+                if (secants[i - 1] * secants[i] <= 0) continue;
+                double w1 = 2 * h[i] + h[i - 1];
+                double w2 = h[i] + 2 * h[i - 1];
+                slopes[i] = (w1 + w2) / (w1 / secants[i - 1] + w2 / secants[i]);
+            }
+            return slopes;
+        }
+
+        private static double[] reverse(double[] values) {
+            double[] reversed = new double[values.length];
+            for (int i = 0; i < values.length; i++) reversed[i] = values[values.length - 1 - i];
+            return reversed;
+        }
+    }
+
+}
@@ -4,14 +4,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.DoubleUnaryOperator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.DoubleStream;
 
 /**
  * The class is calculator of the formulation in Woodhouse (1981).
+ * <p>
+ * S<sub>1</sub>, ..., S<sub>5</sub>, &rho;, A, L and N are kept in primitive arrays at the radii of meshes
+ * (see {@link #prepare(ComputationalMesh)}), so the integrands are evaluated without any structure computation
+ * or boxing there.
  *
  * @author Kensuke Konishi
- * @version 0.0.8
+ * @version 0.0.9
  * @see <a href=
  * https://www.sciencedirect.com/science/article/pii/0031920181900479>Woodhouse,
  * 1981</a>
@@ -31,17 +35,10 @@ class Woodhouse1981 implements Serializable {
     }
 
     private final VelocityStructure STRUCTURE;
-    private transient Map<Double, Double> s1;
-    private transient Map<Double, Double> s2;
-    private transient Map<Double, Double> s3;
-    private transient Map<Double, Double> s4;
-    private transient Map<Double, Double> s5;
-
-    private transient DoubleUnaryOperator computeS1;
-    private transient DoubleUnaryOperator computeS2;
-    private transient DoubleUnaryOperator computeS3;
-    private transient DoubleUnaryOperator computeS4;
-    private transient DoubleUnaryOperator computeS5;
+    /**
+     * Shared by the instances for the same structure.
+     */
+    private transient AtomicReference<RadialTable> table;
 
     /**
      * @param structure for Woodhouse computation
@@ -49,67 +46,45 @@ class Woodhouse1981 implements Serializable {
     Woodhouse1981(VelocityStructure structure) {
         STRUCTURE = structure;
         copyOrCreate();
-        setComputation();
-    }
-
-    private void setComputation() {
-        computeS1 = x -> 0.5 * STRUCTURE.getRho(x) * (1 / STRUCTURE.getL(x) + 1 / STRUCTURE.getC(x));
-        computeS2 = x -> 0.5 * STRUCTURE.getRho(x) * (1 / STRUCTURE.getL(x) - 1 / STRUCTURE.getC(x));
-        computeS3 = x -> {
-            double c = STRUCTURE.getC(x);
-            double f = STRUCTURE.getF(x);
-            double l = STRUCTURE.getL(x);
-            return 0.5 / l / c * (STRUCTURE.getA(x) * c - f * f - 2 * l * f);
-        };
-        computeS4 = x -> {
-            double s3 = computeS3(x);
-            return s3 * s3 - STRUCTURE.getA(x) / STRUCTURE.getC(x);
-        };
-        computeS5 = x -> 0.5 * STRUCTURE.getRho(x) / STRUCTURE.getC(x) * (1 + STRUCTURE.getA(x) / STRUCTURE.getL(x)) -
-                computeS1(x) * computeS3(x);
-        Runnable clear = () -> {
-            try {
-                while (true) {
-                    if (s3.size() > 1000000) {
-                        s1.clear();
-                        s2.clear();
-                        s3.clear();
-                        s4.clear();
-                        s5.clear();
-                    }
-                    Thread.sleep(10000);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        };
-        Thread cleaner = new Thread(clear);
-        cleaner.setDaemon(true);
-        cleaner.start();
     }
 
     private void readObject(ObjectInputStream stream) throws ClassNotFoundException, IOException {
         stream.defaultReadObject();
-        createCache();
-        setComputation();
+        copyOrCreate();
     }
 
     /**
-     * Checks if the structure of this exists in the cache, if it does, just copy,
-     * otherwise create a new cache.
+     * Checks if the structure of this exists in the cache, if it does, the table is shared,
+     * otherwise a new empty table is created.
      */
     private void copyOrCreate() {
         synchronized (WOODHOUSE_CACHE) {
             Optional<Woodhouse1981> inCache =
                     WOODHOUSE_CACHE.stream().filter(w -> w.STRUCTURE == STRUCTURE).findFirst();
-            if (inCache.isPresent()) copyCache(inCache.get());
+            if (inCache.isPresent()) table = inCache.get().table;
             else {
-                createCache();
+                table = new AtomicReference<>(new RadialTable());
                 WOODHOUSE_CACHE.add(this);
             }
         }
     }
 
+    /**
+     * Values at the radii of the mesh and at the midpoints of the layers are precomputed,
+     * so that integrals on the mesh read them instead of evaluating the structure.
+     * Values at the other radii are computed when they are needed.
+     *
+     * @param mesh to compute with
+     */
+    void prepare(ComputationalMesh mesh) {
+        RadialTable current = table.get();
+        while (!current.covers(mesh)) {
+            RadialTable next = current.add(mesh, STRUCTURE);
+            if (table.compareAndSet(current, next)) break;
+            current = table.get();
+        }
+    }
+
     /**
      * @return VelocityStructure
      */
@@ -127,27 +102,12 @@ class Woodhouse1981 implements Serializable {
      * 1981</a>
      */
     double computeQDelta(PhasePart pp, double rayParameter, double r) {
-        double r2 = r * r;
-        switch (pp) {
-            case P:
-            case I:
-                return rayParameter / r2 / computeQTau(pp, rayParameter, r) * (computeS3(r) +
-                        (computeS4(r) * rayParameter * rayParameter / r2 + computeS5(r)) / computeR(rayParameter, r));
-            case SV:
-            case JV:
-                return rayParameter / r2 / computeQTau(pp, rayParameter, r) * (computeS3(r) -
-                        (computeS4(r) * rayParameter * rayParameter / r2 + computeS5(r)) / computeR(rayParameter, r));
-            case SH:
-//            case JH:
-                return rayParameter * STRUCTURE.getN(r) / STRUCTURE.getL(r) / computeQTau(pp, rayParameter, r) / r2;
-            case K:
-                double v = Math.sqrt(STRUCTURE.getA(r) / STRUCTURE.getRho(r));
-                double sin = rayParameter * v / r;
-                double cos = Math.sqrt(1 - sin * sin);
-                return sin / cos / r;
-            default:
-                throw new RuntimeException("unexpecTed");
-        }
+        RadialTable table = this.table.get();
+        int i = table.indexOf(r);
+        if (0 <= i) return computeQDelta(table.VALUES, i * N_VALUES, pp, rayParameter, r);
+        double[] values = SCRATCH.get();
+        computeValues(STRUCTURE, r, values, 0);
+        return computeQDelta(values, 0, pp, rayParameter, r);
     }
 
     /**
@@ -160,30 +120,12 @@ class Woodhouse1981 implements Serializable {
      * 1981</a>
      */
     double computeQT(PhasePart pp, double rayParameter, double r) {
-        switch (pp) {
-            case K:
-                double v = Math.sqrt(STRUCTURE.getA(r) / STRUCTURE.getRho(r));
-                double sin = rayParameter * v / r;
-                double cos = Math.sqrt(1 - sin * sin);
-                return 1 / v / cos;
-            case P:
-            case I:
-                double s2 = computeS2(r);
-                return (computeS1(r) -
-                        (computeS5(r) * rayParameter * rayParameter / r / r + s2 * s2) / computeR(rayParameter, r)) /
-                        computeQTau(pp, rayParameter, r);
-            case SH:
-//            case JH:
-                return STRUCTURE.getRho(r) / STRUCTURE.getL(r) / computeQTau(pp, rayParameter, r);
-            case SV:
-            case JV:
-                s2 = computeS2(r);
-                return (computeS1(r) +
-                        (computeS5(r) * rayParameter * rayParameter / r / r + s2 * s2) / computeR(rayParameter, r)) /
-                        computeQTau(pp, rayParameter, r);
-            default:
-                throw new RuntimeException("souteigai");
-        }
+        RadialTable table = this.table.get();
+        int i = table.indexOf(r);
+        if (0 <= i) return computeQT(table.VALUES, i * N_VALUES, pp, rayParameter, r);
+        double[] values = SCRATCH.get();
+        computeValues(STRUCTURE, r, values, 0);
+        return computeQT(values, 0, pp, rayParameter, r);
     }
 
     /**
@@ -202,109 +144,195 @@ class Woodhouse1981 implements Serializable {
      * 1981</a>
      */
     double computeQTau(PhasePart pp, double rayParameter, double r) {
+        RadialTable table = this.table.get();
+        int i = table.indexOf(r);
+        if (0 <= i) return computeQTau(table.VALUES, i * N_VALUES, pp, rayParameter, r);
+        double[] values = SCRATCH.get();
+        computeValues(STRUCTURE, r, values, 0);
+        return computeQTau(values, 0, pp, rayParameter, r);
+    }
+
+    /*
+     * Values at a radius are v[o + S1], ..., v[o + N].
+     */
+    private static final int S1 = 0;
+    private static final int S2 = 1;
+    private static final int S3 = 2;
+    private static final int S4 = 3;
+    private static final int S5 = 4;
+    private static final int RHO = 5;
+    private static final int A = 6;
+    private static final int L = 7;
+    private static final int N = 8;
+    private static final int N_VALUES = 9;
+
+    /**
+     * Values at radii which are not in the table are computed in this array.
+     */
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[N_VALUES]);
+
+    /**
+     * Computes S<sub>1</sub>, ..., S<sub>5</sub>, &rho;, A, L and N at r and puts them in v from o.
+     */
+    private static void computeValues(VelocityStructure structure, double r, double[] v, int o) {
+        double rho = structure.getRho(r);
+        double a = structure.getA(r);
+        double c = structure.getC(r);
+        double f = structure.getF(r);
+        double l = structure.getL(r);
+        double s1 = 0.5 * rho * (1 / l + 1 / c);
+        double s3 = 0.5 / l / c * (a * c - f * f - 2 * l * f);
+        v[o + S1] = s1;
+        v[o + S2] = 0.5 * rho * (1 / l - 1 / c);
+        v[o + S3] = s3;
+        v[o + S4] = s3 * s3 - a / c;
+        v[o + S5] = 0.5 * rho / c * (1 + a / l) - s1 * s3;
+        v[o + RHO] = rho;
+        v[o + A] = a;
+        v[o + L] = l;
+        v[o + N] = structure.getN(r);
+    }
+
+    private static double computeQDelta(double[] v, int o, PhasePart pp, double rayParameter, double r) {
+        double r2 = r * r;
+        switch (pp) {
+            case P:
+            case I:
+                return rayParameter / r2 / computeQTau(v, o, pp, rayParameter, r) * (v[o + S3] +
+                        (v[o + S4] * rayParameter * rayParameter / r2 + v[o + S5]) / computeR(v, o, rayParameter, r));
+            case SV:
+            case JV:
+                return rayParameter / r2 / computeQTau(v, o, pp, rayParameter, r) * (v[o + S3] -
+                        (v[o + S4] * rayParameter * rayParameter / r2 + v[o + S5]) / computeR(v, o, rayParameter, r));
+            case SH:
+//            case JH:
+                return rayParameter * v[o + N] / v[o + L] / computeQTau(v, o, pp, rayParameter, r) / r2;
+            case K:
+                double velocity = Math.sqrt(v[o + A] / v[o + RHO]);
+                double sin = rayParameter * velocity / r;
+                double cos = Math.sqrt(1 - sin * sin);
+                return sin / cos / r;
+            default:
+                throw new RuntimeException("unexpecTed");
+        }
+    }
+
+    private static double computeQT(double[] v, int o, PhasePart pp, double rayParameter, double r) {
+        switch (pp) {
+            case K:
+                double velocity = Math.sqrt(v[o + A] / v[o + RHO]);
+                double sin = rayParameter * velocity / r;
+                double cos = Math.sqrt(1 - sin * sin);
+                return 1 / velocity / cos;
+            case P:
+            case I:
+                double s2 = v[o + S2];
+                return (v[o + S1] - (v[o + S5] * rayParameter * rayParameter / r / r + s2 * s2) /
+                        computeR(v, o, rayParameter, r)) / computeQTau(v, o, pp, rayParameter, r);
+            case SH:
+//            case JH:
+                return v[o + RHO] / v[o + L] / computeQTau(v, o, pp, rayParameter, r);
+            case SV:
+            case JV:
+                s2 = v[o + S2];
+                return (v[o + S1] + (v[o + S5] * rayParameter * rayParameter / r / r + s2 * s2) /
+                        computeR(v, o, rayParameter, r)) / computeQTau(v, o, pp, rayParameter, r);
+            default:
+                throw new RuntimeException("souteigai");
+        }
+    }
+
+    private static double computeQTau(double[] v, int o, PhasePart pp, double rayParameter, double r) {
         double r2 = r * r;
         switch (pp) {
             case P:
             case I:
-                return Math.sqrt(computeS1(r) - computeS3(r) * rayParameter * rayParameter / r2 -
-                        computeR(rayParameter, r));
+                return Math.sqrt(v[o + S1] - v[o + S3] * rayParameter * rayParameter / r2 -
+                        computeR(v, o, rayParameter, r));
             case K:
-                double v = Math.sqrt(STRUCTURE.getA(r) / STRUCTURE.getRho(r));
-                return Math.sqrt(1 / v / v - rayParameter * rayParameter / r / r);
+                double velocity = Math.sqrt(v[o + A] / v[o + RHO]);
+                return Math.sqrt(1 / velocity / velocity - rayParameter * rayParameter / r / r);
             case SH:
 //            case JH:
-                double L = STRUCTURE.getL(r);
-                return Math.sqrt(STRUCTURE.getRho(r) / L - STRUCTURE.getN(r) * rayParameter * rayParameter / L / r2);
+                double l = v[o + L];
+                return Math.sqrt(v[o + RHO] / l - v[o + N] * rayParameter * rayParameter / l / r2);
             case SV:
             case JV:
-                return Math.sqrt(computeS1(r) - computeS3(r) * rayParameter * rayParameter / r2 +
-                        computeR(rayParameter, r));
+                return Math.sqrt(v[o + S1] - v[o + S3] * rayParameter * rayParameter / r2 +
+                        computeR(v, o, rayParameter, r));
             default:
                 throw new RuntimeException(pp + " is Unexpected");
         }
     }
 
     /**
-     * @param rayParameter to compute for
-     * @param r            [km]
      * @return R
      * @see <a href=
      * https://www.sciencedirect.com/science/article/pii/0031920181900479>Woodhouse,
      * 1981</a>
      */
-    private double computeR(double rayParameter, double r) {
-        double s2 = computeS2(r);
+    private static double computeR(double[] v, int o, double rayParameter, double r) {
+        double s2 = v[o + S2];
         double por = rayParameter / r;
         double por2 = por * por;
-        return Math.sqrt(computeS4(r) * por2 * por2 + 2 * computeS5(r) * por2 + s2 * s2);
+        return Math.sqrt(v[o + S4] * por2 * por2 + 2 * v[o + S5] * por2 + s2 * s2);
     }
 
     /**
-     * Copies cash for s1-s5
-     *
-     * @param woodhouse source map
+     * Values at radii in ascending order. The radii are those of meshes and the midpoints of their layers.
+     * This class is <b>IMMUTABLE</b>.
      */
-    private void copyCache(Woodhouse1981 woodhouse) {
-        s1 = woodhouse.s1;
-        s2 = woodhouse.s2;
-        s3 = woodhouse.s3;
-        s4 = woodhouse.s4;
-        s5 = woodhouse.s5;
-    }
+    private static class RadialTable {
+        private final double[] RADII;
+        /**
+         * Values at RADII[i] are in [i * {@link #N_VALUES}, (i + 1) * {@link #N_VALUES})
+         */
+        private final double[] VALUES;
+        private final ComputationalMesh[] MESHES;
 
-    /**
-     * Creates new cache maps
-     */
-    private void createCache() {
-        s1 = new ConcurrentHashMap<>();
-        s2 = new ConcurrentHashMap<>();
-        s3 = new ConcurrentHashMap<>();
-        s4 = new ConcurrentHashMap<>();
-        s5 = new ConcurrentHashMap<>();
-    }
-
-    /**
-     * @param r [km]
-     * @return S<sub>1</sub>
-     */
-    private double computeS1(double r) {
-        return s1.computeIfAbsent(r, computeS1::applyAsDouble);
-//        return computeS1.applyAsDouble(r);
-    }
+        private RadialTable() {
+            this(new double[0], new double[0], new ComputationalMesh[0]);
+        }
 
-    /**
-     * @param r [km]
-     * @return S<sub>2</sub>
-     */
-    private double computeS2(double r) {
-        return s2.computeIfAbsent(r, computeS2::applyAsDouble);
-//        return computeS2.applyAsDouble(r);
-    }
+        private RadialTable(double[] radii, double[] values, ComputationalMesh[] meshes) {
+            RADII = radii;
+            VALUES = values;
+            MESHES = meshes;
+        }
 
-    /**
-     * @param r [km]
-     * @return S<sub>3</sub>
-     */
-    private double computeS3(double r) {
-        return s3.computeIfAbsent(r, computeS3::applyAsDouble);
-//        return computeS3.applyAsDouble(r);
-    }
+        /**
+         * @return index of r in RADII, or a negative value if it is not in the table
+         */
+        private int indexOf(double r) {
+            return Arrays.binarySearch(RADII, r);
+        }
 
-    /**
-     * @param r [km]
-     * @return S<sub>4</sub>
-     */
-    private double computeS4(double r) {
-        return s4.computeIfAbsent(r, computeS4::applyAsDouble);
-//        return computeS4.applyAsDouble(r);
-    }
+        private boolean covers(ComputationalMesh mesh) {
+            for (ComputationalMesh m : MESHES) if (m == mesh) return true;
+            for (ComputationalMesh m : MESHES) if (m.equals(mesh)) return true;
+            return false;
+        }
 
-    /**
-     * @param r [km]
-     * @return S<sub>5</sub>
-     */
-    private double computeS5(double r) {
-        return s5.computeIfAbsent(r, computeS5::applyAsDouble);
-//        return computeS5.applyAsDouble(r);
+        /**
+         * @return new table with the radii of the mesh and the midpoints of its layers in addition
+         */
+        private RadialTable add(ComputationalMesh mesh, VelocityStructure structure) {
+            DoubleStream.Builder builder = DoubleStream.builder();
+            for (double r : RADII) builder.add(r);
+            for (Partition partition : new Partition[]{Partition.INNERCORE, Partition.OUTERCORE, Partition.MANTLE}) {
+                double[] radii = mesh.getMesh(partition).toArray();
+                for (int i = 0; i < radii.length; i++) {
+                    builder.add(radii[i]);
+                    // the same as the midpoint in the Simpson's rule in Raypath
+                    if (i + 1 < radii.length) builder.add(radii[i] + 0.5 * (radii[i + 1] - radii[i]));
+                }
+            }
+            double[] radii = builder.build().sorted().distinct().toArray();
+            double[] values = new double[radii.length * N_VALUES];
+            for (int i = 0; i < radii.length; i++) computeValues(structure, radii[i], values, i * N_VALUES);
+            ComputationalMesh[] meshes = Arrays.copyOf(MESHES, MESHES.length + 1);
+            meshes[MESHES.length] = mesh;
+            return new RadialTable(radii, values, meshes);
+        }
     }
 }
@@ -22,7 +22,7 @@ import java.nio.file.Paths;
  * ω=2πfδt
  *
  * @author Kensuke Konishi
- * @version 0.1.4
+ * @version 0.1.5
  */
 public class BandPassFilter extends ButterworthFilter {
 
@@ -313,6 +313,29 @@ public class BandPassFilter extends ButterworthFilter {
         return backward ? Complex.valueOf(response.abs() * response.abs()) : response;
     }
 
+    @Override
+    public Complex getFrequencyResponse(Complex omega) {
+        Complex response = computeResponse(omega);
+        // |H(ω)|^2 = H(ω)H(-ω) for real ω
+        return backward ? response.multiply(computeResponse(omega.negate())) : response;
+    }
+
+    /**
+     * @param omega complex &omega;
+     * @return response of the causal filter (Saito 1.7 with complex &omega;)
+     */
+    private Complex computeResponse(Complex omega) {
+        Complex sin = omega.sin();
+        Complex cos = omega.cos();
+        Complex numerator = sin.multiply(Complex.valueOf(0, 2));
+        Complex response = Complex.valueOf(g);
+        for (int j = 0; j < n; j++) {
+            Complex denominator = cos.multiply(b2[j] + 1).add(b1[j]).subtract(sin.multiply(Complex.I).multiply(b2[j] - 1));
+            response = response.multiply(numerator).divide(denominator);
+        }
+        return response;
+    }
+
     @Override
     public Complex[] applyFilter(Complex[] data) {
         Complex[] y = new Complex[data.length];
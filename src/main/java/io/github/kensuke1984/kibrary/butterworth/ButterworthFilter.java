@@ -13,7 +13,7 @@ import org.apache.commons.math3.util.FastMath;
  * true.
  *
  * @author Kensuke Konishi
- * @version 0.0.5.0.2
+ * @version 0.0.5.1
  */
 public abstract class ButterworthFilter {
 
@@ -64,6 +64,20 @@ public abstract class ButterworthFilter {
      */
     public abstract Complex getFrequencyResponse(double omega);
 
+    /**
+     * Frequency response continued analytically to a complex &omega;. The response at &omega; - i&alpha; is
+     * the one to e<sup>(&alpha;+i&omega;)t</sup>, e.g. a spectrum computed at an imaginary frequency.
+     * Only real &omega; is supported unless overridden.
+     *
+     * @param omega &omega;: 2&pi;f&Delta;t
+     * @return frequency responce for an input &omega;
+     */
+    public Complex getFrequencyResponse(Complex omega) {
+        if (omega.getImaginary() != 0)
+            throw new RuntimeException(getClass().getSimpleName() + " does not support complex frequencies.");
+        return getFrequencyResponse(omega.getReal());
+    }
+
     public double getAp() {
         return ap;
     }
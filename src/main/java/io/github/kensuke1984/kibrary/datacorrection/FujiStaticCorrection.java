@@ -6,6 +6,7 @@ import io.github.kensuke1984.kibrary.timewindow.Timewindow;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformation;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationFile;
 import io.github.kensuke1984.kibrary.util.EventFolder;
+import io.github.kensuke1984.kibrary.util.EventScheduler;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Trace;
 import io.github.kensuke1984.kibrary.util.Utilities;
@@ -15,10 +16,9 @@ import org.apache.commons.math3.util.Precision;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -45,7 +45,7 @@ import java.util.stream.Collectors;
  * unified timeshift files
  *
  * @author Kensuke Konishi
- * @version 0.2.2
+ * @version 0.2.2.1
  * @author anselme modify amplitude ratio computation; modify align method to consider the peak value
  */
 public class FujiStaticCorrection implements Operation {
@@ -421,20 +421,11 @@ public class FujiStaticCorrection implements Operation {
 	@Override
 	public void run() throws Exception {
 		Set<EventFolder> eventDirs = Utilities.eventFolderSet(obsPath);
-		int n = Runtime.getRuntime().availableProcessors();
-		ExecutorService es = Executors.newFixedThreadPool(n);
 		timewindowInformation = TimewindowInformationFile.read(timewindowInformationPath);
-		eventDirs.stream().map(Worker::new).forEach(es::execute);
-		es.shutdown();
-
-		while (!es.isTerminated()) {
-			try {
-				// System.out.println("waiting");
-				Thread.sleep(1000);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
+		EventScheduler.Summary summary = new EventScheduler().runSACs(eventDirs, SACFileName::isOBS,
+				(eventDir, obsFiles) -> new Worker(eventDir, obsFiles).run());
+		System.err.println(summary);
+		summary.write(workPath.resolve("fujiStaticCorrection" + Utilities.getTemporaryString() + ".sum"));
 		output();
 	}
 	
@@ -445,27 +436,29 @@ public class FujiStaticCorrection implements Operation {
 
 		private GlobalCMTID eventID;
 
-		private Worker(EventFolder eventDirectory) {
+		private Set<SACFileName> obsFiles;
+
+		/**
+		 * @param eventDirectory of observed files
+		 * @param obsFiles       observed files in the event to work for
+		 */
+		private Worker(EventFolder eventDirectory, Set<SACFileName> obsFiles) {
 			obsEventDir = eventDirectory;
+			this.obsFiles = obsFiles;
 			eventID = obsEventDir.getGlobalCMTID();
 			synEventPath = synPath.resolve(eventID.toString());
 		}
 
+		/**
+		 * Failures of files and windows do not stop the others, and they are thrown at the end
+		 * to be accounted by the scheduler.
+		 */
 		@Override
 		public void run() {
-			if (!Files.exists(synEventPath)) {
-				new NoSuchFileException(synEventPath.toString()).printStackTrace();
-				return;
-			}
+			if (!Files.exists(synEventPath))
+				throw new UncheckedIOException(new NoSuchFileException(synEventPath.toString()));
+			List<Exception> failures = new ArrayList<>();
 
-			// collect observed files
-			Set<SACFileName> obsFiles;
-			try {
-				(obsFiles = obsEventDir.sacFileSet()).removeIf(s -> !s.isOBS());
-			} catch (IOException e1) {
-				e1.printStackTrace();
-				return;
-			}
 			// TreeMap<String, Double> timeshiftMap = new TreeMap<>();
 			for (SACFileName obsName : obsFiles) {
 				SACComponent component = obsName.getComponent();
@@ -490,6 +483,7 @@ public class FujiStaticCorrection implements Operation {
 					synSac = synName.read();
 				} catch (Exception e) {
 					e.printStackTrace();
+					failures.add(e);
 					continue;
 				}
 
@@ -520,8 +514,11 @@ public class FujiStaticCorrection implements Operation {
 						} catch (Exception e) {
 							System.err.println(window + " is ignored because an error occurs");
 							e.printStackTrace();
+							failures.add(e);
 						}
 			}
+			if (!failures.isEmpty())
+				throw new RuntimeException(failures.size() + " errors in " + obsEventDir, failures.get(0));
 		}
 	}
 }
@@ -13,7 +13,9 @@ import java.nio.file.StandardOpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
@@ -109,6 +111,11 @@ public class PolynomialStructure implements Serializable {
 	private PolynomialFunction[] eta;
 	private double[] qMu;
 	private double[] qKappa;
+	private static final int N_CACHED_PROFILES = 16;
+	/**
+	 * profiles of the latest radius grids
+	 */
+	private transient Map<Radii, RadialProfile> profiles;
 	
 	private PolynomialStructure() {
 	}
@@ -832,8 +839,62 @@ public class PolynomialStructure implements Serializable {
 	public int zoneOf(double r) {
 		if (r == rmax[nzone - 1])
 			return nzone - 1;
-		return IntStream.range(0, nzone).filter(i -> rmin[i] <= r && r < rmax[i]).findAny()
-				.orElseThrow(() -> new IllegalArgumentException("Input r:" + r + "is invalid."));
+		for (int i = 0; i < nzone; i++)
+			if (rmin[i] <= r && r < rmax[i])
+				return i;
+		throw new IllegalArgumentException("Input r:" + r + "is invalid.");
+	}
+	
+	/**
+	 * Values at radii of a grid at once. Profiles of the latest {@value #N_CACHED_PROFILES} grids are cached.
+	 * 
+	 * @param radii [km] radii [0, rmax]. Sorted radii are the fastest.
+	 * @return {@link RadialProfile} at the radii
+	 */
+	public RadialProfile computeProfile(double... radii) {
+		Radii key = new Radii(radii);
+		synchronized (this) {
+			if (profiles == null)
+				profiles = new LinkedHashMap<Radii, RadialProfile>(N_CACHED_PROFILES, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<Radii, RadialProfile> eldest) {
+						return N_CACHED_PROFILES < size();
+					}
+				};
+			RadialProfile profile = profiles.get(key);
+			if (profile != null)
+				return profile;
+		}
+		RadialProfile profile = new RadialProfile(this, key.RADII);
+		synchronized (this) {
+			profiles.put(key, profile);
+		}
+		return profile;
+	}
+	
+	/**
+	 * key of a radius grid
+	 */
+	private static final class Radii {
+		private final double[] RADII;
+		private final int HASH;
+		
+		private Radii(double[] radii) {
+			RADII = radii.clone();
+			HASH = Arrays.hashCode(RADII);
+		}
+		
+		@Override
+		public int hashCode() {
+			return HASH;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Radii && Arrays.equals(RADII, ((Radii) obj).RADII);
+		}
 	}
 	
     /**
@@ -1027,6 +1088,9 @@ public class PolynomialStructure implements Serializable {
 		if (structureLines.length != (nzone * 6 + 1))
 			throw new IllegalArgumentException("Invalid lines");
 		initialize();
+		synchronized (this) {
+			profiles = null;
+		}
 		for (int i = 0; i < nzone; i++) {
 			String[] rangeRhoParts = structureLines[i * 6 + 1].split("\\s+");
 			String[] vpvParts = structureLines[i * 6 + 2].split("\\s+");
@@ -1180,6 +1244,22 @@ public class PolynomialStructure implements Serializable {
     public PolynomialFunction getVshOf(int izone) {
         return vsh[izone];
     }
+
+    /**
+     * @param izone index of a zone
+     * @return polynomial function for &eta; of the zone
+     */
+    public PolynomialFunction getEtaOf(int izone) {
+        return eta[izone];
+    }
+
+    /**
+     * @param izone index of a zone
+     * @return Q<sub>&kappa;</sub> of the zone
+     */
+    public double getQKappaOf(int izone) {
+        return qKappa[izone];
+    }
     
     /**
      * @return true if default structure (already implemented), false if user-defined structure
@@ -0,0 +1,283 @@
+package io.github.kensuke1984.kibrary.dsminformation;
+
+/**
+ * Values of a {@link PolynomialStructure} at radii of a grid.
+ * <p>
+ * The radii are assigned to zones walking the zones once for sorted radii, and the polynomials of each zone are
+ * evaluated by Horner's rule with the coefficients of the zone. All the values are computed at once into primitive
+ * arrays and are the same as ones by the methods for a radius in {@link PolynomialStructure}.
+ * <p>
+ * <b>This class is IMMUTABLE</b>. Getters return copies.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ * @see PolynomialStructure#computeProfile(double...)
+ */
+public final class RadialProfile {
+
+	private final double[] R;
+	private final int[] ZONE;
+	private final double[] RHO;
+	private final double[] VPV;
+	private final double[] VPH;
+	private final double[] VSV;
+	private final double[] VSH;
+	private final double[] ETA;
+	private final double[] QMU;
+	private final double[] QKAPPA;
+	private final double[] A;
+	private final double[] C;
+	private final double[] F;
+	private final double[] L;
+	private final double[] N;
+	private final double[] VS;
+	private final double[] MU;
+	private final double[] LAMBDA;
+	private final double[] KAPPA;
+
+	/**
+	 * @param structure to evaluate
+	 * @param radii     [km] radii in [0, earth radius]. Sorted radii are the fastest.
+	 */
+	RadialProfile(PolynomialStructure structure, double[] radii) {
+		int n = radii.length;
+		R = radii.clone();
+		ZONE = new int[n];
+		RHO = new double[n];
+		VPV = new double[n];
+		VPH = new double[n];
+		VSV = new double[n];
+		VSH = new double[n];
+		ETA = new double[n];
+		QMU = new double[n];
+		QKAPPA = new double[n];
+		A = new double[n];
+		C = new double[n];
+		F = new double[n];
+		L = new double[n];
+		N = new double[n];
+		VS = new double[n];
+		MU = new double[n];
+		LAMBDA = new double[n];
+		KAPPA = new double[n];
+		int nzone = structure.getNzone();
+		double earthRadius = structure.getRMaxOf(nzone - 1);
+		// coefficients of the zones, which are read when they are used first
+		double[][][] coefficients = new double[nzone][][];
+		int izone = -1;
+		for (int i = 0; i < n; i++) {
+			double r = R[i];
+			if (izone < 0 || !contains(structure, izone, r))
+				izone = izone + 1 < nzone && contains(structure, izone + 1, r) ? izone + 1 : structure.zoneOf(r);
+			if (coefficients[izone] == null)
+				coefficients[izone] = new double[][]{structure.getRhoOf(izone).getCoefficients(),
+						structure.getVpvOf(izone).getCoefficients(), structure.getVphOf(izone).getCoefficients(),
+						structure.getVsvOf(izone).getCoefficients(), structure.getVshOf(izone).getCoefficients(),
+						structure.getEtaOf(izone).getCoefficients()};
+			double[][] zone = coefficients[izone];
+			double x = r / earthRadius;
+			ZONE[i] = izone;
+			double rho = RHO[i] = horner(zone[0], x);
+			double vpv = VPV[i] = horner(zone[1], x);
+			double vph = VPH[i] = horner(zone[2], x);
+			double vsv = VSV[i] = horner(zone[3], x);
+			double vsh = VSH[i] = horner(zone[4], x);
+			double eta = ETA[i] = horner(zone[5], x);
+			QMU[i] = structure.getQMuOf(izone);
+			QKAPPA[i] = structure.getQKappaOf(izone);
+			double a = A[i] = rho * vph * vph;
+			C[i] = rho * vpv * vpv;
+			double l = L[i] = rho * vsv * vsv;
+			double nn = N[i] = rho * vsh * vsh;
+			F[i] = eta * (a - 2 * l);
+			double vs = VS[i] = Math.sqrt((2 * l + nn) / 3 / rho);
+			double mu = MU[i] = vs * vs * rho;
+			double lambda = LAMBDA[i] = rho * vph * vph - 2 * mu;
+			KAPPA[i] = lambda + 2. / 3. * mu;
+		}
+	}
+
+	private static boolean contains(PolynomialStructure structure, int izone, double r) {
+		return (structure.getRMinOf(izone) <= r && r < structure.getRMaxOf(izone)) ||
+				(izone == structure.getNzone() - 1 && r == structure.getRMaxOf(izone));
+	}
+
+	/**
+	 * The same as {@link org.apache.commons.math3.analysis.polynomials.PolynomialFunction#value(double)}.
+	 *
+	 * @param coefficients a<sub>0</sub>, a<sub>1</sub>, ... of a<sub>0</sub> + a<sub>1</sub>x + ...
+	 * @param x            argument
+	 * @return value of the polynomial at x
+	 */
+	private static double horner(double[] coefficients, double x) {
+		int n = coefficients.length;
+		double result = coefficients[n - 1];
+		for (int j = n - 2; j >= 0; j--)
+			result = x * result + coefficients[j];
+		return result;
+	}
+
+	/**
+	 * @param ti parameter
+	 * @return values of the parameter as {@link PolynomialStructure#getTransverselyIsotropicValue(TransverselyIsotropicParameter, double)}
+	 */
+	public double[] getTransverselyIsotropicValue(TransverselyIsotropicParameter ti) {
+		switch (ti) {
+		case A:
+			return getA();
+		case C:
+			return getC();
+		case ETA:
+			return getEta();
+		case F:
+			return getF();
+		case L:
+			return getL();
+		case N:
+			return getN();
+		default:
+			throw new RuntimeException();
+		}
+	}
+
+	/**
+	 * @return the number of the radii
+	 */
+	public int size() {
+		return R.length;
+	}
+
+	/**
+	 * @return [km] radii
+	 */
+	public double[] getR() {
+		return R.clone();
+	}
+
+	/**
+	 * @return indices of the zones of the radii
+	 */
+	public int[] getZone() {
+		return ZONE.clone();
+	}
+
+	/**
+	 * @return &rho;
+	 */
+	public double[] getRho() {
+		return RHO.clone();
+	}
+
+	/**
+	 * @return V<sub>PV</sub>
+	 */
+	public double[] getVpv() {
+		return VPV.clone();
+	}
+
+	/**
+	 * @return V<sub>PH</sub>
+	 */
+	public double[] getVph() {
+		return VPH.clone();
+	}
+
+	/**
+	 * @return V<sub>SV</sub>
+	 */
+	public double[] getVsv() {
+		return VSV.clone();
+	}
+
+	/**
+	 * @return V<sub>SH</sub>
+	 */
+	public double[] getVsh() {
+		return VSH.clone();
+	}
+
+	/**
+	 * @return &eta;
+	 */
+	public double[] getEta() {
+		return ETA.clone();
+	}
+
+	/**
+	 * @return Q<sub>&mu;</sub>
+	 */
+	public double[] getQmu() {
+		return QMU.clone();
+	}
+
+	/**
+	 * @return Q<sub>&kappa;</sub>
+	 */
+	public double[] getQkappa() {
+		return QKAPPA.clone();
+	}
+
+	/**
+	 * @return A = &rho;V<sub>PH</sub><sup>2</sup>
+	 */
+	public double[] getA() {
+		return A.clone();
+	}
+
+	/**
+	 * @return C = &rho;V<sub>PV</sub><sup>2</sup>
+	 */
+	public double[] getC() {
+		return C.clone();
+	}
+
+	/**
+	 * @return F = &eta;(A-2*L)
+	 */
+	public double[] getF() {
+		return F.clone();
+	}
+
+	/**
+	 * @return L = &rho;V<sub>SV</sub><sup>2</sup>
+	 */
+	public double[] getL() {
+		return L.clone();
+	}
+
+	/**
+	 * @return N = &rho;V<sub>SH</sub><sup>2</sup>
+	 */
+	public double[] getN() {
+		return N.clone();
+	}
+
+	/**
+	 * @return effective isotropic shear wave velocity as {@link PolynomialStructure#computeVs(double)}
+	 */
+	public double[] getVs() {
+		return VS.clone();
+	}
+
+	/**
+	 * @return &mu; as {@link PolynomialStructure#computeMu(double)}
+	 */
+	public double[] getMu() {
+		return MU.clone();
+	}
+
+	/**
+	 * @return &lambda; as {@link PolynomialStructure#computeLambda(double)}
+	 */
+	public double[] getLambda() {
+		return LAMBDA.clone();
+	}
+
+	/**
+	 * @return &kappa; as {@link PolynomialStructure#computeKappa(double)}
+	 */
+	public double[] getKappa() {
+		return KAPPA.clone();
+	}
+
+}
@@ -3,11 +3,23 @@ package io.github.kensuke1984.kibrary.external;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
 import io.github.kensuke1984.kibrary.util.Location;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
 /**
  * Model SH18CEX by Nozomu Takeuchi
+ * <p>
+ * The spherical harmonics up to degree 18 depend only on the horizontal position, so
+ * {@link #getV(Location[])} computes them once for each horizontal position (the associated Legendre functions once
+ * for each latitude and cos(m&phi;), sin(m&phi;) once for each longitude) and the radial parts for each location.
  *
  * @author Kensuke Konishi
- * @version 0.0.2
+ * @version 0.0.3
  */
 public final class SH18CEX {
 
@@ -1191,10 +1203,63 @@ public final class SH18CEX {
                     3.218936491026604E-004, -6.229511197310562E-004, -1.173675289227883E-004, -1.152288834421058E-003,
                     -7.028030644410962E-004};
 
+    /**
+     * maximum degree
+     */
+    private static final int FMAX = 18;
+    /**
+     * the number of the spherical harmonics (f, g), -f &le; g &le; f, f &le; {@link #FMAX}
+     */
+    private static final int NPAR = FMAX * (FMAX + 2) + 1;
+    /**
+     * f, |g|, normalization of X<sub>f</sub><sup>|g|</sup>,
+     * and coefficients of cos(|g|&phi;) and sin(|g|&phi;) for each (f, g) in the order of the model
+     */
+    private static final int[] DEGREE = new int[NPAR];
+    private static final int[] ORDER = new int[NPAR];
+    private static final double[] NORMALIZATION = new double[NPAR];
+    private static final double[] H1 = new double[NPAR];
+    private static final double[] H2 = new double[NPAR];
+
+    static {
+        int ipar = 0;
+        for (int f = 0; f <= FMAX; f++)
+            for (int g = -f; g <= f; g++) {
+                int m = Math.abs(g);
+                double fact = 1;
+                if (m != 0) for (int i = f - m + 1; i <= f + m; i++)
+                    fact *= i;
+                DEGREE[ipar] = f;
+                ORDER[ipar] = m;
+                NORMALIZATION[ipar] = Math.sqrt((2 * f + 1) / 4.0 / Math.PI / fact);
+                if (g < 0) H2[ipar] = Math.pow(-1, -g) * Math.sqrt(8 * Math.PI);
+                else if (g == 0) H1[ipar] = f == 0 ? 0 : Math.sqrt(4 * Math.PI);
+                else H1[ipar] = Math.pow(-1, g) * Math.sqrt(8 * Math.PI);
+                ipar++;
+            }
+    }
+
     private SH18CEX() {
     }
 
-    public static void main(String args[]) {
+    /**
+     * @param args radius[km] latitude[deg] longitude[deg], or a file with lines of radius[km] latitude[deg]
+     *             longitude[deg]
+     * @throws IOException if an I/O error occurs reading the file
+     */
+    public static void main(String args[]) throws IOException {
+        if (args.length == 1) {
+            Location[] locations = Files.readAllLines(Paths.get(args[0])).stream().map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#")).map(line -> line.split("\\s+"))
+                    .map(parts -> new Location(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                            Double.parseDouble(parts[0]))).toArray(Location[]::new);
+            double[] percs = getV(locations);
+            for (int i = 0; i < locations.length; i++) {
+                double premVs = PREM.getVshAt(locations[i].getR());
+                System.out.println(locations[i] + " " + premVs * (1 + percs[i] / 100) + " " + percs[i]);
+            }
+            return;
+        }
         if (args.length != 3) throw new IllegalArgumentException("radius[km] latitude[deg] longitude[deg]");
         Location loc;
         try {
@@ -1208,74 +1273,115 @@ public final class SH18CEX {
         System.out.println(loc + " " + take + " " + perc);
     }
 
-    private static double xlm(int l, int m, double theta) {
-        if (m < 0 || l < m) throw new IllegalArgumentException("l, m are invalid");
-
-        double x = Math.cos(theta);
-        double fact = 1;
-        if (m != 0) for (int i = l - m + 1; i <= l + m; i++)
-            fact *= i;
+    /**
+     * @param latitude [deg]
+     * @return X<sub>f</sub><sup>|g|</sup>(&theta;) for each (f, g)
+     */
+    private static double[] computeXlm(double latitude) {
+        double x = Math.cos(Math.toRadians(90 - latitude));
+        // plm[l][m] by the recurrence in l for each m
+        double[][] plm = new double[FMAX + 1][FMAX + 1];
+        for (int m = 0; m <= FMAX; m++) {
+            double pmm = 1;
+            if (0 < m) {
+                double somx2 = Math.sqrt((1 - x) * (1 + x));
+                double fact = 1;
+                for (int i = 1; i <= m; i++) {
+                    pmm *= -fact * somx2;
+                    fact += 2;
+                }
+            }
+            plm[m][m] = pmm;
+            if (m == FMAX) break;
+            double pmmp1 = x * (2 * m + 1) * pmm;
+            plm[m + 1][m] = pmmp1;
+            for (int ll = m + 2; ll <= FMAX; ll++) {
+                double pll = (x * (2 * ll - 1) * pmmp1 - (ll + m - 1) * pmm) / (ll - m);
+                pmm = pmmp1;
+                pmmp1 = pll;
+                plm[ll][m] = pll;
+            }
+        }
+        double[] xlm = new double[NPAR];
+        for (int ipar = 0; ipar < NPAR; ipar++)
+            xlm[ipar] = NORMALIZATION[ipar] * plm[DEGREE[ipar]][ORDER[ipar]];
+        return xlm;
+    }
 
-        double coef = Math.sqrt((2 * l + 1) / 4.0 / Math.PI / fact);
-        return coef * plgndr(l, m, x);
+    /**
+     * @param longitude [deg]
+     * @return cos(m&phi;) for m = 0, ..., {@link #FMAX} and sin(m&phi;) for m = 0, ..., {@link #FMAX}
+     */
+    private static double[] computeTrigonometric(double longitude) {
+        double phi = Math.toRadians(longitude);
+        double[] cs = new double[2 * (FMAX + 1)];
+        for (int m = 0; m <= FMAX; m++) {
+            cs[m] = Math.cos(m * phi);
+            cs[FMAX + 1 + m] = Math.sin(m * phi);
+        }
+        return cs;
     }
 
-    private static double plgndr(int l, int m, double x) {
-        if (m < 0 || l < m || x < -1 || 1 < x) throw new IllegalArgumentException("l, m, x are invalid.");
-        double pmm = 1;
-        if (0 < m) {
-            double somx2 = Math.sqrt((1 - x) * (1 + x));
-            double fact = 1;
-            for (int i = 1; i <= m; i++) {
-                pmm *= -fact * somx2;
-                fact += 2;
-            }
+    /**
+     * @param xlm           by {@link #computeXlm(double)}
+     * @param trigonometric by {@link #computeTrigonometric(double)}
+     * @return values of the spherical harmonics for each (f, g)
+     */
+    private static double[] computeHarmonics(double[] xlm, double[] trigonometric) {
+        double[] hh = new double[NPAR];
+        for (int ipar = 0; ipar < NPAR; ipar++) {
+            int m = ORDER[ipar];
+            hh[ipar] = H1[ipar] * trigonometric[m] * xlm[ipar] + H2[ipar] * trigonometric[FMAX + 1 + m] * xlm[ipar];
         }
-        if (l == m) return pmm;
+        return hh;
+    }
 
-        double pmmp1 = x * (2 * m + 1) * pmm;
-        if (l == (m + 1)) return pmmp1;
+    /**
+     * @param location to compute the perturbation at
+     * @return [%] perturbation of Vs from PREM at the location
+     */
+    public static double getV(Location location) {
+        return getV(computeHarmonics(computeXlm(location.getLatitude()), computeTrigonometric(location.getLongitude())),
+                location.getR());
+    }
 
-        for (int ll = m + 2; ll <= l; ll++) {
-            double pll = (x * (2 * ll - 1) * pmmp1 - (ll + m - 1) * pmm) / (ll - m);
-            pmm = pmmp1;
-            pmmp1 = pll;
-        }
-        return pmmp1;
+    /**
+     * Locations are grouped by their horizontal positions, and the groups are computed in parallel.
+     *
+     * @param locations to compute the perturbation at
+     * @return [%] perturbation of Vs from PREM at each location
+     */
+    public static double[] getV(Location[] locations) {
+        int[] order = IntStream.range(0, locations.length).boxed()
+                .sorted(Comparator.<Integer>comparingDouble(i -> locations[i].getLatitude())
+                        .thenComparingDouble(i -> locations[i].getLongitude())).mapToInt(Integer::intValue).toArray();
+        int[] starts = IntStream.rangeClosed(0, order.length)
+                .filter(i -> i == 0 || i == order.length || !sameHorizontalPosition(locations[order[i - 1]], locations[order[i]]))
+                .toArray();
+        Map<Double, double[]> xlms = new ConcurrentHashMap<>();
+        Map<Double, double[]> trigonometrics = new ConcurrentHashMap<>();
+        double[] v = new double[locations.length];
+        IntStream.range(0, starts.length - 1).parallel().forEach(k -> {
+            Location first = locations[order[starts[k]]];
+            double[] hh = computeHarmonics(xlms.computeIfAbsent(first.getLatitude(), SH18CEX::computeXlm),
+                    trigonometrics.computeIfAbsent(first.getLongitude(), SH18CEX::computeTrigonometric));
+            for (int j = starts[k]; j < starts[k + 1]; j++)
+                v[order[j]] = getV(hh, locations[order[j]].getR());
+        });
+        return v;
+    }
 
+    private static boolean sameHorizontalPosition(Location location1, Location location2) {
+        return location1.getLatitude() == location2.getLatitude() && location1.getLongitude() == location2.getLongitude();
     }
 
-    public static double getV(Location location) {
-        int fmin = 0;
-        int fmax = 18;
+    /**
+     * @param hh values of the spherical harmonics by {@link #computeHarmonics(double[], double[])}
+     * @param r  [km] radius
+     * @return [%] perturbation of Vs from PREM
+     */
+    private static double getV(double[] hh, double r) {
         int nzpar = 13;
-        double[] hh = new double[fmax * (fmax + 2) + 1];
-        // int ipar = (fmin - 1) * (fmin + 1);
-        int ipar = 0;
-        for (int f = fmin; f <= fmax; f++)
-            for (int g = -f; g <= f; g++) {
-                // ipar++;
-                // hh[ipar] = 0;
-                double h1 = 0;
-                double h2 = 0;
-                if (g < 0) {
-                    // h1 = 0;
-                    h2 = Math.pow(-1, -g) * Math.sqrt(8 * Math.PI);
-                } else if (g == 0) {
-                    h1 = f == 0 ? 0 : Math.sqrt(4 * Math.PI);
-                    // h2 = 0;
-                } else {
-                    h1 = Math.pow(-1, g) * Math.sqrt(8 * Math.PI);
-                    // h2 = 0;
-                }
-                double theta = Math.toRadians(90 - location.getLatitude());
-                double phi = Math.toRadians(location.getLongitude());
-                double xlm = xlm(f, Math.abs(g), theta);
-                hh[ipar++] = h1 * Math.cos(Math.abs(g) * phi) * xlm + h2 * Math.sin(Math.abs(g) * phi) * xlm;
-                // System.out.println(xlm);
-            }
-
-        double r = location.getR();
         double rho = PREM.getRhoAt(r);
         double vs = PREM.getVshAt(r);
         double mu = PREM.computeMu(r);
@@ -1285,7 +1391,7 @@ public final class SH18CEX {
                     izpar == nzpar - 1 && r == MODEL_NODE[izpar + 1]) {
                 double zz1 = (MODEL_NODE[izpar + 1] - r) / (MODEL_NODE[izpar + 1] - MODEL_NODE[izpar]) * mu;
                 double zz2 = (r - MODEL_NODE[izpar]) / (MODEL_NODE[izpar + 1] - MODEL_NODE[izpar]) * mu;
-                for (int par = 0; par <= fmax * (fmax + 2); par++)
+                for (int par = 0; par < NPAR; par++)
                     pert += (getDM(par, izpar) * zz1 + getDM(par, izpar + 1) * zz2) * hh[par];
             }
         double vs1 = Math.sqrt((pert + mu) / rho);
@@ -1294,14 +1400,7 @@ public final class SH18CEX {
     }
 
     private static double getDM(int ipar, int izpar) {
-        int fmax = 18;
-        int fmin = 0;
-        //
-        int n = fmax * (fmax + 2) - (fmin - 1) * (fmin + 1);
-        // double[][] dm = new double[n][nzpar];
-        int i = izpar * n + ipar;
-
-        return SH_18_CEX[i];
+        return SH_18_CEX[izpar * NPAR + ipar];
     }
 
 }
@@ -2,16 +2,17 @@ package io.github.kensuke1984.kibrary.firsthandler;
 
 import io.github.kensuke1984.kibrary.Operation;
 import io.github.kensuke1984.kibrary.Property;
+import io.github.kensuke1984.kibrary.util.EventScheduler;
 import io.github.kensuke1984.kibrary.util.Utilities;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -152,15 +153,15 @@ public class FirstHandler implements Operation {
 
         seedSacs.forEach(ss -> ss.setRemoveIntermediateFiles(removeIntermediateFile));
 
-        int threadNum = Runtime.getRuntime().availableProcessors();
-        ExecutorService es = Executors.newFixedThreadPool(threadNum);
-
-        seedSacs.forEach(es::submit); //TODO exception handling
-
-        es.shutdown();
+        // larger seed files first
+        List<EventScheduler.Task> tasks = new ArrayList<>();
+        for (SeedSAC seedSac : seedSacs)
+            tasks.add(new EventScheduler.Task(seedSac.getSeedPath().getFileName().toString(), null,
+                    Files.size(seedSac.getSeedPath()), seedSac::run));
         try {
-            while (!es.isTerminated()) Thread.sleep(1000 * 5);
-        } catch (Exception e2) {
+            EventScheduler.Summary summary = new EventScheduler().run(tasks);
+            if (!summary.isComplete()) System.err.println(summary);
+        } catch (InterruptedException e2) {
             e2.printStackTrace();
         }
 
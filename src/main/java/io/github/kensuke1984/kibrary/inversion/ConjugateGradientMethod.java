@@ -6,7 +6,7 @@ import org.apache.commons.math3.linear.*;
  * Conjugate gradient method
  *
  * @author Kensuke Konishi
- * @version 0.0.3.2
+ * @version 0.0.4
  * @see <a
  * href=https://ja.wikipedia.org/wiki/%E5%85%B1%E5%BD%B9%E5%8B%BE%E9%85%8D%E6%B3%95>Japanese wiki</a> <a
  * href=https://en.wikipedia.org/wiki/Conjugate_gradient_method>English
@@ -24,6 +24,21 @@ public class ConjugateGradientMethod extends InverseProblem {
 	 */
 	private RealMatrix p;
 
+	/**
+	 * starting model m<sub>0</sub> (null means 0)
+	 */
+	private RealVector m0;
+
+	/**
+	 * iterations stop when |Atd - AtAm| &le; tolerance &times; |Atd|
+	 */
+	private double tolerance;
+
+	/**
+	 * the number of iterations done in {@link #compute()}
+	 */
+	private int nIteration;
+
     /**
      * AtAδm= AtD を解く
      *
@@ -39,6 +54,44 @@ public class ConjugateGradientMethod extends InverseProblem {
 		a = new ArrayRealVector(column);
 	}
 	
+	/**
+	 * Warm start: the iterations start from the residual Atd - AtAm<sub>0</sub>.
+	 * The answers (CG1, CG2, ...) are then corrections to m<sub>0</sub>, i.e., the solutions are m<sub>0</sub> + answers.
+	 *
+	 * @param m0 starting model (e.g. the solution of the previous iteration)
+	 */
+	public void setInitialModel(RealVector m0) {
+		if (m0 != null && m0.getDimension() != ata.getColumnDimension())
+			throw new IllegalArgumentException("Dimension of the initial model " + m0.getDimension() + " is invalid.");
+		this.m0 = m0;
+	}
+
+	/**
+	 * @return starting model m<sub>0</sub>, or null if it is 0
+	 */
+	public RealVector getInitialModel() {
+		return m0;
+	}
+
+	/**
+	 * The iterations stop when the residual |Atd - AtAm| gets at most tolerance &times; |Atd|.
+	 * The answers after the last iteration are the same as the last one.
+	 *
+	 * @param tolerance relative residual to stop at. 0 (default) means all the iterations.
+	 */
+	public void setTolerance(double tolerance) {
+		if (tolerance < 0)
+			throw new IllegalArgumentException("tolerance must be non-negative: " + tolerance);
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @return the number of iterations done in {@link #compute()}
+	 */
+	public int getNumberOfIterations() {
+		return nIteration;
+	}
+
 	public RealMatrix getP() {
 		return p;
 	}
@@ -48,29 +101,28 @@ public class ConjugateGradientMethod extends InverseProblem {
      */
     @Override
 	public void compute() {
-    	System.err.println("Solving by CG method.");
 		int column = ata.getColumnDimension();
 		p = MatrixUtils.createRealMatrix(column, column);
 		ans = MatrixUtils.createRealMatrix(column, column);
 		a = new ArrayRealVector(column);
 		System.err.println("Solving by CG method.");
-		p.setColumnVector(0, atd.mapMultiply(-1));
-		RealVector r = atd; // r_k = Atd -AtAm_k (A35)
-		
-		RealVector atap = ata.operate(p.getColumnVector(0));
-		
-		a.setEntry(0, r.dotProduct(p.getColumnVector(0)) / atap.dotProduct(p.getColumnVector(0))); // a0
-
-		ans.setColumnVector(0, p.getColumnVector(0).mapMultiply(a.getEntry(0)));
-		
-		// ///////
-		for (int i = 1; i < ata.getColumnDimension(); i++) {
-			r = r.subtract(atap.mapMultiply(a.getEntry(i - 1)));
-
-			double atapr = atap.dotProduct(r); // p AtA r
-			double patap = p.getColumnVector(i - 1).dotProduct(atap); // ptatap
-			double b = atapr / patap; // (A36)
-			p.setColumnVector(i, r.subtract(p.getColumnVector(i - 1).mapMultiply(b)));
+		RealVector r = m0 == null ? atd : atd.subtract(ata.operate(m0)); // r_k = Atd -AtAm_k (A35)
+		double residual = tolerance * atd.getNorm();
+		RealVector atap = null;
+		nIteration = 0;
+		for (int i = 0; i < column; i++) {
+			if (0 < i)
+				r = r.subtract(atap.mapMultiply(a.getEntry(i - 1)));
+			if (r.getNorm() <= residual)
+				break;
+			if (i == 0)
+				p.setColumnVector(0, r.mapMultiply(-1));
+			else {
+				double atapr = atap.dotProduct(r); // p AtA r
+				double patap = p.getColumnVector(i - 1).dotProduct(atap); // ptatap
+				double b = atapr / patap; // (A36)
+				p.setColumnVector(i, r.subtract(p.getColumnVector(i - 1).mapMultiply(b)));
+			}
 
 			atap = ata.operate(p.getColumnVector(i));
 			double paap = p.getColumnVector(i).dotProduct(atap);
@@ -78,15 +130,21 @@ public class ConjugateGradientMethod extends InverseProblem {
 
 			a.setEntry(i, rp / paap);
 
-			ans.setColumnVector(i, p.getColumnVector(i).mapMultiply(a.getEntry(i)).add(ans.getColumnVector(i - 1)));
+			RealVector correction = p.getColumnVector(i).mapMultiply(a.getEntry(i));
+			ans.setColumnVector(i, i == 0 ? correction : correction.add(ans.getColumnVector(i - 1)));
+			nIteration = i + 1;
 		}
+		if (nIteration < column)
+			System.err.println("CG converged after " + nIteration + " iterations.");
+		for (int i = nIteration; 0 < nIteration && i < column; i++)
+			ans.setColumnVector(i, ans.getColumnVector(nIteration - 1));
 	}
 
 	@Override
 	public RealMatrix computeCovariance(double sigmaD, int j) {
 		RealMatrix covariance = MatrixUtils.createRealMatrix(getParN(), getParN());
 		double sigmaD2 = sigmaD * sigmaD;
-		for (int i = 0; i < j ; i++) {
+		for (int i = 0; i < Math.min(j, nIteration); i++) {
 			double paap = p.getColumnVector(i).dotProduct(ata.operate(p.getColumnVector(i)));
 			RealMatrix p = this.p.getColumnMatrix(i);
 			double sigmaD2paap = sigmaD2 / paap;
@@ -50,7 +50,7 @@ import edu.sc.seis.TauP.TauP_Time;
  * TODO 同じ震源観測点ペアの波形も周波数やタイムウインドウによってあり得るから それに対処 varianceも
  *
  * @author Kensuke Konishi
- * @version 0.2.2.2
+ * @version 0.2.3
  */
 public class Dvector {
 
@@ -100,6 +100,14 @@ public class Dvector {
 	private Map<Station, Double> stationVariance;
 	private boolean atLeastThreeRecordsPerStation;
 	List<DataSelectionInformation> selectionInfo;
+	/**
+	 * key of a window &rarr; indices of the observed IDs with the key in ascending order
+	 */
+	private Map<WindowKey, int[]> obsIndex;
+	/**
+	 * key of a window &rarr; indices of the synthetic IDs with the key in ascending order
+	 */
+	private Map<WindowKey, int[]> synIndex;
     /**
      * Synthetic
      */
@@ -744,6 +752,8 @@ public class Dvector {
 		dvector.obsVec = obsVec.clone();
 		dvector.obsIDs = obsIDs.clone();
 		dvector.synIDs = synIDs.clone();
+		dvector.obsIndex = obsIndex;
+		dvector.synIndex = synIndex;
 		dvector.synVec = synVec.clone();
 		dvector.weighting = weighting.clone();
 		dvector.weightingVectors = weightingVectors.clone();
@@ -974,6 +984,10 @@ public class Dvector {
 		Map<GlobalCMTID, Double> eventNumerator = usedGlobalCMTIDset.stream()
 				.collect(Collectors.toMap(id -> id, id -> 0d));
 		double obs2 = 0;
+		Map<WindowKey, List<DataSelectionInformation>> selectionMap = selectionInfo == null ? null
+				: selectionInfo.stream().collect(Collectors.groupingBy(selec -> new WindowKey(
+						selec.getTimewindow().getGlobalCMTID(), selec.getTimewindow().getStation(),
+						selec.getTimewindow().getComponent())));
 		
 		for (int i = 0; i < nTimeWindow; i++) {
 			startPoints[i] = start;
@@ -987,12 +1001,10 @@ public class Dvector {
 				Station station = obsIDs[i].getStation();
 				double startTime = obsIDs[i].getStartTime();
 				SACComponent component = obsIDs[i].getSacComponent();
-				System.out.println(obsIDs[i]);
-				info = selectionInfo.stream().filter(selec -> {
+				info = selectionMap.getOrDefault(new WindowKey(id, station, component), Collections.emptyList())
+						.stream().filter(selec -> {
 					TimewindowInformation tw = selec.getTimewindow();
 					return tw.getStation().equals(station) 
-							&& tw.getGlobalCMTID().equals(id)
-							&& tw.getComponent().equals(component)
 							&& Math.abs(tw.getStartTime() - startTime) < 0.1;
 				}).findFirst().get();
 			}
@@ -1231,20 +1243,16 @@ public class Dvector {
 				.filter(CHOOSER::test).collect(Collectors.toList());
 
 		// 重複チェック 重複が見つかればここから進まない
-		for (int i = 0; i < obsList.size(); i++)
-			for (int j = i + 1; j < obsList.size(); j++)
-				if (obsList.get(i).equals(obsList.get(j)))
-					throw new RuntimeException("Duplicate observed detected");
+		if (hasDuplicate(obsList))
+			throw new RuntimeException("Duplicate observed detected");
 
 		// 理論波形の抽出
 		List<BasicID> synList = Arrays.stream(ids).filter(id -> id.getWaveformType() == WaveformType.SYN)
 				.filter(CHOOSER::test).collect(Collectors.toList());
 
 		// 重複チェック
-		for (int i = 0; i < synList.size() - 1; i++)
-			for (int j = i + 1; j < synList.size(); j++)
-				if (synList.get(i).equals(synList.get(j)))
-					throw new RuntimeException("Duplicate synthetic detected");
+		if (hasDuplicate(synList))
+			throw new RuntimeException("Duplicate synthetic detected");
 
 		System.out.println("Number of obs IDs before pairing with syn IDs = " + obsList.size());
 		if (obsList.size() != synList.size())
@@ -1255,18 +1263,16 @@ public class Dvector {
 		List<BasicID> useObsList = new ArrayList<>(size);
 		List<BasicID> useSynList = new ArrayList<>(size);
 
-		for (int i = 0; i < synList.size(); i++) {
-			boolean foundPair = false;
-			for (int j = 0; j < obsList.size(); j++) {
-				if (isPair(synList.get(i), obsList.get(j))) {
-					useObsList.add(obsList.get(j));
-					useSynList.add(synList.get(i));
-					foundPair = true;
-					break;
-				}
+		BasicID[] obsArray = obsList.toArray(new BasicID[0]);
+		Map<WindowKey, int[]> obsArrayIndex = index(obsArray);
+		for (BasicID synID : synList) {
+			int j = find(synID, obsArray, obsArrayIndex);
+			if (j < 0) {
+				System.out.println("Didn't find OBS for " + synID);
+				continue;
 			}
-			if (!foundPair)
-				System.out.println("Didn't find OBS for " + synList.get(i));
+			useObsList.add(obsArray[j]);
+			useSynList.add(synID);
 		}
 
 		if (useObsList.size() != useSynList.size())
@@ -1275,6 +1281,8 @@ public class Dvector {
 		nTimeWindow = useSynList.size();
 		obsIDs = useObsList.toArray(new BasicID[0]);
 		synIDs = useSynList.toArray(new BasicID[0]);
+		obsIndex = index(obsIDs);
+		synIndex = index(synIDs);
 		
 		weightingVectors = new ArrayRealVector[nTimeWindow];
 		
@@ -1373,8 +1381,96 @@ public class Dvector {
      * @return index for the ID. -1 if no ID found.
      */
 	int whichTimewindow(BasicID id) {
-		BasicID[] ids = id.getWaveformType() == WaveformType.OBS ? obsIDs : synIDs;
-		return IntStream.range(0, ids.length).filter(i -> isPair(id, ids[i])).findAny().orElse(-1);
+		return id.getWaveformType() == WaveformType.OBS ? find(id, obsIDs, obsIndex) : find(id, synIDs, synIndex);
+	}
+
+	/**
+	 * Look for the indices for the input IDs in parallel. See {@link #whichTimewindow(BasicID)}.
+	 *
+	 * @param ids {@link BasicID}s
+	 * @return indices for the IDs. -1 for the ones with no ID found.
+	 */
+	int[] whichTimewindow(BasicID[] ids) {
+		return IntStream.range(0, ids.length).parallel().map(i -> whichTimewindow(ids[i])).toArray();
+	}
+
+	/**
+	 * @param id    to look for
+	 * @param ids   in which the ID is looked for
+	 * @param index of the ids made by {@link #index(BasicID[])}
+	 * @return the first index i for which {@link #isPair(BasicID, BasicID)} of the id and ids[i] is true. -1 if none.
+	 */
+	private static int find(BasicID id, BasicID[] ids, Map<WindowKey, int[]> index) {
+		int[] candidates = index.get(new WindowKey(id.getGlobalCMTID(), id.getStation(), id.getSacComponent()));
+		if (candidates != null)
+			for (int i : candidates)
+				if (isPair(id, ids[i]))
+					return i;
+		return -1;
+	}
+
+	/**
+	 * @param ids to index
+	 * @return key &rarr; indices of the IDs with the key in ascending order
+	 */
+	private static Map<WindowKey, int[]> index(BasicID[] ids) {
+		Map<WindowKey, List<Integer>> lists = new HashMap<>();
+		for (int i = 0; i < ids.length; i++)
+			lists.computeIfAbsent(new WindowKey(ids[i].getGlobalCMTID(), ids[i].getStation(), ids[i].getSacComponent()),
+					key -> new ArrayList<>()).add(i);
+		Map<WindowKey, int[]> index = new HashMap<>();
+		lists.forEach((key, list) -> index.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+		return index;
+	}
+
+	/**
+	 * Only IDs with the same key are compared.
+	 *
+	 * @param ids to check
+	 * @return if any two of the IDs are equal
+	 */
+	private static boolean hasDuplicate(List<BasicID> ids) {
+		Map<WindowKey, List<BasicID>> groups = ids.stream().collect(Collectors
+				.groupingBy(id -> new WindowKey(id.getGlobalCMTID(), id.getStation(), id.getSacComponent())));
+		for (List<BasicID> group : groups.values())
+			for (int i = 0; i < group.size(); i++)
+				for (int j = i + 1; j < group.size(); j++)
+					if (group.get(i).equals(group.get(j)))
+						return true;
+		return false;
+	}
+
+	/**
+	 * Key of windows for hash lookups. Pairs by {@link #isPair(BasicID, BasicID)}, equal IDs and windows of the
+	 * selection information of an ID have the same event, station name and component. The other conditions (positions
+	 * of stations, start times, phases, periods ...) are checked for the few candidates with the same key.
+	 */
+	private static final class WindowKey {
+		private final GlobalCMTID ID;
+		private final String STATION_NAME;
+		private final SACComponent COMPONENT;
+
+		private WindowKey(GlobalCMTID id, Station station, SACComponent component) {
+			ID = id;
+			STATION_NAME = station.getName();
+			COMPONENT = component;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(ID, STATION_NAME, COMPONENT);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof WindowKey))
+				return false;
+			WindowKey other = (WindowKey) obj;
+			return Objects.equals(ID, other.ID) && Objects.equals(STATION_NAME, other.STATION_NAME)
+					&& COMPONENT == other.COMPONENT;
+		}
 	}
 	
 	/**
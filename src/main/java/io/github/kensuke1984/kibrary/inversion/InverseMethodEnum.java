@@ -3,6 +3,7 @@ package io.github.kensuke1984.kibrary.inversion;
 import java.util.stream.IntStream;
 
 import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealLinearOperator;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
@@ -11,16 +12,22 @@ import org.apache.commons.math3.linear.RealVector;
  * value decomposition.. etc
  *
  * @author Kensuke Konishi
- * @version 0.0.3
+ * @version 0.0.3.1
  * @author anselme added several methods
  */
 public enum InverseMethodEnum {
 	SINGULAR_VALUE_DECOMPOSITION, CONJUGATE_GRADIENT, LEAST_SQUARES_METHOD,
 	NON_NEGATIVE_LEAST_SQUARES_METHOD, BICONJUGATE_GRADIENT_STABILIZED_METHOD,
 	FAST_CONJUGATE_GRADIENT, FAST_CONJUGATE_GRADIENT_DAMPED, NONLINEAR_CONJUGATE_GRADIENT,
-	CONSTRAINED_CONJUGATE_GRADIENT;
+	CONSTRAINED_CONJUGATE_GRADIENT, TRUNCATED_SINGULAR_VALUE_DECOMPOSITION;
 	
 	RealVector conditioner;
+	
+	/**
+	 * target rank and relative tolerance of singular values for the truncated SVD
+	 */
+	int truncationRank = 100;
+	double truncationTolerance = 1e-8;
 
 	public static InverseMethodEnum of(String simple) {
 		switch (simple) {
@@ -49,6 +56,9 @@ public enum InverseMethodEnum {
 			return NONLINEAR_CONJUGATE_GRADIENT;
 		case "CCG":
 			return CONSTRAINED_CONJUGATE_GRADIENT;
+		case "TSVD":
+		case "tsvd":
+			return TRUNCATED_SINGULAR_VALUE_DECOMPOSITION;
 		default:
 			throw new IllegalArgumentException("Invalid name for InverseMethod");
 		}
@@ -59,6 +69,15 @@ public enum InverseMethodEnum {
 		conditioner = m;
 	}
 	
+	/**
+	 * @param rank      target rank for the truncated SVD
+	 * @param tolerance singular values smaller than tolerance &times; (the largest one) are discarded
+	 */
+	public void setTruncation(int rank, double tolerance) {
+		truncationRank = rank;
+		truncationTolerance = tolerance;
+	}
+	
 	public String simple() {
 		switch (this) {
 		case SINGULAR_VALUE_DECOMPOSITION:
@@ -80,6 +99,8 @@ public enum InverseMethodEnum {
 			return "NLCG";
 		case CONSTRAINED_CONJUGATE_GRADIENT:
 			return "CCG";
+		case TRUNCATED_SINGULAR_VALUE_DECOMPOSITION:
+			return "TSVD";
 		default:
 			throw new RuntimeException("Unexpected");
 		}
@@ -101,11 +122,29 @@ public enum InverseMethodEnum {
 			return new FastConjugateGradientMethod(ata, atd, true, conditioner); //TODO the name should be changed, but "ata" for FastConjugateGradientMethod is actually "a" (ata not needed for CG).
 		case BICONJUGATE_GRADIENT_STABILIZED_METHOD:
 			return new BiConjugateGradientStabilizedMethod(ata, atd);
+		case NON_NEGATIVE_LEAST_SQUARES_METHOD:
+			return NonNegativeLeastSquaresMethod.ofAtA(ata, atd);
+		case TRUNCATED_SINGULAR_VALUE_DECOMPOSITION:
+			return new TruncatedSingularValueDecomposition(ata, atd, truncationRank, truncationTolerance);
 		default:
 			throw new RuntimeException("soteigai");
 		}
 	}
 	
+	/**
+	 * @param ata operator of AtA, e.g. {@link TruncatedSingularValueDecomposition#normalOperator(RealMatrix)}
+	 * @param atd Atd
+	 * @return the method which needs only products of AtA with vectors
+	 */
+	InverseProblem getMethod(RealLinearOperator ata, RealVector atd) {
+		switch (this) {
+		case TRUNCATED_SINGULAR_VALUE_DECOMPOSITION:
+			return new TruncatedSingularValueDecomposition(ata, atd, truncationRank, truncationTolerance);
+		default:
+			throw new RuntimeException(this + " needs AtA.");
+		}
+	}
+	
 	InverseProblem getMethod(RealMatrix ata, RealMatrix a, RealVector u, RealVector s0) {
 		switch (this) {
 		case NONLINEAR_CONJUGATE_GRADIENT:
@@ -24,7 +24,7 @@ import java.util.stream.Stream;
  * Utilities for write of {@link LetMeInvert}.
  *
  * @author Kensuke Konishi
- * @version 0.1.2.1
+ * @version 0.1.2.2
  */
 public class InversionResult {
 
@@ -150,6 +150,10 @@ public class InversionResult {
 	}
 	
 	/**
+	 * Builds the map and the index of the answer for each call.
+	 * For many locations, use {@link #complement(Map, LocationIndex, int, int, Location)}
+	 * with {@link #toLocationMap(Map, PartialType)} and {@link #indexOf(Map)}.
+	 *
      * @param answer map of the answer
      * @param nPoints  number of points
      * @param nPower   距離の何乗で補間するか
@@ -159,27 +163,57 @@ public class InversionResult {
      */
 	public static double complement(Map<UnknownParameter, Double> answer, int nPoints, int nPower, Location location,
 			PartialType type) {
+		Map<Location, Double> ansMap = toLocationMap(answer, type);
+		return complement(ansMap, indexOf(ansMap), nPoints, nPower, location);
+	}
+
+	/**
+	 * @param answer map of the answer
+	 * @param type   3D {@link PartialType}
+	 * @return location &rarr; answer of the type
+	 */
+	public static Map<Location, Double> toLocationMap(Map<UnknownParameter, Double> answer, PartialType type) {
 		if (!type.is3D())
 			throw new RuntimeException(type + " is not 3d parameter"); // TODO
-		Map<Location, Double> ansMap = answer.keySet().stream().filter(key -> key.getPartialType() == type).collect(
-				Collectors.toMap(key -> ((Physical3DParameter) key).getPointLocation(), key -> answer.get(key)));
-
 		if (type.equals(PartialType.TIME_RECEIVER) || type.equals(PartialType.TIME_SOURCE) )
 			throw new RuntimeException("TIME PARTIAL MADADAMEEEEEEEE");
+		return answer.keySet().stream().filter(key -> key.getPartialType() == type).collect(
+				Collectors.toMap(key -> ((Physical3DParameter) key).getPointLocation(), key -> answer.get(key)));
+	}
+
+	/**
+	 * The locations are sorted (see {@link Location#compareTo(HorizontalPosition)}),
+	 * so that neighbours at the same distance are chosen in the same order whatever the order of the map is.
+	 *
+	 * @param ansMap location &rarr; answer
+	 * @return index of the locations in the map
+	 */
+	public static LocationIndex indexOf(Map<Location, Double> ansMap) {
+		return new LocationIndex(ansMap.keySet().stream().sorted().toArray(Location[]::new));
+	}
+
+	/**
+	 * @param ansMap   location &rarr; answer by {@link #toLocationMap(Map, PartialType)}
+	 * @param index    index of the locations in the ansMap by {@link #indexOf(Map)}
+	 * @param nPoints  number of points
+	 * @param nPower   距離の何乗で補間するか
+	 * @param location location for complement
+	 * @return locationの直近nPoints点からの補間値
+	 */
+	public static double complement(Map<Location, Double> ansMap, LocationIndex index, int nPoints, int nPower,
+			Location location) {
 		if (ansMap.containsKey(location))
 			return ansMap.get(location);
 
-		Location[] nearLocations = location
-				.getNearestLocation(answer.keySet().stream().filter(key -> key.getPartialType() == type)
-						.map(key -> ((Physical3DParameter) key).getPointLocation()).toArray(Location[]::new));
-		double[] r = new double[nPoints];
+		Location[] nearLocations = index.getNearest(location, nPoints);
+		double[] r = new double[nearLocations.length];
 		double rTotal = 0;
-		for (int iPoint = 0; iPoint < nPoints; iPoint++) {
+		for (int iPoint = 0; iPoint < nearLocations.length; iPoint++) {
 			r[iPoint] = Math.pow(nearLocations[iPoint].getDistance(location), nPower);
 			rTotal += 1 / r[iPoint];
 		}
 		double value = 0;
-		for (int iPoint = 0; iPoint < nPoints; iPoint++)
+		for (int iPoint = 0; iPoint < nearLocations.length; iPoint++)
 			value += ansMap.get(nearLocations[iPoint]) / r[iPoint];
 
 		return value / rTotal;
@@ -0,0 +1,380 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.util.Utilities;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.waveformdata.BasicID;
+import io.github.kensuke1984.kibrary.waveformdata.PartialID;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Inversion session kept in a directory across the iterations of a tomography.
+ * <p>
+ * AtA and Atd are cached on disk for each event together with SHA-256 hashes of what they are built from. The hash
+ * of AtA covers the unknown parameters, the timewindows with their weighting and the partials of the event, and the
+ * hash of Atd covers in addition &delta;d. When the equation is assembled again, AtA is rebuilt only for events
+ * whose partials, timewindows or weighting have changed. If only &delta;d has changed (e.g. by new synthetics in an
+ * iteration), only Atd is rebuilt, which costs a product of A and &delta;d instead of the one of A and A.
+ * AtA of an event is kept only over the columns where the event has non-zero partials, so an event costs k<sup>2</sup>
+ * for its k columns instead of n<sup>2</sup> for all the n unknowns.
+ * <p>
+ * The solution of the last inversion is also kept so that iterative solvers can start from it.
+ * <p>
+ * Files in the session directory:
+ * <ul>
+ * <li>ata/[event].dat: hash of AtA, hash of Atd, n, k, the k columns, upper triangle of AtA over them (row major)
+ * and Atd of the event</li>
+ * <li>model.dat: n and the last solution</li>
+ * </ul>
+ *
+ * @author anselme
+ * @version 0.0.3
+ */
+public class InversionSession {
+
+	/**
+	 * format of the cache files. Caches in other formats have different hashes.
+	 */
+	private static final int FORMAT = 3;
+
+	private final Path cachePath;
+	private final Path modelPath;
+	private final List<UnknownParameter> parameterList;
+	private final UnknownParameterIndex parameterIndex;
+
+	/**
+	 * @param sessionPath   directory for the session. It is created if it does not exist.
+	 * @param parameterList unknown parameters
+	 * @throws IOException if the directory can not be created
+	 */
+	public InversionSession(Path sessionPath, List<UnknownParameter> parameterList) throws IOException {
+		this.parameterList = parameterList;
+		parameterIndex = new UnknownParameterIndex(parameterList);
+		cachePath = sessionPath.resolve("ata");
+		modelPath = sessionPath.resolve("model.dat");
+		Files.createDirectories(cachePath);
+	}
+
+	/**
+	 * Sum of AtA and Atd over the events in the dVector.
+	 * Cached ones are used for unchanged events, and the others are rebuilt and cached.
+	 * The returned equation does not hold A.
+	 *
+	 * @param partialIDs partials with waveform data
+	 * @param dVector    for &delta;d
+	 * @return observation equation with AtA and Atd
+	 * @throws IOException if an I/O error occurs
+	 */
+	public ObservationEquation assemble(PartialID[] partialIDs, Dvector dVector) throws IOException {
+		long t = System.nanoTime();
+		int n = parameterList.size();
+		BasicID[] obsIDs = dVector.getObsIDs();
+		Map<GlobalCMTID, List<Integer>> windowMap = new TreeMap<>();
+		for (int i = 0; i < obsIDs.length; i++)
+			windowMap.computeIfAbsent(obsIDs[i].getGlobalCMTID(), id -> new ArrayList<>()).add(i);
+		Map<GlobalCMTID, List<PartialID>> partialMap = new TreeMap<>();
+		for (PartialID id : partialIDs)
+			if (windowMap.containsKey(id.getGlobalCMTID()))
+				partialMap.computeIfAbsent(id.getGlobalCMTID(), e -> new ArrayList<>()).add(id);
+
+		Matrix ata = new Matrix(n, n);
+		RealVector atd = new ArrayRealVector(n);
+		int nRebuilt = 0;
+		int nAtdRebuilt = 0;
+		for (GlobalCMTID event : windowMap.keySet()) {
+			List<Integer> windows = windowMap.get(event);
+			List<Entry> entries = toEntries(partialMap.getOrDefault(event, new ArrayList<>()), dVector);
+			String ataHash = hashAtA(windows, entries, dVector);
+			String atdHash = hashAtd(ataHash, windows, dVector);
+			Path path = cachePath.resolve(event + ".dat");
+			Block block = read(path, ataHash, n);
+			if (block == null) {
+				block = build(windows, entries, dVector, true);
+				write(path, ataHash, atdHash, n, block);
+				nRebuilt++;
+			} else if (!block.atdHash.equals(atdHash)) {
+				block = new Block(block.columns, block.ata, build(windows, entries, dVector, false).atd);
+				write(path, ataHash, atdHash, n, block);
+				nAtdRebuilt++;
+			}
+			int[] columns = block.columns;
+			for (int i = 0; i < columns.length; i++) {
+				atd.addToEntry(columns[i], block.atd[i]);
+				for (int j = 0; j < columns.length; j++)
+					ata.addToEntry(columns[i], columns[j], block.ata[i][j]);
+			}
+		}
+		System.err.println("AtA is assembled from " + windowMap.size() + " events (" + nRebuilt + " rebuilt, "
+				+ nAtdRebuilt + " with only Atd rebuilt) in " + Utilities.toTimeString(System.nanoTime() - t));
+		return new ObservationEquation(ata, atd, parameterList, dVector);
+	}
+
+	/**
+	 * @return the solution of the last inversion in this session, or null if there is not or the number of unknowns
+	 * has changed.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public RealVector readPreviousModel() throws IOException {
+		if (!Files.exists(modelPath))
+			return null;
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(modelPath)))) {
+			int n = dis.readInt();
+			if (n != parameterList.size())
+				return null;
+			double[] m = new double[n];
+			for (int i = 0; i < n; i++)
+				m[i] = dis.readDouble();
+			return new ArrayRealVector(m, false);
+		}
+	}
+
+	/**
+	 * @param m solution to be used as the starting model in the next iteration
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void writeModel(RealVector m) throws IOException {
+		Path tmpPath = modelPath.resolveSibling(modelPath.getFileName() + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+			dos.writeInt(m.getDimension());
+			for (int i = 0; i < m.getDimension(); i++)
+				dos.writeDouble(m.getEntry(i));
+		}
+		Files.move(tmpPath, modelPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * AtA and Atd of an event over the columns where the event has non-zero partials
+	 */
+	private static class Block {
+		/**
+		 * columns in the whole AtA in ascending order
+		 */
+		private final int[] columns;
+		private final double[][] ata;
+		private final double[] atd;
+		/**
+		 * hash of Atd in the cache, or null for a block not read from the cache
+		 */
+		private String atdHash;
+
+		private Block(int[] columns, double[][] ata, double[] atd) {
+			this.columns = columns;
+			this.ata = ata;
+			this.atd = atd;
+		}
+	}
+
+	/**
+	 * A partial with its timewindow and column in A
+	 */
+	private static class Entry {
+		private final PartialID id;
+		private final int window;
+		private final int column;
+
+		private Entry(PartialID id, int window, int column) {
+			this.id = id;
+			this.window = window;
+			this.column = column;
+		}
+	}
+
+	/**
+	 * @return entries of the partials used in A, in the order of (timewindow, column)
+	 */
+	private List<Entry> toEntries(List<PartialID> ids, Dvector dVector) {
+		List<Entry> entries = new ArrayList<>();
+		int[] windows = dVector.whichTimewindow(ids.toArray(new PartialID[0]));
+		for (int i = 0; i < windows.length; i++) {
+			PartialID id = ids.get(i);
+			int column = parameterIndex.indexOf(id);
+			if (column < 0)
+				continue;
+			int window = windows[i];
+			if (window < 0)
+				continue;
+			entries.add(new Entry(id, window, column));
+		}
+		entries.sort(Comparator.<Entry>comparingInt(e -> e.window).thenComparingInt(e -> e.column));
+		return entries;
+	}
+
+	/**
+	 * Computes AtA and Atd for the rows of A of the timewindows of an event over the columns with non-zero partials.
+	 *
+	 * @param withAtA if false, AtA is not computed and the block has null for it
+	 */
+	private Block build(List<Integer> windows, List<Entry> entries, Dvector dVector, boolean withAtA) {
+		int n = parameterList.size();
+		if (entries.size() != windows.size() * n)
+			throw new RuntimeException("Input partials are not enough.");
+		boolean[] touched = new boolean[n];
+		for (Entry entry : entries)
+			if (!touched[entry.column])
+				touched[entry.column] = Arrays.stream(entry.id.getData()).anyMatch(v -> v != 0);
+		int[] columns = IntStream.range(0, n).filter(i -> touched[i]).toArray();
+		if (columns.length == 0)
+			return new Block(columns, new double[0][0], new double[0]);
+		int[] localColumns = new int[n];
+		for (int i = 0; i < columns.length; i++)
+			localColumns[columns[i]] = i;
+
+		RealVector[] dVec = dVector.getdVec();
+		int[] rows = new int[windows.size()];
+		Map<Integer, Integer> windowIndex = new TreeMap<>();
+		int npts = 0;
+		for (int i = 0; i < windows.size(); i++) {
+			windowIndex.put(windows.get(i), i);
+			rows[i] = npts;
+			npts += dVec[windows.get(i)].getDimension();
+		}
+		Matrix a = new Matrix(npts, columns.length);
+		RealVector d = new ArrayRealVector(npts);
+		for (int i = 0; i < windows.size(); i++)
+			d.setSubVector(rows[i], dVec[windows.get(i)]);
+		for (Entry entry : entries) {
+			if (!touched[entry.column])
+				continue;
+			int row = rows[windowIndex.get(entry.window)];
+			int column = localColumns[entry.column];
+			double weighting = dVector.getWeighting(entry.window) * parameterList.get(entry.column).getWeighting();
+			double[] partial = entry.id.getData();
+			for (int j = 0; j < partial.length; j++)
+				a.setEntry(row + j, column, partial[j] * weighting);
+		}
+		return new Block(columns, withAtA ? a.computeAtA().getDataRef() : null, a.preMultiply(d).toArray());
+	}
+
+	/**
+	 * @return SHA-256 hash of the unknown parameters, timewindows, weighting and partials of an event
+	 */
+	private String hashAtA(List<Integer> windows, List<Entry> entries, Dvector dVector) {
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		update(digest, buffer, FORMAT);
+		for (UnknownParameter parameter : parameterList) {
+			digest.update(parameter.toString().getBytes());
+			update(digest, buffer, parameter.getWeighting());
+		}
+		BasicID[] obsIDs = dVector.getObsIDs();
+		for (int i : windows) {
+			digest.update(obsIDs[i].toString().getBytes());
+			update(digest, buffer, dVector.getWeighting(i));
+		}
+		for (Entry entry : entries) {
+			digest.update(entry.id.toString().getBytes());
+			for (double v : entry.id.getData())
+				update(digest, buffer, v);
+		}
+		return toString(digest);
+	}
+
+	/**
+	 * @param ataHash hash of AtA of the event by {@link #hashAtA(List, List, Dvector)}
+	 * @return SHA-256 hash of the hash of AtA, the synthetics and &delta;d of an event
+	 */
+	private static String hashAtd(String ataHash, List<Integer> windows, Dvector dVector) {
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		digest.update(ataHash.getBytes());
+		BasicID[] synIDs = dVector.getSynIDs();
+		RealVector[] dVec = dVector.getdVec();
+		for (int i : windows) {
+			digest.update(synIDs[i].toString().getBytes());
+			for (double v : dVec[i].toArray())
+				update(digest, buffer, v);
+		}
+		return toString(digest);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toString(MessageDigest digest) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest())
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	private static void update(MessageDigest digest, ByteBuffer buffer, double value) {
+		buffer.clear();
+		buffer.putDouble(value);
+		digest.update(buffer.array());
+	}
+
+	/**
+	 * @return the block in the cache with the hash of its Atd if it exists and has the same hash of AtA, otherwise
+	 * null
+	 */
+	private static Block read(Path path, String ataHash, int n) throws IOException {
+		if (!Files.exists(path))
+			return null;
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (!dis.readUTF().equals(ataHash))
+				return null;
+			String atdHash = dis.readUTF();
+			if (dis.readInt() != n)
+				return null;
+			int[] columns = new int[dis.readInt()];
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = dis.readInt();
+			double[][] ata = new double[columns.length][columns.length];
+			for (int i = 0; i < columns.length; i++)
+				for (int j = i; j < columns.length; j++)
+					ata[i][j] = ata[j][i] = dis.readDouble();
+			double[] atd = new double[columns.length];
+			for (int i = 0; i < columns.length; i++)
+				atd[i] = dis.readDouble();
+			Block block = new Block(columns, ata, atd);
+			block.atdHash = atdHash;
+			return block;
+		}
+	}
+
+	private static void write(Path path, String ataHash, String atdHash, int n, Block block) throws IOException {
+		Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+		int k = block.columns.length;
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+			dos.writeUTF(ataHash);
+			dos.writeUTF(atdHash);
+			dos.writeInt(n);
+			dos.writeInt(k);
+			for (int column : block.columns)
+				dos.writeInt(column);
+			for (int i = 0; i < k; i++)
+				for (int j = i; j < k; j++)
+					dos.writeDouble(block.ata[i][j]);
+			for (double v : block.atd)
+				dos.writeDouble(v);
+		}
+		Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -10,6 +10,7 @@ import io.github.kensuke1984.kibrary.inversion.addons.RadialSecondOrderDifferent
 import io.github.kensuke1984.kibrary.inversion.addons.UnknownParameterWeightType;
 import io.github.kensuke1984.kibrary.inversion.addons.WeightingType;
 import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.math.SparseMatrix;
 import io.github.kensuke1984.kibrary.selection.DataSelectionInformation;
 import io.github.kensuke1984.kibrary.selection.DataSelectionInformationFile;
 import io.github.kensuke1984.kibrary.util.HorizontalPosition;
@@ -63,7 +64,7 @@ import org.jfree.util.ArrayUtilities;
  * Let's invert
  *
  * @author Kensuke Konishi
- * @version 2.0.3.6
+ * @version 2.0.3.7
  * @author anselme added regularization, ...
  */
 public class LetMeInvert implements Operation {
@@ -142,6 +143,19 @@ public class LetMeInvert implements Operation {
 	private boolean usePrecomputedAtA;
 	private Path[] precomputedAtAPath;
 	private Path[] precomputedAtdPath;
+	/**
+	 * session directory for AtA cached by event and warm start (null: not used)
+	 */
+	private Path sessionPath;
+	private InversionSession session;
+	/**
+	 * CG stops when |Atd - AtAm| &le; cgTolerance &times; |Atd|
+	 */
+	private double cgTolerance;
+	/**
+	 * TSVD works with products on A instead of AtA, which is not computed
+	 */
+	private boolean tsvdOnA;
 	private boolean trimWindow;
 	private double trimPoint;
 	private boolean keepBefore;
@@ -168,6 +182,9 @@ public class LetMeInvert implements Operation {
 		if (!PROPERTY.containsKey("partialPath"))
 			throw new IllegalArgumentException("There is no information about 'partialPath'.");
 		if (!PROPERTY.containsKey("inverseMethods")) PROPERTY.setProperty("inverseMethods", "CG SVD");
+		if (!PROPERTY.containsKey("tsvdRank")) PROPERTY.setProperty("tsvdRank", "100");
+		if (!PROPERTY.containsKey("tsvdTolerance")) PROPERTY.setProperty("tsvdTolerance", "1e-8");
+		if (!PROPERTY.containsKey("tsvdOnA")) PROPERTY.setProperty("tsvdOnA", "false");
 		if (!PROPERTY.containsKey("weighting")) PROPERTY.setProperty("weighting", "RECIPROCAL");
 		if (!PROPERTY.containsKey("time_source")) PROPERTY.setProperty("time_source", "false");
 		if (!PROPERTY.containsKey("time_receiver")) PROPERTY.setProperty("time_receiver", "false");
@@ -231,6 +248,10 @@ public class LetMeInvert implements Operation {
 		inverseMethods = Arrays.stream(PROPERTY.getProperty("inverseMethods").split("\\s+")).map(InverseMethodEnum::of)
 				.collect(Collectors.toSet());
 		inverseMethods.stream().forEach(method -> System.out.println(method));
+		if (inverseMethods.contains(InverseMethodEnum.TRUNCATED_SINGULAR_VALUE_DECOMPOSITION))
+			InverseMethodEnum.TRUNCATED_SINGULAR_VALUE_DECOMPOSITION.setTruncation(
+					Integer.parseInt(PROPERTY.getProperty("tsvdRank")), Double.parseDouble(PROPERTY.getProperty("tsvdTolerance")));
+		tsvdOnA = Boolean.parseBoolean(PROPERTY.getProperty("tsvdOnA"));
 		weightingType = WeightingType.valueOf(PROPERTY.getProperty("weighting"));
 		time_source = Boolean.parseBoolean(PROPERTY.getProperty("time_source"));
 		time_receiver = Boolean.parseBoolean(PROPERTY.getProperty("time_receiver"));
@@ -353,6 +374,11 @@ public class LetMeInvert implements Operation {
 			precomputedAtAPath = Stream.of(PROPERTY.getProperty("precomputedAtAPath").split("\\s+")).map(p -> Paths.get(p.trim())).collect(Collectors.toList()).toArray(new Path[0]);
 		}
 		
+		if (PROPERTY.containsKey("sessionPath"))
+			sessionPath = getPath("sessionPath");
+		cgTolerance = PROPERTY.containsKey("cgTolerance") ? Double.parseDouble(PROPERTY.getProperty("cgTolerance"))
+				: sessionPath == null ? 0 : 1e-6;
+		
 		checkerboard = Boolean.parseBoolean(PROPERTY.getProperty("checkerboard"));
 		if (checkerboard)
 			checkerboardPerturbationPath = Paths.get(PROPERTY.getProperty("checkerboardPerturbationPath"));
@@ -387,6 +413,33 @@ public class LetMeInvert implements Operation {
 		applyEventAmpCorr = Boolean.parseBoolean(PROPERTY.getProperty("applyEventAmpCorr"));
 		
 		correct3DFocusing = Boolean.parseBoolean(PROPERTY.getProperty("correct3DFocusing"));
+		
+		if (tsvdOnA) {
+			// only A is built
+			if (inverseMethods.stream().anyMatch(method -> method != InverseMethodEnum.TRUNCATED_SINGULAR_VALUE_DECOMPOSITION
+					&& method != InverseMethodEnum.FAST_CONJUGATE_GRADIENT
+					&& method != InverseMethodEnum.FAST_CONJUGATE_GRADIENT_DAMPED))
+				throw new IllegalArgumentException("tsvdOnA can be used only with TSVD, FCG and FCGD.");
+			if (conditioner || regularizationMuQ || lowMemoryCost || usePrecomputedAtA || sessionPath != null
+					|| partialSpcIDPath != null || spcAmpIDPath != null)
+				throw new IllegalArgumentException("tsvdOnA can not be used with conditioner, regularizationMuQ, "
+						+ "lowMemoryCost, usePrecomputedAtA, sessionPath or spc equations.");
+		}
+		
+		if (sessionPath != null) {
+			// the session assembles only AtA and Atd of waveform partials
+			if (time_source || time_receiver)
+				throw new IllegalArgumentException("sessionPath can not be used with time partials.");
+			if (partialSpcIDPath != null || spcAmpIDPath != null)
+				throw new IllegalArgumentException("sessionPath can not be used with spc equations.");
+			if (lowMemoryCost || usePrecomputedAtA)
+				throw new IllegalArgumentException("sessionPath can not be used with lowMemoryCost or usePrecomputedAtA.");
+			if (jackknife || inverseMethods.stream().anyMatch(method -> method == InverseMethodEnum.FAST_CONJUGATE_GRADIENT
+					|| method == InverseMethodEnum.FAST_CONJUGATE_GRADIENT_DAMPED
+					|| method == InverseMethodEnum.NONLINEAR_CONJUGATE_GRADIENT
+					|| method == InverseMethodEnum.CONSTRAINED_CONJUGATE_GRADIENT))
+				throw new IllegalArgumentException("sessionPath can not be used with jackknife or methods which need A.");
+		}
 	}
 
 	public static void writeDefaultPropertiesFile() throws IOException {
@@ -422,6 +475,12 @@ public class LetMeInvert implements Operation {
 			pw.println("#alpha");
 			pw.println("##inverseMethods[] names of inverse methods (CG SVD)");
 			pw.println("#inverseMethods");
+			pw.println("##int target rank of the truncated SVD (TSVD) (100)");
+			pw.println("#tsvdRank");
+			pw.println("##double singular values of TSVD smaller than tsvdTolerance * (the largest one) are discarded (1e-8)");
+			pw.println("#tsvdTolerance");
+			pw.println("##boolean TSVD uses products on A without computing AtA; only TSVD, FCG and FCGD can run then (false)");
+			pw.println("#tsvdOnA");
 			pw.println("##int weighting (RECIPROCAL); LOWERUPPERMANTLE, RECIPROCAL, TAKEUCHIKOBAYASHI, IDENTITY, or FINAL");
 			pw.println("#weighting RECIPROCAL");
 			pw.println("##double gamma. Must be set only if TAKEUCHIKOBAYASHI weigthing is used");
@@ -481,6 +540,12 @@ public class LetMeInvert implements Operation {
 			pw.println("#usePrecomputedAtA");
 			pw.println("#precomputedAtAPath");
 			pw.println("#precomputedAtdPath");
+			pw.println("##Path of a session directory, where AtA of each event is cached and reused while unchanged,");
+			pw.println("##and CG starts from the previous solution; CG answers are then corrections to it (not used)");
+			pw.println("##Not available with time partials, spc equations, lowMemoryCost, usePrecomputedAtA, jackknife, FCG, FCGD, NCG or CCG");
+			pw.println("#sessionPath");
+			pw.println("##double CG stops when |Atd-AtAm| <= cgTolerance * |Atd| (0 for all the iterations, 1e-6 with sessionPath)");
+			pw.println("#cgTolerance");
 			pw.println("##Perform checkerboard test (false)");
 			pw.println("#checkerboard");
 			pw.println("#checkerboardPerturbationPath");
@@ -901,7 +966,27 @@ public class LetMeInvert implements Operation {
 		if (trimWindow)
 			dVector.trimWindow(trimPoint, keepBefore);
 		
-		if (usePrecomputedAtA) {
+		if (sessionPath != null) {
+			session = new InversionSession(sessionPath, parameterList);
+			eq = session.assemble(PartialIDFile.read(partialIDPath, partialPath), dVector);
+			
+			if (checkerboard) {
+				System.out.println("Computing checkerboard input from " + checkerboardPerturbationPath);
+				eq.setAtdForCheckerboard(readCheckerboardPerturbationVector());
+			}
+			
+			if (modelCovariance) {
+				System.out.println("Building covariance matrix");
+				double meanTrace = eq.getAtA().getTrace() / parameterList.size();
+				System.out.println("AtANormalizedTrace = " + meanTrace);
+				ModelCovarianceMatrix cm = new ModelCovarianceMatrix(parameterList, cmV, cmH, cm0 / meanTrace, true);
+				eq.applyModelCovarianceMatrix(cm);
+			}
+			
+			if (conditioner)
+				applyConditionner();
+		}
+		else if (usePrecomputedAtA) {
 			System.out.println("Using " + precomputedAtAPath.length + " precomputed matrices");
 			RealVector atd = null;
 			RealMatrix ata = null;
@@ -1008,13 +1093,13 @@ public class LetMeInvert implements Operation {
 				partialSpcIDs = PartialIDFile.read(partialSpcIDPath, partialSpcPath);
 			
 			if (modelCovariance) {
-				if (inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT) || inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT_DAMPED))
+				if (tsvdOnA || inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT) || inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT_DAMPED))
 					eq = new ObservationEquation(partialIDs, parameterList, dVector, cm0, cmH, cmV, verticalMapping, false);
 				else
 					eq = new ObservationEquation(partialIDs, parameterList, dVector, cm0, cmH, cmV, verticalMapping);
 			}
 			else {
-				if (inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT) || inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT_DAMPED))
+				if (tsvdOnA || inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT) || inverseMethods.contains(InverseMethodEnum.FAST_CONJUGATE_GRADIENT_DAMPED))
 					eq = new ObservationEquation(partialIDs, parameterList, dVector, time_source, time_receiver, combinationType, nUnknowns,
 							unknownParameterWeightType, verticalMapping, false);
 				else {
@@ -1212,7 +1297,7 @@ public class LetMeInvert implements Operation {
 			coeffs.add(lambdaQ / normQ);
 		
 		RadialSecondOrderDifferentialOperator D2 = new RadialSecondOrderDifferentialOperator(eq.getParameterList(), types, coeffs);
-		eq.addRegularization(D2.getD2TD2());
+		eq.addRegularization(D2.getSparseD2TD2());
 		
 		// Diagonal matrix
 		coeffs = new ArrayList<>();
@@ -1221,15 +1306,16 @@ public class LetMeInvert implements Operation {
 		if (usedTypes.contains(PartialType.PARQ))
 			coeffs.add(gammaQ / normQ);
 		
-		RealMatrix D = MatrixUtils.createRealIdentityMatrix(eq.getMlength());
+		double[] D = new double[eq.getMlength()];
+		Arrays.fill(D, 1.);
 		List<UnknownParameter> parameters = eq.getParameterList();
 		for (int i = 0; i < eq.getMlength(); i++) {
 			if (parameters.get(i).getPartialType().equals(PartialType.PAR2))
-				D.multiplyEntry(i, i, coeffs.get(0));
+				D[i] *= coeffs.get(0);
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARQ))
-				D.multiplyEntry(i, i, coeffs.get(1));
+				D[i] *= coeffs.get(1);
 		}
-		eq.addRegularization(D);
+		eq.addRegularization(SparseMatrix.diagonal(D));
 	}
 	
 	/**
@@ -1301,7 +1387,7 @@ public class LetMeInvert implements Operation {
 			coeffs.add(lambdaVp * normVP);
 		
 		RadialSecondOrderDifferentialOperator D2 = new RadialSecondOrderDifferentialOperator(eq.getParameterList(), types, coeffs);
-		RealMatrix D2tD2 = D2.getD2TD2();
+		SparseMatrix D2tD2 = D2.getSparseD2TD2();
 		eq.addRegularization(D2tD2);
 //		eqA.addRegularization(D2tD2);
 //		eqB.addRegularization(D2tD2);
@@ -1325,24 +1411,25 @@ public class LetMeInvert implements Operation {
 		if(usedTypes.contains(PartialType.PARVP))
 			coeffs.add(gammaVp * normVP);
 		
-		RealMatrix D = MatrixUtils.createRealIdentityMatrix(eq.getMlength());
+		double[] D = new double[eq.getMlength()];
+		Arrays.fill(D, 1.);
 		List<UnknownParameter> parameters = eq.getParameterList();
 		for (int i = 0; i < eq.getMlength(); i++) {
 			if (parameters.get(i).getPartialType().equals(PartialType.PARVS)) {
 				int index = indexMap.get(PartialType.PARVS);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARQ)) {
 				int index = indexMap.get(PartialType.PARQ);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 			else if (parameters.get(i).getPartialType().equals(PartialType.PAR00)) {
 				int index = indexMap.get(PartialType.PAR00);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARVP)) {
 				int index = indexMap.get(PartialType.PARVP);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 		}
 		
@@ -1351,14 +1438,14 @@ public class LetMeInvert implements Operation {
 		PartialType tmptype = eq.getParameterList().get(0).getPartialType();
 		for (int i = 1; i < eq.getMlength(); i++) {
 			if (!tmptype.equals(eq.getParameterList().get(i).getPartialType())) {
-				D.multiplyEntry(i - 1, i - 1, anchor_factor); // 9
+				D[i - 1] *= anchor_factor; // 9
 				System.out.println(i + " " + tmptype + " " + eq.getParameterList().get(i).getPartialType());
 				tmptype = eq.getParameterList().get(i).getPartialType();
 			}
 		}
-		D.multiplyEntry(eq.getMlength()-1, eq.getMlength()-1, anchor_factor);
+		D[eq.getMlength()-1] *= anchor_factor;
 		
-		eq.addRegularization(D);
+		eq.addRegularization(SparseMatrix.diagonal(D));
 //		eqA.addRegularization(D);
 //		eqB.addRegularization(D);
 	}
@@ -1385,17 +1472,18 @@ public class LetMeInvert implements Operation {
 		coeffs.add(gammaMU / normMU);
 		coeffs.add(gammaQ / normQ);
 		
-		RealMatrix D = MatrixUtils.createRealIdentityMatrix(eq.getMlength());
+		double[] D = new double[eq.getMlength()];
+		Arrays.fill(D, 1.);
 		List<UnknownParameter> parameters = eq.getParameterList();
 		for (int i = 0; i < eq.getMlength(); i++) {
 			
 			if (parameters.get(i).getPartialType().equals(PartialType.PAR2))
-				D.multiplyEntry(i, i, coeffs.get(0));
+				D[i] *= coeffs.get(0);
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARQ))
-				D.multiplyEntry(i, i, coeffs.get(1));
+				D[i] *= coeffs.get(1);
 		}
 		
-		eq.addRegularization(D);
+		eq.addRegularization(SparseMatrix.diagonal(D));
 	}
 	
 	/**
@@ -1826,7 +1914,22 @@ public class LetMeInvert implements Operation {
 	
 	private void solve(Path outPath, InverseProblem inverseProblem) throws IOException {
 		// invOutDir.mkdir();
+		if (inverseProblem instanceof ConjugateGradientMethod) {
+			ConjugateGradientMethod cg = (ConjugateGradientMethod) inverseProblem;
+			cg.setTolerance(cgTolerance);
+			RealVector m0 = session == null ? null : session.readPreviousModel();
+			if (m0 != null) {
+				System.out.println("Starting CG from the previous solution in " + sessionPath
+						+ ". The answers are corrections to it.");
+				cg.setInitialModel(m0);
+			}
+		}
 		inverseProblem.compute();
+		if (session != null && inverseProblem instanceof ConjugateGradientMethod) {
+			RealVector m = inverseProblem.getAns(inverseProblem.getParN());
+			RealVector m0 = ((ConjugateGradientMethod) inverseProblem).getInitialModel();
+			session.writeModel(m0 == null ? m : m.add(m0));
+		}
 		Files.createDirectories(outPath);
 		outVariance(outPath, inverseProblem);
 		outVariancePerEvents(outPath, inverseProblem);
@@ -1846,11 +1949,28 @@ public class LetMeInvert implements Operation {
 		
 		inverseProblem.outputAns(outPath);
 		
+		// the singular vectors of TSVD are streamed from its file
+		if (inverseProblem instanceof TruncatedSingularValueDecomposition) {
+			((TruncatedSingularValueDecomposition) inverseProblem).outputV(outPath.resolve("singularVectors"));
+			return;
+		}
+		
 		// 基底ベクトルの書き出し SVD: vt, CG: cg ベクトル
 		RealMatrix p = inverseProblem.getBaseVectors();
-		for (int j = 0; j < eq.getMlength(); j++)
+		for (int j = 0; j < p.getColumnDimension(); j++)
 			writeDat(outPath.resolve("p" + j + ".txt"), p.getColumn(j));
 	}
+	
+	/**
+	 * @return TSVD with products on A of the equation, which has no AtA
+	 */
+	private InverseProblem truncatedSVDOnA() {
+		RealMatrix a = eq.getA();
+		RealVector atd = eq.getAtD() != null ? eq.getAtD() : eq.computeAtD(eq.getDVector().getD());
+		// with a model covariance matrix, AtA is (AL)t(AL) + I
+		return InverseMethodEnum.TRUNCATED_SINGULAR_VALUE_DECOMPOSITION
+				.getMethod(TruncatedSingularValueDecomposition.normalOperator(a, eq.getCm() == null ? 0 : 1), atd);
+	}
 
 	/**
 	 * @author anselme
@@ -1910,7 +2030,8 @@ public class LetMeInvert implements Operation {
 						}
 					}
 					else {
-						solve(outPath.resolve(method.simple()), method.getMethod(eq.getAtA(), eq.getAtD()));
+						solve(outPath.resolve(method.simple()), tsvdOnA && method == InverseMethodEnum.TRUNCATED_SINGULAR_VALUE_DECOMPOSITION
+								? truncatedSVDOnA() : method.getMethod(eq.getAtA(), eq.getAtD()));
 					}
 				}
 				else {
@@ -1970,7 +2091,8 @@ public class LetMeInvert implements Operation {
 					}
 					else {
 //						eq.applyCombiner2(2);
-						solve(outPath.resolve(method.simple()), method.getMethod(eq.getAtA(), eq.getAtD()));
+						solve(outPath.resolve(method.simple()), tsvdOnA && method == InverseMethodEnum.TRUNCATED_SINGULAR_VALUE_DECOMPOSITION
+								? truncatedSVDOnA() : method.getMethod(eq.getAtA(), eq.getAtD()));
 					}
 				}
 			} catch (Exception e) {
@@ -2015,10 +2137,11 @@ public class LetMeInvert implements Operation {
 	 * @author anselme
 	 */
 	private void computeDeltaM(InverseProblem inverseProblem) {
-		int n = eq.getMlength();//Math.max(20, eq.getMlength());
+		// the number of answers, e.g. 1 for NNLS and the rank for TSVD
+		int nAns = inverseProblem.getANS().getColumnDimension();
 		ModelCovarianceMatrix cm = eq.getCm();
 		RealMatrix l = cm.getL();
-		for (int i = 1; i <= n; i++) {
+		for (int i = 1; i <= nAns; i++) {
 			RealVector deltaM = l.operate(inverseProblem.getAns(i));
 			inverseProblem.setANS(i, deltaM);
 		}
@@ -2029,9 +2152,10 @@ public class LetMeInvert implements Operation {
 	 * @author anselme
 	 */
 	private void computeDeltaMFromConditionner(InverseProblem inverseProblem) {
-		int n = eq.getMlength();//Math.max(20, eq.getMlength());
+		int n = eq.getMlength();
+		int nAns = inverseProblem.getANS().getColumnDimension();
 		RealVector m = eq.getM();
-		for (int i = 1; i <= n; i++) {
+		for (int i = 1; i <= nAns; i++) {
 			RealVector deltaM = inverseProblem.getAns(i);
 			for (int k = 0; k < n; k++)
 				deltaM.setEntry(k, deltaM.getEntry(k) * m.getEntry(k));
@@ -2067,6 +2191,7 @@ public class LetMeInvert implements Operation {
 		if (Files.exists(out))
 			throw new FileAlreadyExistsException(out.toString());
 		int m = inverse.getParN();
+		int last = inverse.getANS().getColumnDimension() - 1;
 		
 		double varA = 0;
 		double varB = 0;
@@ -2074,20 +2199,20 @@ public class LetMeInvert implements Operation {
 		double varB0 = 0;
 		
 		if (eqA != null) {
-			varA = eqA.varianceOf(inverse.getANS().getColumnVector(m - 1));
+			varA = eqA.varianceOf(inverse.getANS().getColumnVector(last));
 			varA0 = eqA.getDVector().getVariance();
 		}
 		if (eqB != null) {
-//			varB = eqB.varianceOf(inverse.getANS().getColumnVector(m - 1));
+//			varB = eqB.varianceOf(inverse.getANS().getColumnVector(last));
 //			varB0 = eqB.getDVector().getVariance();
-			varB = eqB.varianceOf(inverse.getANS().getColumnVector(m - 1)) * eqB.getDVector().getObsNormSquare() / eqA.getDVector().getObsNormSquare() * mul;
+			varB = eqB.varianceOf(inverse.getANS().getColumnVector(last)) * eqB.getDVector().getObsNormSquare() / eqA.getDVector().getObsNormSquare() * mul;
 			varB0 = eqB.getDVector().getVariance() * eqB.getDVector().getObsNormSquare() / eqA.getDVector().getObsNormSquare() * mul;
 		}
-		double var = eq.varianceOf(inverse.getANS().getColumnVector(m - 1));
-		double solutionQLinfNorm = inverse.getANS().getColumnVector(m - 1).getSubVector(m/2, m/2).getLInfNorm();
-		double solutionQL2Norm = inverse.getANS().getColumnVector(m - 1).getSubVector(m/2, m/2).getNorm();
-		double solutionVLinfNorm = inverse.getANS().getColumnVector(m - 1).getSubVector(0, m/2).getLInfNorm();
-		double solutionVL2Norm = inverse.getANS().getColumnVector(m - 1).getSubVector(0, m/2).getNorm();
+		double var = eq.varianceOf(inverse.getANS().getColumnVector(last));
+		double solutionQLinfNorm = inverse.getANS().getColumnVector(last).getSubVector(m/2, m/2).getLInfNorm();
+		double solutionQL2Norm = inverse.getANS().getColumnVector(last).getSubVector(m/2, m/2).getNorm();
+		double solutionVLinfNorm = inverse.getANS().getColumnVector(last).getSubVector(0, m/2).getLInfNorm();
+		double solutionVL2Norm = inverse.getANS().getColumnVector(last).getSubVector(0, m/2).getNorm();
 		try (PrintWriter pw = new PrintWriter(out.toFile())) {
 			pw.println("#varA varB var L2_deltaQ Linf_deltaQ L2_deltaV Linf_deltaV");
 			pw.print(varA + " " + varB + " " + var + " " + solutionQL2Norm + " " + solutionQLinfNorm + " " + solutionVL2Norm + " " + solutionVLinfNorm 
@@ -2107,7 +2232,8 @@ public class LetMeInvert implements Operation {
 		Path out = outPath.resolve("variance.txt");
 		if (Files.exists(out))
 			throw new FileAlreadyExistsException(out.toString());
-		double[] variance = new double[eq.getMlength() + 1];
+		int tmpN = inverse.getANS().getColumnDimension();
+		double[] variance = new double[tmpN + 1];
 		if (eqA != null && eqB != null) {
 //			variance[0] = 2. / (1 + mul) * (eqA.getDVector().getVariance() + eqB.getDVector().getVariance());
 //			double var_B = eqB.getDVector().getVariance() * eqB.getDVector().getObsNormSquare() / eqA.getDVector().getObsNormSquare() * mul;
@@ -2116,7 +2242,6 @@ public class LetMeInvert implements Operation {
 		}
 		else
 			variance[0] = eq.getDVector().getVariance();
-		int tmpN = eq.getMlength();
 //		for (int i = 0; i < eq.getMlength(); i++)
 		if (eqA != null && eqB != null) {
 			for (int i = 0; i < tmpN; i++) {
@@ -2156,7 +2281,7 @@ public class LetMeInvert implements Operation {
 		
 		Set<GlobalCMTID> eventSet = eq.getDVector().getUsedGlobalCMTIDset();
 		Path out = outPath.resolve("eventVariance.txt");
-		int n = 31 > eq.getMlength() ? eq.getMlength() : 31;
+		int n = Math.min(31, Math.min(eq.getMlength(), inverse.getANS().getColumnDimension() + 1));
 		Map<GlobalCMTID, double[]> varianceMap = new HashMap<>();
 		for (GlobalCMTID id : eventSet) {
 			if (Files.exists(out))
@@ -53,6 +53,7 @@ import io.github.kensuke1984.kibrary.inversion.addons.RadialSecondOrderDifferent
 import io.github.kensuke1984.kibrary.inversion.addons.UnknownParameterWeightType;
 import io.github.kensuke1984.kibrary.inversion.addons.WeightingType;
 import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.math.SparseMatrix;
 import io.github.kensuke1984.kibrary.selection.DataSelectionInformation;
 import io.github.kensuke1984.kibrary.selection.DataSelectionInformationFile;
 import io.github.kensuke1984.kibrary.util.addons.EventCluster;
@@ -1526,7 +1527,7 @@ public class LetMeInvertCV implements Operation {
 			coeffs.add(lambdaQ / normQ);
 		
 		RadialSecondOrderDifferentialOperator D2 = new RadialSecondOrderDifferentialOperator(eq.getParameterList(), types, coeffs);
-		eq.addRegularization(D2.getD2TD2());
+		eq.addRegularization(D2.getSparseD2TD2());
 		
 		// Diagonal matrix
 		coeffs = new ArrayList<>();
@@ -1535,15 +1536,16 @@ public class LetMeInvertCV implements Operation {
 		if (usedTypes.contains(PartialType.PARQ))
 			coeffs.add(gammaQ / normQ);
 		
-		RealMatrix D = MatrixUtils.createRealIdentityMatrix(eq.getMlength());
+		double[] D = new double[eq.getMlength()];
+		Arrays.fill(D, 1.);
 		List<UnknownParameter> parameters = eq.getParameterList();
 		for (int i = 0; i < eq.getMlength(); i++) {
 			if (parameters.get(i).getPartialType().equals(PartialType.PAR2))
-				D.multiplyEntry(i, i, coeffs.get(0));
+				D[i] *= coeffs.get(0);
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARQ))
-				D.multiplyEntry(i, i, coeffs.get(1));
+				D[i] *= coeffs.get(1);
 		}
-		eq.addRegularization(D);
+		eq.addRegularization(SparseMatrix.diagonal(D));
 	}
 	
 	private Map<PartialType, Double> dataErrorMap;
@@ -1633,7 +1635,7 @@ public class LetMeInvertCV implements Operation {
 			coeffs.add(lambdaVp * normVP);
 		
 		RadialSecondOrderDifferentialOperator D2 = new RadialSecondOrderDifferentialOperator(eq.getParameterList(), types, coeffs);
-		RealMatrix D2tD2 = D2.getD2TD2();
+		SparseMatrix D2tD2 = D2.getSparseD2TD2();
 //		eq.addRegularization(D2tD2);
 //		eqA.addRegularization(D2tD2);
 //		eqB.addRegularization(D2tD2);
@@ -1657,24 +1659,25 @@ public class LetMeInvertCV implements Operation {
 		if(usedTypes.contains(PartialType.PARVP))
 			coeffs.add(gammaVp * normVP);
 		
-		RealMatrix D = MatrixUtils.createRealIdentityMatrix(eq.getMlength());
+		double[] D = new double[eq.getMlength()];
+		Arrays.fill(D, 1.);
 		List<UnknownParameter> parameters = eq.getParameterList();
 		for (int i = 0; i < eq.getMlength(); i++) {
 			if (parameters.get(i).getPartialType().equals(PartialType.PARVS)) {
 				int index = indexMap.get(PartialType.PARVS);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARQ)) {
 				int index = indexMap.get(PartialType.PARQ);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 			else if (parameters.get(i).getPartialType().equals(PartialType.PAR00)) {
 				int index = indexMap.get(PartialType.PAR00);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARVP)) {
 				int index = indexMap.get(PartialType.PARVP);
-				D.multiplyEntry(i, i, coeffs.get(index) * coeffs.get(index));
+				D[i] *= coeffs.get(index) * coeffs.get(index);
 			}
 		}
 		
@@ -1683,14 +1686,15 @@ public class LetMeInvertCV implements Operation {
 		PartialType tmptype = eq.getParameterList().get(0).getPartialType();
 		for (int i = 1; i < eq.getMlength(); i++) {
 			if (!tmptype.equals(eq.getParameterList().get(i).getPartialType())) {
-				D.multiplyEntry(i - 1, i - 1, anchorFactor); // 9
+				D[i - 1] *= anchorFactor; // 9
 				System.out.println(i + " " + tmptype + " " + eq.getParameterList().get(i).getPartialType());
 				tmptype = eq.getParameterList().get(i).getPartialType();
 			}
 		}
-		D.multiplyEntry(eq.getMlength()-1, eq.getMlength()-1, anchorFactor);
+		D[eq.getMlength()-1] *= anchorFactor;
 		
-		RealMatrix Dout = D2tD2.add(D);
+		RealMatrix Dout = D2tD2.toDense();
+		SparseMatrix.diagonal(D).addTo(Dout);
 		
 		System.out.println("Regularization norm = " + Dout.getNorm());
 		
@@ -1719,17 +1723,18 @@ public class LetMeInvertCV implements Operation {
 		coeffs.add(gammaMU / normMU);
 		coeffs.add(gammaQ / normQ);
 		
-		RealMatrix D = MatrixUtils.createRealIdentityMatrix(eq.getMlength());
+		double[] D = new double[eq.getMlength()];
+		Arrays.fill(D, 1.);
 		List<UnknownParameter> parameters = eq.getParameterList();
 		for (int i = 0; i < eq.getMlength(); i++) {
 			
 			if (parameters.get(i).getPartialType().equals(PartialType.PAR2))
-				D.multiplyEntry(i, i, coeffs.get(0));
+				D[i] *= coeffs.get(0);
 			else if (parameters.get(i).getPartialType().equals(PartialType.PARQ))
-				D.multiplyEntry(i, i, coeffs.get(1));
+				D[i] *= coeffs.get(1);
 		}
 		
-		eq.addRegularization(D);
+		eq.addRegularization(SparseMatrix.diagonal(D));
 	}
 	
 	private void applyConditionnerAll() {
@@ -2,13 +2,14 @@ package io.github.kensuke1984.kibrary.inversion;
 
 import io.github.kensuke1984.kibrary.math.Matrix;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -16,6 +17,10 @@ import org.apache.commons.math3.linear.RealVector;
 /**
  * @author Anselme
  * Implementation of the non negative least square algorithm of Stark and Parker (1993)
+ * with an incrementally updated Cholesky factor of the passive set
+ * <p>
+ * The answer has one column. The base vectors are the unit vectors of the passive set, and the covariance is
+ * &sigma;<sub>d</sub><sup>2</sup> (AtA<sub>PP</sub>)<sup>-1</sup> on the passive set P and 0 elsewhere.
  */
 public class NonNegativeLeastSquaresMethod extends InverseProblem {
 	
@@ -51,66 +56,60 @@ public class NonNegativeLeastSquaresMethod extends InverseProblem {
 	}
 	
 	/**
-	 * F is the set of free (unbounded) indices
-	 * L is the set of lower-bounded indices 
+	 * passive (free) indices in the order of the columns of {@link #r}
 	 */
-	private Set<Integer> F, L;
+	private int[] passive;
 	
-	private RealVector d;
+	/**
+	 * the number of passive indices
+	 */
+	private int nPassive;
+	
+	/**
+	 * upper triangular Cholesky factor of AtA restricted to the passive set: AtA<sub>PP</sub> = R<sup>T</sup>R
+	 */
+	private double[][] r;
 	
-	private RealMatrix a;
+	private double[][] ataData;
 	
 	private RealVector x;
 	
 	private final int MAX_ITERATION;
 	
+	/**
+	 * The other constructors take A and d.
+	 *
+	 * @param ata AtA
+	 * @param atd Atd
+	 * @return NNLS for AtA and Atd
+	 */
+	public static NonNegativeLeastSquaresMethod ofAtA(RealMatrix ata, RealVector atd) {
+		return new NonNegativeLeastSquaresMethod(ata, atd, new ArrayRealVector(atd.getDimension()),
+				3 * atd.getDimension());
+	}
+	
 	public NonNegativeLeastSquaresMethod(Matrix a, RealVector d, int MAX_ITERATION) {
-		this.d = d;
-		this.a = a;
-		this.ata = a.computeAtA();
-		this.atd = a.transpose().operate(d);
-		F = new HashSet<>();
-		L = new HashSet<>();
-		this.x = new ArrayRealVector(a.getColumnDimension());
-		this.MAX_ITERATION = MAX_ITERATION;
-		//initialization
-		x.set(0);
-		L = IntStream.range(0, atd.getDimension()).boxed().collect(Collectors.toSet());
+		this(a.computeAtA(), a.preMultiply(d), new ArrayRealVector(a.getColumnDimension()), MAX_ITERATION);
 	}
 	
 	public NonNegativeLeastSquaresMethod(Matrix a, RealVector d) {
-		this.d = d;
-		this.a = a;
-		this.ata = a.computeAtA();
-		this.atd = a.transpose().operate(d);
-		F = new HashSet<>();
-		L = new HashSet<>();
-		this.x = new ArrayRealVector(a.getColumnDimension());
-		x.set(0);
-		this.MAX_ITERATION = 50000;
-		//initialization
-		x.set(0);
-		L = IntStream.range(0, atd.getDimension()).boxed().collect(Collectors.toSet());
+		this(a, d, 50000);
 	}
 	
+	/**
+	 * @param a A
+	 * @param d d
+	 * @param x initial model. Negative elements are set to 0, and the others are initially passive.
+	 */
 	public NonNegativeLeastSquaresMethod(Matrix a, RealVector d, RealVector x) {
-		this.d = d;
-		this.a = a;
-		this.ata = a.computeAtA();
-		this.atd = a.transpose().operate(d);
-		F = new HashSet<>();
-		L = new HashSet<>();
-		this.MAX_ITERATION = 50000;
-		// initialization
+		this(a.computeAtA(), a.preMultiply(d), x, 50000);
+	}
+	
+	private NonNegativeLeastSquaresMethod(RealMatrix ata, RealVector atd, RealVector x, int MAX_ITERATION) {
+		this.ata = ata;
+		this.atd = atd;
 		this.x = x;
-		for (int i = 0; i < x.getDimension(); i++) {
-			if (x.getEntry(i) <= 0) {
-				L.add(i);
-				x.setEntry(i, 0.);
-			}
-			else
-				F.add(i);
-		}
+		this.MAX_ITERATION = MAX_ITERATION;
 	}
 	
 	@Override
@@ -118,141 +117,236 @@ public class NonNegativeLeastSquaresMethod extends InverseProblem {
 		return InverseMethodEnum.NON_NEGATIVE_LEAST_SQUARES_METHOD;
 	}
 	
+	/**
+	 * Lawson and Hanson's active set method working on AtA and Atd.
+	 * The Cholesky factor of AtA on the passive set is updated when an index is added to or removed from the set
+	 * instead of solving the sub problem from scratch.
+	 */
 	@Override
 	public void compute() {
 		int n = atd.getDimension();
-		RealVector w = new ArrayRealVector(n);
-		Set<Integer> fullSet = IntStream.range(0, n).boxed().collect(Collectors.toSet());
-		Integer t = 0;
+		ataData = ata instanceof Array2DRowRealMatrix ? ((Array2DRowRealMatrix) ata).getDataRef() : ata.getData();
+		double[] atdData = atd.toArray();
+		double[] xData = new double[n];
+		passive = new int[n];
+		nPassive = 0;
+		r = new double[n][n];
+		boolean[] isPassive = new boolean[n];
+		double tolerance = 10 * Math.ulp(1.) * n * ata.getNorm();
 		
+		for (int i = 0; i < n; i++)
+			if (0 < x.getEntry(i) && addToPassiveSet(i, tolerance)) {
+				xData[i] = x.getEntry(i);
+				isPassive[i] = true;
+			}
 		int nIteration = 0;
+		if (0 < nPassive)
+			nIteration += solvePassiveSet(xData, atdData, isPassive);
 		
-		// step 2
-		
-		
-		do  {    // step 3
-			w = atd.subtract(ata.operate(x));
-			//step 4
-			t = 0;
-			double valueAtt = Double.MIN_VALUE;
-			for (Integer i : L) {
-				if (w.getEntry(i.intValue()) > valueAtt) {
+		// columns found linearly dependent on the current passive set. They stay active.
+		boolean[] dependent = new boolean[n];
+		while (nIteration < MAX_ITERATION && nPassive < n) {
+			double[] w = computeGradient(xData, atdData);
+			int t = -1;
+			double maxW = tolerance;
+			for (int i = 0; i < n; i++)
+				if (!isPassive[i] && !dependent[i] && maxW < w[i]) {
+					maxW = w[i];
 					t = i;
-					valueAtt = w.getEntry(i.intValue());
 				}
+			// Kuhn-Tucker conditions are satisfied
+			if (t < 0)
+				break;
+			if (!addToPassiveSet(t, tolerance)) {
+				dependent[t] = true;
+				continue;
 			}
-			
-			// step 5
-			F.add(t);
-			L.remove(t);
-			
-			// step 6
-			boolean goToStep6 = true;
-			while (goToStep6 && nIteration < MAX_ITERATION) {
-				List<Integer> jPrimeToj = new ArrayList<>();
-				for (Integer j : fullSet) {
-					if (F.contains(j)) {
-						jPrimeToj.add(j);
-					}
-				}
-				
-				// b' (bPrime)
-				RealVector xPrime = new ArrayRealVector(x);
-				for (Integer k : fullSet) {
-					if (F.contains(k))
-						xPrime.setEntry(k.intValue(), 0.);
-				}
-				RealVector bPrime = d.subtract(a.operate(xPrime));
-				
-				// a' (aPrime)
-				Matrix aPrime = new Matrix(a.getRowDimension(), jPrimeToj.size());
-				for (int i = 0; i < jPrimeToj.size(); i++)
-					aPrime.setColumnVector(i, a.getColumnVector(jPrimeToj.get(i).intValue()));
-				
-				// solve z = arg min ||a' z - b'||_2
-				ConjugateGradientMethod cgMethod = new ConjugateGradientMethod(aPrime.computeAtA(), aPrime.transpose().operate(bPrime));
-				cgMethod.compute();
-				RealVector z = cgMethod.getAns(jPrimeToj.size());
-				System.out.println("Z length " + z.getDimension());
-				for (double zi : z.toArray())
-					System.out.println(zi);
-				
-				// step 7
-				Set<Integer> J = new HashSet<>();
-				boolean goToStep2 = true;
-				for (int i = 0; i < z.getDimension(); i++) {
-					if (z.getEntry(i) <= 0) {
-						goToStep2 = false;
-						J.add(i);
-					}
-//					if (z.getEntry(i) < 0)
-						
-				}
-				if (goToStep2) {
-					// step 2
-					for (int i = 0; i < z.getDimension(); i++)
-						x.setEntry(jPrimeToj.get(i), z.getEntry(i));
-//					w = atd.subtract(ata.operate(x));
-					goToStep6 = false;
-					nIteration++;
+			isPassive[t] = true;
+			nIteration += solvePassiveSet(xData, atdData, isPassive);
+			Arrays.fill(dependent, false);
+		}
+		if (MAX_ITERATION <= nIteration)
+			System.err.println("NNLS did not converge in " + MAX_ITERATION + " iterations.");
+		x = new ArrayRealVector(xData, false);
+		ans = new Array2DRowRealMatrix(n, 1);
+		ans.setColumnVector(0, x);
+	}
+	
+	/**
+	 * w = Atd - AtAx, computed in parallel over rows using only the passive columns since the others are 0.
+	 */
+	private double[] computeGradient(double[] x, double[] atd) {
+		double[] w = new double[atd.length];
+		IntStream.range(0, atd.length).parallel().forEach(i -> {
+			double[] row = ataData[i];
+			double sum = 0;
+			for (int k = 0; k < nPassive; k++)
+				sum += row[passive[k]] * x[passive[k]];
+			w[i] = atd[i] - sum;
+		});
+		return w;
+	}
+	
+	/**
+	 * Inner loop: solves the problem on the passive set and moves back to the feasible region removing indices
+	 * until the solution is positive.
+	 *
+	 * @return the number of iterations
+	 */
+	private int solvePassiveSet(double[] x, double[] atd, boolean[] isPassive) {
+		int nIteration = 0;
+		while (0 < nPassive) {
+			nIteration++;
+			double[] b = new double[nPassive];
+			for (int k = 0; k < nPassive; k++)
+				b[k] = atd[passive[k]];
+			double[] z = solveCholesky(b);
+			double alpha = 1;
+			int kAlpha = -1;
+			for (int k = 0; k < nPassive; k++) {
+				if (0 < z[k])
+					continue;
+				double xk = x[passive[k]];
+				// xk - z[k] is 0 only if both are 0, then x can not move
+				double alphaK = xk - z[k] <= 0 ? 0 : xk / (xk - z[k]);
+				if (alphaK < alpha || kAlpha < 0) {
+					alpha = alphaK;
+					kAlpha = k;
 				}
-				else {
-					// step 8
-					double valueAtqPrime = Double.MAX_VALUE;
-					for (Integer jPrime : J) {
-						double xj = x.getEntry(jPrimeToj.get(jPrime.intValue()));
-						double tmp = Math.abs(xj / (z.getEntry(jPrime.intValue()) - xj));
-						if (tmp < valueAtqPrime) {
-							valueAtqPrime = tmp;
-						}
-					}
-					
-					// step 9
-					double alpha = valueAtqPrime;
-					
-					// step 10
-					int jPrime = 0;
-					for (Integer j : F) {
-						x.setEntry( j.intValue(), x.getEntry(j.intValue()) + alpha * (z.getEntry(jPrime) - x.getEntry(j.intValue())) );
-						jPrime++;
-					}
-					
-					// step 11
-					for (int i = 0; i < x.getDimension(); i++) {
-						if (x.getEntry(i) <= 0) {
-							L.add(i);
-							F.remove(i);
-						}
-					}
-					nIteration++;
+			}
+			for (int k = 0; k < nPassive; k++)
+				x[passive[k]] += alpha * (z[k] - x[passive[k]]);
+			if (kAlpha < 0)
+				return nIteration;
+			x[passive[kAlpha]] = 0;
+			for (int k = nPassive - 1; 0 <= k; k--)
+				if (x[passive[k]] <= 0) {
+					x[passive[k]] = 0;
+					isPassive[passive[k]] = false;
+					removeFromPassiveSet(k);
 				}
-			} // end of step 6 while loop
-		} while ( !KuhnTuckerConvergenceTest(w, fullSet) && nIteration < MAX_ITERATION ); // end of step 2 while loop
+		}
+		return nIteration;
+	}
+	
+	/**
+	 * Appends the column i to the Cholesky factor.
+	 *
+	 * @return false if the column i is (numerically) linearly dependent on the passive set and not added
+	 */
+	private boolean addToPassiveSet(int i, double tolerance) {
+		int p = nPassive;
+		double[] row = ataData[i];
+		double sum = row[i];
+		// solve R^T c = AtA_{P,i}
+		for (int k = 0; k < p; k++) {
+			double ck = row[passive[k]];
+			for (int l = 0; l < k; l++)
+				ck -= r[l][k] * r[l][p];
+			ck /= r[k][k];
+			r[k][p] = ck;
+			sum -= ck * ck;
+		}
+		if (sum <= tolerance) {
+			for (int k = 0; k < p; k++)
+				r[k][p] = 0;
+			return false;
+		}
+		r[p][p] = Math.sqrt(sum);
+		passive[nPassive++] = i;
+		return true;
+	}
+	
+	/**
+	 * Removes the k th passive index and restores the triangular form of the Cholesky factor by Givens rotations.
+	 */
+	private void removeFromPassiveSet(int k) {
+		int p = nPassive;
+		for (int i = 0; i < p; i++) {
+			System.arraycopy(r[i], k + 1, r[i], k, p - k - 1);
+			r[i][p - 1] = 0;
+		}
+		System.arraycopy(passive, k + 1, passive, k, p - k - 1);
+		for (int j = k; j < p - 1; j++) {
+			double a = r[j][j];
+			double b = r[j + 1][j];
+			double h = Math.hypot(a, b);
+			double c = a / h;
+			double s = b / h;
+			for (int l = j; l < p - 1; l++) {
+				double rj = r[j][l];
+				double rj1 = r[j + 1][l];
+				r[j][l] = c * rj + s * rj1;
+				r[j + 1][l] = -s * rj + c * rj1;
+			}
+		}
+		Arrays.fill(r[p - 1], 0, p, 0);
+		nPassive--;
+	}
+	
+	/**
+	 * @return z such that R<sup>T</sup>Rz = b
+	 */
+	private double[] solveCholesky(double[] b) {
+		int p = nPassive;
+		double[] y = new double[p];
+		for (int i = 0; i < p; i++) {
+			double sum = b[i];
+			for (int k = 0; k < i; k++)
+				sum -= r[k][i] * y[k];
+			y[i] = sum / r[i][i];
+		}
+		double[] z = new double[p];
+		for (int i = p - 1; 0 <= i; i--) {
+			double sum = y[i];
+			double[] ri = r[i];
+			for (int k = i + 1; k < p; k++)
+				sum -= ri[k] * z[k];
+			z[i] = sum / ri[i];
+		}
+		return z;
 	}
 	
 	public RealVector getAnsVector() {
 		return x;
 	}
 	
-	private boolean KuhnTuckerConvergenceTest(RealVector w, Set<Integer> fullSet) {
-		boolean conditionOnW = true;
-		for (Integer i : L)
-			if (w.getEntry(i.intValue()) > 0) {
-				conditionOnW = false;
-				break;
-			}
-		System.out.println(conditionOnW + "," + F.equals(fullSet));
-		return conditionOnW || F.equals(fullSet);
+	@Override
+	public void outputAns(Path outPath) throws IOException {
+		Files.createDirectories(outPath);
+		System.err.println("outputting the answer file in " + outPath);
+		try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(outPath.resolve(getEnum().simple() + ".txt")))) {
+			Arrays.stream(ans.getColumn(0)).forEach(pw::println);
+		}
 	}
 	
+	/**
+	 * @return the unit vectors of the passive set in columns
+	 */
 	@Override
 	public RealMatrix getBaseVectors() {
-		throw new RuntimeException("No base vectors.");
+		RealMatrix base = new Array2DRowRealMatrix(getParN(), Math.max(1, nPassive));
+		for (int k = 0; k < nPassive; k++)
+			base.setEntry(passive[k], k, 1);
+		return base;
 	}
 	
+	/**
+	 * @param sigmaD &sigma;<sub>d</sub>
+	 * @param j      ignored as there is only one answer
+	 * @return &sigma;<sub>d</sub><sup>2</sup> (AtA<sub>PP</sub>)<sup>-1</sup> on the passive set P and 0 elsewhere
+	 */
 	@Override
 	public RealMatrix computeCovariance(double sigmaD, int j) {
-		// TODO
-		return null;
+		RealMatrix covariance = new Array2DRowRealMatrix(getParN(), getParN());
+		double sigmaD2 = sigmaD * sigmaD;
+		for (int k = 0; k < nPassive; k++) {
+			double[] e = new double[nPassive];
+			e[k] = 1;
+			double[] column = solveCholesky(e);
+			for (int l = 0; l < nPassive; l++)
+				covariance.setEntry(passive[l], passive[k], sigmaD2 * column[l]);
+		}
+		return covariance;
 	}
-}
\ No newline at end of file
+}
@@ -18,6 +18,7 @@ import io.github.kensuke1984.kibrary.util.sac.WaveformType;
 
 import io.github.kensuke1984.kibrary.inversion.montecarlo.DataGenerator;
 import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.math.SparseMatrix;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.spc.PartialType;
@@ -217,20 +218,10 @@ public class ObservationEquation {
 		// model covariance matrix
 		cm = new ModelCovarianceMatrix(parameterList, 0., correlationScaling, normalization, true);
 		
-		Matrix identity = new Matrix(a.getColumnDimension(), a.getColumnDimension());
-		for (int i = 0; i < a.getColumnDimension(); i++)
-			identity.setEntry(i, i, 1.);
-		
-		RealMatrix tmpB = cm.rightMultiplyByL(a);
-		Matrix b = new Matrix(a.getRowDimension(), a.getColumnDimension());
-		for (int i = 0; i < a.getRowDimension(); i++) {
-			for (int j = 0; j < a.getColumnDimension(); j++) {
-				b.setEntry(i, j, tmpB.getEntry(i, j));
-			}
-		}
-		a = b;
-		ata = b.computeAtA();
-		cmAtA_1 = ata.add(identity);
+		a = cm.rightMultiplyByL(a);
+		ata = a.computeAtA();
+		cmAtA_1 = ata.copy();
+		addIdentity(cmAtA_1);
 		
 		atd = computeAtD(dVector.getD());
 		cmAtd = atd;
@@ -274,23 +265,13 @@ public class ObservationEquation {
 		// model covariance matrix
 		cm = new ModelCovarianceMatrix(parameterList, cmV, cmH, normalization, true);
 		
-		Matrix identity = new Matrix(a.getColumnDimension(), a.getColumnDimension());
-		for (int i = 0; i < a.getColumnDimension(); i++)
-			identity.setEntry(i, i, 1.);
+		a = cm.rightMultiplyByL(a);
+		atd = a.preMultiply(dVector.getD());
 		
-		RealMatrix tmpB = cm.rightMultiplyByL(a);
-		Matrix b = new Matrix(tmpB.getRowDimension(), tmpB.getColumnDimension());
-		for (int i = 0; i < a.getRowDimension(); i++) {
-			for (int j = 0; j < a.getColumnDimension(); j++) {
-				b.setEntry(i, j, tmpB.getEntry(i, j));
-			}
+		if (computeAtA) {
+			ata = a.computeAtA();
+			addIdentity(ata);
 		}
-		
-		a = b;
-		atd = b.preMultiply(dVector.getD());
-		
-		if (computeAtA)
-			ata = a.computeAtA().add(identity);
 	}
 	
 	/**
@@ -409,15 +390,21 @@ public class ObservationEquation {
 		}
 	}
 	
+	/**
+	 * AtA &rarr; L<sup>T</sup>AtAL + I, Atd &rarr; L<sup>T</sup>Atd, where Cm = LL<sup>T</sup>.
+	 * The products use the sparse L in cm.
+	 * @param cm model covariance matrix
+	 */
 	public void applyModelCovarianceMatrix(ModelCovarianceMatrix cm) {
 		this.cm = cm;
-		Matrix identity = new Matrix(ata.getRowDimension(), ata.getColumnDimension());
-		for (int i = 0; i < ata.getColumnDimension(); i++)
-			identity.setEntry(i, i, 1.);
-		
-		ata = cm.rightMultiplyByL(ata);
-		ata = cm.leftMultiplyByLT(ata).add(identity);
-		atd = cm.getL().preMultiply(atd);
+		ata = cm.leftMultiplyByLT(cm.rightMultiplyByL(ata));
+		addIdentity(ata);
+		atd = cm.operateLt(atd);
+	}
+	
+	private static void addIdentity(RealMatrix matrix) {
+		for (int i = 0; i < matrix.getColumnDimension(); i++)
+			matrix.addToEntry(i, i, 1.);
 	}
 	
 	public void addRegularization(RealMatrix D) {
@@ -427,6 +414,17 @@ public class ObservationEquation {
 			throw new RuntimeException("AtA is null");
 	}
 	
+	/**
+	 * Adds D to AtA in place. Only the non-zero elements of D are visited.
+	 * @param D regularization matrix
+	 */
+	public void addRegularization(SparseMatrix D) {
+		if (ata != null)
+			D.addTo(ata);
+		else
+			throw new RuntimeException("AtA is null");
+	}
+	
 	public RealVector getM() {
 		return m;
 	}
@@ -441,12 +439,15 @@ public class ObservationEquation {
         // partialDataFile.readWaveform();
         long t = System.nanoTime();
         AtomicInteger count = new AtomicInteger();
-        Arrays.stream(ids).parallel().forEach(id -> {
+        int[] columns = new UnknownParameterIndex(PARAMETER_LIST).indexOf(ids);
+        int[] windows = DVECTOR.whichTimewindow(ids);
+        IntStream.range(0, ids.length).parallel().forEach(i -> {
             if (count.get() == DVECTOR.getNTimeWindow() * PARAMETER_LIST.size()) return;
-            int column = whatNumber(id.getPartialType(), id.getPerturbationLocation(), null, null, null);
+            PartialID id = ids[i];
+            int column = columns[i];
             if (column < 0) return;
             // 偏微分係数id[i]が何番目のタイムウインドウにあるか
-            int k = DVECTOR.whichTimewindow(id);
+            int k = windows[i];
             if (k < 0) return;
             int row = DVECTOR.getStartPoints(k);
             double weighting = DVECTOR.getWeighting(k) * PARAMETER_LIST.get(column).getWeighting();
@@ -495,17 +496,20 @@ public class ObservationEquation {
 		int numberOfParameterForSturcture = (int) PARAMETER_LIST.stream().filter(unknown -> !unknown.getPartialType().isTimePartial()).count();
 		final int nn = numberOfParameterForSturcture + n;
 		
-		Arrays.stream(ids).parallel().forEach(id -> {
+		// the index must be built after the time partials are added to the parameters
+		int[] columns = new UnknownParameterIndex(PARAMETER_LIST).indexOf(ids);
+		int[] windows = DVECTOR.whichTimewindow(ids);
+		IntStream.range(0, ids.length).parallel().forEach(i -> {
 			if (count.get() + count_TIMEPARTIAL_RECEIVER.get() + count_TIMEPARTIAL_SOURCE.get() == DVECTOR.getNTimeWindow() * nn)
 				return;
-			int column = whatNumber(id.getPartialType(), id.getPerturbationLocation(),
-					id.getStation(), id.getGlobalCMTID(), id.getPhases());
+			PartialID id = ids[i];
+			int column = columns[i];
 			if (column < 0) {
 //				System.out.println("Unknown not found in file for " + id.getPerturbationLocation());
 				return;
 			}
 			// 偏微分係数id[i]が何番目のタイムウインドウにあるか
-			int k = DVECTOR.whichTimewindow(id);
+			int k = windows[i];
 			if (k < 0) {
 //				synchronized(ObservationEquation.class) {
 //					System.out.format("Timewindow not found: %s " + id.getStation().getPosition() + "\n", id.toString());
@@ -746,18 +750,20 @@ public class ObservationEquation {
 		return variance / obsNorm;
 	}
 
-    /**
-     * @param type     to look for
-     * @param location to look for
-     * @return i, m<sub>i</sub> = type, parameterが何番目にあるか なければ-1
-     */
-	private int whatNumber(PartialType type, Location location, Station station, GlobalCMTID id, Phase[] phases) {
-		for (int i = 0; i < PARAMETER_LIST.size(); i++) {
-			if (PARAMETER_LIST.get(i).getPartialType() != type)
+	/**
+	 * Linear search. Use {@link UnknownParameterIndex} for many partials.
+	 *
+	 * @param parameterList list of unknown parameters
+	 * @return index of the parameter for the partial in the list, or -1 if there is not.
+	 */
+	static int whatNumber(List<UnknownParameter> parameterList, PartialType type, Location location, Station station,
+			GlobalCMTID id, Phase[] phases) {
+		for (int i = 0; i < parameterList.size(); i++) {
+			if (parameterList.get(i).getPartialType() != type)
 				continue;
 			switch (type) {
 			case TIME_SOURCE:
-				if (id.equals( ((TimeSourceSideParameter) PARAMETER_LIST.get(i)).getGlobalCMTID() ))
+				if (id.equals( ((TimeSourceSideParameter) parameterList.get(i)).getGlobalCMTID() ))
 					return i;
 				break;
 			case TIME_RECEIVER:
@@ -766,8 +772,8 @@ public class ObservationEquation {
 				bouncingOrders.add(1);
 				Collections.sort(bouncingOrders);
 				int lowestBouncingOrder = bouncingOrders.get(0);
-				if (station.equals( ((TimeReceiverSideParameter) PARAMETER_LIST.get(i)).getStation() ) &&
-						((TimeReceiverSideParameter) PARAMETER_LIST.get(i)).getBouncingOrder() == lowestBouncingOrder)
+				if (station.equals( ((TimeReceiverSideParameter) parameterList.get(i)).getStation() ) &&
+						((TimeReceiverSideParameter) parameterList.get(i)).getBouncingOrder() == lowestBouncingOrder)
 					return i;
 				break;
 			case PARA:
@@ -776,7 +782,7 @@ public class ObservationEquation {
 			case PARL:
 			case PARN:
 			case PARQ:
-				if (location.getR() == ((Physical1DParameter) PARAMETER_LIST.get(i)).getPerturbationR())
+				if (location.getR() == ((Physical1DParameter) parameterList.get(i)).getPerturbationR())
 					return i;
 				break;
 			case PAR1:
@@ -786,7 +792,7 @@ public class ObservationEquation {
 			case PARG:
 			case PARM:
 			case PAR00:
-				if (location.getR() == ((Physical1DParameter) PARAMETER_LIST.get(i)).getPerturbationR())
+				if (location.getR() == ((Physical1DParameter) parameterList.get(i)).getPerturbationR())
 					return i;
 				break;
 			case A:
@@ -800,7 +806,7 @@ public class ObservationEquation {
 			case KAPPA:
 			case LAMBDA2MU:
 			case Vs:
-				if (location.equals(((Physical3DParameter) PARAMETER_LIST.get(i)).getPointLocation())) {
+				if (location.equals(((Physical3DParameter) parameterList.get(i)).getPointLocation())) {
 					return i;
 				}
 				break;
@@ -2,6 +2,7 @@ package io.github.kensuke1984.kibrary.inversion;
 
 import io.github.kensuke1984.kibrary.util.Earth;
 import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.LocationIndex;
 import org.apache.commons.io.FileUtils;
 
 import java.io.BufferedWriter;
@@ -38,6 +39,10 @@ public class PerturbationPoint extends HorizontalPoint {
      * locations of points perturbationLocation[i] = the location of the i th point
      */
     private Location[] perturbationLocation;
+    /**
+     * index of the perturbationLocation, created at the first query
+     */
+    private LocationIndex locationIndex;
     /**
      * number of points
      */
@@ -226,6 +231,16 @@ public class PerturbationPoint extends HorizontalPoint {
         return locations;
     }
 
+    /**
+     * @param location {@link Location} for target
+     * @param k        the number of points to look for
+     * @return k nearest perturbation points in order of the distance from the input location
+     */
+    public Location[] getNearestLocation(Location location, int k) {
+        if (locationIndex == null) locationIndex = new LocationIndex(perturbationLocation);
+        return locationIndex.getNearest(location, k);
+    }
+
     private class VolumeCalculator implements Runnable {
 
         private final Location LOC;
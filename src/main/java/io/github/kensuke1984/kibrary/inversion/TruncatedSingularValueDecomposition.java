@@ -0,0 +1,336 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealLinearOperator;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Truncated SVD inversion by the randomized subspace iteration (Halko et al., 2011).
+ * <p>
+ * Only products of AtA (or of A and A<sup>T</sup>) with vectors are used, so AtA itself is not decomposed.
+ * The leading singular vectors up to the target rank are computed, and the components with singular values
+ * smaller than tolerance &times; (the largest one) are discarded.
+ * Since AtA is symmetric and positive semi-definite, its singular vectors are its eigenvectors.
+ * <p>
+ * The singular vectors are written to a temporary file one by one as they are computed, and read from it when
+ * needed, so that they are not held in memory together.
+ *
+ * @version 0.0.2
+ * @see <a href=https://doi.org/10.1137/090771806>Halko et al., 2011</a>
+ */
+public class TruncatedSingularValueDecomposition extends InverseProblem {
+
+	/**
+	 * the number of extra random vectors
+	 */
+	private static final int OVERSAMPLING = 10;
+
+	/**
+	 * the number of power iterations
+	 */
+	private static final int N_POWER_ITERATION = 2;
+
+	private final RealLinearOperator operator;
+	private final int rank;
+	private final double tolerance;
+
+	/**
+	 * file of the singular vectors (n doubles each) in the order of the singular values
+	 */
+	private Path vectorPath;
+	private double[] singularValues;
+
+	/**
+	 * @param ata       AtA
+	 * @param atd       Atd
+	 * @param rank      target rank
+	 * @param tolerance singular values smaller than tolerance &times; (the largest one) are discarded
+	 */
+	public TruncatedSingularValueDecomposition(RealMatrix ata, RealVector atd, int rank, double tolerance) {
+		this(operatorOf(ata), atd, rank, tolerance);
+		this.ata = ata;
+	}
+
+	/**
+	 * @param ata       operator of AtA. It must be symmetric and positive semi-definite, and operate must be
+	 *                  thread safe. See {@link #normalOperator(RealMatrix)}
+	 * @param atd       Atd
+	 * @param rank      target rank
+	 * @param tolerance singular values smaller than tolerance &times; (the largest one) are discarded
+	 */
+	public TruncatedSingularValueDecomposition(RealLinearOperator ata, RealVector atd, int rank, double tolerance) {
+		if (ata.getRowDimension() != ata.getColumnDimension())
+			throw new IllegalArgumentException("AtA must be square.");
+		if (rank <= 0)
+			throw new IllegalArgumentException("Rank must be positive.");
+		operator = ata;
+		this.atd = atd;
+		this.rank = Math.min(rank, ata.getColumnDimension());
+		this.tolerance = tolerance;
+	}
+
+	private static RealLinearOperator operatorOf(RealMatrix ata) {
+		if (ata instanceof RealLinearOperator)
+			return (RealLinearOperator) ata;
+		return new RealLinearOperator() {
+			@Override
+			public int getRowDimension() {
+				return ata.getRowDimension();
+			}
+
+			@Override
+			public int getColumnDimension() {
+				return ata.getColumnDimension();
+			}
+
+			@Override
+			public RealVector operate(RealVector x) {
+				return ata.operate(x);
+			}
+		};
+	}
+
+	/**
+	 * @param a A
+	 * @return operator v &rarr; A<sup>T</sup>Av, which does not compute AtA
+	 */
+	public static RealLinearOperator normalOperator(RealMatrix a) {
+		return normalOperator(a, 0);
+	}
+
+	/**
+	 * @param a      A
+	 * @param lambda added to the diagonal, e.g. 1 for the equation with a model covariance matrix
+	 * @return operator v &rarr; A<sup>T</sup>Av + &lambda;v, which does not compute AtA
+	 */
+	public static RealLinearOperator normalOperator(RealMatrix a, double lambda) {
+		return new RealLinearOperator() {
+			@Override
+			public int getRowDimension() {
+				return a.getColumnDimension();
+			}
+
+			@Override
+			public int getColumnDimension() {
+				return a.getColumnDimension();
+			}
+
+			@Override
+			public RealVector operate(RealVector x) {
+				RealVector atax = a.preMultiply(a.operate(x));
+				return lambda == 0 ? atax : atax.add(x.mapMultiply(lambda));
+			}
+		};
+	}
+
+	@Override
+	public void compute() {
+		System.err.print("Computing truncated SVD of AtA with the target rank " + rank);
+		int n = operator.getColumnDimension();
+		int l = Math.min(rank + OVERSAMPLING, n);
+		Random random = new Random(0);
+		double[][] q = new double[l][n];
+		for (double[] column : q)
+			for (int i = 0; i < n; i++)
+				column[i] = random.nextGaussian();
+		q = orthonormalize(operate(q));
+		for (int i = 0; i < N_POWER_ITERATION; i++)
+			q = orthonormalize(operate(q));
+
+		// B = QtAtAQ (l x l)
+		double[][] aq = operate(q);
+		double[][] b = new double[q.length][q.length];
+		for (int i = 0; i < q.length; i++)
+			for (int j = i; j < q.length; j++)
+				b[i][j] = b[j][i] = (dot(q[i], aq[j]) + dot(q[j], aq[i])) / 2;
+		EigenDecomposition eigen = new EigenDecomposition(new Array2DRowRealMatrix(b, false));
+		double[] lambda = eigen.getRealEigenvalues();
+		Integer[] order = IntStream.range(0, lambda.length).boxed().toArray(Integer[]::new);
+		Arrays.sort(order, Comparator.comparingDouble(i -> -lambda[i]));
+
+		int k = 0;
+		while (k < Math.min(rank, order.length) && tolerance * lambda[order[0]] < lambda[order[k]])
+			k++;
+		singularValues = new double[k];
+		ans = new Array2DRowRealMatrix(n, Math.max(1, k));
+		// mj = pi vi (i<=j), pi = vi Atd / lambda_i
+		RealVector m = new ArrayRealVector(n);
+		try {
+			vectorPath = Files.createTempFile("tsvd", ".dat");
+			vectorPath.toFile().deleteOnExit();
+			try (DataOutputStream dos = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(vectorPath)))) {
+				for (int i = 0; i < k; i++) {
+					singularValues[i] = lambda[order[i]];
+					RealVector u = eigen.getEigenvector(order[i]);
+					double[] v = new double[n];
+					for (int j = 0; j < q.length; j++) {
+						double uj = u.getEntry(j);
+						for (int r = 0; r < n; r++)
+							v[r] += uj * q[j][r];
+					}
+					for (double vr : v)
+						dos.writeDouble(vr);
+					RealVector vi = new ArrayRealVector(v, false);
+					m = m.add(vi.mapMultiply(vi.dotProduct(atd) / singularValues[i]));
+					ans.setColumnVector(i, m);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write singular vectors.", e);
+		}
+		System.err.println("  done (" + k + " components)");
+	}
+
+	/**
+	 * @return AtA x for each x (in parallel)
+	 */
+	private double[][] operate(double[][] xs) {
+		return Arrays.stream(xs).parallel().map(x -> operator.operate(new ArrayRealVector(x, false)).toArray())
+				.toArray(double[][]::new);
+	}
+
+	/**
+	 * Modified Gram-Schmidt with reorthogonalization. Vectors which become (numerically) zero are dropped.
+	 */
+	private static double[][] orthonormalize(double[][] vectors) {
+		double[][] q = new double[vectors.length][];
+		int k = 0;
+		for (double[] vector : vectors) {
+			double[] v = vector.clone();
+			double norm0 = Math.sqrt(dot(v, v));
+			for (int pass = 0; pass < 2; pass++)
+				for (int j = 0; j < k; j++) {
+					double c = dot(q[j], v);
+					for (int i = 0; i < v.length; i++)
+						v[i] -= c * q[j][i];
+				}
+			double norm = Math.sqrt(dot(v, v));
+			if (norm <= 1e-12 * norm0 || norm == 0)
+				continue;
+			for (int i = 0; i < v.length; i++)
+				v[i] /= norm;
+			q[k++] = v;
+		}
+		return Arrays.copyOf(q, k);
+	}
+
+	private static double dot(double[] x, double[] y) {
+		double sum = 0;
+		for (int i = 0; i < x.length; i++)
+			sum += x[i] * y[i];
+		return sum;
+	}
+
+	/**
+	 * Reads the singular vectors one by one.
+	 *
+	 * @param action for the index and each singular vector
+	 */
+	private void forEachVector(ObjIntConsumer<double[]> action) throws IOException {
+		int n = getParN();
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(vectorPath)))) {
+			for (int i = 0; i < singularValues.length; i++) {
+				double[] v = new double[n];
+				for (int r = 0; r < n; r++)
+					v[r] = dis.readDouble();
+				action.accept(v, i);
+			}
+		}
+	}
+
+	/**
+	 * Writes singular values (singularValues.txt) and then each singular vector (i.dat) one by one.
+	 *
+	 * @param outDir created if it does not exist
+	 * @throws IOException if any
+	 */
+	public void outputV(Path outDir) throws IOException {
+		Files.createDirectories(outDir);
+		try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(outDir.resolve("singularValues.txt")))) {
+			for (double lambda : singularValues)
+				pw.println(lambda);
+		}
+		try {
+			forEachVector((v, i) -> {
+				try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(outDir.resolve(i + ".dat")))) {
+					for (double vr : v)
+						pw.println(vr);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @return singular values in descending order
+	 */
+	public double[] getSingularValues() {
+		return singularValues.clone();
+	}
+
+	@Override
+	public int getParN() {
+		return atd.getDimension();
+	}
+
+	@Override
+	public RealMatrix computeCovariance(double sigmaD, int j) {
+		RealMatrix covarianceMatrix = new Array2DRowRealMatrix(getParN(), getParN());
+		double sigmaD2 = sigmaD * sigmaD;
+		try {
+			forEachVector((v, i) -> {
+				if (j <= i)
+					return;
+				double factor = sigmaD2 / singularValues[i];
+				for (int r = 0; r < v.length; r++)
+					for (int c = 0; c < v.length; c++)
+						covarianceMatrix.addToEntry(r, c, factor * v[r] * v[c]);
+			});
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read singular vectors.", e);
+		}
+		return covarianceMatrix;
+	}
+
+	/**
+	 * @return V (n &times; k), read from the file of the singular vectors
+	 */
+	@Override
+	public RealMatrix getBaseVectors() {
+		RealMatrix v = new Array2DRowRealMatrix(getParN(), Math.max(1, singularValues.length));
+		try {
+			forEachVector((vi, i) -> v.setColumn(i, vi));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read singular vectors.", e);
+		}
+		return v;
+	}
+
+	@Override
+	InverseMethodEnum getEnum() {
+		return InverseMethodEnum.TRUNCATED_SINGULAR_VALUE_DECOMPOSITION;
+	}
+
+}
@@ -99,10 +99,8 @@ public class UnknownParameterFile {
 				}
 			}
 		}
-		for (int i = 0; i < pars.size() - 1; i++)
-			for (int j = i + 1; j < pars.size(); j++)
-				if (pars.get(i).equals(pars.get(j)))
-					System.err.println("!Caution there is duplication in " + path);
+		if (new UnknownParameterIndex(pars).containsDuplication())
+			System.err.println("!Caution there is duplication in " + path);
 //		return Collections.unmodifiableList(pars);
 		return pars;
 	}
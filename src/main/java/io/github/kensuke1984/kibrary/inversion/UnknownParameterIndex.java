@@ -0,0 +1,273 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import io.github.kensuke1984.kibrary.inversion.addons.TimeReceiverSideParameter;
+import io.github.kensuke1984.kibrary.inversion.addons.TimeSourceSideParameter;
+import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.util.spc.PartialType;
+import io.github.kensuke1984.kibrary.waveformdata.PartialID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Index of unknown parameters to find the column of a partial in A in constant time.
+ * <p>
+ * Parameters are hashed by their {@link PartialType} and
+ * <ul>
+ * <li>the event for TIME_SOURCE</li>
+ * <li>the station name for TIME_RECEIVER (bouncing order 1)</li>
+ * <li>the radius for 1D parameters</li>
+ * <li>the location quantized by the tolerance of {@link Location#equals(Object)} for the others</li>
+ * </ul>
+ * Since locations are equal within the tolerance, a parameter is put in all the cells next to its location,
+ * and the candidates in the cell of a query are checked by equals.
+ * If several parameters match, the first one in the list is returned as in
+ * {@link ObservationEquation#whatNumber(List, PartialType, Location, Station, GlobalCMTID, io.github.kensuke1984.anisotime.Phase[])}.
+ * <p>
+ * The parameter list must not be modified after the index is created.
+ *
+ * @author anselme
+ * @version 0.0.1
+ */
+public class UnknownParameterIndex {
+
+	/**
+	 * Tolerance in equals of {@link Location} for the latitude, longitude and radius
+	 */
+	private static final double EPS = 1e-4;
+
+	private final List<UnknownParameter> parameterList;
+	/**
+	 * (type, event) &rarr; the first index
+	 */
+	private final Map<Key, Integer> eventMap = new HashMap<>();
+	/**
+	 * (type, station name) &rarr; indices in ascending order
+	 */
+	private final Map<Key, int[]> stationMap = new HashMap<>();
+	/**
+	 * (type, radius) &rarr; the first index
+	 */
+	private final Map<Key, Integer> radiusMap = new HashMap<>();
+	/**
+	 * (type, cell of the location) &rarr; indices in ascending order
+	 */
+	private final Map<Key, int[]> locationMap = new HashMap<>();
+
+	/**
+	 * @param parameterList unknown parameters. It must not be modified after this.
+	 */
+	public UnknownParameterIndex(List<UnknownParameter> parameterList) {
+		this.parameterList = parameterList;
+		Map<Key, List<Integer>> stationLists = new HashMap<>();
+		Map<Key, List<Integer>> locationLists = new HashMap<>();
+		for (int i = 0; i < parameterList.size(); i++) {
+			UnknownParameter parameter = parameterList.get(i);
+			PartialType type = parameter.getPartialType();
+			if (parameter instanceof TimeSourceSideParameter)
+				eventMap.putIfAbsent(new Key(type, ((TimeSourceSideParameter) parameter).getGlobalCMTID()), i);
+			else if (parameter instanceof TimeReceiverSideParameter) {
+				TimeReceiverSideParameter receiver = (TimeReceiverSideParameter) parameter;
+				if (receiver.getBouncingOrder() == 1)
+					stationLists.computeIfAbsent(new Key(type, receiver.getStation().getName()), k -> new ArrayList<>())
+							.add(i);
+			}
+			Location location = parameter.getLocation();
+			if (location == null)
+				continue;
+			radiusMap.putIfAbsent(new Key(type, location.getR()), i);
+			long lat = cellOf(location.getLatitude());
+			long lon = cellOf(location.getLongitude());
+			long r = cellOf(location.getR());
+			for (long dLat = -1; dLat <= 1; dLat++)
+				for (long dLon = -1; dLon <= 1; dLon++)
+					for (long dR = -1; dR <= 1; dR++)
+						locationLists.computeIfAbsent(new Key(type, lat + dLat, lon + dLon, r + dR), k -> new ArrayList<>())
+								.add(i);
+		}
+		stationLists.forEach((key, list) -> stationMap.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+		locationLists.forEach((key, list) -> locationMap.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+	}
+
+	private static long cellOf(double value) {
+		return (long) Math.floor(value / EPS);
+	}
+
+	/**
+	 * The same as {@link ObservationEquation#whatNumber(List, PartialType, Location, Station, GlobalCMTID, io.github.kensuke1984.anisotime.Phase[])}.
+	 *
+	 * @param type     of the partial
+	 * @param location of the perturbation
+	 * @param station  of the partial (for TIME_RECEIVER)
+	 * @param id       of the partial (for TIME_SOURCE)
+	 * @return index of the parameter for the partial, or -1 if there is not
+	 */
+	public int indexOf(PartialType type, Location location, Station station, GlobalCMTID id) {
+		switch (type) {
+		case TIME_SOURCE:
+			return eventMap.getOrDefault(new Key(type, id), -1);
+		case TIME_RECEIVER:
+			int[] candidates = stationMap.get(new Key(type, station.getName()));
+			if (candidates != null)
+				for (int i : candidates)
+					if (station.equals(((TimeReceiverSideParameter) parameterList.get(i)).getStation()))
+						return i;
+			return -1;
+		case PARA:
+		case PARC:
+		case PARF:
+		case PARL:
+		case PARN:
+		case PARQ:
+		case PAR1:
+		case PAR2:
+		case PARVS:
+		case PARVP:
+		case PARG:
+		case PARM:
+		case PAR00:
+			return indexOf(type, location.getR());
+		case A:
+		case C:
+		case F:
+		case L:
+		case N:
+		case Q:
+		case MU:
+		case LAMBDA:
+		case KAPPA:
+		case LAMBDA2MU:
+		case Vs:
+			return indexOf(type, location);
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @param id partial
+	 * @return index of the parameter for the partial, or -1 if there is not
+	 */
+	public int indexOf(PartialID id) {
+		return indexOf(id.getPartialType(), id.getPerturbationLocation(), id.getStation(), id.getGlobalCMTID());
+	}
+
+	/**
+	 * Partials are looked up in parallel.
+	 *
+	 * @param ids partials
+	 * @return indices of the parameters for the partials (-1 for ones without parameters)
+	 */
+	public int[] indexOf(PartialID[] ids) {
+		int[] indices = new int[ids.length];
+		IntStream.range(0, ids.length).parallel().forEach(i -> indices[i] = indexOf(ids[i]));
+		return indices;
+	}
+
+	/**
+	 * @param type     of the parameter
+	 * @param location of the parameter
+	 * @return index of the first parameter of the type whose location equals the location, or -1 if there is not
+	 */
+	public int indexOf(PartialType type, Location location) {
+		int[] candidates = locationMap
+				.get(new Key(type, cellOf(location.getLatitude()), cellOf(location.getLongitude()), cellOf(location.getR())));
+		if (candidates != null)
+			for (int i : candidates)
+				if (location.equals(parameterList.get(i).getLocation()))
+					return i;
+		return -1;
+	}
+
+	/**
+	 * @param type   of the parameter
+	 * @param radius [km] of the parameter
+	 * @return index of the first parameter of the type at exactly the radius, or -1 if there is not
+	 */
+	public int indexOf(PartialType type, double radius) {
+		return radiusMap.getOrDefault(new Key(type, radius), -1);
+	}
+
+	/**
+	 * @return if there are parameters which are equal in the list
+	 */
+	public boolean containsDuplication() {
+		Map<Key, List<UnknownParameter>> groups = new HashMap<>();
+		for (UnknownParameter parameter : parameterList) {
+			Location location = parameter.getLocation();
+			// equals of these parameters depends on their locations
+			boolean located = location != null &&
+					(parameter instanceof Physical1DParameter || parameter instanceof Physical3DParameter);
+			Key key = located ? new Key(parameter.getPartialType(), cellOf(location.getLatitude()),
+					cellOf(location.getLongitude()), cellOf(location.getR())) :
+					new Key(parameter.getPartialType(), parameter.getClass());
+			for (long dLat = located ? -1 : 0; dLat <= (located ? 1 : 0); dLat++)
+				for (long dLon = located ? -1 : 0; dLon <= (located ? 1 : 0); dLon++)
+					for (long dR = located ? -1 : 0; dR <= (located ? 1 : 0); dR++) {
+						Key neighbor = located ? new Key(key.type, key.a + dLat, key.b + dLon, key.c + dR) : key;
+						List<UnknownParameter> group = groups.get(neighbor);
+						if (group != null && group.stream().anyMatch(parameter::equals))
+							return true;
+					}
+			groups.computeIfAbsent(key, k -> new ArrayList<>()).add(parameter);
+		}
+		return false;
+	}
+
+	private static final class Key {
+		private final PartialType type;
+		private final long a;
+		private final long b;
+		private final long c;
+		private final Object object;
+
+		private Key(PartialType type, long a, long b, long c) {
+			this(type, a, b, c, null);
+		}
+
+		private Key(PartialType type, Object object) {
+			this(type, 0, 0, 0, object);
+		}
+
+		/**
+		 * @param radius exact value. 0 and -0 are the same.
+		 */
+		private Key(PartialType type, double radius) {
+			this(type, Double.doubleToLongBits(radius + 0.), 0, 0, null);
+		}
+
+		private Key(PartialType type, long a, long b, long c, Object object) {
+			this.type = type;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.object = object;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = type.hashCode();
+			result = 31 * result + Long.hashCode(a);
+			result = 31 * result + Long.hashCode(b);
+			result = 31 * result + Long.hashCode(c);
+			return 31 * result + Objects.hashCode(object);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return type == other.type && a == other.a && b == other.b && c == other.c && Objects.equals(object, other.object);
+		}
+	}
+
+}
@@ -20,8 +20,36 @@ import org.apache.commons.math3.linear.RealVector;
 
 import io.github.kensuke1984.kibrary.math.geometry.XYZ;
 import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.LocationIndex;
 
+/**
+ * Interpolation of values at locations by their near locations.
+ * <p>
+ * The index of the locations for the queries of near locations is reused while the same array is given,
+ * so the array must not be modified after it is given. This class is thread safe.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
 public class Complementation {
+	/**
+	 * locations of the last query and their index, which is reused while the same array is given
+	 */
+	private volatile IndexedLocations lastIndex;
+
+	/**
+	 * An array of locations and its index, which are replaced together.
+	 */
+	private static class IndexedLocations {
+		private final Location[] LOCATIONS;
+		private final LocationIndex INDEX;
+
+		private IndexedLocations(Location[] locations) {
+			LOCATIONS = locations;
+			INDEX = new LocationIndex(locations);
+		}
+	}
+	
 	public static void main(String[] args) {
 		Path answerPath  = Paths.get(args[0]); // 解のファイル(vRatio)。水平方向5°おき、鉛直方向50kmおきの解
 		Path cmpfilePath = Paths.get(args[1]); // 1°おきの緯度経度半径のファイル （1、2、3列目に緯度経度半径）
@@ -150,23 +178,26 @@ public class Complementation {
 	public Location[] getNearest4(Location[] locations, Location location){
 //		double[] distance = distance(locations, location);
 //		Arrays.sort(distance); 
-		Location[] sortLoc = location.getNearestLocation(locations);
-		Location[] near4 = new Location[4];
-		for(int i=0;i<4;i++){
-			near4[i] = sortLoc[i];
-		}
-	    return near4;
+		return indexOf(locations).getNearest(location, 4);
 	}
 	
 	public Location[] getNearest4(Location[] locations, Location location, double maxSearchRange){
 //		double[] distance = distance(locations, location);
 //		Arrays.sort(distance); 
-		Location[] sortLoc = location.getNearestLocation(locations, maxSearchRange);
-		Location[] near4 = new Location[4];
-		for(int i=0;i<4;i++){
-			near4[i] = sortLoc[i];
-		}
-	    return near4;
+		return indexOf(locations).getNearest(location, 4, maxSearchRange);
+	}
+	
+	/**
+	 * The array is compared by identity, not by the contents.
+	 *
+	 * @param locations to search in
+	 * @return index of the locations. The last one is reused if the locations are the same array.
+	 */
+	private LocationIndex indexOf(Location[] locations) {
+		IndexedLocations indexed = lastIndex;
+		if (indexed == null || indexed.LOCATIONS != locations)
+			lastIndex = indexed = new IndexedLocations(locations);
+		return indexed.INDEX;
 	}
 	
 	public Location[] getNearest(Location[] locations, Location location){
@@ -184,8 +215,8 @@ public class Complementation {
 	
 	public Location[] get8CellNodes(Location[] locations, Location location, double dR, double dL) {
 		Location[] nodes = new Location[8];
-		Location[] sortLoc = location.getNearestLocation(locations);
-		Location nearest = sortLoc[0];
+		LocationIndex index = indexOf(locations);
+		Location nearest = index.getNearest(location, 1)[0];
 		double lat = nearest.getLatitude();
 		double lon = nearest.getLongitude();
 		double r = nearest.getR();
@@ -218,9 +249,9 @@ public class Complementation {
 		Set<Location> fixedNodes = new HashSet<>();
 		fixedNodes.add(nodes[0]);
 		for (int i = 1; i < 8; i++) {
-			Location[] nearests = nodes[i].getNearestLocation(locations);
+			Location[] nearests = index.getNearest(nodes[i], 1);
 			if (nearests.length > 0)
-				fixedNodes.add(nodes[i].getNearestLocation(locations)[0]);
+				fixedNodes.add(nearests[0]);
 		}
 		
 		return fixedNodes.toArray(new Location[0]);
@@ -230,8 +261,7 @@ public class Complementation {
 		double[][] nodes = new double[3][];
 		for (int i = 0; i < 3; i++)
 			nodes[i] = new double[2];
-		Location[] sortLoc = location.getNearestLocation(locations);
-		Location nearest = sortLoc[0];
+		Location nearest = indexOf(locations).getNearest(location, 1)[0];
 		double lat = nearest.getLatitude();
 		double lon = nearest.getLongitude();
 		double r = nearest.getR();
@@ -263,11 +293,7 @@ public class Complementation {
 	 * @return nearest location with the same radius as this
 	 */
 	public Location[] getNearestHorizontal4(Location[] locations, Location location){
-		Location[] sortLoc = location.getNearestHorizontalLocation(locations);
-		Location[] near4 = new Location[4];
-		for(int i = 0; i < 4;i++)
-			near4[i] = sortLoc[i];
-	    return near4;
+		return indexOf(locations).getNearestInLayer(location, 4);
 	}
 	
 	/**
@@ -19,6 +19,8 @@ import org.apache.commons.math3.linear.CholeskyDecomposition;
 
 import io.github.kensuke1984.kibrary.inversion.Physical3DParameter;
 import io.github.kensuke1984.kibrary.inversion.UnknownParameter;
+import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.math.SparseMatrix;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.spc.PartialType;
@@ -167,14 +169,12 @@ public class ModelCovarianceMatrix {
 	
 	List<UnknownParameter> parameters;
 	
-	private int[][] indexNonZeroElements;
-	private double[][] valueNonZeroElements;
-	
-	private int[][] ltindexNonZeroElements;
-	private double[][] ltvalueNonZeroElements;
-	
-	private int[][] lindexNonZeroElements;
-	private double[][] lvalueNonZeroElements;
+	/**
+	 * Cm, L and L<sup>T</sup> without zero elements, used for the products
+	 */
+	private SparseMatrix sparseCm;
+	private SparseMatrix sparseL;
+	private SparseMatrix sparseLt;
 	
 	private double[] preWeight;
 	
@@ -201,6 +201,9 @@ public class ModelCovarianceMatrix {
 		this.layerThickness = layerThickness;
 		this.h = h;
 		this.v = v;
+		preWeight = new double[parameters.size()];
+		for (int i = 0; i < preWeight.length; i++)
+			preWeight[i] = 1.;
 		computeMatrix();
 	}
 	
@@ -211,12 +214,6 @@ public class ModelCovarianceMatrix {
 		this.h = h;
 		this.v = v;
 		this.threshold = 0.; //0.005
-		this.indexNonZeroElements = new int[parameters.size()][];
-		this.valueNonZeroElements = new double[parameters.size()][];
-		this.ltindexNonZeroElements = new int[parameters.size()][];
-		this.ltvalueNonZeroElements = new double[parameters.size()][];
-		this.lindexNonZeroElements = new int[parameters.size()][];
-		this.lvalueNonZeroElements = new double[parameters.size()][];
 		preWeight = new double[parameters.size()];
 		for (int i = 0; i < preWeight.length; i++)
 			preWeight[i] = 1.;
@@ -232,12 +229,6 @@ public class ModelCovarianceMatrix {
 		this.h = h;
 		this.v = v;
 		this.threshold = .005;
-		this.indexNonZeroElements = new int[parameters.size()][];
-		this.valueNonZeroElements = new double[parameters.size()][];
-		this.ltindexNonZeroElements = new int[parameters.size()][];
-		this.ltvalueNonZeroElements = new double[parameters.size()][];
-		this.lindexNonZeroElements = new int[parameters.size()][];
-		this.lvalueNonZeroElements = new double[parameters.size()][];
 		try {
 			preWeight = readSensitivityFileAndComputeWeight(sensitivityFile);
 		} catch (IOException e) {
@@ -247,7 +238,7 @@ public class ModelCovarianceMatrix {
 		computeMatrix();
 		computeCholeskyDecomposition();
 	}
-	
+
 	public ModelCovarianceMatrix(List<UnknownParameter> parameters, double v, double h, double[] normalization, boolean applyRadialWeight) {
 		this.parameters = parameters;
 		this.radii = null;
@@ -255,12 +246,6 @@ public class ModelCovarianceMatrix {
 		this.h = h;
 		this.v = v;
 		this.threshold = 0.;//.005;
-		this.indexNonZeroElements = new int[parameters.size()][];
-		this.valueNonZeroElements = new double[parameters.size()][];
-		this.ltindexNonZeroElements = new int[parameters.size()][];
-		this.ltvalueNonZeroElements = new double[parameters.size()][];
-		this.lindexNonZeroElements = new int[parameters.size()][];
-		this.lvalueNonZeroElements = new double[parameters.size()][];
 		preWeight = new double[parameters.size()];
 		for (int i = 0; i < preWeight.length; i++)
 			preWeight[i] = 1.;
@@ -299,22 +284,35 @@ public class ModelCovarianceMatrix {
 	}
 	
 	
+	/**
+	 * Computes Cm. As Cm is symmetric, only the elements (i, j &ge; i) are computed.
+	 * Elements below the threshold are not stored in the sparse Cm.
+	 */
 	private void computeMatrix() {
 		int n = parameters.size();
 		System.out.println("Computing model covariance matrix with " + n + " parameters");
 		cm = new Array2DRowRealMatrix(n, n);
 		
+		Location[] locations = parameters.stream().map(UnknownParameter::getLocation).toArray(Location[]::new);
+		PartialType[] types = parameters.stream().map(UnknownParameter::getPartialType).toArray(PartialType[]::new);
 		List<List<Integer>> tmpIndexes = new ArrayList<>();
 		List<List<Double>> tmpValues = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			tmpIndexes.add(new ArrayList<>());
+			tmpValues.add(new ArrayList<>());
+		}
 		
 		for (int i = 0; i < n; i++) {
-			List<Integer> tmpI = new ArrayList<>();
-			List<Double> tmpV = new ArrayList<>();
-			for (int j = 0; j < n ; j++) {
-				Location loci = parameters.get(i).getLocation();
-				Location locj = parameters.get(j).getLocation();
-				double delta = Math.toDegrees(loci.getEpicentralDistance(locj));
-				double dr = Math.abs(loci.getR() - locj.getR());
+			List<Integer> tmpI = tmpIndexes.get(i);
+			List<Double> tmpV = tmpValues.get(i);
+			tmpI.add(i);
+			tmpV.add(preWeight[i] * preWeight[i]);
+			cm.setEntry(i, i, preWeight[i] * preWeight[i]);
+			for (int j = i + 1; j < n ; j++) {
+				if (!types[i].equals(types[j]))
+					continue;
+				double delta = Math.toDegrees(locations[i].getEpicentralDistance(locations[j]));
+				double dr = Math.abs(locations[i].getR() - locations[j].getR());
 				double cmH = 0;
 				double cmV = 0;
 				if (h > 0)
@@ -334,45 +332,29 @@ public class ModelCovarianceMatrix {
 						cmV = 0.;
 				}
 				
-				if (!parameters.get(i).getPartialType().equals(parameters.get(j).getPartialType())) {
-					cm.setEntry(i, j, 0.);
-					cm.setEntry(j, i, 0.);
-				}
-				else {
-					if (i == j) {
-						cm.setEntry(i, i, preWeight[i] * preWeight[j]);
-						tmpI.add(i);
-						tmpV.add(preWeight[i] * preWeight[j]);
-					}
-					else {
-	//					double cmij = cmH * cmV;
-						double cmij = preWeight[i] * preWeight[j] * cmH * cmV;
-						if (cmij < threshold)
-							cmij = 0;
-						else {
-							tmpI.add(j);
-							tmpV.add(cmij);
-						}
-						cm.setEntry(i, j, cmij);
-						cm.setEntry(j, i, cmij);
-					}
-				}
+				double cmij = preWeight[i] * preWeight[j] * cmH * cmV;
+				if (cmij == 0 || cmij < threshold)
+					continue;
+				tmpI.add(j);
+				tmpV.add(cmij);
+				tmpIndexes.get(j).add(i);
+				tmpValues.get(j).add(cmij);
+				cm.setEntry(i, j, cmij);
+				cm.setEntry(j, i, cmij);
 			}
-			tmpIndexes.add(tmpI);
-			tmpValues.add(tmpV);
 		}
-		
+		sparseCm = toSparse(n, tmpIndexes, tmpValues);
+		System.out.println("Cm has " + sparseCm.getNonZeroCount() + " non-zero elements");
+	}
+	
+	private static SparseMatrix toSparse(int n, List<List<Integer>> indexes, List<List<Double>> values) {
+		int[][] indexArray = new int[n][];
+		double[][] valueArray = new double[n][];
 		for (int i = 0; i < n; i++) {
-			List<Integer> tmpI = tmpIndexes.get(i);
-			List<Double> tmpV = tmpValues.get(i);
-			indexNonZeroElements[i] = new int[tmpI.size()];
-			valueNonZeroElements[i] = new double[tmpV.size()];
-//			System.out.println(tmpI.size());
-			for (int j = 0; j < tmpI.size(); j++) {
-				indexNonZeroElements[i][j] = tmpI.get(j);
-				valueNonZeroElements[i][j] = tmpV.get(j);
-			}
+			indexArray[i] = indexes.get(i).stream().mapToInt(Integer::intValue).toArray();
+			valueArray[i] = values.get(i).stream().mapToDouble(Double::doubleValue).toArray();
 		}
+		return new SparseMatrix(n, indexArray, valueArray);
 	}
 	
 	public void computeCholeskyDecomposition() {
@@ -380,154 +362,63 @@ public class ModelCovarianceMatrix {
 		CholeskyDecomposition cholesky = new CholeskyDecomposition(cm);
 		l = cholesky.getL();
 		lt = cholesky.getLT();
-		int n = parameters.size();
-		
-		List<List<Integer>> tmpIndexes = new ArrayList<>();
-		List<List<Double>> tmpValues = new ArrayList<>();
-		
-		List<List<Integer>> tmpIndexesL = new ArrayList<>();
-		List<List<Double>> tmpValuesL = new ArrayList<>();
-		
-		for (int i = 0; i < n; i++) {
-			List<Integer> tmpI = new ArrayList<>();
-			List<Double> tmpV = new ArrayList<>();
-			List<Integer> tmpIL = new ArrayList<>();
-			List<Double> tmpVL = new ArrayList<>();
-			for (int j = 0; j < n; j++) {
-				double ltij = lt.getEntry(i, j);
-				if (ltij > 0.) {
-					tmpI.add(j);
-					tmpV.add(ltij);
-				}
-				double lij = l.getEntry(i, j);
-				if (lij > 0) {
-					tmpIL.add(j);
-					tmpVL.add(lij);
-				}
-			}
-			
-			tmpIndexes.add(tmpI);
-			tmpValues.add(tmpV);
-			
-			tmpIndexesL.add(tmpIL);
-			tmpValuesL.add(tmpVL);
-		}
-		
-		for (int i = 0; i < n; i++) {
-			List<Integer> tmpI = tmpIndexes.get(i);
-			List<Double> tmpV = tmpValues.get(i);
-			ltindexNonZeroElements[i] = new int[tmpI.size()];
-			ltvalueNonZeroElements[i] = new double[tmpV.size()];
-			
-			List<Integer> tmpIL = tmpIndexesL.get(i);
-			List<Double> tmpVL = tmpValuesL.get(i);
-			lindexNonZeroElements[i] = new int[tmpIL.size()];
-			lvalueNonZeroElements[i] = new double[tmpVL.size()];
-			
-//			System.out.println(tmpI.size());
-			for (int j = 0; j < tmpI.size(); j++) {
-				ltindexNonZeroElements[i][j] = tmpI.get(j);
-				ltvalueNonZeroElements[i][j] = tmpV.get(j);
-			}
-			
-			for (int j = 0; j < tmpIL.size(); j++) {
-				lindexNonZeroElements[i][j] = tmpIL.get(j);
-				lvalueNonZeroElements[i][j] = tmpVL.get(j);
-			}
-		}
+		sparseL = SparseMatrix.of(l, 0.);
+		sparseLt = sparseL.transpose();
+		System.out.println("L has " + sparseL.getNonZeroCount() + " non-zero elements");
 	}
 	
-	public RealMatrix rightMultiplyByL(RealMatrix m) {
+	/**
+	 * @param m matrix
+	 * @return ML
+	 */
+	public Matrix rightMultiplyByL(RealMatrix m) {
 		if (m.getColumnDimension() != l.getRowDimension())
 			throw new RuntimeException("M column dimension and L row dimension mismatch " + m.getColumnDimension() + " " + l.getRowDimension());
-		int n1 = m.getRowDimension();
-//		int n2 = m.getColumnDimension();
-		int n2 = l.getColumnDimension();
-		RealMatrix res = new Array2DRowRealMatrix(n1, n2);
-		for (int i = 0; i < n1; i++) {
-			for (int j = 0; j < n2; j++) {
-				int[] tmpI = ltindexNonZeroElements[j];
-				double[] tmpV = ltvalueNonZeroElements[j];
-				double resij = 0.;
-				for (int k = 0; k < tmpI.length; k++) {
-					resij += tmpV[k] * m.getEntry(i, tmpI[k]);
-				}
-				res.setEntry(i, j, resij);
-			}
-		}
-		return res;
+		return sparseL.preMultiply(m);
 	}
 	
-	public RealMatrix leftMultiplyByL(RealMatrix m) {
+	/**
+	 * @param m matrix
+	 * @return LM
+	 */
+	public Matrix leftMultiplyByL(RealMatrix m) {
 		if (m.getRowDimension() != l.getColumnDimension())
 			throw new RuntimeException("M row dimension and L column dimension mismatch " + m.getRowDimension() + " " + l.getColumnDimension());
-		int n1 = l.getRowDimension();
-		int n2 = m.getColumnDimension();
-		RealMatrix res = new Array2DRowRealMatrix(n1, n2);
-		for (int i = 0; i < n1; i++) {
-			int[] tmpI = lindexNonZeroElements[i];
-			double[] tmpV = lvalueNonZeroElements[i];
-			for (int j = 0; j < n2; j++) {
-				double resij = 0.;
-				for (int k = 0; k < tmpI.length; k++) {
-					resij += tmpV[k] * m.getEntry(tmpI[k], j);
-				}
-				res.setEntry(i, j, resij);
-			}
-		}
-		return res;
+		return sparseL.multiply(m);
 	}
 	
-	public RealMatrix leftMultiplyByLT(RealMatrix m) {
+	/**
+	 * @param m matrix
+	 * @return L<sup>T</sup>M
+	 */
+	public Matrix leftMultiplyByLT(RealMatrix m) {
 		if (m.getRowDimension() != l.getColumnDimension())
 			throw new RuntimeException("M row dimension and L column dimension mismatch " + m.getRowDimension() + " " + l.getColumnDimension());
-		int n1 = l.getRowDimension();
-		int n2 = m.getColumnDimension();
-		RealMatrix res = new Array2DRowRealMatrix(n1, n2);
-		for (int i = 0; i < n1; i++) {
-			int[] tmpI = ltindexNonZeroElements[i];
-			double[] tmpV = ltvalueNonZeroElements[i];
-			for (int j = 0; j < n2; j++) {
-				double resij = 0.;
-				for (int k = 0; k < tmpI.length; k++) {
-					resij += tmpV[k] * m.getEntry(tmpI[k], j);
-				}
-				res.setEntry(i, j, resij);
-			}
-		}
-		return res;
+		return sparseLt.multiply(m);
 	}
 	
-	public RealMatrix leftMultiply(RealMatrix m) {
-		int n = parameters.size();
-		RealMatrix res = new Array2DRowRealMatrix(n, n);
-		for (int i = 0; i < n; i++) {
-			int[] tmpI = indexNonZeroElements[i];
-			double[] tmpV = valueNonZeroElements[i];
-			for (int j = 0; j < n; j++) {
-				double resij = 0.;
-				for (int k = 0; k < tmpI.length; k++) {
-					resij += tmpV[k] * m.getEntry(tmpI[k], j);
-				}
-				res.setEntry(i, j, resij);
-			}
-		}
-		return res;
+	/**
+	 * @param m matrix
+	 * @return CmM
+	 */
+	public Matrix leftMultiply(RealMatrix m) {
+		return sparseCm.multiply(m);
 	}
 	
+	/**
+	 * @param v vector
+	 * @return Cmv
+	 */
 	public RealVector operate(RealVector v) {
-		int n = parameters.size();
-		RealVector res = new ArrayRealVector(n);
-		for (int i = 0; i < n; i++) {
-			int[] tmpI = indexNonZeroElements[i];
-			double[] tmpV = valueNonZeroElements[i];
-			double resi = 0.;
-			for (int k = 0; k < tmpI.length; k++) {
-				resi += tmpV[k] * v.getEntry(tmpI[k]);
-			}
-			res.setEntry(i, resi);
-		}
-		return res;
+		return sparseCm.operate(v);
+	}
+	
+	/**
+	 * @param v vector
+	 * @return L<sup>T</sup>v
+	 */
+	public RealVector operateLt(RealVector v) {
+		return sparseLt.operate(v);
 	}
 	
 	private int countLayer(double r1, double r2) {
@@ -542,18 +433,26 @@ public class ModelCovarianceMatrix {
 		return Math.abs(i2 - i1);
 	}
 	
+	/**
+	 * Scales the matrix used by {@link #leftMultiply(RealMatrix)} and {@link #operate(RealVector)}.
+	 * @param d scalar
+	 */
 	public void mapMultiply(double d) {
-		for (int i = 0; i < valueNonZeroElements.length; i++) {
-			for (int j = 0; j < valueNonZeroElements[i].length; j++) {
-				valueNonZeroElements[i][j] *= d;
-			}
-		}
+		sparseCm = sparseCm.scalarMultiply(d);
 	}
 	
 	public RealMatrix getCm() {
 		return cm;
 	}
 	
+	public SparseMatrix getSparseCm() {
+		return sparseCm;
+	}
+	
+	public SparseMatrix getSparseL() {
+		return sparseL;
+	}
+	
 	public RealMatrix getL() {
 		return l;
 	}
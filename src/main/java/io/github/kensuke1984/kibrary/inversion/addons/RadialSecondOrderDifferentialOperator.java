@@ -5,19 +5,25 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import io.github.kensuke1984.kibrary.inversion.UnknownParameter;
 import io.github.kensuke1984.kibrary.inversion.UnknownParameterFile;
-import io.github.kensuke1984.kibrary.math.Matrix;
+import io.github.kensuke1984.kibrary.math.SparseMatrix;
 import io.github.kensuke1984.kibrary.util.spc.PartialType;
 
 public class RadialSecondOrderDifferentialOperator {
 
-	private Matrix D2;
+	/**
+	 * Rows of D2. D2 is banded, so only its non-zero elements are kept.
+	 */
+	private List<Map<Integer, Double>> d2Rows;
+	
+	private SparseMatrix D2;
 	
 	List<Double> coeffs;
 	
@@ -25,9 +31,6 @@ public class RadialSecondOrderDifferentialOperator {
 	
 	List<PartialType> types;
 	
-	private int[][] indexNonZeroElements;
-	private double[][] valueNonZeroElements;
-	
 	public static void main(String[] args) throws IOException {
 		List<UnknownParameter> parameters = UnknownParameterFile.read(Paths.get(
 				"/work/anselme/CA_ANEL_NEW/oneDPartialPREM/checkerboard/inversion/unknowns_PAR2_PARQ.inf"));
@@ -46,13 +49,26 @@ public class RadialSecondOrderDifferentialOperator {
 	
 	public RadialSecondOrderDifferentialOperator(List<UnknownParameter> parameters, List<PartialType> types, List<Double> coeffs) {
 		int m = parameters.size();
-		indexNonZeroElements = new int[m][];
-		valueNonZeroElements = new double[m][];
 		this.types = types;
 		this.parameters = parameters;
 		this.coeffs = coeffs;
-		D2 = new Matrix(m, m);
+		d2Rows = new ArrayList<>(m);
+		for (int i = 0; i < m; i++)
+			d2Rows.add(new TreeMap<>());
 		compute();
+		int[][] indices = new int[m][];
+		double[][] values = new double[m][];
+		for (int i = 0; i < m; i++) {
+			Map<Integer, Double> row = d2Rows.get(i);
+			indices[i] = row.entrySet().stream().filter(e -> e.getValue() != 0).mapToInt(Map.Entry::getKey).toArray();
+			values[i] = row.values().stream().filter(value -> value != 0).mapToDouble(Double::doubleValue).toArray();
+		}
+		D2 = new SparseMatrix(m, indices, values);
+		d2Rows = null;
+	}
+	
+	private void setD2Entry(int row, int column, double value) {
+		d2Rows.get(row).put(column, value);
 	}
 	
 	private void compute() {
@@ -68,12 +84,10 @@ public class RadialSecondOrderDifferentialOperator {
 			int m = thisParameters.size();
 			
 			if (m == 1) {
-				D2.setEntry(c, c, 0.);
+				setD2Entry(c, c, 0.);
 				continue;
 			}
 			
-			indexNonZeroElements[c] = new int[] {c, c+1, c+2};
-			valueNonZeroElements[c] = new double[] {dr2*coeff, -2*dr2*coeff, dr2*coeff};
 //			D2.setEntry(c, c, dr2 * coeff);
 //			D2.setEntry(c, c+1, -2*dr2 * coeff);
 //			D2.setEntry(c, c+2, dr2 * coeff);
@@ -81,22 +95,18 @@ public class RadialSecondOrderDifferentialOperator {
 //			D2.setEntry(c, c, -2*dr2 * coeff);
 //			D2.setEntry(c, c+1, dr2 * coeff);
 			
-			D2.setEntry(c, c, 0.);
-			D2.setEntry(c, c+1, 0.);
+			setD2Entry(c, c, 0.);
+			setD2Entry(c, c+1, 0.);
 			
-			D2.setEntry(c, c, -2*dr2 * coeff);
-			D2.setEntry(c, c+1, 1*dr2 * coeff);
+			setD2Entry(c, c, -2*dr2 * coeff);
+			setD2Entry(c, c+1, 1*dr2 * coeff);
 //			D2.setEntry(c, c+2, dr2 * coeff);
 			
 			for (int i = 1; i < m-1; i++) {
-				indexNonZeroElements[i + c] = new int[] {i+c-1, i+c, i+c+1};
-				valueNonZeroElements[i + c] = new double[] {dr2*coeff, -2*dr2*coeff, dr2*coeff};
-				D2.setEntry(c+i, i+c-1, dr2 * coeff);
-				D2.setEntry(c+i, i+c, -2*dr2 * coeff);
-				D2.setEntry(c+i, i+c+1, dr2 * coeff);
+				setD2Entry(c+i, i+c-1, dr2 * coeff);
+				setD2Entry(c+i, i+c, -2*dr2 * coeff);
+				setD2Entry(c+i, i+c+1, dr2 * coeff);
 			}
-			indexNonZeroElements[m-1 + c] = new int[] {m+c-3, m+c-2, m+c-1};
-			valueNonZeroElements[m-1 + c] = new double[] {dr2*coeff, -2*dr2*coeff, dr2*coeff};
 //			D2.setEntry(c+m-1, m+c-3, dr2 * coeff);
 //			D2.setEntry(c+m-1, m+c-2, -2*dr2 * coeff);
 //			D2.setEntry(c+m-1, m+c-1, dr2 * coeff);
@@ -104,33 +114,31 @@ public class RadialSecondOrderDifferentialOperator {
 //			D2.setEntry(c+m-1, m+c-2, dr2 * coeff);
 //			D2.setEntry(c+m-1, m+c-1, -2*dr2 * coeff);
 			
-			D2.setEntry(c+m-1, m+c-2, 0.);
-			D2.setEntry(c+m-1, m+c-1, 0.);
+			setD2Entry(c+m-1, m+c-2, 0.);
+			setD2Entry(c+m-1, m+c-1, 0.);
 			
 //			D2.setEntry(c+m-1, c+m-2, -1*dr2*coeff*5);
 //			D2.setEntry(c+m-1, c+m-1, 1*dr2*coeff*5);
 			
 //			D2.setEntry(c+m-1, c+m-2, 1*dr2*coeff);
-			D2.setEntry(c+m-2, c+m-1, 1*dr2*coeff);
-			D2.setEntry(c+m-1, c+m-1, -1*dr2*coeff);
+			setD2Entry(c+m-2, c+m-1, 1*dr2*coeff);
+			setD2Entry(c+m-1, c+m-1, -1*dr2*coeff);
 			
 			c += m;
 		}
 	}
 	
+	/**
+	 * @return D2<sup>T</sup>D2 as a dense matrix
+	 */
 	public RealMatrix getD2TD2() {
-		return D2.computeAtA();
+		return getSparseD2TD2().toDense();
 	}
 	
-	public RealMatrix fastComputeD2TD2() {
-		int m = parameters.size();
-		RealMatrix DTD = new Array2DRowRealMatrix(m, m);
-		for (int i = 0; i < m; i++) {
-			for (int j = 0; j < indexNonZeroElements[i].length; j++) {
-				
-			}
-		}
-		
-		return DTD;
+	/**
+	 * @return D2<sup>T</sup>D2, which is banded
+	 */
+	public SparseMatrix getSparseD2TD2() {
+		return D2.computeAtA();
 	}
 }
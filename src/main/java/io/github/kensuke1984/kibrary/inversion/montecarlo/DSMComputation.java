@@ -23,17 +23,22 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Computes DSM(tish) write will be in outdir.
+ * <p>
+ * DSM runs for events are executed concurrently and the synthetics are passed to the comparator in memory
+ * (no SAC files are written). The returned waveforms are sorted by station name, event ID and component,
+ * which is the order of the observed ones read by {@link SACVarianceComparator}.
  *
  * @author Kensuke Konishi
- * @version 0.0.1.2
+ * @version 0.0.2
  */
 class DSMComputation implements DataGenerator<PolynomialStructure, SACData[]> {
 
@@ -41,15 +46,21 @@ class DSMComputation implements DataGenerator<PolynomialStructure, SACData[]> {
     private static final int NP = 256;
     private static final double SAMPLING_HZ = 20;
     private static final double TLEN = 1638.4;
+    /**
+     * the number of MPI processes for each DSM run
+     */
+    private static final int MPI_NP = 8;
     private final static Set<SACComponent> components = new HashSet<>(Collections.singletonList(SACComponent.T));
     private final SyntheticDSMInfo[] DSM_INFOS;
     private final Path outPath;
     private final Path PSVPATH;
     private ButterworthFilter filter;
     private Path hostFilePath;
-    // MPI thread
-    private ExecutorService pool = Executors.newSingleThreadExecutor();
-    private int sequentialNumber;
+    /**
+     * DSM runs. Each of them uses {@link #MPI_NP} processes.
+     */
+    private final ExecutorService pool;
+    private final AtomicInteger sequentialNumber = new AtomicInteger();
     private Path obsDir;
     private Set<Station> stationSet;
 
@@ -61,6 +72,20 @@ class DSMComputation implements DataGenerator<PolynomialStructure, SACData[]> {
      * @throws IOException if any
      */
     DSMComputation(Path obsDir, Path outDir, Path psvPath, Set<Station> stationSet) throws IOException {
+        this(obsDir, outDir, psvPath, stationSet, 1);
+    }
+
+    /**
+     * @param obsDir     path of observed waveforms
+     * @param outDir     path of write data
+     * @param psvPath    path of PSV spectors
+     * @param stationSet station information
+     * @param nDSM       the number of DSM runs in flight at the same time
+     * @throws IOException if any
+     */
+    DSMComputation(Path obsDir, Path outDir, Path psvPath, Set<Station> stationSet, int nDSM) throws IOException {
+        if (nDSM <= 0) throw new IllegalArgumentException("nDSM must be positive.");
+        pool = Executors.newFixedThreadPool(nDSM);
         this.obsDir = obsDir;
         PSVPATH = psvPath;
         outPath = outDir;
@@ -101,23 +126,24 @@ class DSMComputation implements DataGenerator<PolynomialStructure, SACData[]> {
     @Override
     public SACData[] generate(PolynomialStructure model) {
         try {
-            Path root = Files.createDirectories(outPath.resolve("DSMComputation_" + sequentialNumber++));
+            Path root = Files.createDirectories(outPath.resolve("DSMComputation_" + sequentialNumber.getAndIncrement()));
             SyntheticDSMInfo[] infos = createDSMInfo(model);
-            for (SyntheticDSMInfo info : infos) {
-                Path infoPath = root.resolve(info.getGlobalCMTData() + ".inf");
-                info.writeSH(infoPath);
-                Path idPath = root.resolve(info.getGlobalCMTData().toString());
-                Files.createDirectories(idPath);
-                Callable<Integer> callable = DSMMPI.tish(8, infoPath);
-                pool.submit(callable).get();
-                EventFolder folder = new EventFolder(idPath);
-                makeSacFiles(folder);
-                applyFilter(folder);
+            List<Future<Integer>> futures = new ArrayList<>(infos.length);
+            Path[] idPaths = new Path[infos.length];
+            for (int i = 0; i < infos.length; i++) {
+                Path infoPath = root.resolve(infos[i].getGlobalCMTData() + ".inf");
+                infos[i].writeSH(infoPath);
+                idPaths[i] = Files.createDirectories(root.resolve(infos[i].getGlobalCMTData().toString()));
+                futures.add(pool.submit(DSMMPI.tish(MPI_NP, infoPath)));
+            }
+            List<SACData> dataList = new ArrayList<>();
+            for (int i = 0; i < infos.length; i++) {
+                futures.get(i).get();
+                dataList.addAll(makeSacData(new EventFolder(idPaths[i])));
             }
-            Set<SACFileName> nameSet = new TreeSet<>(Utilities.sacFileNameSet(root));
-            List<SACData> dataList = new ArrayList<>(nameSet.size());
-            for (SACFileName sacFileName : nameSet) dataList.add(sacFileName.read());
-            return dataList.toArray(new SACData[nameSet.size()]);
+            dataList.sort(Comparator.comparing((SACData sac) -> sac.getStation().getName())
+                    .thenComparing(sac -> sac.getGlobalCMTID().toString()).thenComparing(SACData::getComponent));
+            return dataList.toArray(new SACData[0]);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("unexpected");
@@ -133,24 +159,17 @@ class DSMComputation implements DataGenerator<PolynomialStructure, SACData[]> {
         return Arrays.stream(DSM_INFOS).map(info -> info.replaceStructure(model)).toArray(SyntheticDSMInfo[]::new);
     }
 
-    private void applyFilter(EventFolder eventDir) throws IOException {
-        eventDir.sacFileSet().forEach(name -> {
-            if (!name.isSYN()) return;
-            try {
-                SACData sf = name.read().applyButterworthFilter(filter);
-                sf.writeSAC(name);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
-    }
-
-    private void makeSacFiles(EventFolder eventDir) throws IOException {
+    /**
+     * @param eventDir folder containing SH spectra
+     * @return filtered synthetics created from the spectra
+     * @throws IOException if any
+     */
+    private List<SACData> makeSacData(EventFolder eventDir) throws IOException {
         Path spcPath = eventDir.toPath();
         SourceTimeFunction sourceTimeFunction = SourceTimeFunction.boxcarSourceTimeFunction(NP, TLEN, SAMPLING_HZ,
                 eventDir.getGlobalCMTID().getEvent().getHalfDuration());
         try (Stream<Path> stream = Files.list(spcPath)) {
-            stream.filter(path -> path.toString().endsWith("SH.spc")).forEach(shPath -> {
+            return stream.filter(path -> path.toString().endsWith("SH.spc")).flatMap(shPath -> {
                 SPCFile shName = new FormattedSPCFile(shPath);
                 SPCFile psvName = toPSVname(shName);
                 try {
@@ -158,12 +177,12 @@ class DSMComputation implements DataGenerator<PolynomialStructure, SACData[]> {
                     DSMOutput psvSPC = psvName.read();
                     SACMaker sm = new SACMaker(psvSPC, shSPC, sourceTimeFunction);
                     sm.setComponents(components);
-                    sm.setOutPath(eventDir.toPath());
-                    sm.run();
+                    return Arrays.stream(sm.toSACData()).map(sac -> sac.applyButterworthFilter(filter));
                 } catch (Exception e) {
                     e.printStackTrace();
+                    return Stream.empty();
                 }
-            });
+            }).collect(Collectors.toList());
         }
     }
 
@@ -4,9 +4,17 @@ import io.github.kensuke1984.kibrary.util.Utilities;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Waveform inversion with Metropolis–Hastings algorithm.
@@ -14,7 +22,10 @@ import java.nio.file.Path;
  * @author Kensuke Konishi
  *         <p>
  *         logFile is in run0.
- * @version 0.1.1.1
+ *         <p>
+ *         {@link #run(int, double[], int)} runs several (tempered) chains concurrently.
+ *         The generator and the comparator must then be thread-safe.
+ * @version 0.1.2.1
  * @see <a href=https://en.wikipedia.org/wiki/Metropolis%E2%80%93Hastings_algorithm>Wikipedia</a>
  */
 public class MetroPoliceHastings<M, D> {
@@ -42,15 +53,42 @@ public class MetroPoliceHastings<M, D> {
      */
     public MetroPoliceHastings(Path workDir, ModelGenerator<M> modelGenerator, DataGenerator<M, D> dataGenerator,
                                DataComparator<D> dataComparator) throws IOException {
+        this(workDir, modelGenerator, dataGenerator, dataComparator, false);
+    }
+
+    private MetroPoliceHastings(Path workDir, ModelGenerator<M> modelGenerator, DataGenerator<M, D> dataGenerator,
+                                DataComparator<D> dataComparator, boolean resumes) throws IOException {
         MODEL_GENERATOR = modelGenerator;
         DATA_COMPARATOR = dataComparator;
         DATA_GENERATOR = dataGenerator;
         WORK_DIR = workDir;
         MODEL_PATH = workDir.resolve("models");
+        if (resumes) {
+            if (!Files.isDirectory(MODEL_PATH)) throw new NoSuchFileException(MODEL_PATH.toString());
+            return;
+        }
         if (Files.exists(MODEL_PATH)) throw new FileAlreadyExistsException(MODEL_PATH.toString());
         Files.createDirectories(MODEL_PATH);
     }
 
+    /**
+     * Instance for resuming chains run by {@link #run(int, double[], int)} from their checkpoints in the workDir.
+     *
+     * @param workDir        working directory of the interrupted run
+     * @param modelGenerator Generation a new model from a model randomly. It must be able to read models.
+     * @param dataGenerator  With a model made by the modelGenerator, data are generated.
+     * @param dataComparator Data comparison.
+     * @param <M>            model
+     * @param <D>            data
+     * @return instance which continues the chains
+     * @throws IOException if the workDir has no models
+     */
+    public static <M, D> MetroPoliceHastings<M, D> resume(Path workDir, ModelGenerator<M> modelGenerator,
+                                                          DataGenerator<M, D> dataGenerator,
+                                                          DataComparator<D> dataComparator) throws IOException {
+        return new MetroPoliceHastings<>(workDir, modelGenerator, dataGenerator, dataComparator, true);
+    }
+
     /**
      * @param lastAdoptedLikelihood likelihood for the last model
      * @param currentLikelihood     likelihood for the current model
@@ -102,4 +140,199 @@ public class MetroPoliceHastings<M, D> {
         System.err.println(MetroPoliceHastings.class.getName() + " finished in " +
                 Utilities.toTimeString(System.nanoTime() - start));
     }
+
+    /**
+     * Runs chains concurrently. The chain i samples likelihood<sup>1/temperatures[i]</sup>.
+     * After every swapInterval steps, the states of neighbouring chains with different temperatures are exchanged
+     * with the probability of parallel tempering, and the state of each chain is checkpointed.
+     * Outputs of the chain i are in models/chain<i>i</i>.
+     * If a chain has a checkpoint (see {@link #resume(Path, ModelGenerator, DataGenerator, DataComparator)}),
+     * it continues from there.
+     *
+     * @param nRun         the number of steps for each chain
+     * @param temperatures of the chains. Use 1 for all chains to run them independently.
+     * @param swapInterval the number of steps between swaps and checkpoints
+     * @throws IOException          if any
+     * @throws InterruptedException if any
+     */
+    public void run(int nRun, double[] temperatures, int swapInterval) throws IOException, InterruptedException {
+        if (swapInterval <= 0) throw new IllegalArgumentException("swapInterval must be positive.");
+        if (Arrays.stream(temperatures).anyMatch(t -> !(0 < t)))
+            throw new IllegalArgumentException("Temperatures must be positive.");
+        long start = System.nanoTime();
+        System.err.println(MetroPoliceHastings.class.getName() + " is going with " + temperatures.length + " chains.");
+        List<Chain> chains = new ArrayList<>(temperatures.length);
+        for (int i = 0; i < temperatures.length; i++)
+            chains.add(new Chain(MODEL_PATH.resolve("chain" + i), temperatures[i]));
+        ExecutorService pool = Executors.newFixedThreadPool(temperatures.length);
+        Random random = new Random();
+        try {
+            int done = chains.stream().mapToInt(chain -> chain.iteration).min().getAsInt();
+            while (done < nRun) {
+                int target = Math.min(nRun, done + swapInterval);
+                List<Callable<Void>> tasks = new ArrayList<>(chains.size());
+                for (Chain chain : chains)
+                    tasks.add(() -> {
+                        chain.advanceTo(target);
+                        return null;
+                    });
+                for (Future<Void> future : pool.invokeAll(tasks))
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                        throw new RuntimeException(e.getCause());
+                    }
+                for (int i = 0; i < chains.size() - 1; i++)
+                    chains.get(i).trySwap(chains.get(i + 1), random);
+                for (Chain chain : chains)
+                    chain.checkpoint();
+                done = target;
+                System.err.print("\rWorking " + Math.ceil(100.0 * done / nRun) + "%");
+            }
+            System.err.println("\rWorking " + 100.0 + "%");
+        } finally {
+            pool.shutdownNow();
+        }
+        System.err.println(MetroPoliceHastings.class.getName() + " finished in " +
+                Utilities.toTimeString(System.nanoTime() - start));
+    }
+
+    /**
+     * State of a chain. All the paths are in its own folder.
+     */
+    private class Chain {
+        /**
+         * logs appended every step. Their sizes are checkpointed.
+         */
+        private final String[] LOGS = {"adopted.txt", "allModels.txt", "likelihood.txt"};
+        private final Path chainPath;
+        private final Path checkpointPath;
+        private final double temperature;
+        private final Random random = new Random();
+        private int iteration;
+        private M lastAdoptedModel;
+        private D lastAdoptedDataset;
+        private Path lastAdoptedPath;
+        private double lastAdoptedLikelihood;
+
+        /**
+         * Restores the chain from its checkpoint if any, otherwise starts it with the first model.
+         * The logs are truncated to the checkpointed sizes, so steps after the checkpoint are not logged twice.
+         *
+         * @param chainPath   folder for the chain
+         * @param temperature of the chain
+         * @throws IOException if any
+         */
+        private Chain(Path chainPath, double temperature) throws IOException {
+            this.chainPath = chainPath;
+            this.temperature = temperature;
+            checkpointPath = chainPath.resolve("checkpoint.txt");
+            if (Files.exists(checkpointPath)) {
+                List<String> lines = Files.readAllLines(checkpointPath);
+                iteration = Integer.parseInt(lines.get(0).trim());
+                lastAdoptedPath = MODEL_PATH.resolve(lines.get(1).trim());
+                lastAdoptedLikelihood = Double.parseDouble(lines.get(2).trim());
+                if (Double.parseDouble(lines.get(3).trim()) != temperature)
+                    throw new IllegalArgumentException("Temperature of " + chainPath + " is not " + temperature);
+                lastAdoptedModel = MODEL_GENERATOR.read(lastAdoptedPath);
+                for (int i = 0; i < LOGS.length && 4 + i < lines.size(); i++)
+                    try (FileChannel channel = FileChannel.open(chainPath.resolve(LOGS[i]), StandardOpenOption.WRITE)) {
+                        long size = Long.parseLong(lines.get(4 + i).trim());
+                        if (size < channel.size()) channel.truncate(size);
+                    }
+                return;
+            }
+            Files.createDirectories(chainPath);
+            lastAdoptedModel = MODEL_GENERATOR.firstModel();
+            lastAdoptedDataset = DATA_GENERATOR.generate(lastAdoptedModel);
+            lastAdoptedPath = chainPath.resolve("model0.inf");
+            MODEL_GENERATOR.write(lastAdoptedPath, lastAdoptedModel);
+            lastAdoptedLikelihood = DATA_COMPARATOR.likelihood(lastAdoptedDataset);
+            try (PrintWriter writer = new PrintWriter(chainPath.resolve("adopted.txt").toFile());
+                 PrintWriter whole = new PrintWriter(chainPath.resolve("allModels.txt").toFile());
+                 PrintWriter likelihood = new PrintWriter(chainPath.resolve("likelihood.txt").toFile())) {
+                writer.println("0 model0.inf");
+                whole.println(MODEL_GENERATOR.toString(lastAdoptedModel));
+                likelihood.println("0 " + lastAdoptedLikelihood);
+            }
+            checkpoint();
+        }
+
+        /**
+         * @param target the iteration which the chain reaches
+         * @throws IOException if any
+         */
+        private void advanceTo(int target) throws IOException {
+            if (target <= iteration) return;
+            try (PrintWriter writer = appender("adopted.txt"); PrintWriter whole = appender("allModels.txt");
+                 PrintWriter likelihood = appender("likelihood.txt")) {
+                for (int iRun = iteration + 1; iRun < target + 1; iRun++) {
+                    M currentModel = MODEL_GENERATOR.createNextModel(lastAdoptedModel);
+                    Path currentPath = chainPath.resolve("model" + iRun + ".inf");
+                    MODEL_GENERATOR.write(currentPath, currentModel);
+                    whole.println(MODEL_GENERATOR.toString(currentModel));
+                    D currentDataset = DATA_GENERATOR.generate(currentModel);
+                    double currentLikelihood = DATA_COMPARATOR.likelihood(currentDataset);
+                    likelihood.println(iRun + " " + currentLikelihood);
+                    double percentage = Math.pow(currentLikelihood / lastAdoptedLikelihood, 1 / temperature);
+                    if (1 < percentage || random.nextDouble() < percentage) {
+                        lastAdoptedModel = currentModel;
+                        lastAdoptedDataset = currentDataset;
+                        lastAdoptedPath = currentPath;
+                        lastAdoptedLikelihood = currentLikelihood;
+                    }
+                    writer.println(iRun + " " + MODEL_PATH.relativize(lastAdoptedPath));
+                    iteration = iRun;
+                }
+            }
+        }
+
+        /**
+         * Exchanges the adopted states with the other chain by the parallel tempering criterion.
+         *
+         * @param other  chain to swap with
+         * @param random for the criterion
+         */
+        private void trySwap(Chain other, Random random) {
+            if (temperature == other.temperature) return;
+            double percentage = Math.pow(other.lastAdoptedLikelihood / lastAdoptedLikelihood,
+                    1 / temperature - 1 / other.temperature);
+            if (!(1 < percentage || random.nextDouble() < percentage)) return;
+            M model = lastAdoptedModel;
+            D dataset = lastAdoptedDataset;
+            Path path = lastAdoptedPath;
+            double likelihood = lastAdoptedLikelihood;
+            lastAdoptedModel = other.lastAdoptedModel;
+            lastAdoptedDataset = other.lastAdoptedDataset;
+            lastAdoptedPath = other.lastAdoptedPath;
+            lastAdoptedLikelihood = other.lastAdoptedLikelihood;
+            other.lastAdoptedModel = model;
+            other.lastAdoptedDataset = dataset;
+            other.lastAdoptedPath = path;
+            other.lastAdoptedLikelihood = likelihood;
+        }
+
+        /**
+         * Writes iteration, adopted model, its likelihood, temperature and the sizes of the logs.
+         * The file is replaced atomically so that an interrupted run leaves a consistent checkpoint.
+         *
+         * @throws IOException if any
+         */
+        private void checkpoint() throws IOException {
+            Path tmp = chainPath.resolve("checkpoint.tmp");
+            List<String> lines = new ArrayList<>(Arrays.asList(String.valueOf(iteration),
+                    MODEL_PATH.relativize(lastAdoptedPath).toString(), String.valueOf(lastAdoptedLikelihood),
+                    String.valueOf(temperature)));
+            for (String log : LOGS)
+                lines.add(String.valueOf(Files.size(chainPath.resolve(log))));
+            Files.write(tmp, lines);
+            Files.move(tmp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private PrintWriter appender(String name) throws IOException {
+            return new PrintWriter(Files.newBufferedWriter(chainPath.resolve(name), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND));
+        }
+    }
 }
@@ -9,7 +9,7 @@ import java.nio.file.Path;
  * Interface for generating models.
  *
  * @author Kensuke Konishi
- * @version 0.0.2
+ * @version 0.0.3
  */
 public interface ModelGenerator<M> {
 
@@ -36,6 +36,16 @@ public interface ModelGenerator<M> {
         Files.write(path, toString(model).getBytes(), options);
     }
 
+    /**
+     * Read a model written by {@link #write(Path, Object, OpenOption...)}.
+     * It is needed for resuming chains.
+     *
+     * @param path of the model
+     * @return the model in the path
+     * @throws IOException if any
+     */
+    M read(Path path) throws IOException;
+
     /**
      * This method is used by {@link #write(Path, Object, OpenOption...)} as default.
      *
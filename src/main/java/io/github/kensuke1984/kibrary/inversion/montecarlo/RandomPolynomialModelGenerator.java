@@ -126,6 +126,11 @@ class RandomPolynomialModelGenerator implements ModelGenerator<PolynomialStructu
         model.writePSV(path, options);
     }
 
+    @Override
+    public PolynomialStructure read(Path path) throws IOException {
+        return new PolynomialStructure(path);
+    }
+
     @Override
     public String toString(PolynomialStructure model) {
         return String.join("\n", model.toPSVlines());
@@ -70,7 +70,7 @@ class SACVarianceComparator implements DataComparator<SACData[]> {
 
     @Override
     public double likelihood(SACData[] data) {
-        if (!hasProblems(data)) throw new RuntimeException("Invalid dataset");
+        if (hasProblems(data)) throw new RuntimeException("Invalid dataset");
         return Math.exp(-2 * computeVariance(data) / SIGMA);
     }
 
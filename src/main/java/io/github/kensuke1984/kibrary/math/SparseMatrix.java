@@ -0,0 +1,295 @@
+package io.github.kensuke1984.kibrary.math;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Sparse matrix in the compressed sparse row (CSR) format.
+ * Products with dense matrices only visit non-zero elements and are parallelized over rows.
+ * <p>
+ * This class is <b>immutable</b>.
+ *
+ * @version 0.0.1
+ */
+public class SparseMatrix {
+
+    private final int rowDimension;
+    private final int columnDimension;
+    /**
+     * Elements of the row i are in [rowPointers[i], rowPointers[i + 1]).
+     */
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final double[] values;
+
+    private SparseMatrix(int rowDimension, int columnDimension, int[] rowPointers, int[] columnIndices,
+                         double[] values) {
+        this.rowDimension = rowDimension;
+        this.columnDimension = columnDimension;
+        this.rowPointers = rowPointers;
+        this.columnIndices = columnIndices;
+        this.values = values;
+    }
+
+    /**
+     * @param columnDimension the number of columns
+     * @param indices         indices[i] are column indices of non-zero elements in the row i
+     * @param values          values[i] are the non-zero elements in the row i
+     */
+    public SparseMatrix(int columnDimension, int[][] indices, double[][] values) {
+        if (indices.length != values.length) throw new DimensionMismatchException(values.length, indices.length);
+        rowDimension = indices.length;
+        this.columnDimension = columnDimension;
+        rowPointers = new int[rowDimension + 1];
+        for (int i = 0; i < rowDimension; i++) {
+            int n = indices[i] == null ? 0 : indices[i].length;
+            if (n != (values[i] == null ? 0 : values[i].length))
+                throw new DimensionMismatchException(values[i] == null ? 0 : values[i].length, n);
+            rowPointers[i + 1] = rowPointers[i] + n;
+        }
+        columnIndices = new int[rowPointers[rowDimension]];
+        this.values = new double[rowPointers[rowDimension]];
+        for (int i = 0; i < rowDimension; i++) {
+            if (indices[i] == null) continue;
+            for (int k = 0; k < indices[i].length; k++)
+                if (indices[i][k] < 0 || columnDimension <= indices[i][k])
+                    throw new IllegalArgumentException("Column index " + indices[i][k] + " is out of range.");
+            System.arraycopy(indices[i], 0, columnIndices, rowPointers[i], indices[i].length);
+            System.arraycopy(values[i], 0, this.values, rowPointers[i], values[i].length);
+        }
+    }
+
+    /**
+     * @param matrix    dense matrix
+     * @param threshold elements with |value| &le; threshold are dropped
+     * @return sparse representation of the matrix
+     */
+    public static SparseMatrix of(RealMatrix matrix, double threshold) {
+        int n = matrix.getRowDimension();
+        int[][] indices = new int[n][];
+        double[][] values = new double[n][];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            double[] row = matrix.getRow(i);
+            int[] index = IntStream.range(0, row.length).filter(j -> threshold < Math.abs(row[j])).toArray();
+            indices[i] = index;
+            values[i] = Arrays.stream(index).mapToDouble(j -> row[j]).toArray();
+        });
+        return new SparseMatrix(matrix.getColumnDimension(), indices, values);
+    }
+
+    /**
+     * @param diagonal elements
+     * @return diagonal matrix
+     */
+    public static SparseMatrix diagonal(double[] diagonal) {
+        int n = diagonal.length;
+        int[] rowPointers = IntStream.rangeClosed(0, n).toArray();
+        return new SparseMatrix(n, n, rowPointers, IntStream.range(0, n).toArray(), diagonal.clone());
+    }
+
+    public int getRowDimension() {
+        return rowDimension;
+    }
+
+    public int getColumnDimension() {
+        return columnDimension;
+    }
+
+    /**
+     * @return the number of stored elements
+     */
+    public int getNonZeroCount() {
+        return values.length;
+    }
+
+    public double getEntry(int row, int column) {
+        if (row < 0 || rowDimension <= row) throw new IllegalArgumentException("Row index " + row + " is out of range.");
+        double value = 0;
+        for (int k = rowPointers[row]; k < rowPointers[row + 1]; k++)
+            if (columnIndices[k] == column) value += values[k];
+        return value;
+    }
+
+    /**
+     * @param d scalar
+     * @return d * this
+     */
+    public SparseMatrix scalarMultiply(double d) {
+        return new SparseMatrix(rowDimension, columnDimension, rowPointers, columnIndices,
+                Arrays.stream(values).map(v -> v * d).toArray());
+    }
+
+    /**
+     * @return transpose of this
+     */
+    public SparseMatrix transpose() {
+        int[] pointers = new int[columnDimension + 1];
+        for (int column : columnIndices) pointers[column + 1]++;
+        for (int j = 0; j < columnDimension; j++) pointers[j + 1] += pointers[j];
+        int[] next = Arrays.copyOf(pointers, columnDimension);
+        int[] indices = new int[values.length];
+        double[] tValues = new double[values.length];
+        for (int i = 0; i < rowDimension; i++)
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                int position = next[columnIndices[k]]++;
+                indices[position] = i;
+                tValues[position] = values[k];
+            }
+        return new SparseMatrix(columnDimension, rowDimension, pointers, indices, tValues);
+    }
+
+    /**
+     * @param v vector
+     * @return this * v
+     */
+    public RealVector operate(RealVector v) {
+        if (v.getDimension() != columnDimension) throw new DimensionMismatchException(v.getDimension(), columnDimension);
+        double[] x = v.toArray();
+        double[] y = new double[rowDimension];
+        IntStream.range(0, rowDimension).parallel().forEach(i -> {
+            double value = 0;
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++)
+                value += values[k] * x[columnIndices[k]];
+            y[i] = value;
+        });
+        return new ArrayRealVector(y, false);
+    }
+
+    /**
+     * @param v vector
+     * @return v<sup>T</sup> * this
+     */
+    public RealVector preMultiply(RealVector v) {
+        if (v.getDimension() != rowDimension) throw new DimensionMismatchException(v.getDimension(), rowDimension);
+        double[] y = new double[columnDimension];
+        for (int i = 0; i < rowDimension; i++) {
+            double vi = v.getEntry(i);
+            if (vi == 0) continue;
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++)
+                y[columnIndices[k]] += values[k] * vi;
+        }
+        return new ArrayRealVector(y, false);
+    }
+
+    /**
+     * @param m dense matrix
+     * @return this * m
+     */
+    public Matrix multiply(RealMatrix m) {
+        if (m.getRowDimension() != columnDimension)
+            throw new DimensionMismatchException(m.getRowDimension(), columnDimension);
+        double[][] dense = toRows(m);
+        int n = m.getColumnDimension();
+        double[][] product = new double[rowDimension][];
+        IntStream.range(0, rowDimension).parallel().forEach(i -> {
+            double[] row = new double[n];
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                double value = values[k];
+                double[] mRow = dense[columnIndices[k]];
+                for (int j = 0; j < n; j++)
+                    row[j] += value * mRow[j];
+            }
+            product[i] = row;
+        });
+        return new Matrix(product, false);
+    }
+
+    /**
+     * @param m dense matrix
+     * @return m * this
+     */
+    public Matrix preMultiply(RealMatrix m) {
+        if (m.getColumnDimension() != rowDimension)
+            throw new DimensionMismatchException(m.getColumnDimension(), rowDimension);
+        double[][] dense = toRows(m);
+        double[][] product = new double[dense.length][];
+        IntStream.range(0, dense.length).parallel().forEach(i -> {
+            double[] mRow = dense[i];
+            double[] row = new double[columnDimension];
+            for (int r = 0; r < rowDimension; r++) {
+                double mir = mRow[r];
+                if (mir == 0) continue;
+                for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++)
+                    row[columnIndices[k]] += mir * values[k];
+            }
+            product[i] = row;
+        });
+        return new Matrix(product, false);
+    }
+
+    /**
+     * @return this<sup>T</sup> * this, which is also sparse
+     */
+    public SparseMatrix computeAtA() {
+        SparseMatrix t = transpose();
+        int[][] indices = new int[columnDimension][];
+        double[][] ataValues = new double[columnDimension][];
+        // Gustavson's algorithm. Each thread reuses a dense accumulator and clears only the touched elements.
+        ThreadLocal<double[]> accumulators = ThreadLocal.withInitial(() -> new double[columnDimension]);
+        ThreadLocal<boolean[]> markers = ThreadLocal.withInitial(() -> new boolean[columnDimension]);
+        ThreadLocal<int[]> founds = ThreadLocal.withInitial(() -> new int[columnDimension]);
+        IntStream.range(0, columnDimension).parallel().forEach(i -> {
+            double[] accumulator = accumulators.get();
+            boolean[] marker = markers.get();
+            int[] found = founds.get();
+            int nFound = 0;
+            for (int kt = t.rowPointers[i]; kt < t.rowPointers[i + 1]; kt++) {
+                int r = t.columnIndices[kt];
+                double tValue = t.values[kt];
+                for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+                    int j = columnIndices[k];
+                    if (!marker[j]) {
+                        marker[j] = true;
+                        found[nFound++] = j;
+                    }
+                    accumulator[j] += tValue * values[k];
+                }
+            }
+            int[] index = Arrays.copyOf(found, nFound);
+            Arrays.sort(index);
+            double[] value = new double[nFound];
+            for (int k = 0; k < nFound; k++) {
+                value[k] = accumulator[index[k]];
+                accumulator[index[k]] = 0;
+                marker[index[k]] = false;
+            }
+            indices[i] = index;
+            ataValues[i] = value;
+        });
+        return new SparseMatrix(columnDimension, indices, ataValues);
+    }
+
+    /**
+     * Adds this to the dense matrix in place.
+     *
+     * @param m dense matrix to be added this
+     */
+    public void addTo(RealMatrix m) {
+        if (m.getRowDimension() != rowDimension) throw new DimensionMismatchException(m.getRowDimension(), rowDimension);
+        if (m.getColumnDimension() != columnDimension)
+            throw new DimensionMismatchException(m.getColumnDimension(), columnDimension);
+        for (int i = 0; i < rowDimension; i++)
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++)
+                m.addToEntry(i, columnIndices[k], values[k]);
+    }
+
+    /**
+     * @return dense copy of this
+     */
+    public Matrix toDense() {
+        Matrix dense = new Matrix(rowDimension, columnDimension);
+        addTo(dense);
+        return dense;
+    }
+
+    private static double[][] toRows(RealMatrix m) {
+        if (m instanceof Array2DRowRealMatrix) return ((Array2DRowRealMatrix) m).getDataRef();
+        return m.getData();
+    }
+}
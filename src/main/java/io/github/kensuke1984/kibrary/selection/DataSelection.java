@@ -8,7 +8,9 @@ import io.github.kensuke1984.kibrary.datacorrection.StaticCorrectionFile;
 import io.github.kensuke1984.kibrary.timewindow.Timewindow;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformation;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationFile;
+import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationReader;
 import io.github.kensuke1984.kibrary.util.EventFolder;
+import io.github.kensuke1984.kibrary.util.EventScheduler;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Trace;
 import io.github.kensuke1984.kibrary.util.Utilities;
@@ -25,10 +27,9 @@ import edu.sc.seis.TauP.TauP_Time;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -79,7 +80,7 @@ public class DataSelection implements Operation {
 	private double minSNratio;
 	private double minDistance;
 	private boolean SnScSnPair;
-	private Set<TimewindowInformation> sourceTimewindowInformationSet;
+	private TimewindowInformationReader sourceTimewindowReader;
 	private Set<TimewindowInformation> goodTimewindowInformationSet;
 	private List<DataSelectionInformation> dataSelectionInfo;
 	private Path outputGoodWindowPath;
@@ -219,7 +220,7 @@ public class DataSelection implements Operation {
 		staticCorrectionSet = staticCorrectionInformationFilePath == null ? Collections.emptySet()
 				: StaticCorrectionFile.read(staticCorrectionInformationFilePath);
 		eventDirs = Utilities.eventFolderSet(obsPath);
-		sourceTimewindowInformationSet = TimewindowInformationFile.read(timewindowInformationFilePath);
+		sourceTimewindowReader = new TimewindowInformationReader(timewindowInformationFilePath);
 		dateStr = Utilities.getTemporaryString();
 		outputGoodWindowPath = workPath.resolve("selectedTimewindow" + dateStr + ".dat");
 		goodTimewindowInformationSet = Collections.synchronizedSet(new HashSet<>());
@@ -359,20 +360,12 @@ public class DataSelection implements Operation {
 
 	@Override
 	public void run() throws Exception {
-		int N_THREADS = Runtime.getRuntime().availableProcessors();
+		// stations of an event are written in a file by the worker of the event
+		EventScheduler.Summary summary = new EventScheduler().runEvents(eventDirs, ed -> new Worker(ed).run());
+		if (!summary.isComplete())
+			System.err.println(summary);
+		sourceTimewindowReader.close();
 
-		ExecutorService exec = Executors.newFixedThreadPool(N_THREADS);
-		
-		for (EventFolder eventDirectory : eventDirs)
-			exec.execute(new Worker(eventDirectory));
-
-		exec.shutdown();
-		while (!exec.isTerminated())
-			try {
-				Thread.sleep(1000);
-			} catch (Exception e) {
-			}
-		
 		Path infoOutpath = workPath.resolve("dataSelection" + Utilities.getTemporaryString() + ".inf");
 		try {
 			DataSelectionInformationFile.write(infoOutpath, dataSelectionInfo);
@@ -439,8 +432,8 @@ public class DataSelection implements Operation {
 				try {
 					FileUtils.moveDirectoryToDirectory(obsEventDirectory, workPath.resolve("withoutSyn").toFile(),
 							true);
-				} catch (Exception e) {
-					e.printStackTrace();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
 				return;
 			}
@@ -488,10 +481,8 @@ public class DataSelection implements Operation {
 						continue;
 
 					// Pickup a time window of obsName
-					Set<TimewindowInformation> windowInformations = sourceTimewindowInformationSet
-							.stream().filter(info -> info.getStation().equals(station)
-									&& info.getGlobalCMTID().equals(id) && info.getComponent() == component)
-							.collect(Collectors.toSet());
+					Set<TimewindowInformation> windowInformations = sourceTimewindowReader.read(id, station).stream()
+							.filter(info -> info.getComponent() == component).collect(Collectors.toSet());
 
 					if (windowInformations.isEmpty())
 						continue;
@@ -563,8 +554,8 @@ public class DataSelection implements Operation {
 				lpw.close();
 				// spw.close();
 			} catch (Exception e) {
-				e.printStackTrace();
-				System.err.println("error on " + obsEventDirectory);
+				// thrown to be accounted as a failure of the event
+				throw new RuntimeException("error on " + obsEventDirectory, e);
 			}
 			System.err.print(".");
 			// System.out.println(obsEventDirectory + " is done");
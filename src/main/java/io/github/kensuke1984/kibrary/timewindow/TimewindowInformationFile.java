@@ -34,10 +34,13 @@ import javax.swing.JOptionPane;
  * Each event <br>
  * - Global CMT ID Each period<br>
  * Each timewindoow information<br>
- * - see {@link #create(byte[], Station[], GlobalCMTID[])}
+ * - see {@link #create(byte[], Station[], GlobalCMTID[], Phase[])}
+ * <p>
+ * Time windows are written in order of (event, station, component, start time, end time)
+ * so that {@link TimewindowInformationReader} finds windows of an event or a station by a range scan.
  *
  * @author Kensuke Konishi
- * @version 0.3.1
+ * @version 0.3.2
  * @author anselme add phase information
  */
 public final class TimewindowInformationFile {
@@ -145,7 +148,13 @@ public final class TimewindowInformationFile {
 					throw new NullPointerException(i + " " + "phase is null");
 				dos.writeBytes(StringUtils.rightPad(phases[i].toString(), 16));
 			}
-			for (TimewindowInformation info : infoSet) {
+			List<TimewindowInformation> infoList = new ArrayList<>(infoSet);
+			infoList.sort(Comparator.<TimewindowInformation>comparingInt(info -> idMap.get(info.getGlobalCMTID()))
+					.thenComparingInt(info -> stationMap.get(info.getStation()))
+					.thenComparingInt(info -> info.getComponent().valueOf())
+					.thenComparingDouble(TimewindowInformation::getStartTime)
+					.thenComparingDouble(TimewindowInformation::getEndTime));
+			for (TimewindowInformation info : infoList) {
 				dos.writeShort(stationMap.get(info.getStation()));
 				dos.writeShort(idMap.get(info.getGlobalCMTID()));
 				Phase[] Infophases = info.getPhases();
@@ -175,32 +184,11 @@ public final class TimewindowInformationFile {
 	public static Set<TimewindowInformation> read(Path infoPath) throws IOException {
 		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(infoPath)));) {
 			long t = System.nanoTime();
-			long fileSize = Files.size(infoPath);
-			// Read header
-			Station[] stations = new Station[dis.readShort()];
-			GlobalCMTID[] cmtIDs = new GlobalCMTID[dis.readShort()];
-			Phase[] phases = new Phase[dis.readShort()];
-			int headerBytes = 3 * 2 + (8 + 8 + 8 * 2) * stations.length + 15 * cmtIDs.length + 16 * phases.length;
-			long windowParts = fileSize - headerBytes;
-			if (windowParts % oneWindowByte != 0)
-				throw new RuntimeException(infoPath + " has some problems.");
-			// name(8),network(8),position(8*2)
-			byte[] stationBytes = new byte[32];
-			for (int i = 0; i < stations.length; i++) {
-				dis.read(stationBytes);
-				stations[i] = Station.createStation(stationBytes);
-			}
-			byte[] cmtIDBytes = new byte[15];
-			for (int i = 0; i < cmtIDs.length; i++) {
-				dis.read(cmtIDBytes);
-				cmtIDs[i] = new GlobalCMTID(new String(cmtIDBytes).trim());
-			}
-			byte[] phaseBytes = new byte[16];
-			for (int i = 0; i < phases.length; i++) {
-				dis.read(phaseBytes);
-				phases[i] = Phase.create(new String(phaseBytes).trim());
-			}
-			int nwindow = (int) (windowParts / oneWindowByte);
+			Header header = new Header(infoPath, dis);
+			Station[] stations = header.stations;
+			GlobalCMTID[] cmtIDs = header.ids;
+			Phase[] phases = header.phases;
+			int nwindow = header.nwindow;
 			byte[][] bytes = new byte[nwindow][oneWindowByte];
 			for (int i = 0; i < nwindow; i++)
 				dis.read(bytes[i]);
@@ -229,7 +217,7 @@ public final class TimewindowInformationFile {
      * @return TimewindowInformation
 	 * @author anselme add phase information
 	 */
-	private static TimewindowInformation create(byte[] bytes, Station[] stations, GlobalCMTID[] ids, Phase[] phases) {
+	static TimewindowInformation create(byte[] bytes, Station[] stations, GlobalCMTID[] ids, Phase[] phases) {
 		ByteBuffer bb = ByteBuffer.wrap(bytes);
 		Station station = stations[bb.getShort()];
 		GlobalCMTID id = ids[bb.getShort()];
@@ -247,4 +235,53 @@ public final class TimewindowInformationFile {
 		return new TimewindowInformation(startTime, endTime, station, id, component, usablephases);
 	}
 
+	/**
+	 * Stations, events and phases at the head of a file.
+	 */
+	static final class Header {
+		final Station[] stations;
+		final GlobalCMTID[] ids;
+		final Phase[] phases;
+		/**
+		 * [byte] size of the header
+		 */
+		final long headerBytes;
+		/**
+		 * the number of time windows in the file
+		 */
+		final int nwindow;
+
+		/**
+		 * @param infoPath of the information file
+		 * @param dis      reading the file from its head
+		 */
+		Header(Path infoPath, DataInput dis) throws IOException {
+			long fileSize = Files.size(infoPath);
+			stations = new Station[dis.readShort()];
+			ids = new GlobalCMTID[dis.readShort()];
+			phases = new Phase[dis.readShort()];
+			headerBytes = 3 * 2 + (8 + 8 + 8 * 2) * stations.length + 15 * ids.length + 16 * phases.length;
+			long windowParts = fileSize - headerBytes;
+			if (windowParts % oneWindowByte != 0)
+				throw new RuntimeException(infoPath + " has some problems.");
+			// name(8),network(8),position(8*2)
+			byte[] stationBytes = new byte[32];
+			for (int i = 0; i < stations.length; i++) {
+				dis.readFully(stationBytes);
+				stations[i] = Station.createStation(stationBytes);
+			}
+			byte[] cmtIDBytes = new byte[15];
+			for (int i = 0; i < ids.length; i++) {
+				dis.readFully(cmtIDBytes);
+				ids[i] = new GlobalCMTID(new String(cmtIDBytes).trim());
+			}
+			byte[] phaseBytes = new byte[16];
+			for (int i = 0; i < phases.length; i++) {
+				dis.readFully(phaseBytes);
+				phases[i] = Phase.create(new String(phaseBytes).trim());
+			}
+			nwindow = (int) (windowParts / oneWindowByte);
+		}
+	}
+
 }
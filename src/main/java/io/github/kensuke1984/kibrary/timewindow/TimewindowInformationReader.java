@@ -0,0 +1,332 @@
+package io.github.kensuke1984.kibrary.timewindow;
+
+import io.github.kensuke1984.anisotime.Phase;
+import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reader of a {@link TimewindowInformationFile} which finds windows of an event or a station without reading all
+ * the windows.
+ * <p>
+ * When it is opened, the keys (event, station, component, start time) of the windows are read once to make an
+ * index of the positions of the windows of each event. Windows are read from the file when they are asked.
+ * Files written by {@link TimewindowInformationFile#write(java.util.Set, Path, java.nio.file.OpenOption...)} are
+ * sorted by the keys, and the windows of an event (and a station in it) are read at once by a range scan.
+ * Files in other order (written by older versions) are also read through a sorted permutation.
+ * <p>
+ * Windows are given in order of (event, station, component, start time, end time).
+ * Reading is thread safe.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+public final class TimewindowInformationReader implements Closeable, Iterable<TimewindowInformation> {
+
+	/**
+	 * the number of windows read at once
+	 */
+	private static final int CHUNK = 4096;
+
+	private final FileChannel channel;
+	private final Station[] stations;
+	private final GlobalCMTID[] ids;
+	private final Phase[] phases;
+	private final long headerBytes;
+	private final int nwindow;
+	/**
+	 * record numbers of the windows in the sorted order, or null if the file is sorted
+	 */
+	private final int[] order;
+	/**
+	 * windows of the i-th event are in [eventStart[i], eventStart[i+1]) of the sorted order
+	 */
+	private final int[] eventStart;
+	/**
+	 * indices of the stations of the windows in the sorted order
+	 */
+	private final short[] stationIndex;
+	private final Map<GlobalCMTID, Integer> idMap = new HashMap<>();
+	/**
+	 * station name &rarr; indices of the stations (equals of {@link Station} depends on positions)
+	 */
+	private final Map<String, int[]> stationNameMap = new HashMap<>();
+
+	/**
+	 * @param infoPath of a {@link TimewindowInformationFile}
+	 * @throws IOException if an I/O error occurs
+	 */
+	public TimewindowInformationReader(Path infoPath) throws IOException {
+		short[] events;
+		short[] stationKeys;
+		byte[] components;
+		float[] startTimes;
+		float[] endTimes;
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(infoPath)))) {
+			TimewindowInformationFile.Header header = new TimewindowInformationFile.Header(infoPath, dis);
+			stations = header.stations;
+			ids = header.ids;
+			phases = header.phases;
+			headerBytes = header.headerBytes;
+			nwindow = header.nwindow;
+			events = new short[nwindow];
+			stationKeys = new short[nwindow];
+			components = new byte[nwindow];
+			startTimes = new float[nwindow];
+			endTimes = new float[nwindow];
+			// station(2), event(2), phases(2*10), component(1), start(4), end(4)
+			for (int i = 0; i < nwindow; i++) {
+				stationKeys[i] = dis.readShort();
+				events[i] = dis.readShort();
+				dis.skipBytes(20);
+				components[i] = dis.readByte();
+				startTimes[i] = dis.readFloat();
+				endTimes[i] = dis.readFloat();
+			}
+		}
+		int[] sortedOrder = null;
+		for (int i = 1; i < nwindow; i++)
+			if (0 < compare(i - 1, i, events, stationKeys, components, startTimes, endTimes)) {
+				sortedOrder = IntStream.range(0, nwindow).boxed()
+						.sorted((a, b) -> compare(a, b, events, stationKeys, components, startTimes, endTimes))
+						.mapToInt(Integer::intValue).toArray();
+				break;
+			}
+		order = sortedOrder;
+		stationIndex = new short[nwindow];
+		eventStart = new int[ids.length + 1];
+		for (int i = 0; i < nwindow; i++) {
+			int record = order == null ? i : order[i];
+			stationIndex[i] = stationKeys[record];
+			eventStart[events[record] + 1]++;
+		}
+		for (int i = 0; i < ids.length; i++)
+			eventStart[i + 1] += eventStart[i];
+		for (int i = 0; i < ids.length; i++)
+			idMap.put(ids[i], i);
+		Map<String, List<Integer>> nameLists = new HashMap<>();
+		for (int i = 0; i < stations.length; i++)
+			nameLists.computeIfAbsent(stations[i].getName(), k -> new ArrayList<>()).add(i);
+		nameLists.forEach((name, list) -> stationNameMap.put(name, list.stream().mapToInt(Integer::intValue).toArray()));
+		channel = FileChannel.open(infoPath, StandardOpenOption.READ);
+	}
+
+	private static int compare(int a, int b, short[] events, short[] stationKeys, byte[] components,
+			float[] startTimes, float[] endTimes) {
+		int c = Short.compare(events[a], events[b]);
+		if (c == 0)
+			c = Short.compare(stationKeys[a], stationKeys[b]);
+		if (c == 0)
+			c = Byte.compare(components[a], components[b]);
+		if (c == 0)
+			c = Float.compare(startTimes[a], startTimes[b]);
+		return c != 0 ? c : Float.compare(endTimes[a], endTimes[b]);
+	}
+
+	/**
+	 * @return the number of the windows
+	 */
+	public int size() {
+		return nwindow;
+	}
+
+	/**
+	 * @return if the windows in the file are sorted
+	 */
+	public boolean isSorted() {
+		return order == null;
+	}
+
+	/**
+	 * @return stations in the file
+	 */
+	public Station[] getStations() {
+		return stations.clone();
+	}
+
+	/**
+	 * @return events in the file
+	 */
+	public GlobalCMTID[] getGlobalCMTIDs() {
+		return ids.clone();
+	}
+
+	/**
+	 * @param id of the event
+	 * @return windows of the event
+	 * @throws IOException if an I/O error occurs
+	 */
+	public List<TimewindowInformation> read(GlobalCMTID id) throws IOException {
+		List<TimewindowInformation> windows = new ArrayList<>();
+		Integer event = idMap.get(id);
+		if (event != null)
+			read(eventStart[event], eventStart[event + 1], windows);
+		return windows;
+	}
+
+	/**
+	 * @param station of the windows
+	 * @return windows of the station (the ones of stations which equal the station)
+	 * @throws IOException if an I/O error occurs
+	 */
+	public List<TimewindowInformation> read(Station station) throws IOException {
+		List<TimewindowInformation> windows = new ArrayList<>();
+		int[] indices = indicesOf(station);
+		for (int event = 0; event < ids.length; event++)
+			for (int index : indices)
+				readStation(event, index, windows);
+		return windows;
+	}
+
+	/**
+	 * @param id      of the event
+	 * @param station of the windows
+	 * @return windows of the event and the station (the ones of stations which equal the station)
+	 * @throws IOException if an I/O error occurs
+	 */
+	public List<TimewindowInformation> read(GlobalCMTID id, Station station) throws IOException {
+		List<TimewindowInformation> windows = new ArrayList<>();
+		Integer event = idMap.get(id);
+		if (event != null)
+			for (int index : indicesOf(station))
+				readStation(event, index, windows);
+		return windows;
+	}
+
+	/**
+	 * @return indices of the stations which equal the station in ascending order
+	 */
+	private int[] indicesOf(Station station) {
+		int[] candidates = stationNameMap.get(station.getName());
+		return candidates == null ? new int[0] : Arrays.stream(candidates).filter(i -> station.equals(stations[i])).toArray();
+	}
+
+	/**
+	 * Reads windows of the event and the station found by binary search in the range of the event.
+	 */
+	private void readStation(int event, int station, List<TimewindowInformation> windows) throws IOException {
+		int from = lowerBound(eventStart[event], eventStart[event + 1], station);
+		int to = lowerBound(from, eventStart[event + 1], station + 1);
+		read(from, to, windows);
+	}
+
+	/**
+	 * @return the first position in [from, to) whose station index is not less than the station
+	 */
+	private int lowerBound(int from, int to, int station) {
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (stationIndex[mid] < station)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+
+	/**
+	 * Reads the windows in [from, to) of the sorted order.
+	 */
+	private void read(int from, int to, List<TimewindowInformation> windows) throws IOException {
+		byte[] bytes = new byte[TimewindowInformationFile.oneWindowByte];
+		if (order != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			for (int i = from; i < to; i++) {
+				buffer.clear();
+				readFully(buffer, positionOf(order[i]));
+				windows.add(TimewindowInformationFile.create(bytes, stations, ids, phases));
+			}
+			return;
+		}
+		for (int start = from; start < to; start += CHUNK) {
+			int n = Math.min(CHUNK, to - start);
+			ByteBuffer buffer = ByteBuffer.allocate(n * TimewindowInformationFile.oneWindowByte);
+			readFully(buffer, positionOf(start));
+			buffer.flip();
+			for (int i = 0; i < n; i++) {
+				buffer.get(bytes);
+				windows.add(TimewindowInformationFile.create(bytes, stations, ids, phases));
+			}
+		}
+	}
+
+	private long positionOf(int record) {
+		return headerBytes + (long) record * TimewindowInformationFile.oneWindowByte;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException();
+	}
+
+	/**
+	 * Windows are read by chunks while iterating.
+	 *
+	 * @return iterator of all the windows in the sorted order
+	 */
+	@Override
+	public Iterator<TimewindowInformation> iterator() {
+		return new Iterator<TimewindowInformation>() {
+			private final List<TimewindowInformation> chunk = new ArrayList<>(CHUNK);
+			private int next;
+			private int i;
+
+			@Override
+			public boolean hasNext() {
+				return i < chunk.size() || next < nwindow;
+			}
+
+			@Override
+			public TimewindowInformation next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				if (i == chunk.size()) {
+					chunk.clear();
+					i = 0;
+					try {
+						read(next, Math.min(next + CHUNK, nwindow), chunk);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					next += chunk.size();
+				}
+				return chunk.get(i++);
+			}
+		};
+	}
+
+	/**
+	 * @return stream of all the windows in the sorted order
+	 */
+	public Stream<TimewindowInformation> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,364 @@
+package io.github.kensuke1984.kibrary.util;
+
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.util.sac.SACFileName;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manifest of a dataset folder (a folder containing event folders) to avoid listing the folders in every run.
+ * <p>
+ * A listing of a folder (names, kinds and sizes of the entries) is kept with the last modified time of the folder,
+ * and it is used while the time is unchanged. Checking a folder thus costs a stat instead of listing all its files,
+ * and names of SAC files are parsed only once for a listing.
+ * Listings made within {@link #RACY_MARGIN} after the modification of the folder are not trusted
+ * because a change in the same tick of the clock of the file system would not change the time.
+ * <p>
+ * Listings of a dataset folder and its event folders are written in {@link #FILE_NAME} in the dataset folder
+ * when they are updated (at the exit of the JVM), and read in the next run.
+ * The file is just a cache; it can be deleted any time.
+ * Set the system property {@value #PERSISTENCE_PROPERTY} false not to write it.
+ * <p>
+ * Sizes of files are the ones when their folder was listed;
+ * rewriting a file does not change the time of its folder.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ * @see Utilities#eventFolderSet(Path)
+ * @see EventFolder#sacFileSet()
+ */
+public final class DatasetManifest {
+
+    /**
+     * name of the manifest file in a dataset folder
+     */
+    public static final String FILE_NAME = ".kibrary_manifest";
+    /**
+     * system property to disable writing {@link #FILE_NAME}
+     */
+    public static final String PERSISTENCE_PROPERTY = "kibrary.manifest";
+    /**
+     * [ms] listings made within this after the modification of the folder are listed again
+     */
+    public static final long RACY_MARGIN = 2000;
+
+    private static final String HEADER = "#kibrary dataset manifest 0.0.1";
+    private static final String FOOTER = "#end";
+
+    /**
+     * folder &rarr; listing
+     */
+    private static final Map<Path, Listing> LISTINGS = new ConcurrentHashMap<>();
+    /**
+     * dataset folders whose manifests have been read (and are written at the exit)
+     */
+    private static final Set<Path> ROOTS = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(DatasetManifest::writeAll));
+    }
+
+    private DatasetManifest() {
+    }
+
+    /**
+     * Lists the dataset folder and all its event folders in parallel, and writes the manifest.
+     *
+     * @param args dataset folders
+     * @throws IOException if an I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: datasetFolder1 datasetFolder2 ...");
+            return;
+        }
+        for (String arg : args) {
+            Path root = Paths.get(arg);
+            long startTime = System.nanoTime();
+            int n = build(root);
+            System.err.println(n + " SAC files in " + root + " are listed in " +
+                    Utilities.toTimeString(System.nanoTime() - startTime));
+        }
+    }
+
+    /**
+     * Lists the dataset folder and all its event folders (in parallel) and writes the manifest.
+     *
+     * @param root dataset folder
+     * @return the number of SAC files in the event folders
+     * @throws IOException if an I/O error occurs
+     */
+    public static int build(Path root) throws IOException {
+        int n = sacFileNameSet(root).size();
+        write(root);
+        return n;
+    }
+
+    /**
+     * The same as {@link Files#list(Path)} with the manifest.
+     *
+     * @param dir folder to list
+     * @return paths of the entries in the folder in order of their names
+     * @throws IOException if an I/O error occurs
+     */
+    public static List<Path> list(Path dir) throws IOException {
+        Listing listing = listingOf(dir);
+        List<Path> paths = new ArrayList<>(listing.NAMES.length);
+        for (String name : listing.NAMES)
+            paths.add(dir.resolve(name));
+        return paths;
+    }
+
+    /**
+     * @param file to look for
+     * @return [byte] size of the file when its folder was listed, or -1 if it is not a regular file
+     * @throws IOException if an I/O error occurs
+     */
+    public static long sizeOf(Path file) throws IOException {
+        Path dir = file.getParent() == null ? Paths.get("") : file.getParent();
+        Listing listing = listingOf(dir);
+        int i = Arrays.binarySearch(listing.NAMES, file.getFileName().toString());
+        return i < 0 ? -1 : listing.SIZES[i];
+    }
+
+    /**
+     * @param root dataset folder
+     * @return Set of {@link EventFolder} in the dataset folder
+     * @throws IOException if an I/O error occurs
+     */
+    public static Set<EventFolder> eventFolderSet(Path root) throws IOException {
+        load(root);
+        Listing listing = listingOf(root);
+        Set<EventFolder> eventFolders = new HashSet<>();
+        for (int i = 0; i < listing.NAMES.length; i++)
+            if (listing.SIZES[i] == DIRECTORY && GlobalCMTID.isGlobalCMTID(listing.NAMES[i]))
+                eventFolders.add(new EventFolder(root.resolve(listing.NAMES[i]).toString()));
+        return eventFolders;
+    }
+
+    /**
+     * Event folders are listed in parallel. Errors in reading each event folder is just noticed.
+     *
+     * @param root dataset folder
+     * @return Set of SAC files in the event folders in the dataset folder
+     * @throws IOException if an I/O error occurs
+     */
+    public static Set<SACFileName> sacFileNameSet(Path root) throws IOException {
+        return eventFolderSet(root).parallelStream().flatMap(eventFolder -> {
+            try {
+                return Arrays.stream(listingOf(eventFolder.toPath()).sacFileNames(eventFolder.toPath()));
+            } catch (Exception e) {
+                e.printStackTrace();
+                return Stream.empty();
+            }
+        }).collect(Collectors.toSet());
+    }
+
+    /**
+     * @param dir folder to look for SAC files in
+     * @return Set of SAC files in the folder
+     * @throws IOException if an I/O error occurs
+     */
+    public static Set<SACFileName> sacFileSet(Path dir) throws IOException {
+        return new HashSet<>(Arrays.asList(listingOf(dir).sacFileNames(dir)));
+    }
+
+    /**
+     * Writes the listings of the dataset folder and its event folders in the manifest if any of them is updated.
+     *
+     * @param root dataset folder
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(Path root) throws IOException {
+        if (!Boolean.parseBoolean(System.getProperty(PERSISTENCE_PROPERTY, "true")))
+            return;
+        Listing rootListing = LISTINGS.get(root);
+        if (rootListing == null)
+            return;
+        Map<String, Listing> listings = new TreeMap<>();
+        listings.put(".", rootListing);
+        for (int i = 0; i < rootListing.NAMES.length; i++) {
+            Listing listing;
+            if (rootListing.SIZES[i] == DIRECTORY && (listing = LISTINGS.get(root.resolve(rootListing.NAMES[i]))) != null)
+                listings.put(rootListing.NAMES[i], listing);
+        }
+        if (listings.values().stream().allMatch(listing -> listing.persisted))
+            return;
+        // overwritten in place so that the time of the dataset folder is not changed
+        try (BufferedWriter writer = Files.newBufferedWriter(root.resolve(FILE_NAME))) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Listing> entry : listings.entrySet()) {
+                Listing listing = entry.getValue();
+                writer.write(entry.getKey() + "\t" + listing.MODIFIED + "\t" + listing.LISTED + "\t" +
+                        listing.NAMES.length);
+                writer.newLine();
+                for (int i = 0; i < listing.NAMES.length; i++) {
+                    writer.write(listing.NAMES[i] + "\t" + listing.SIZES[i]);
+                    writer.newLine();
+                }
+            }
+            writer.write(FOOTER);
+            writer.newLine();
+        }
+        listings.values().forEach(listing -> listing.persisted = true);
+    }
+
+    private static void writeAll() {
+        for (Path root : ROOTS)
+            try {
+                write(root);
+            } catch (Exception e) {
+                System.err.println("Could not write the manifest in " + root + " " + e);
+            }
+    }
+
+    /**
+     * Reads the manifest in the dataset folder once. A broken manifest is ignored.
+     */
+    private static void load(Path root) {
+        if (!ROOTS.add(root))
+            return;
+        Path manifestPath = root.resolve(FILE_NAME);
+        if (!Files.exists(manifestPath))
+            return;
+        Map<Path, Listing> listings = new TreeMap<>();
+        try {
+            List<String> lines = Files.readAllLines(manifestPath);
+            if (lines.size() < 2 || !lines.get(0).equals(HEADER) || !lines.get(lines.size() - 1).equals(FOOTER))
+                return;
+            for (int i = 1; i < lines.size() - 1; ) {
+                String[] parts = lines.get(i++).split("\t");
+                Path dir = parts[0].equals(".") ? root : root.resolve(parts[0]);
+                int n = Integer.parseInt(parts[3]);
+                String[] names = new String[n];
+                long[] sizes = new long[n];
+                for (int j = 0; j < n; j++) {
+                    String[] entry = lines.get(i++).split("\t");
+                    names[j] = entry[0];
+                    sizes[j] = Long.parseLong(entry[1]);
+                }
+                Listing listing = new Listing(Long.parseLong(parts[1]), Long.parseLong(parts[2]), names, sizes);
+                listing.persisted = true;
+                listings.put(dir, listing);
+            }
+        } catch (Exception e) {
+            System.err.println(manifestPath + " is ignored. " + e);
+            return;
+        }
+        listings.forEach(LISTINGS::putIfAbsent);
+    }
+
+    /**
+     * @return the listing of the folder which is valid for the current time of the folder
+     */
+    private static Listing listingOf(Path dir) throws IOException {
+        long modified = Files.getLastModifiedTime(dir).toMillis();
+        Listing listing = LISTINGS.get(dir);
+        if (listing != null && listing.MODIFIED == modified && RACY_MARGIN <= listing.LISTED - modified)
+            return listing;
+        listing = Listing.of(dir, modified);
+        LISTINGS.put(dir, listing);
+        return listing;
+    }
+
+    /**
+     * size of directories in listings
+     */
+    private static final long DIRECTORY = -1;
+    /**
+     * size of entries whose attributes are not read (e.g. broken links)
+     */
+    private static final long UNKNOWN = -2;
+
+    private static final class Listing {
+        /**
+         * [ms] last modified time of the folder when it was listed
+         */
+        private final long MODIFIED;
+        /**
+         * [ms] time when the folder was listed
+         */
+        private final long LISTED;
+        /**
+         * names of the entries in order
+         */
+        private final String[] NAMES;
+        /**
+         * [byte] sizes of the entries, {@link #DIRECTORY} or {@link #UNKNOWN}
+         */
+        private final long[] SIZES;
+        /**
+         * if this is written in the manifest
+         */
+        private volatile boolean persisted;
+        /**
+         * path of the folder &rarr; SAC files in it
+         */
+        private final Map<Path, SACFileName[]> sacFileNames = new ConcurrentHashMap<>();
+
+        private Listing(long modified, long listed, String[] names, long[] sizes) {
+            MODIFIED = modified;
+            LISTED = listed;
+            NAMES = names;
+            SIZES = sizes;
+        }
+
+        /**
+         * @param modified [ms] time of the folder before it is listed, so that changes while listing are noticed
+         */
+        private static Listing of(Path dir, long modified) throws IOException {
+            long listed = System.currentTimeMillis();
+            Map<String, Long> entries = new TreeMap<>();
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    entries.put(file.getFileName().toString(), attrs.isDirectory() ? DIRECTORY : attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    if (file.equals(dir))
+                        throw exc;
+                    entries.put(file.getFileName().toString(), UNKNOWN);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return new Listing(modified, listed, entries.keySet().toArray(new String[0]),
+                    entries.values().stream().mapToLong(Long::longValue).toArray());
+        }
+
+        /**
+         * Names are parsed once; the instances are shared as {@link SACFileName} is immutable.
+         *
+         * @param dir path of the folder to make the SAC files with
+         */
+        private SACFileName[] sacFileNames(Path dir) {
+            return sacFileNames.computeIfAbsent(dir, key -> Arrays.stream(NAMES).filter(SACFileName::isSacFileName)
+                    .map(name -> new SACFileName(dir.resolve(name))).toArray(SACFileName[]::new));
+        }
+    }
+
+}
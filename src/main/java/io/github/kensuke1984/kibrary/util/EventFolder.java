@@ -11,8 +11,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Set;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Utility for an event folder
@@ -89,11 +87,10 @@ public class EventFolder extends File {
      * @return <b>unmodifiable</b> Set of all SAC files in this including
      * observed, synthetic and partial derivatives.
      * @throws IOException if an I/O error occurs
+     * @see DatasetManifest
      */
     public Set<SACFileName> sacFileSet() throws IOException {
-        try (Stream<Path> stream = Files.list(toPath())) {
-            return stream.filter(SACFileName::isSacFileName).map(SACFileName::new).collect(Collectors.toSet());
-        }
+        return DatasetManifest.sacFileSet(toPath());
     }
 
 }
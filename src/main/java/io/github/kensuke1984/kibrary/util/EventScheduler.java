@@ -0,0 +1,526 @@
+package io.github.kensuke1984.kibrary.util;
+
+import io.github.kensuke1984.kibrary.util.sac.SACFileName;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Scheduler of processes over {@link EventFolder}s.
+ * <p>
+ * Each task has a weight (the number of SAC files for events). As many workers as threads take tasks one by one
+ * from a queue sorted from the heaviest, so that heavy tasks start first and do not remain at the tail of a run. With
+ * {@link #runSACs(Collection, Predicate, SACProcess)}, events are split into chunks of stations of similar weights.
+ * <p>
+ * The progress (tasks, weights per second and ETA) is reported to the standard error.
+ * Exceptions thrown by tasks are caught and accounted in the {@link Summary} as failures, so a process must throw
+ * (not only print) its errors. A run can be cancelled by {@link #cancel()} (also before the run) or by the timeout,
+ * and then tasks not started are accounted as cancelled. At the timeout, running tasks are interrupted and
+ * the summary is made after they end.
+ * If a checkpoint file is set, events whose all tasks succeeded are written in it, and they are skipped in later
+ * runs with the same file.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.3
+ */
+public class EventScheduler {
+
+	/**
+	 * Process for an event
+	 */
+	@FunctionalInterface
+	public interface EventProcess {
+		void process(EventFolder event) throws Exception;
+	}
+
+	/**
+	 * Process for a part of SAC files in an event
+	 */
+	@FunctionalInterface
+	public interface SACProcess {
+		void process(EventFolder event, Set<SACFileName> sacFiles) throws Exception;
+	}
+
+	/**
+	 * Action of a task
+	 */
+	@FunctionalInterface
+	public interface Action {
+		void run() throws Exception;
+	}
+
+	/**
+	 * A unit of work. This class is <b>IMMUTABLE</b>.
+	 */
+	public static final class Task {
+		private final String NAME;
+		private final String EVENT;
+		private final long WEIGHT;
+		private final Action ACTION;
+
+		/**
+		 * @param name   of the task for reports
+		 * @param event  name of the event which the task belongs to, or null if the task is not for an event.
+		 *               Used for the checkpoint.
+		 * @param weight of the task, e.g., the number of files
+		 * @param action to run
+		 */
+		public Task(String name, String event, long weight, Action action) {
+			if (weight < 0)
+				throw new IllegalArgumentException("weight must be non-negative: " + weight);
+			NAME = name;
+			EVENT = event;
+			WEIGHT = weight;
+			ACTION = action;
+		}
+
+		public String getName() {
+			return NAME;
+		}
+
+		public long getWeight() {
+			return WEIGHT;
+		}
+	}
+
+	/**
+	 * Result of a run. This class is <b>IMMUTABLE</b>.
+	 */
+	public static final class Summary {
+		private final int N_TASKS;
+		private final int N_SUCCEEDED;
+		private final int N_CANCELLED;
+		private final int N_SKIPPED;
+		private final long TOTAL_WEIGHT;
+		private final long DONE_WEIGHT;
+		private final long ELAPSED;
+		private final List<String[]> FAILURES;
+
+		private Summary(int nTasks, int nSucceeded, int nCancelled, int nSkipped, long totalWeight, long doneWeight,
+				long elapsed, List<String[]> failures) {
+			N_TASKS = nTasks;
+			N_SUCCEEDED = nSucceeded;
+			N_CANCELLED = nCancelled;
+			N_SKIPPED = nSkipped;
+			TOTAL_WEIGHT = totalWeight;
+			DONE_WEIGHT = doneWeight;
+			ELAPSED = elapsed;
+			FAILURES = Collections.unmodifiableList(failures);
+		}
+
+		/**
+		 * @return the number of tasks including skipped ones
+		 */
+		public int getNumberOfTasks() {
+			return N_TASKS;
+		}
+
+		public int getNumberOfSucceeded() {
+			return N_SUCCEEDED;
+		}
+
+		public int getNumberOfFailed() {
+			return FAILURES.size();
+		}
+
+		/**
+		 * @return the number of tasks not run because of the cancellation
+		 */
+		public int getNumberOfCancelled() {
+			return N_CANCELLED;
+		}
+
+		/**
+		 * @return the number of tasks skipped because their events are in the checkpoint
+		 */
+		public int getNumberOfSkipped() {
+			return N_SKIPPED;
+		}
+
+		/**
+		 * @return [ns] elapsed time
+		 */
+		public long getElapsedTime() {
+			return ELAPSED;
+		}
+
+		/**
+		 * @return true if all the tasks succeeded or were skipped
+		 */
+		public boolean isComplete() {
+			return N_SUCCEEDED + N_SKIPPED == N_TASKS;
+		}
+
+		/**
+		 * @return pairs of the name of a failed task and its exception
+		 */
+		public List<String[]> getFailures() {
+			return FAILURES.stream().map(String[]::clone).collect(Collectors.toList());
+		}
+
+		/**
+		 * @return lines of "key value", and "failure task exception" for each failure
+		 */
+		public List<String> toLines() {
+			List<String> lines = new ArrayList<>();
+			lines.add("tasks " + N_TASKS);
+			lines.add("succeeded " + N_SUCCEEDED);
+			lines.add("failed " + FAILURES.size());
+			lines.add("cancelled " + N_CANCELLED);
+			lines.add("skipped " + N_SKIPPED);
+			lines.add("weight " + DONE_WEIGHT + " " + TOTAL_WEIGHT);
+			lines.add("elapsed " + ELAPSED * 1e-9);
+			lines.add("throughput " + (ELAPSED == 0 ? 0 : DONE_WEIGHT / (ELAPSED * 1e-9)));
+			for (String[] failure : FAILURES)
+				lines.add("failure " + failure[0] + " " + failure[1].replaceAll("\\s+", " "));
+			return lines;
+		}
+
+		/**
+		 * @param outPath path of the output file
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void write(Path outPath) throws IOException {
+			Files.write(outPath, toLines());
+		}
+
+		@Override
+		public String toString() {
+			return N_SUCCEEDED + "/" + N_TASKS + " tasks succeeded (" + FAILURES.size() + " failed, " + N_CANCELLED +
+					" cancelled, " + N_SKIPPED + " skipped) in " + Utilities.toTimeString(ELAPSED);
+		}
+	}
+
+	private final int N_THREADS;
+	private volatile boolean cancelled;
+	private Path checkpointPath;
+	private long timeout;
+	private TimeUnit timeUnit;
+	/**
+	 * [ms] interval of progress reports. Non-positive for no reports.
+	 */
+	private long reportInterval = 10000;
+
+	/**
+	 * A scheduler with threads of the number of available processors
+	 */
+	public EventScheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param nThreads the number of threads
+	 */
+	public EventScheduler(int nThreads) {
+		if (nThreads < 1)
+			throw new IllegalArgumentException("The number of threads must be positive: " + nThreads);
+		N_THREADS = nThreads;
+	}
+
+	/**
+	 * @param checkpointPath file of completed events. Events in it are skipped, and completed events are appended.
+	 * @return this
+	 */
+	public EventScheduler setCheckpoint(Path checkpointPath) {
+		this.checkpointPath = checkpointPath;
+		return this;
+	}
+
+	/**
+	 * @param timeout after which the run is cancelled
+	 * @param unit    of the timeout
+	 * @return this
+	 */
+	public EventScheduler setTimeout(long timeout, TimeUnit unit) {
+		this.timeout = timeout;
+		timeUnit = unit;
+		return this;
+	}
+
+	/**
+	 * @param reportInterval [ms] interval of progress reports. Non-positive for no reports.
+	 * @return this
+	 */
+	public EventScheduler setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+		return this;
+	}
+
+	/**
+	 * Tasks not started yet are cancelled. Running tasks are not interrupted.
+	 * If it is called before a run, no task of the run is started. Once cancelled, the scheduler stays cancelled.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Each event is a task weighted by the number of its SAC files.
+	 *
+	 * @param events  to process
+	 * @param process for each event
+	 * @return summary of the run
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Summary runEvents(Collection<EventFolder> events, EventProcess process) throws InterruptedException {
+		List<Task> tasks = new ArrayList<>();
+		for (EventFolder event : events)
+			tasks.add(new Task(event.getName(), event.getName(), countSACs(event), () -> process.process(event)));
+		return run(tasks);
+	}
+
+	/**
+	 * SAC files in each event are grouped by station and the stations are split into chunks, so that
+	 * each chunk has SAC files of about total / (4 * the number of threads).
+	 * All the SAC files of a station are in the same chunk.
+	 *
+	 * @param events    to process
+	 * @param sacFilter only SAC files satisfying it are processed
+	 * @param process   for each chunk
+	 * @return summary of the run
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Summary runSACs(Collection<EventFolder> events, Predicate<SACFileName> sacFilter, SACProcess process)
+			throws InterruptedException {
+		Map<EventFolder, TreeMap<String, List<SACFileName>>> stationMap = new TreeMap<>();
+		List<Task> tasks = new ArrayList<>();
+		long total = 0;
+		for (EventFolder event : events)
+			try {
+				TreeMap<String, List<SACFileName>> stations = event.sacFileSet().stream().filter(sacFilter)
+						.collect(Collectors.groupingBy(SACFileName::getStationName, TreeMap::new, Collectors.toList()));
+				stationMap.put(event, stations);
+				total += stations.values().stream().mapToInt(List::size).sum();
+			} catch (IOException e) {
+				tasks.add(new Task(event.getName(), event.getName(), 0, () -> {
+					throw e;
+				}));
+			}
+		long chunkWeight = Math.max(1, (total + 4 * N_THREADS - 1) / (4 * N_THREADS));
+		stationMap.forEach((event, stations) -> {
+			Set<SACFileName> chunk = new HashSet<>();
+			String first = null;
+			String last = null;
+			for (Map.Entry<String, List<SACFileName>> entry : stations.entrySet()) {
+				if (first == null)
+					first = entry.getKey();
+				last = entry.getKey();
+				chunk.addAll(entry.getValue());
+				if (chunkWeight <= chunk.size()) {
+					tasks.add(toTask(event, first, last, chunk, process));
+					chunk = new HashSet<>();
+					first = null;
+				}
+			}
+			if (!chunk.isEmpty())
+				tasks.add(toTask(event, first, last, chunk, process));
+		});
+		return run(tasks);
+	}
+
+	private static Task toTask(EventFolder event, String first, String last, Set<SACFileName> chunk,
+			SACProcess process) {
+		Set<SACFileName> sacFiles = Collections.unmodifiableSet(chunk);
+		return new Task(event.getName() + "[" + first + "-" + last + "]", event.getName(), sacFiles.size(),
+				() -> process.process(event, sacFiles));
+	}
+
+	private static long countSACs(EventFolder event) {
+		try {
+			return event.sacFileSet().size();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @param tasks to run
+	 * @return summary of the run
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public Summary run(List<Task> tasks) throws InterruptedException {
+		Run run = new Run(tasks);
+		ForkJoinPool pool = new ForkJoinPool(N_THREADS);
+		try {
+			ForkJoinTask<Void> root = pool.submit(run.root());
+			if (timeUnit == null)
+				root.get();
+			else
+				root.get(timeout, timeUnit);
+			pool.shutdown();
+		} catch (TimeoutException e) {
+			System.err.println("Scheduled tasks are cancelled by the timeout.");
+			cancel();
+			pool.shutdownNow();
+		} catch (ExecutionException e) {
+			// exceptions in tasks are caught in each task
+			pool.shutdownNow();
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			cancel();
+			pool.shutdownNow();
+			throw e;
+		}
+		// the summary is made after all the running tasks end
+		while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+			System.err.println("Waiting for running tasks to end.");
+		return run.summarize();
+	}
+
+	/**
+	 * State of a run
+	 */
+	private class Run {
+		private final List<Task> TASKS;
+		private final Set<String> COMPLETED_EVENTS;
+		private final long TOTAL_WEIGHT;
+		private final long START_TIME = System.nanoTime();
+		private final AtomicInteger nSucceeded = new AtomicInteger();
+		private final AtomicInteger nFinished = new AtomicInteger();
+		private final AtomicInteger nSkipped = new AtomicInteger();
+		private final AtomicLong doneWeight = new AtomicLong();
+		private final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+		private final List<String[]> failures = Collections.synchronizedList(new ArrayList<>());
+		/**
+		 * event &rarr; the number of its tasks not succeeded yet
+		 */
+		private final Map<String, AtomicInteger> remaining = new ConcurrentHashMap<>();
+
+		private Run(List<Task> tasks) {
+			COMPLETED_EVENTS = readCheckpoint();
+			TASKS = tasks.stream().sorted(Comparator.comparingLong(Task::getWeight).reversed())
+					.collect(Collectors.toList());
+			TOTAL_WEIGHT = TASKS.stream().filter(task -> !isSkipped(task)).mapToLong(Task::getWeight).sum();
+			for (Task task : TASKS)
+				if (task.EVENT != null)
+					remaining.computeIfAbsent(task.EVENT, e -> new AtomicInteger()).incrementAndGet();
+		}
+
+		private boolean isSkipped(Task task) {
+			return task.EVENT != null && COMPLETED_EVENTS.contains(task.EVENT);
+		}
+
+		/**
+		 * The workers take tasks in the order of {@link #TASKS}. (Forking a task for each would start the lightest
+		 * first, as forked tasks are taken from the end.)
+		 */
+		private RecursiveAction root() {
+			AtomicInteger next = new AtomicInteger();
+			return new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(IntStream.range(0, N_THREADS).mapToObj(i -> new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute() {
+							for (int j; (j = next.getAndIncrement()) < TASKS.size(); )
+								execute(TASKS.get(j));
+						}
+					}).collect(Collectors.toList()));
+				}
+			};
+		}
+
+		private void execute(Task task) {
+			if (isSkipped(task)) {
+				nSkipped.incrementAndGet();
+				return;
+			}
+			if (cancelled)
+				return;
+			try {
+				task.ACTION.run();
+				nSucceeded.incrementAndGet();
+				if (task.EVENT != null && remaining.get(task.EVENT).decrementAndGet() == 0)
+					writeCheckpoint(task.EVENT);
+			} catch (Throwable e) {
+				failures.add(new String[]{task.NAME, e.toString()});
+				System.err.println(task.NAME + " failed. " + e);
+			}
+			doneWeight.addAndGet(task.WEIGHT);
+			nFinished.incrementAndGet();
+			report();
+		}
+
+		private void report() {
+			if (reportInterval <= 0)
+				return;
+			long now = System.nanoTime();
+			long last = lastReport.get();
+			if (now - last < reportInterval * 1000000 || !lastReport.compareAndSet(last, now))
+				return;
+			double elapsed = (now - START_TIME) * 1e-9;
+			long done = doneWeight.get();
+			double rate = done / elapsed;
+			String eta = 0 < rate ? Utilities.toTimeString((long) ((TOTAL_WEIGHT - done) / rate * 1e9)) : "-";
+			System.err.println("progress " + nFinished.get() + "/" + (TASKS.size() - nSkipped.get()) + " tasks, " +
+					done + "/" + TOTAL_WEIGHT + " (" + Math.round(rate * 10) / 10. + "/s), ETA " + eta);
+		}
+
+		private Set<String> readCheckpoint() {
+			if (checkpointPath == null || !Files.exists(checkpointPath))
+				return Collections.emptySet();
+			try {
+				return Files.readAllLines(checkpointPath).stream().map(String::trim).filter(line -> !line.isEmpty())
+						.collect(Collectors.toSet());
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read the checkpoint " + checkpointPath, e);
+			}
+		}
+
+		private void writeCheckpoint(String event) {
+			if (checkpointPath == null)
+				return;
+			synchronized (this) {
+				try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(checkpointPath, StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND))) {
+					pw.println(event);
+				} catch (IOException e) {
+					System.err.println("Could not write " + event + " in the checkpoint. " + e);
+				}
+			}
+		}
+
+		private Summary summarize() {
+			List<String[]> failureList;
+			synchronized (failures) {
+				failureList = new ArrayList<>(failures);
+			}
+			int nCancelled = TASKS.size() - nSkipped.get() - nFinished.get();
+			return new Summary(TASKS.size(), nSucceeded.get(), nCancelled, nSkipped.get(), TOTAL_WEIGHT,
+					doneWeight.get(), System.nanoTime() - START_TIME, failureList);
+		}
+	}
+
+}
@@ -145,6 +145,8 @@ public class Location extends HorizontalPosition {
     }
 
     /**
+     * For queries of many locations on the same grid, use {@link LocationIndex}.
+     *
      * @param locations to be sorted.
      * @return locations in the order of the distance from this.
      */
@@ -0,0 +1,323 @@
+package io.github.kensuke1984.kibrary.util;
+
+import io.github.kensuke1984.kibrary.math.geometry.XYZ;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Spatial index (k-d tree in the Cartesian coordinate) of {@link Location}s for queries of near locations.
+ * <p>
+ * Distances are the one-line distance in {@link Location#getDistance(Location)}.
+ * Results are in order of the distance, and locations at the same distance are in the order of the input array
+ * as {@link Location#getNearestLocation(Location[])}.
+ * It is built once for a grid in O(N log N), and each query visits O(log N) nodes for a typical grid
+ * instead of sorting all the locations.
+ * <p>
+ * <b>This class is IMMUTABLE</b> (indices of layers are created lazily and thread safely).
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+public class LocationIndex {
+
+    private final Location[] LOCATIONS;
+    /**
+     * x, y, z of the i-th location are at 3i, 3i+1, 3i+2.
+     */
+    private final double[] COORDINATES;
+    /**
+     * indices of the locations in the order of the tree. The node of [lo, hi) is at (lo + hi) / 2.
+     */
+    private final int[] ORDER;
+    /**
+     * axis to split at each node
+     */
+    private final byte[] AXIS;
+    /**
+     * radius &rarr; index of the locations at the radius
+     */
+    private final Map<Double, LocationIndex> layers = new ConcurrentHashMap<>();
+
+    /**
+     * @param locations to be indexed
+     */
+    public LocationIndex(Location[] locations) {
+        LOCATIONS = locations.clone();
+        int n = LOCATIONS.length;
+        COORDINATES = new double[3 * n];
+        for (int i = 0; i < n; i++) {
+            XYZ xyz = LOCATIONS[i].toXYZ();
+            COORDINATES[3 * i] = xyz.getX();
+            COORDINATES[3 * i + 1] = xyz.getY();
+            COORDINATES[3 * i + 2] = xyz.getZ();
+        }
+        ORDER = new int[n];
+        for (int i = 0; i < n; i++)
+            ORDER[i] = i;
+        AXIS = new byte[n];
+        build(0, n);
+    }
+
+    /**
+     * @return the number of the indexed locations
+     */
+    public int size() {
+        return LOCATIONS.length;
+    }
+
+    /**
+     * @param target location to search near
+     * @param k      the number of locations to look for
+     * @return k (or all if there are less) nearest locations in order of the distance from the target
+     */
+    public Location[] getNearest(Location target, int k) {
+        return getNearest(target, k, i -> true);
+    }
+
+    /**
+     * The same as {@link Location#getNearestLocation(Location[], double)} but the first k.
+     *
+     * @param target         location to search near
+     * @param k              the number of locations to look for
+     * @param maxSearchRange [km] only locations whose radii differ from the target by less than this are searched
+     * @return k (or all if there are less) nearest locations in order of the distance from the target
+     */
+    public Location[] getNearest(Location target, int k, double maxSearchRange) {
+        double r = target.getR();
+        return getNearest(target, k, i -> Math.abs(r - LOCATIONS[i].getR()) < maxSearchRange);
+    }
+
+    /**
+     * The same as {@link Location#getNearestHorizontalLocation(Location[])} but the first k.
+     *
+     * @param target location to search near
+     * @param k      the number of locations to look for
+     * @return k (or all if there are less) nearest locations at the same radius as the target
+     */
+    public Location[] getNearestInLayer(Location target, int k) {
+        double r = target.getR();
+        return layers.computeIfAbsent(r,
+                key -> new LocationIndex(Arrays.stream(LOCATIONS).filter(loc -> loc.getR() == r).toArray(Location[]::new)))
+                .getNearest(target, k);
+    }
+
+    /**
+     * @param target   location to search near
+     * @param distance [km] maximum distance from the target
+     * @return locations within the distance in order of the distance from the target
+     */
+    public Location[] getWithin(Location target, double distance) {
+        if (distance < 0)
+            throw new IllegalArgumentException("distance must be non-negative: " + distance);
+        Within within = new Within(distance);
+        search(0, LOCATIONS.length, target.toXYZ(), within, i -> true);
+        return within.toArray();
+    }
+
+    private Location[] getNearest(Location target, int k, IntPredicate accept) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must be non-negative: " + k);
+        Nearest nearest = new Nearest(Math.min(k, LOCATIONS.length));
+        if (0 < nearest.K)
+            search(0, LOCATIONS.length, target.toXYZ(), nearest, accept);
+        return nearest.toArray();
+    }
+
+    /**
+     * The same arithmetic as {@link XYZ#getDistance(XYZ)} so that the order is the same as the sort by it.
+     */
+    private double distance(int i, double x, double y, double z) {
+        double dx = COORDINATES[3 * i] - x;
+        double dy = COORDINATES[3 * i + 1] - y;
+        double dz = COORDINATES[3 * i + 2] - z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private double coordinate(int i, int axis) {
+        return COORDINATES[3 * i + axis];
+    }
+
+    private void build(int lo, int hi) {
+        if (hi - lo < 2)
+            return;
+        double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int j = lo; j < hi; j++)
+            for (int axis = 0; axis < 3; axis++) {
+                double c = coordinate(ORDER[j], axis);
+                min[axis] = Math.min(min[axis], c);
+                max[axis] = Math.max(max[axis], c);
+            }
+        int axis = 0;
+        for (int a = 1; a < 3; a++)
+            if (max[axis] - min[axis] < max[a] - min[a])
+                axis = a;
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        AXIS[mid] = (byte) axis;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    /**
+     * Quickselect so that ORDER[k] is the k-th in [left, right] by the coordinate.
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            double pivot = coordinate(ORDER[(left + right) >>> 1], axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinate(ORDER[i], axis) < pivot)
+                    i++;
+                while (pivot < coordinate(ORDER[j], axis))
+                    j--;
+                if (i <= j) {
+                    int tmp = ORDER[i];
+                    ORDER[i++] = ORDER[j];
+                    ORDER[j--] = tmp;
+                }
+            }
+            if (k <= j)
+                right = j;
+            else if (i <= k)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    private void search(int lo, int hi, XYZ target, Collector collector, IntPredicate accept) {
+        if (hi <= lo)
+            return;
+        int mid = (lo + hi) >>> 1;
+        int i = ORDER[mid];
+        double d = distance(i, target.getX(), target.getY(), target.getZ());
+        if (d <= collector.bound() && accept.test(i))
+            collector.offer(d, i);
+        int axis = AXIS[mid];
+        double diff = (axis == 0 ? target.getX() : axis == 1 ? target.getY() : target.getZ()) - coordinate(i, axis);
+        if (diff < 0) {
+            search(lo, mid, target, collector, accept);
+            if (Math.abs(diff) <= collector.bound())
+                search(mid + 1, hi, target, collector, accept);
+        } else {
+            search(mid + 1, hi, target, collector, accept);
+            if (Math.abs(diff) <= collector.bound())
+                search(lo, mid, target, collector, accept);
+        }
+    }
+
+    private interface Collector {
+        /**
+         * @return distance beyond which locations are not needed
+         */
+        double bound();
+
+        void offer(double distance, int i);
+    }
+
+    /**
+     * Bounded max-heap by (distance, index).
+     */
+    private class Nearest implements Collector {
+        private final int K;
+        private final double[] D;
+        private final int[] I;
+        private int n;
+
+        private Nearest(int k) {
+            K = k;
+            D = new double[k];
+            I = new int[k];
+        }
+
+        private boolean after(int a, int b) {
+            return D[a] > D[b] || (D[a] == D[b] && I[a] > I[b]);
+        }
+
+        private void swap(int a, int b) {
+            double d = D[a];
+            D[a] = D[b];
+            D[b] = d;
+            int i = I[a];
+            I[a] = I[b];
+            I[b] = i;
+        }
+
+        @Override
+        public double bound() {
+            return n < K ? Double.POSITIVE_INFINITY : D[0];
+        }
+
+        @Override
+        public void offer(double distance, int i) {
+            if (n < K) {
+                D[n] = distance;
+                I[n] = i;
+                for (int c = n++; 0 < c && after(c, (c - 1) / 2); c = (c - 1) / 2)
+                    swap(c, (c - 1) / 2);
+                return;
+            }
+            if (distance > D[0] || (distance == D[0] && i > I[0]))
+                return;
+            D[0] = distance;
+            I[0] = i;
+            siftDown();
+        }
+
+        private void siftDown() {
+            for (int p = 0; ; ) {
+                int c = 2 * p + 1;
+                if (n <= c)
+                    break;
+                if (c + 1 < n && after(c + 1, c))
+                    c++;
+                if (!after(c, p))
+                    break;
+                swap(p, c);
+                p = c;
+            }
+        }
+
+        private Location[] toArray() {
+            Location[] locations = new Location[n];
+            while (0 < n) {
+                locations[n - 1] = LOCATIONS[I[0]];
+                swap(0, --n);
+                siftDown();
+            }
+            return locations;
+        }
+    }
+
+    private class Within implements Collector {
+        private final double BOUND;
+        private final List<double[]> found = new ArrayList<>();
+
+        private Within(double bound) {
+            BOUND = bound;
+        }
+
+        @Override
+        public double bound() {
+            return BOUND;
+        }
+
+        @Override
+        public void offer(double distance, int i) {
+            found.add(new double[]{distance, i});
+        }
+
+        private Location[] toArray() {
+            return found.stream().sorted((a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]))
+                    .map(a -> LOCATIONS[(int) a[1]]).toArray(Location[]::new);
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+package io.github.kensuke1984.kibrary.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pipeline of two parallel stages and a sink which receives results in the order of the inputs.
+ * <p>
+ * Typically the first stage reads files (I/O bound), the second one computes (CPU bound), and the sink writes
+ * to a single file. Each stage has its own threads. At most {@link #CAPACITY} inputs are in the pipeline at a time;
+ * taking a new input waits until the sink finishes an old one, so the memory used is bounded whatever the number of
+ * the inputs is.
+ * <p>
+ * A stage may return null to drop an input. Exceptions in a stage are reported and the input is dropped.
+ * Throughput and busy time of each stage are reported to the standard error periodically and at the end.
+ *
+ * @param <I> type of inputs
+ * @param <D> type of outputs of the first stage
+ * @param <O> type of outputs of the second stage
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+public class Pipeline<I, D, O> {
+
+	/**
+	 * Stage of a pipeline
+	 */
+	@FunctionalInterface
+	public interface Stage<T, R> {
+		/**
+		 * @param input to the stage
+		 * @return output, or null to drop the input
+		 * @throws Exception if any
+		 */
+		R apply(T input) throws Exception;
+	}
+
+	/**
+	 * End of a pipeline
+	 */
+	@FunctionalInterface
+	public interface Sink<T> {
+		void accept(T output) throws Exception;
+	}
+
+	/**
+	 * the maximum number of inputs in the pipeline
+	 */
+	private final int CAPACITY;
+	private final Stage<I, D> FIRST;
+	private final int FIRST_THREADS;
+	private final Stage<D, O> SECOND;
+	private final int SECOND_THREADS;
+	private final Sink<O> SINK;
+	private final Statistics[] STATISTICS;
+	/**
+	 * [ms] interval of reports. Non-positive for no periodic reports.
+	 */
+	private long reportInterval = 10000;
+	private long startTime;
+
+	/**
+	 * @param firstName     name of the first stage
+	 * @param first         first stage
+	 * @param firstThreads  the number of threads for the first stage
+	 * @param secondName    name of the second stage
+	 * @param second        second stage
+	 * @param secondThreads the number of threads for the second stage
+	 * @param sinkName      name of the sink
+	 * @param sink          which receives outputs of the second stage in the order of the inputs
+	 * @param capacity      the maximum number of inputs in the pipeline at a time
+	 */
+	public Pipeline(String firstName, Stage<I, D> first, int firstThreads, String secondName, Stage<D, O> second,
+			int secondThreads, String sinkName, Sink<O> sink, int capacity) {
+		if (firstThreads < 1 || secondThreads < 1)
+			throw new IllegalArgumentException("The numbers of threads must be positive.");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		FIRST = first;
+		FIRST_THREADS = firstThreads;
+		SECOND = second;
+		SECOND_THREADS = secondThreads;
+		SINK = sink;
+		CAPACITY = capacity;
+		STATISTICS = new Statistics[]{new Statistics(firstName, firstThreads), new Statistics(secondName, secondThreads),
+				new Statistics(sinkName, 1)};
+	}
+
+	/**
+	 * @param reportInterval [ms] interval of reports. Non-positive for no periodic reports.
+	 * @return this
+	 */
+	public Pipeline<I, D, O> setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+		return this;
+	}
+
+	/**
+	 * Runs the pipeline until all the inputs go through. Inputs are taken from the iterator only when there is a room
+	 * in the pipeline.
+	 *
+	 * @param inputs to the pipeline
+	 * @throws InterruptedException if interrupted while waiting for a room in the pipeline
+	 */
+	public void run(Iterator<? extends I> inputs) throws InterruptedException {
+		startTime = System.nanoTime();
+		ExecutorService firstPool = Executors.newFixedThreadPool(FIRST_THREADS);
+		ExecutorService secondPool = Executors.newFixedThreadPool(SECOND_THREADS);
+		BlockingQueue<CompletableFuture<O>> queue = new LinkedBlockingQueue<>();
+		CompletableFuture<O> end = new CompletableFuture<>();
+		Semaphore room = new Semaphore(CAPACITY);
+		Thread sink = new Thread(() -> drain(queue, end, room), "pipeline-sink");
+		sink.start();
+		try {
+			while (inputs.hasNext()) {
+				room.acquire();
+				I input = inputs.next();
+				queue.add(CompletableFuture.supplyAsync(() -> apply(STATISTICS[0], FIRST, input), firstPool)
+						.thenApplyAsync(d -> d == null ? null : apply(STATISTICS[1], SECOND, d), secondPool));
+			}
+		} finally {
+			queue.add(end);
+			sink.join();
+			firstPool.shutdown();
+			secondPool.shutdown();
+		}
+		System.err.println(String.join("\n", report()));
+	}
+
+	private static <T, R> R apply(Statistics statistics, Stage<T, R> stage, T input) {
+		long start = System.nanoTime();
+		try {
+			R output = stage.apply(input);
+			statistics.account(output != null, start);
+			return output;
+		} catch (Exception e) {
+			statistics.failed.incrementAndGet();
+			statistics.account(false, start);
+			System.err.println("Error in " + statistics.NAME + " for " + input + ". " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Gives outputs to the sink in the order of the inputs.
+	 */
+	private void drain(BlockingQueue<CompletableFuture<O>> queue, CompletableFuture<O> end, Semaphore room) {
+		long lastReport = System.nanoTime();
+		try {
+			for (CompletableFuture<O> future; (future = queue.take()) != end; room.release()) {
+				O output;
+				try {
+					output = future.join();
+				} catch (CompletionException e) {
+					continue;
+				}
+				if (output != null)
+					apply(STATISTICS[2], o -> {
+						SINK.accept(o);
+						return o;
+					}, output);
+				if (0 < reportInterval && reportInterval * 1000000 < System.nanoTime() - lastReport) {
+					lastReport = System.nanoTime();
+					System.err.println(String.join("\n", report()));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return lines of the throughput (per second of the elapsed time) and the busy time of each stage
+	 */
+	public List<String> report() {
+		double elapsed = (System.nanoTime() - startTime) * 1e-9;
+		List<String> lines = new ArrayList<>();
+		for (Statistics statistics : STATISTICS) {
+			long n = statistics.count.get();
+			double busy = statistics.busy.get() * 1e-9;
+			lines.add(String.format("%s: %d in, %d out, %d failed, %.2f /s, busy %.1f%% of %d threads",
+					statistics.NAME, n, statistics.passed.get(), statistics.failed.get(), n / elapsed,
+					100 * busy / elapsed / statistics.THREADS, statistics.THREADS));
+		}
+		return lines;
+	}
+
+	private static final class Statistics {
+		private final String NAME;
+		private final int THREADS;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong passed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		/**
+		 * [ns] total time in the stage
+		 */
+		private final AtomicLong busy = new AtomicLong();
+
+		private Statistics(String name, int threads) {
+			NAME = name;
+			THREADS = threads;
+		}
+
+		private void account(boolean passed, long start) {
+			busy.addAndGet(System.nanoTime() - start);
+			count.incrementAndGet();
+			if (passed)
+				this.passed.incrementAndGet();
+		}
+	}
+
+}
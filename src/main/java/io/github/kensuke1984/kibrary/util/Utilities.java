@@ -255,12 +255,10 @@ public final class Utilities {
      * @param path Path of a folder containing event folders.
      * @return Set of {@link EventFolder} in the workPath
      * @throws IOException if an I/O error occurs
+     * @see DatasetManifest
      */
 	public static Set<EventFolder> eventFolderSet(Path path) throws IOException {
-		try (Stream<Path> stream = Files.list(path)) {
-			return stream.filter(file -> GlobalCMTID.isGlobalCMTID(file.getFileName().toString()))
-					.map(file -> new EventFolder(file.toString())).collect(Collectors.toSet());
-		}
+		return DatasetManifest.eventFolderSet(path);
 	}
 
     /**
@@ -272,14 +270,7 @@ public final class Utilities {
      * @throws IOException if an I/O error occurs.
      */
 	public static Set<SACFileName> sacFileNameSet(Path path) throws IOException {
-		return Collections.unmodifiableSet(eventFolderSet(path).stream().flatMap(eDir -> {
-			try {
-				return eDir.sacFileSet().stream();
-			} catch (Exception e) {
-				e.printStackTrace();
-				return Stream.empty();
-			}
-		}).collect(Collectors.toSet()));
+		return Collections.unmodifiableSet(DatasetManifest.sacFileNameSet(path));
 	}
 	
     /**
@@ -292,16 +283,15 @@ public final class Utilities {
      * @return elapsed time [nano second]
      * @throws InterruptedException if the process takes over 30 minutes
      * @throws IOException          if an I/O error occurs
+     * @see EventScheduler
      */
 	public static long runEventProcess(Path workPath, Consumer<EventFolder> process, long timeout, TimeUnit unit)
 			throws IOException, InterruptedException {
 		long startTime = System.nanoTime();
-		ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-		// Thread[] workers = new Thread[eventDirs.length];
-		for (EventFolder eventDirectory : eventFolderSet(workPath))
-			exec.submit(() -> process.accept(eventDirectory));
-		exec.shutdown();
-		exec.awaitTermination(timeout, unit);
+		EventScheduler.Summary summary = new EventScheduler().setTimeout(timeout, unit)
+				.runEvents(eventFolderSet(workPath), process::accept);
+		if (!summary.isComplete())
+			System.err.println(summary);
 		return System.nanoTime() - startTime;
 	}
 
@@ -378,9 +368,8 @@ public final class Utilities {
      * @throws IOException if an I/O error occurs
      */
 	public static Set<SPCFile> collectSpcFileName(Path path) throws IOException {
-		try (Stream<Path> stream = Files.list(path)) {
-			return stream.filter(FormattedSPCFile::isFormatted).map(FormattedSPCFile::new).collect(Collectors.toSet());
-		}
+		return DatasetManifest.list(path).stream().filter(FormattedSPCFile::isFormatted).map(FormattedSPCFile::new)
+				.collect(Collectors.toSet());
 	}
 	
 	/**
@@ -391,7 +380,7 @@ public final class Utilities {
 	 */
 	public static List<SPCFile> collectOrderedSpcFileName(Path path) throws IOException {
 		List<SPCFile> list = new ArrayList<>();
-		List<Path> paths = Files.list(path).filter(p -> p.getFileName().toString().endsWith(".spc")).collect(Collectors.toList());
+		List<Path> paths = DatasetManifest.list(path).stream().filter(p -> p.getFileName().toString().endsWith(".spc")).collect(Collectors.toList());
 		int n = paths.size();
 		int ndigits = 1;
 		String formatter = null;
@@ -436,7 +425,7 @@ public final class Utilities {
 	 */
 	public static List<SPCFile> collectOrderedSHSpcFileName(Path path) throws IOException {
 		List<SPCFile> list = new ArrayList<>();
-		List<Path> paths = Files.list(path).filter(p -> p.getFileName().toString().endsWith("SH.spc")).collect(Collectors.toList());
+		List<Path> paths = DatasetManifest.list(path).stream().filter(p -> p.getFileName().toString().endsWith("SH.spc")).collect(Collectors.toList());
 		int n = paths.size();
 		int ndigits = 1;
 		String formatter = null;
@@ -486,7 +475,7 @@ public final class Utilities {
 		for (EventFolder event : events) {
 			Path path = fpPath.resolve(event.getGlobalCMTID().toString()).resolve(model);
 			List<SPCFile> list = new ArrayList<>();
-			List<Path> paths = Files.list(path).filter(p -> p.getFileName().toString().endsWith("SH.spc")).collect(Collectors.toList());
+			List<Path> paths = DatasetManifest.list(path).stream().filter(p -> p.getFileName().toString().endsWith("SH.spc")).collect(Collectors.toList());
 			int n = paths.size();
 			
 			if (n == 0)
@@ -539,7 +528,7 @@ public final class Utilities {
 	 */
 	public static List<SPCFile> collectOrderedPSVSpcFileName(Path path) throws IOException {
 		List<SPCFile> list = new ArrayList<>();
-		List<Path> paths = Files.list(path).filter(p -> p.getFileName().toString().endsWith("PSV.spc")).collect(Collectors.toList());
+		List<Path> paths = DatasetManifest.list(path).stream().filter(p -> p.getFileName().toString().endsWith("PSV.spc")).collect(Collectors.toList());
 		int n = paths.size();
 		int ndigits = 1;
 		String formatter = null;
@@ -589,7 +578,7 @@ public final class Utilities {
 		for (EventFolder event : events) {
 			Path path = fpPath.resolve(event.getGlobalCMTID().toString()).resolve(model);
 			List<SPCFile> list = new ArrayList<>();
-			List<Path> paths = Files.list(path).filter(p -> p.getFileName().toString().endsWith("PSV.spc")).collect(Collectors.toList());
+			List<Path> paths = DatasetManifest.list(path).stream().filter(p -> p.getFileName().toString().endsWith("PSV.spc")).collect(Collectors.toList());
 			int n = paths.size();
 			
 			if (n == 0)
@@ -0,0 +1,78 @@
+package io.github.kensuke1984.kibrary.util.spc;
+
+/**
+ * Three neighbouring spectra in a catalogue (of BP or FP) sampled every dtheta in epicentral distance, and the weights
+ * of the Lagrange interpolation among them at a distance.
+ * <p>
+ * A stencil depends only on the geometry of a source (a station for BP) and a perturbation point, so it is computed
+ * once for the pair and applied to all the bodies and the partial types by
+ * {@link SPCBody#interpolate(SPCBody, SPCBody, SPCBody, CatalogueStencil)}.
+ * <p>
+ * <b>This class is IMMUTABLE</b>
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+public final class CatalogueStencil {
+
+	/**
+	 * index of the first of the three spectra in the catalogue
+	 */
+	private final int INDEX;
+	private final double W1;
+	private final double W2;
+	private final double W3;
+
+	/**
+	 * @param index of the first of the three spectra in the catalogue
+	 * @param dh    (distance - theta<sub>i</sub>) / dtheta for the three spectra i
+	 */
+	public CatalogueStencil(int index, double[] dh) {
+		INDEX = index;
+		W1 = dh[1] * dh[2] / 2.;
+		W2 = -dh[0] * dh[2];
+		W3 = dh[0] * dh[1] / 2.;
+	}
+
+	/**
+	 * @param distance [deg] epicentral distance to interpolate at
+	 * @param thetamin [deg] distance of the first spectrum in the catalogue
+	 * @param dtheta   [deg] sampling of the catalogue
+	 * @param index    of the first of the three spectra in the catalogue
+	 * @return stencil of the three spectra from the index
+	 */
+	public static CatalogueStencil of(double distance, double thetamin, double dtheta, int index) {
+		double theta1 = thetamin + index * dtheta;
+		double theta2 = theta1 + dtheta;
+		double theta3 = theta2 + dtheta;
+		return new CatalogueStencil(index, new double[] { (distance - theta1) / dtheta, (distance - theta2) / dtheta,
+				(distance - theta3) / dtheta });
+	}
+
+	/**
+	 * @return index of the first of the three spectra in the catalogue
+	 */
+	public int getIndex() {
+		return INDEX;
+	}
+
+	/**
+	 * @return weights for the three spectra
+	 */
+	public double[] getWeights() {
+		return new double[] { W1, W2, W3 };
+	}
+
+	double getW1() {
+		return W1;
+	}
+
+	double getW2() {
+		return W2;
+	}
+
+	double getW3() {
+		return W3;
+	}
+
+}
@@ -1,6 +1,7 @@
 package io.github.kensuke1984.kibrary.util.spc;
 
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
+import io.github.kensuke1984.kibrary.dsminformation.RadialProfile;
 import io.github.kensuke1984.kibrary.util.HorizontalPosition;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.sac.SACComponent;
@@ -49,10 +50,12 @@ public final class FujiConversion {
 		double domega = 1. / spectrum.tlen() * 2. * Math.PI;
 		double omega0 = 1. * 2. * Math.PI; //Hz
 //		double omega0 = spectrum.tlen(); // TODO
+		RadialProfile profile = STRUCTURE.computeProfile(bodyR);
+		double[] qMu = profile.getQmu();
+		double[] mu = profile.getMu();
 		for (int i = 0; i < spectrum.nbody(); i++) {
-			double r = bodyR[i];
-			double q = 1 / STRUCTURE.getQmuAt(r);
-			double mu0 = STRUCTURE.computeMu(r);
+			double q = 1 / qMu[i];
+			double mu0 = mu[i];
 			SPCBody body = spectrum.getSpcBodyList().get(i);
 			SPCBody newBody = new SPCBody(3, np);
 			for (int ip = 0; ip < np + 1; ip++) {
@@ -0,0 +1,140 @@
+package io.github.kensuke1984.kibrary.util.spc;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Calculation of U<sub>j,q</sub> C<sub>jqrs</sub> &eta;<sub>ri,s</sub> in
+ * Geller &amp; Hara (1993) for several weighting factors at once
+ * <p>
+ * {@link TensorCalculationUCE} computes the products u<sub>pq</sub>&eta;<sub>rs</sub> again for each weighting factor.
+ * Here the forward propagation is read once, and for each i, the back propagation is read and rotated once and
+ * each product is computed once per frequency on primitive arrays and added to the partials of all the factors.
+ * The partials are the same as the ones by {@link TensorCalculationUCE#calc(int)} for each factor.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+class FusedTensorCalculationUCE {
+
+	/**
+	 * real and imaginary parts of U<sub>p,q</sub> = u[3p+q][(np)]
+	 */
+	private final double[][] uRe;
+	private final double[][] uIm;
+
+	/**
+	 * real and imaginary parts of ETAi,r,s = eta[9i+3r+s][(np)] before the rotation
+	 */
+	private final double[][] etaRe;
+	private final double[][] etaIm;
+
+	private final int np;
+
+	/**
+	 * bpのテンソル座標軸をfpの軸に合わせるための角度
+	 */
+	private final double angle;
+
+	/**
+	 * The arrays are used as they are, so the caller can fill them for each body (e.g. by
+	 * {@link SPCBody#interpolate(SPCBody, SPCBody, SPCBody, CatalogueStencil, SPCTensorComponent, double[], double[])}
+	 * from catalogues) and reuse them after the calculation.
+	 *
+	 * @param uRe   [{@link SPCTensorComponent#valueOf()} - 1][(np)] real parts of the forward propagation
+	 * @param uIm   [{@link SPCTensorComponent#valueOf()} - 1][(np)] imaginary parts of the forward propagation
+	 * @param etaRe [{@link SPCTensorComponent#valueOf()} - 1][(np)] real parts of the back propagation
+	 * @param etaIm [{@link SPCTensorComponent#valueOf()} - 1][(np)] imaginary parts of the back propagation
+	 * @param angle to rotate the back propagation
+	 */
+	FusedTensorCalculationUCE(double[][] uRe, double[][] uIm, double[][] etaRe, double[][] etaIm, double angle) {
+		this.uRe = uRe;
+		this.uIm = uIm;
+		this.etaRe = etaRe;
+		this.etaIm = etaIm;
+		np = uRe[0].length - 1;
+		this.angle = angle;
+	}
+
+	/**
+	 * (0, 1, 2) = (r, theta, phi) &rarr; (Z, X, Y) = (2, 0, 1)
+	 */
+	private static int switchCoordinateSystem(int i) {
+		return (i + 2) % 3;
+	}
+
+	/**
+	 * Uj,q Cjqrs Eri,sのi成分の計算
+	 *
+	 * @param factors weighting factors
+	 * @param i       (0: Z 1:R 2:T)
+	 * @return {@link Complex}[factor][NP] i成分を返す
+	 */
+	Complex[][] calc(WeightingFactor[] factors, int i) {
+		int nfactor = factors.length;
+		// coefficients[k][index] for index = 27p + 9q + 3r + s, and the indices with any non-zero coefficient
+		double[][] coefficients = new double[nfactor][81];
+		boolean[] used = new boolean[81];
+		for (int k = 0; k < nfactor; k++)
+			for (int index = 0; index < 81; index++) {
+				coefficients[k][index] = factors[k].getFactor(switchCoordinateSystem(index / 27),
+						switchCoordinateSystem(index / 9 % 3), switchCoordinateSystem(index / 3 % 3),
+						switchCoordinateSystem(index % 3));
+				used[index] |= coefficients[k][index] != 0;
+			}
+
+		double[][] rotatedRe = new double[9][np + 1];
+		double[][] rotatedIm = new double[9][np + 1];
+		rotateEta(i, rotatedRe, rotatedIm);
+
+		double[][] partialRe = new double[nfactor][np + 1];
+		double[][] partialIm = new double[nfactor][np + 1];
+		for (int index = 0; index < 81; index++) {
+			if (!used[index])
+				continue;
+			double[] ure = uRe[index / 9];
+			double[] uim = uIm[index / 9];
+			double[] ere = rotatedRe[index % 9];
+			double[] eim = rotatedIm[index % 9];
+			for (int ip = 0; ip < np + 1; ip++) {
+				double re = ure[ip] * ere[ip] - uim[ip] * eim[ip];
+				double im = ure[ip] * eim[ip] + uim[ip] * ere[ip];
+				for (int k = 0; k < nfactor; k++) {
+					double coefficient = coefficients[k][index];
+					if (coefficient != 0) {
+						partialRe[k][ip] += re * coefficient;
+						partialIm[k][ip] += im * coefficient;
+					}
+				}
+			}
+		}
+
+		Complex[][] partials = new Complex[nfactor][np + 1];
+		for (int k = 0; k < nfactor; k++)
+			for (int ip = 0; ip < np + 1; ip++)
+				partials[k][ip] = new Complex(partialRe[k][ip], partialIm[k][ip]);
+		return partials;
+	}
+
+	/**
+	 * ETAri,s（back propagation） をテンソルのZ軸中心に {@link #angle} 回す as
+	 * {@link TensorCalculationUCE}
+	 *
+	 * @param i         (0: Z 1:R 2:T)
+	 * @param rotatedRe [3r+s][(np)] real parts of the rotated ETAri,s
+	 * @param rotatedIm [3r+s][(np)] imaginary parts of the rotated ETAri,s
+	 */
+	private void rotateEta(int i, double[][] rotatedRe, double[][] rotatedIm) {
+		double cosine = FastMath.cos(angle);
+		double sine = FastMath.sin(angle);
+		double[][] forwardMatrix = new double[][] { { 1, 0, 0 }, { 0, cosine, sine }, { 0, -sine, cosine } };
+		for (int r = 0; r < 3; r++)
+			for (int s = 0; s < 3; s++)
+				for (int k = 0; k < 3; k++)
+					for (int ip = 0; ip < np + 1; ip++) {
+						rotatedRe[3 * r + s][ip] += etaRe[9 * i + 3 * k + s][ip] * forwardMatrix[r][k];
+						rotatedIm[3 * r + s][ip] += etaIm[9 * i + 3 * k + s][ip] * forwardMatrix[r][k];
+					}
+	}
+
+}
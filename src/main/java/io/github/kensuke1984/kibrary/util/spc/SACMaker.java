@@ -451,6 +451,25 @@ public class SACMaker implements Runnable {
 
 	}
 
+    /**
+     * Creates synthetic waveforms for {@link #components} without writing them on disk.
+     * Temporal partials are not created even if {@link #temporalDifferentiation} is true.
+     *
+     * @return synthetic waveforms in the order of the components
+     */
+	public SACData[] toSACData() {
+		setInformation();
+		SAC sac = new SAC();
+		setHeaderOn(sac);
+		SPCBody body = primeSPC.getSpcBodyList().get(0).copy();
+		if (secondarySPC != null)
+			body.addBody(secondarySPC.getSpcBodyList().get(0));
+
+		compute(body);
+		return components.stream().map(component -> sac.of(component).setSACData(body.getTimeseries(component)))
+				.toArray(SACData[]::new);
+	}
+
 	@Override
 	public void run() {
 		setInformation();
@@ -621,7 +640,9 @@ public class SACMaker implements Runnable {
 
 		@Override
 		public SAC applyButterworthFilter(ButterworthFilter filter) {
-			throw new RuntimeException("UnEXPEcteD");
+			SAC sac = clone();
+			sac.waveData = filter.applyFilter(waveData);
+			return sac;
 		}
 
 		@Override
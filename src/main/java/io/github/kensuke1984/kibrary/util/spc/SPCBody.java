@@ -16,7 +16,7 @@ import java.util.stream.IntStream;
  * ista に対応する
  *
  * @author Kensuke Konishi
- * @version 0.1.2.2
+ * @version 0.1.2.3
  */
 public class SPCBody {
 
@@ -97,31 +97,79 @@ public class SPCBody {
 	 * @author anselme
 	 */
 	public static SPCBody interpolate(SPCBody body1, SPCBody body2, SPCBody body3, double[] dh) {
-		SPCBody s = body1.copy();
-//		double c1 = 1 - dh[0] + dh[0]*dh[1]/2.;
-//		double c2 = dh[0] - dh[0]*dh[1];
-//		double c3 = dh[0]*dh[1]/2.;
-		double c1 = dh[1]*dh[2] / 2.;
-		double c2 = -dh[0]*dh[2];
-		double c3 = dh[0]*dh[1] / 2.;
-		
+		return interpolate(body1, body2, body3, new CatalogueStencil(0, dh));
+	}
+
+	/**
+	 * Interpolation of the bodies with the weights of the stencil, without copying the input bodies.
+	 *
+	 * @param body1   the first spectrum of the stencil
+	 * @param body2   the second spectrum of the stencil
+	 * @param body3   the third spectrum of the stencil
+	 * @param stencil weights for the bodies
+	 * @return interpolated body
+	 */
+	public static SPCBody interpolate(SPCBody body1, SPCBody body2, SPCBody body3, CatalogueStencil stencil) {
+		SPCBody s = new SPCBody(body1.N_COMPONENT, body1.NP);
+		s.nptsInTimeDomain = body1.nptsInTimeDomain;
+		double[] re = new double[body1.NP + 1];
+		double[] im = new double[body1.NP + 1];
 		for (int j = 0; j < body1.N_COMPONENT; j++) {
-			SPCComponent comp1 = body1.spcComponents[j].copy();
-			SPCComponent comp2 = body2.spcComponents[j].copy();
-			SPCComponent comp3 = body3.spcComponents[j].copy();
-			
-			comp1.mapMultiply(c1);
-			comp2.mapMultiply(c2);
-			comp3.mapMultiply(c3);
-			comp1.addComponent(comp2);
-			comp1.addComponent(comp3);
-			
-			s.spcComponents[j] = comp1;
+			interpolate(body1, body2, body3, stencil, j, re, im);
+			SPCComponent component = s.spcComponents[j];
+			for (int ip = 0; ip < body1.NP + 1; ip++)
+				component.set(ip, new Complex(re[ip], im[ip]));
 		}
-		
 		return s;
 	}
-	
+
+	/**
+	 * Blends a component of the bodies with the weights of the stencil into the buffers, which the caller can reuse
+	 * for other components and bodies.
+	 *
+	 * @param body1   the first spectrum of the stencil
+	 * @param body2   the second spectrum of the stencil
+	 * @param body3   the third spectrum of the stencil
+	 * @param stencil weights for the bodies
+	 * @param tensor  component to interpolate
+	 * @param re      [NP+1] buffer for the real parts
+	 * @param im      [NP+1] buffer for the imaginary parts
+	 */
+	static void interpolate(SPCBody body1, SPCBody body2, SPCBody body3, CatalogueStencil stencil,
+			SPCTensorComponent tensor, double[] re, double[] im) {
+		interpolate(body1, body2, body3, stencil, tensor.valueOf() - 1, re, im);
+	}
+
+	private static void interpolate(SPCBody body1, SPCBody body2, SPCBody body3, CatalogueStencil stencil,
+			int iComponent, double[] re, double[] im) {
+		double c1 = stencil.getW1();
+		double c2 = stencil.getW2();
+		double c3 = stencil.getW3();
+		Complex[] u1 = body1.spcComponents[iComponent].getValueInFrequencyDomain();
+		Complex[] u2 = body2.spcComponents[iComponent].getValueInFrequencyDomain();
+		Complex[] u3 = body3.spcComponents[iComponent].getValueInFrequencyDomain();
+		for (int ip = 0; ip < body1.NP + 1; ip++) {
+			re[ip] = u1[ip].getReal() * c1 + u2[ip].getReal() * c2 + u3[ip].getReal() * c3;
+			im[ip] = u1[ip].getImaginary() * c1 + u2[ip].getImaginary() * c2 + u3[ip].getImaginary() * c3;
+		}
+	}
+
+	/**
+	 * Copies a component into the buffers, as {@link #interpolate(SPCBody, SPCBody, SPCBody, CatalogueStencil,
+	 * SPCTensorComponent, double[], double[])} does for interpolated ones.
+	 *
+	 * @param tensor component to copy
+	 * @param re     [NP+1] buffer for the real parts
+	 * @param im     [NP+1] buffer for the imaginary parts
+	 */
+	void copyTo(SPCTensorComponent tensor, double[] re, double[] im) {
+		Complex[] u = getSpcComponent(tensor).getValueInFrequencyDomain();
+		for (int ip = 0; ip < NP + 1; ip++) {
+			re[ip] = u[ip].getReal();
+			im[ip] = u[ip].getImaginary();
+		}
+	}
+
 	/**
 	 * @param body1
 	 * @param body2
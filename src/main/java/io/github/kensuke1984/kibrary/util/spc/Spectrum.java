@@ -18,7 +18,7 @@ import io.github.kensuke1984.kibrary.util.Location;
 /**
  * Spectrum file by DSM.
  * 
- * @version 0.1.2
+ * @version 0.1.2.1
  * @author Kensuke Konishi
  * @author anselme add content for BP/FP catalog
  */
@@ -61,8 +61,9 @@ public class Spectrum implements DSMOutput {
 	 */
 	public static Spectrum interpolate(Spectrum bp1, Spectrum bp2, Spectrum bp3, double[] dh) {
 		Spectrum bp = bp1;
+		CatalogueStencil stencil = new CatalogueStencil(0, dh);
 		for (int ibody = 0; ibody < bp1.nbody; ibody++) {
-			SPCBody body = SPCBody.interpolate(bp1.spcBody.get(ibody), bp2.spcBody.get(ibody), bp3.spcBody.get(ibody), dh);
+			SPCBody body = SPCBody.interpolate(bp1.spcBody.get(ibody), bp2.spcBody.get(ibody), bp3.spcBody.get(ibody), stencil);
 			bp.spcBody.set(ibody, body);
 		}
 		
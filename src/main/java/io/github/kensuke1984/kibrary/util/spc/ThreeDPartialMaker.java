@@ -1,5 +1,6 @@
 package io.github.kensuke1984.kibrary.util.spc;
 
+import io.github.kensuke1984.kibrary.butterworth.ButterworthFilter;
 import io.github.kensuke1984.kibrary.datacorrection.SourceTimeFunction;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
 import io.github.kensuke1984.kibrary.util.Earth;
@@ -14,8 +15,10 @@ import org.apache.commons.math3.transform.TransformType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.math3.util.FastMath;
 
@@ -26,7 +29,7 @@ import org.apache.commons.math3.util.FastMath;
  * U<sub>j,q</sub> C<sub>jqrs</sub> &eta;<sub>ri,s</sub>
  *
  * @author Kensuke Konishi
- * @version 0.0.2.1
+ * @version 0.0.5.1
  */
 public class ThreeDPartialMaker {
 
@@ -43,10 +46,18 @@ public class ThreeDPartialMaker {
 	private DSMOutput bp2;
 	private DSMOutput bp3;
 	/**
-	 * distances for interpolation
+	 * stencils for interpolation of the BP and FP catalogues
 	 */
-	double[] dh;
-	double[] dhFP;
+	CatalogueStencil bpStencil;
+	CatalogueStencil fpStencil;
+	/**
+	 * real and imaginary parts of the (interpolated) fp [9][np+1] and bp [27][np+1] of a body, reused for all the
+	 * bodies by the serial methods, which thus must not be called concurrently on one instance
+	 */
+	private double[][] fpRe;
+	private double[][] fpIm;
+	private double[][] bpRe;
+	private double[][] bpIm;
 	/**
 	 * SACファイルにするときのサンプリング値 デフォルト20Hz
 	 */
@@ -65,6 +76,10 @@ public class ThreeDPartialMaker {
     private FujiConversion fujiConversion;
     private SourceTimeFunction sourceTimeFunction;
 	Set<Double> ignoreBodyR;
+	/**
+	 * [filter] &rarr; responses at the frequencies of the spectra for {@link #toTimeDomain}
+	 */
+	private final Map<ButterworthFilter, Complex[]> responseMap = new ConcurrentHashMap<>();
 
 	 /**
      * 用いたいspcファイルたちと ヘッダーに加えたい情報
@@ -83,7 +98,7 @@ public class ThreeDPartialMaker {
 		this.bp3 = null;
 		this.fp2 = null;
 		this.fp3 = null;
-		this.dh = null;
+		this.bpStencil = null;
 		findLsmooth();
 		setAngles();
 	}
@@ -94,10 +109,10 @@ public class ThreeDPartialMaker {
 	 * @param bp1
 	 * @param bp2
 	 * @param bp3
-	 * @param dh
+	 * @param bpStencil
 	 * @author anselme
 	 */
-	public ThreeDPartialMaker(DSMOutput fp, DSMOutput bp1, DSMOutput bp2, DSMOutput bp3, double[] dh) {
+	public ThreeDPartialMaker(DSMOutput fp, DSMOutput bp1, DSMOutput bp2, DSMOutput bp3, CatalogueStencil bpStencil) {
 		ignoreBodyR = new HashSet<>();
 		if (!isGoodPairPermissive(fp, bp1)) //isGoodPair
 			throw new RuntimeException("An input pair of forward and backward propagation is invalid.");
@@ -112,7 +127,7 @@ public class ThreeDPartialMaker {
 		this.bp = bp1;
 		this.bp2 = bp2;
 		this.bp3 = bp3;
-		this.dh = dh;
+		this.bpStencil = bpStencil;
 		findLsmooth();
 		setAngles();
 	}
@@ -127,11 +142,11 @@ public class ThreeDPartialMaker {
 	 * @param bp2PSV
 	 * @param bp3SH
 	 * @param bp3PSV
-	 * @param dh
+	 * @param bpStencil
 	 * @author anselme
 	 */
 	public ThreeDPartialMaker(DSMOutput fpSH, DSMOutput fpPSV, DSMOutput bp1SH,
-			DSMOutput bp1PSV, DSMOutput bp2SH, DSMOutput bp2PSV, DSMOutput bp3SH, DSMOutput bp3PSV, double[] dh) {
+			DSMOutput bp1PSV, DSMOutput bp2SH, DSMOutput bp2PSV, DSMOutput bp3SH, DSMOutput bp3PSV, CatalogueStencil bpStencil) {
 		ignoreBodyR = new HashSet<>();
 		if (!isGoodPairPermissive(fpSH, bp1SH)) //isGoodPair
 			throw new RuntimeException("An input pair of forward and backward propagation is invalid.");
@@ -166,7 +181,7 @@ public class ThreeDPartialMaker {
 		
 		this.fp2 = null;
 		this.fp3 = null;
-		this.dh = dh;
+		this.bpStencil = bpStencil;
 		findLsmooth();
 		setAngles();
 	}
@@ -180,11 +195,11 @@ public class ThreeDPartialMaker {
 	 * @param bp1
 	 * @param bp2
 	 * @param bp3
-	 * @param dhBP
-	 * @param dhFP
+	 * @param bpStencil
+	 * @param fpStencil
 	 * @author anselme
 	 */
-	public ThreeDPartialMaker(DSMOutput fp1, DSMOutput fp2, DSMOutput fp3, DSMOutput bp1, DSMOutput bp2, DSMOutput bp3, double[] dhBP, double[] dhFP) {
+	public ThreeDPartialMaker(DSMOutput fp1, DSMOutput fp2, DSMOutput fp3, DSMOutput bp1, DSMOutput bp2, DSMOutput bp3, CatalogueStencil bpStencil, CatalogueStencil fpStencil) {
 		ignoreBodyR = new HashSet<>();
 		if (!isGoodPairPermissive(fp1, bp1)) //isGoodPair
 			throw new RuntimeException("An input pair of forward and backward propagation is invalid.");
@@ -199,8 +214,8 @@ public class ThreeDPartialMaker {
 		this.bp = bp1;
 		this.bp2 = bp2;
 		this.bp3 = bp3;
-		this.dh = dhBP;
-		this.dhFP = dhFP;
+		this.bpStencil = bpStencil;
+		this.fpStencil = fpStencil;
 		findLsmooth();
 		setAngles();
 	}
@@ -220,12 +235,12 @@ public class ThreeDPartialMaker {
 	 * @param bp2SH
 	 * @param bp3PSV
 	 * @param bp3SH
-	 * @param dhBP
-	 * @param dhFP
+	 * @param bpStencil
+	 * @param fpStencil
 	 * @author anselme
 	 */
 	public ThreeDPartialMaker(DSMOutput fp1PSV, DSMOutput fp1SH, DSMOutput fp2PSV,  DSMOutput fp2SH, DSMOutput fp3PSV, DSMOutput fp3SH,
-			DSMOutput bp1PSV, DSMOutput bp1SH, DSMOutput bp2PSV, DSMOutput bp2SH, DSMOutput bp3PSV, DSMOutput bp3SH, double[] dhBP, double[] dhFP) {
+			DSMOutput bp1PSV, DSMOutput bp1SH, DSMOutput bp2PSV, DSMOutput bp2SH, DSMOutput bp3PSV, DSMOutput bp3SH, CatalogueStencil bpStencil, CatalogueStencil fpStencil) {
 		ignoreBodyR = new HashSet<>();
 		if (!isGoodPair(fp1SH, bp1SH)) //isGoodPair
 			throw new RuntimeException("An input pair of forward and backward propagation is invalid.");
@@ -265,8 +280,8 @@ public class ThreeDPartialMaker {
 			this.bp3.getSpcBodyList().get(i).addBody(body3);
 		}
 		
-		this.dh = dhBP;
-		this.dhFP = dhFP;
+		this.bpStencil = bpStencil;
+		this.fpStencil = fpStencil;
 		findLsmooth();
 		setAngles();
 	}
@@ -310,7 +325,7 @@ public class ThreeDPartialMaker {
 		this.bp3 = null;
 		this.fp2 = null;
 		this.fp3 = null;
-		this.dh = null;
+		this.bpStencil = null;
 		findLsmooth();
 		setAngles();
 	}
@@ -612,26 +627,155 @@ public class ThreeDPartialMaker {
 		if (fpR != bpR)
 			throw new RuntimeException("Unexpected: fp and bp rBody differ " + fpR + " " + bpR);
 		
-		long t1i = System.currentTimeMillis();
 		Complex[] partial_frequency = type == PartialType.Q ? computeQpartial(component, iBody)
 				: computeTensorCulculusSerial(component, iBody, iBody, type);
-		long t1f = System.currentTimeMillis();
-//		System.out.println("Tensor multiplication finished in " + (t1f - t1i)*1e-3 + " s");
-		
+		return toPartialSerial(partial_frequency);
+	}
+
+	/**
+	 * Partials for all the combinations of the types and the components at the body. They are the same as the ones by
+	 * {@link #createPartialSerial(SACComponent, int, PartialType)}, but the products of the tensors of the forward
+	 * and the back propagations are computed once for all the types and the components.
+	 *
+	 * @param components {@link SACComponent}s
+	 * @param iBody      index for SacBody
+	 * @param types      {@link PartialType}s
+	 * @return partials[i][j] for types[i] and components[j] in time domain
+	 */
+	public double[][][] createPartialsSerial(SACComponent[] components, int iBody, PartialType[] types) {
+		Complex[][][] spectra = createPartialsFrequencySerial(components, iBody, types);
+		double[][][] partials = new double[types.length][components.length][];
+		for (int i = 0; i < types.length; i++)
+			for (int j = 0; j < components.length; j++)
+				partials[i][j] = toRealTimeSeries(spectra[i][j]);
+		return partials;
+	}
+
+	/**
+	 * Spectra of the partials by {@link #createPartialsSerial(SACComponent[], int, PartialType[])} before the inverse
+	 * Fourier transform, i.e. the same as {@link #createPartialFrequencySerial(SACComponent, int, PartialType)} for
+	 * each of the types and the components.
+	 *
+	 * @param components {@link SACComponent}s
+	 * @param iBody      index for SacBody
+	 * @param types      {@link PartialType}s
+	 * @return spectra[i][j] for types[i] and components[j]
+	 */
+	public Complex[][][] createPartialsFrequencySerial(SACComponent[] components, int iBody, PartialType[] types) {
+		double bpR = bp.getBodyR()[iBody];
+		double fpR = fp.getBodyR()[iBody];
+		if (fpR != bpR)
+			throw new RuntimeException("Unexpected: fp and bp rBody differ " + fpR + " " + bpR);
+
+		PartialType[] tensorTypes = Arrays.stream(types).filter(type -> type != PartialType.Q).toArray(PartialType[]::new);
+		Complex[][][] tensorPartials = computeTensorCulculusSerial(components, iBody, iBody, tensorTypes);
+		Complex[][][] spectra = new Complex[types.length][components.length][];
+		for (int i = 0, itensor = 0; i < types.length; i++) {
+			Complex[][] partial_frequency = types[i] == PartialType.Q ? null : tensorPartials[itensor++];
+			for (int j = 0; j < components.length; j++)
+				spectra[i][j] = applySourceTimeFunctionSerial(
+						partial_frequency == null ? computeQpartial(components[j], iBody) : partial_frequency[j]);
+		}
+		return spectra;
+	}
+
+	/**
+	 * Samples u[from], u[from + step], ... of a partial in time domain filtered by the filter, computed directly
+	 * from the spectrum without the time series of the whole length.
+	 * <p>
+	 * The filter is applied in the frequency domain with its response at the complex frequencies of the growing
+	 * exponential, and each sample is a sum over the frequencies. It costs O(n &times; np) instead of the transform
+	 * of the whole length and the recursive filter on a cut time series, thus it is much faster for short windows in
+	 * long records. As the filter is not restarted at the start of a cut, the samples differ slightly from the ones by
+	 * the recursive filter near the edges of the window extended for the filter.
+	 *
+	 * @param spectrum by {@link #createPartialFrequencySerial(SACComponent, int, PartialType)}
+	 * @param filter   designed for the sampling of the time series
+	 * @param from     index of the first sample in the time series of the whole length
+	 * @param step     between the samples
+	 * @param n        the number of samples
+	 * @return filtered samples in time domain
+	 */
+	public double[] toTimeDomain(Complex[] spectrum, ButterworthFilter filter, int from, int step, int n) {
+		int nnp = fp.np() * lsmooth;
+		int nn = 2 * nnp;
+		int mmax = Math.min(fp.np(), nnp);
+		double x = bp.tlen() * fp.omegai() / npts;
+		double amplitude = npts * 1e3 / bp.tlen();
+		Complex[] response = responseOf(filter);
+		// filtered spectrum, doubled for the conjugate frequencies
+		double[] re = new double[mmax + 1];
+		double[] im = new double[mmax + 1];
+		for (int m = 0; m <= mmax; m++) {
+			Complex v = spectrum[m].multiply(response[m]);
+			double weight = m == 0 || m == nnp ? 1 : 2;
+			re[m] = weight * v.getReal();
+			im[m] = weight * v.getImaginary();
+		}
+		double[] samples = new double[n];
+		for (int j = 0; j < n; j++) {
+			int i = from + j * step;
+			double theta = 2 * Math.PI * (i % nn) / nn;
+			double zre = FastMath.cos(theta);
+			double zim = FastMath.sin(theta);
+			// Horner's rule for sum of v[m] z^m
+			double sre = re[mmax];
+			double sim = im[mmax];
+			for (int m = mmax - 1; m >= 0; m--) {
+				double tmp = sre * zre - sim * zim + re[m];
+				sim = sre * zim + sim * zre + im[m];
+				sre = tmp;
+			}
+			samples[j] = sre / nn * Math.exp(i * x) * amplitude;
+		}
+		return samples;
+	}
+
+	/**
+	 * @param filter designed for the sampling of the time series
+	 * @return responses of the filter at &omega;<sub>m</sub> - i&alpha; for m = 0, ..., np, where &alpha; is for the
+	 * growing exponential
+	 */
+	private Complex[] responseOf(ButterworthFilter filter) {
+		return responseMap.computeIfAbsent(filter, f -> {
+			int nn = 2 * fp.np() * lsmooth;
+			double x = bp.tlen() * fp.omegai() / npts;
+			Complex[] response = new Complex[fp.np() + 1];
+			for (int m = 0; m < response.length; m++)
+				response[m] = f.getFrequencyResponse(new Complex(2 * Math.PI * m / nn, -x));
+			return response;
+		});
+	}
+
+	/**
+	 * @param partial_frequency partial in frequency domain
+	 * @return partial after the source time function and the taper are applied
+	 */
+	private Complex[] applySourceTimeFunctionSerial(Complex[] partial_frequency) {
 		if (null != sourceTimeFunction)
 			partial_frequency = sourceTimeFunction.convolveSerial(partial_frequency);
 		
 		//test tapper
-		partial_frequency = rightTapper(partial_frequency); //TODO
-		
-		long t2i = System.currentTimeMillis();
+		return rightTapper(partial_frequency); //TODO
+	}
+
+	/**
+	 * @param partial_frequency partial in frequency domain
+	 * @return partial in time domain after the source time function and the taper are applied
+	 */
+	private double[] toPartialSerial(Complex[] partial_frequency) {
+		return toRealTimeSeries(applySourceTimeFunctionSerial(partial_frequency));
+	}
+
+	/**
+	 * @param partial_frequency partial in frequency domain
+	 * @return real part of the partial in time domain
+	 */
+	double[] toRealTimeSeries(Complex[] partial_frequency) {
 		Complex[] partial_time = toTimedomain(partial_frequency);
 		double[] partialdouble = new double[npts];
 		for (int j = 0; j < npts; j++)
 			partialdouble[j] = partial_time[j].getReal();
-		long t2f = System.currentTimeMillis();
-//		System.out.println("iFFt finished in " + (t2f - t2i)*1e-3 + " s");
-//		Arrays.stream(partial_time).mapToDouble(Complex::abs).toArray();
 		return partialdouble;
 	}
 	
@@ -649,19 +793,9 @@ public class ThreeDPartialMaker {
 		if (fpR != bpR)
 			throw new RuntimeException("Unexpected: fp and bp rBody differ " + fpR + " " + bpR);
 		
-		long t1i = System.currentTimeMillis();
 		Complex[] partial_frequency = type == PartialType.Q ? computeQpartial(component, iBody)
 				: computeTensorCulculusSerial(component, iBody, iBody, type);
-		long t1f = System.currentTimeMillis();
-//		System.out.println("Tensor multiplication finished in " + (t1f - t1i)*1e-3 + " s");
-		
-		if (null != sourceTimeFunction)
-			partial_frequency = sourceTimeFunction.convolveSerial(partial_frequency);
-		
-		//test tapper
-		partial_frequency = rightTapper(partial_frequency); //TODO
-		
-		return partial_frequency;
+		return applySourceTimeFunctionSerial(partial_frequency);
 	}
 
     /**
@@ -706,31 +840,9 @@ public class ThreeDPartialMaker {
 	 * @author anselme
 	 */
 	private Complex[] computeTensorCulculus(SACComponent component, int iBodyBp, int iBodyFp, PartialType type) {
-		SPCBody bpBody = null;
-		SPCBody fpBody = null;
-		if (bp2 == null) {
-			bpBody = bp.getSpcBodyList().get(iBodyBp);
-			fpBody = fp.getSpcBodyList().get(iBodyFp);
-//			System.err.println("No interpolation performed");
-//			System.out.println("DEBUG BP noInterp: " +  bpBody.getSpcComponents()[20].getValueInFrequencyDomain()[10]);
-		}
-		else if (fp2 == null) {
-			bpBody = SPCBody.interpolate(bp.getSpcBodyList().get(iBodyBp)
-					, bp2.getSpcBodyList().get(iBodyBp), bp3.getSpcBodyList().get(iBodyBp), dh);
-			fpBody = fp.getSpcBodyList().get(iBodyFp);
-//			System.out.println("DEBUG BP: " +  bpBody.getSpcComponents()[20].getValueInFrequencyDomain()[10]);
-		}
-		else {
-			bpBody = SPCBody.interpolate(bp.getSpcBodyList().get(iBodyBp)
-					, bp2.getSpcBodyList().get(iBodyBp), bp3.getSpcBodyList().get(iBodyBp), dh);
-			fpBody = SPCBody.interpolate(fp.getSpcBodyList().get(iBodyFp)
-					, fp2.getSpcBodyList().get(iBodyFp), fp3.getSpcBodyList().get(iBodyFp), dhFP);
-//			System.out.println("DEBUG BP: " +  bpBody.getSpcComponents()[20].getValueInFrequencyDomain()[10]);
-//			System.out.println("DEBUG FP: " +  fpBody.getSpcComponents()[8].getValueInFrequencyDomain()[10]);
-		}
-//		System.out.println(fp.getSpcBodyList().get(0).getSpcComponents()[8].getValueInFrequencyDomain()[10]);
-		TensorCalculationUCE tensorcalc = new TensorCalculationUCE(fpBody,
-				bpBody, type.getWeightingFactor(), angleForTensor);
+		SPCBody[] bodies = bodiesOf(iBodyBp, iBodyFp);
+		TensorCalculationUCE tensorcalc = new TensorCalculationUCE(bodies[0],
+				bodies[1], type.getWeightingFactor(), angleForTensor);
 		return component == SACComponent.Z ? tensorcalc.calc(0)
 				: rotatePartial(tensorcalc.calc(1), tensorcalc.calc(2), component);
 	}
@@ -744,6 +856,95 @@ public class ThreeDPartialMaker {
 	 * @author anselme
 	 */
 	private Complex[] computeTensorCulculusSerial(SACComponent component, int iBodyBp, int iBodyFp, PartialType type) {
+		return computeTensorCulculusSerial(new SACComponent[] { component }, iBodyBp, iBodyFp,
+				new PartialType[] { type })[0][0];
+	}
+
+	/**
+	 * compute tensor culculus of u Cijkl eta for the types and the components at once
+	 *
+	 * @param components {@link SACComponent}s
+	 * @param iBodyBp    index for the body of bp
+	 * @param iBodyFp    index for the body of fp
+	 * @param types      {@link PartialType}s (not Q)
+	 * @return uCe[i][j] for types[i] and components[j]
+	 */
+	private Complex[][][] computeTensorCulculusSerial(SACComponent[] components, int iBodyBp, int iBodyFp,
+			PartialType[] types) {
+		Complex[][][] partials = new Complex[types.length][components.length][];
+		if (types.length == 0)
+			return partials;
+		WeightingFactor[] factors = Arrays.stream(types).map(PartialType::getWeightingFactor)
+				.toArray(WeightingFactor[]::new);
+		FusedTensorCalculationUCE tensorcalc = fusedOf(iBodyBp, iBodyFp);
+		Complex[][] partialZ = null;
+		Complex[][] partial1 = null;
+		Complex[][] partial2 = null;
+		for (int j = 0; j < components.length; j++) {
+			if (components[j] == SACComponent.Z) {
+				if (partialZ == null)
+					partialZ = tensorcalc.calc(factors, 0);
+			} else if (partial1 == null) {
+				partial1 = tensorcalc.calc(factors, 1);
+				partial2 = tensorcalc.calc(factors, 2);
+			}
+			for (int i = 0; i < types.length; i++)
+				partials[i][j] = components[j] == SACComponent.Z ? partialZ[i]
+						: rotatePartial(partial1[i], partial2[i], components[j]);
+		}
+		return partials;
+	}
+
+	/**
+	 * Fills {@link #fpRe} and the other buffers with the bodies, interpolated if there are bp2 (and fp2), without
+	 * allocating them for each body.
+	 *
+	 * @param iBodyBp index for the body of bp
+	 * @param iBodyFp index for the body of fp
+	 * @return calculation on the buffers
+	 */
+	private FusedTensorCalculationUCE fusedOf(int iBodyBp, int iBodyFp) {
+		SPCBody fpBody = fp.getSpcBodyList().get(iBodyFp);
+		SPCBody bpBody = bp.getSpcBodyList().get(iBodyBp);
+		int np = fpBody.getNp();
+		if (fpRe == null || fpRe[0].length != np + 1) {
+			fpRe = new double[9][np + 1];
+			fpIm = new double[9][np + 1];
+			bpRe = new double[27][np + 1];
+			bpIm = new double[27][np + 1];
+		}
+		for (int p = 0; p < 3; p++)
+			for (int q = 0; q < 3; q++) {
+				SPCTensorComponent pq = SPCTensorComponent.valueOfFP(p + 1, q + 1);
+				int index = pq.valueOf() - 1;
+				if (fp2 == null)
+					fpBody.copyTo(pq, fpRe[index], fpIm[index]);
+				else
+					SPCBody.interpolate(fpBody, fp2.getSpcBodyList().get(iBodyFp), fp3.getSpcBodyList().get(iBodyFp),
+							fpStencil, pq, fpRe[index], fpIm[index]);
+			}
+		for (int i = 0; i < 3; i++)
+			for (int r = 0; r < 3; r++)
+				for (int s = 0; s < 3; s++) {
+					SPCTensorComponent irs = SPCTensorComponent.valueOfBP(i + 1, r + 1, s + 1);
+					int index = irs.valueOf() - 1;
+					if (bp2 == null)
+						bpBody.copyTo(irs, bpRe[index], bpIm[index]);
+					else
+						SPCBody.interpolate(bpBody, bp2.getSpcBodyList().get(iBodyBp),
+								bp3.getSpcBodyList().get(iBodyBp), bpStencil, irs, bpRe[index], bpIm[index]);
+				}
+		return new FusedTensorCalculationUCE(fpRe, fpIm, bpRe, bpIm, angleForTensor);
+	}
+
+	/**
+	 * Used for BP/FP catalog
+	 *
+	 * @param iBodyBp index for the body of bp
+	 * @param iBodyFp index for the body of fp
+	 * @return {fp body, bp body}, interpolated if there are bp2 (and fp2)
+	 */
+	private SPCBody[] bodiesOf(int iBodyBp, int iBodyFp) {
 		SPCBody bpBody = null;
 		SPCBody fpBody = null;
 		if (bp2 == null) {
@@ -754,23 +955,19 @@ public class ThreeDPartialMaker {
 		}
 		else if (fp2 == null) {
 			bpBody = SPCBody.interpolate(bp.getSpcBodyList().get(iBodyBp)
-					, bp2.getSpcBodyList().get(iBodyBp), bp3.getSpcBodyList().get(iBodyBp), dh);
+					, bp2.getSpcBodyList().get(iBodyBp), bp3.getSpcBodyList().get(iBodyBp), bpStencil);
 			fpBody = fp.getSpcBodyList().get(iBodyFp);
 //			System.out.println("DEBUG BP: " +  bpBody.getSpcComponents()[20].getValueInFrequencyDomain()[10]);
 		}
 		else {
 			bpBody = SPCBody.interpolate(bp.getSpcBodyList().get(iBodyBp)
-					, bp2.getSpcBodyList().get(iBodyBp), bp3.getSpcBodyList().get(iBodyBp), dh);
+					, bp2.getSpcBodyList().get(iBodyBp), bp3.getSpcBodyList().get(iBodyBp), bpStencil);
 			fpBody = SPCBody.interpolate(fp.getSpcBodyList().get(iBodyFp)
-					, fp2.getSpcBodyList().get(iBodyFp), fp3.getSpcBodyList().get(iBodyFp), dhFP);
+					, fp2.getSpcBodyList().get(iBodyFp), fp3.getSpcBodyList().get(iBodyFp), fpStencil);
 //			System.out.println("DEBUG BP: " +  bpBody.getSpcComponents()[20].getValueInFrequencyDomain()[10]);
 //			System.out.println("DEBUG FP: " +  fpBody.getSpcComponents()[8].getValueInFrequencyDomain()[10]);
 		}
-//		System.out.println(fp.getSpcBodyList().get(0).getSpcComponents()[8].getValueInFrequencyDomain()[10]);
-		TensorCalculationUCE tensorcalc = new TensorCalculationUCE(fpBody,
-				bpBody, type.getWeightingFactor(), angleForTensor);
-		return component == SACComponent.Z ? tensorcalc.calcSerial(0)
-				: rotatePartial(tensorcalc.calcSerial(1), tensorcalc.calcSerial(2), component);
+		return new SPCBody[]{fpBody, bpBody};
 	}
 	
 	/**
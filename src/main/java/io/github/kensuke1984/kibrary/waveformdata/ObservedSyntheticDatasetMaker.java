@@ -19,6 +19,7 @@ import io.github.kensuke1984.kibrary.math.Interpolation;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformation;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationFile;
 import io.github.kensuke1984.kibrary.util.EventFolder;
+import io.github.kensuke1984.kibrary.util.Pipeline;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Trace;
 import io.github.kensuke1984.kibrary.util.Utilities;
@@ -29,12 +30,11 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Creates dataset containing observed and synthetic waveforms. <br>
@@ -57,11 +57,16 @@ import java.util.stream.IntStream;
  * This class does not apply a digital filter, but extract information about
  * pass band written in SAC files.
  * <p>
+ * Pairs of SAC files go through a {@link Pipeline}; they are read by
+ * {@link #nReadThreads} threads, corrected and cut by {@link #nProcessThreads}
+ * threads, and written in order of events and file names. At most
+ * {@link #pipelineCapacity} pairs are in memory at a time.
+ * <p>
  * TODO <b> Assume that there are no stations with same name but different
  * network in one event</b>
  *
  * @author Kensuke Konishi
- * @version 0.2.3
+ * @version 0.2.4
  */
 /**
  * @author anselme
@@ -129,6 +134,25 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 	private Set<StaticCorrection> mantleCorrectionSet;
 	private Set<TimewindowInformation> timewindowInformationSet;
 	private Set<TimewindowInformation> timewindowRefInformationSet;
+	/**
+	 * (event, station name, component) &rarr; corrections, time windows
+	 */
+	private Map<String, List<StaticCorrection>> staticCorrectionMap;
+	private Map<String, List<StaticCorrection>> mantleCorrectionMap;
+	private Map<String, List<TimewindowInformation>> timewindowMap;
+	private Map<String, List<TimewindowInformation>> timewindowRefMap;
+	/**
+	 * the number of threads reading SAC files
+	 */
+	private int nReadThreads;
+	/**
+	 * the number of threads cutting windows
+	 */
+	private int nProcessThreads;
+	/**
+	 * the maximum number of pairs of SAC files in memory
+	 */
+	private int pipelineCapacity;
 	private Set<EventFolder> eventDirs;
 	private Set<Station> stationSet;
 	private Set<GlobalCMTID> idSet;
@@ -234,6 +258,12 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 			pw.println("##Add noise for synthetic test");
 			pw.println("#addNoise");
 			pw.println("#noisePower");
+			pw.println("##int number of threads reading SAC files (2)");
+			pw.println("#nReadThreads");
+			pw.println("##int number of threads cutting windows (the number of processors)");
+			pw.println("#nProcessThreads");
+			pw.println("##int maximum number of pairs of SAC files in memory (4 * nProcessThreads)");
+			pw.println("#pipelineCapacity");
 		}
 		System.err.println(outPath + " is created.");
 	}
@@ -274,6 +304,11 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 		if (!PROPERTY.containsKey("lowFreq")) PROPERTY.setProperty("lowFreq", "0.01");
 		if (!PROPERTY.containsKey("highFreq")) PROPERTY.setProperty("highFreq", "0.08");
 		if (!PROPERTY.containsKey("noisePower")) PROPERTY.setProperty("noisePower", "1");
+		if (!PROPERTY.containsKey("nReadThreads")) PROPERTY.setProperty("nReadThreads", "2");
+		if (!PROPERTY.containsKey("nProcessThreads"))
+			PROPERTY.setProperty("nProcessThreads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		if (!PROPERTY.containsKey("pipelineCapacity")) PROPERTY.setProperty("pipelineCapacity",
+				String.valueOf(4 * Integer.parseInt(PROPERTY.getProperty("nProcessThreads"))));
 	}
 
 	private void set() throws NoSuchFileException {
@@ -318,6 +353,9 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 		noisePower = Double.parseDouble(PROPERTY.getProperty("noisePower"));
 		System.out.println("Noise power: " + noisePower);
 		finalFreqSamplingHz = 8;
+		nReadThreads = Integer.parseInt(PROPERTY.getProperty("nReadThreads"));
+		nProcessThreads = Integer.parseInt(PROPERTY.getProperty("nProcessThreads"));
+		pipelineCapacity = Integer.parseInt(PROPERTY.getProperty("pipelineCapacity"));
 	}
 
 	private void readPeriodRanges() {
@@ -354,19 +392,24 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 					return true;
 				}).collect(Collectors.toSet());
 		
+		timewindowMap = timewindowInformationSet.stream().collect(Collectors.groupingBy(
+				tw -> keyOf(tw.getGlobalCMTID(), tw.getStation().getName(), tw.getComponent())));
+		
 		if (timeCorrection || amplitudeCorrection) {
 			Set<StaticCorrection> tmpset = StaticCorrectionFile.read(staticCorrectionPath);
 			staticCorrectionSet = tmpset.stream()
-					.filter(c -> timewindowInformationSet.parallelStream()
-							.map(t -> isPair_record.test(c, t)).distinct().collect(Collectors.toSet()).contains(true))
+					.filter(c -> timewindowMap.getOrDefault(keyOf(c), Collections.emptyList()).stream()
+							.anyMatch(t -> isPair_record.test(c, t)))
 					.collect(Collectors.toSet());
+			staticCorrectionMap = staticCorrectionSet.stream().collect(Collectors.groupingBy(this::keyOf));
 			
 			// average amplitude correction
 			amplitudeCorrEventMap = new HashMap<>();
-			for (GlobalCMTID event : staticCorrectionSet.stream().map(s -> s.getGlobalCMTID()).collect(Collectors.toSet())) {
+			Map<GlobalCMTID, Set<StaticCorrection>> eventCorrsMap = staticCorrectionSet.stream()
+					.collect(Collectors.groupingBy(StaticCorrection::getGlobalCMTID, Collectors.toSet()));
+			for (GlobalCMTID event : eventCorrsMap.keySet()) {
 				double avgCorr = 0;
-				Set<StaticCorrection> eventCorrs = staticCorrectionSet.stream()
-						.filter(s -> s.getGlobalCMTID().equals(event)).collect(Collectors.toSet());
+				Set<StaticCorrection> eventCorrs = eventCorrsMap.get(event);
 				for (StaticCorrection corr : eventCorrs)
 					avgCorr += corr.getAmplitudeRatio();
 				avgCorr /= eventCorrs.size();
@@ -377,6 +420,7 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 		if (correctMantle) {
 			System.out.println("Using mantle corrections");
 			mantleCorrectionSet = StaticCorrectionFile.read(mantleCorrectionPath);
+			mantleCorrectionMap = mantleCorrectionSet.stream().collect(Collectors.groupingBy(this::keyOf));
 		}
 
 		// obsDirからイベントフォルダを指定
@@ -390,6 +434,9 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 						return false;
 					return true;
 				}).collect(Collectors.toSet());
+		if (timewindowRefInformationSet != null)
+			timewindowRefMap = timewindowRefInformationSet.stream().collect(Collectors.groupingBy(
+					tw -> keyOf(tw.getGlobalCMTID(), tw.getStation().getName(), tw.getComponent())));
 		
 		stationSet = timewindowInformationSet.stream().map(TimewindowInformation::getStation)
 				.collect(Collectors.toSet());
@@ -400,9 +447,8 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 		
 		readPeriodRanges();
 		
-		int n = Runtime.getRuntime().availableProcessors();
-		System.out.println("Running on " + n + " processors");
-		ExecutorService execs = Executors.newFixedThreadPool(n);
+		System.out.println("Running " + nReadThreads + " threads for reading and " + nProcessThreads
+				+ " threads for cutting");
 		String dateStr = Utilities.getTemporaryString();
 		Path waveIDPath = null;
 		Path waveformPath = null;
@@ -443,11 +489,8 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 			spcImWriter = new WaveformDataWriter(spcImIDPath, spcImPath,
 					stationSet, idSet, periodRanges, phases);
 			dataWriter = bdw;
-			for (EventFolder eventDir : eventDirs)
-				execs.execute(new Worker(eventDir));
-			execs.shutdown();
-			while (!execs.isTerminated())
-				Thread.sleep(1000);
+			new Pipeline<SACPair, SACPair, List<BasicID[]>>("read", this::read, nReadThreads, "cut", this::cut,
+					nProcessThreads, "write", this::write, pipelineCapacity).run(pairs());
 			envelopeWriter.close();
 			hyWriter.close();
 			spcAmpWriter.close();
@@ -459,8 +502,20 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 		}
 	}
 	
+	private static String keyOf(GlobalCMTID id, String stationName, SACComponent component) {
+		return id + " " + stationName + " " + component;
+	}
+	
+	private String keyOf(StaticCorrection correction) {
+		return keyOf(correction.getGlobalCMTID(), correction.getStation().getName(), correction.getComponent());
+	}
+	
+	private static String keyOf(TimewindowInformation window) {
+		return keyOf(window.getGlobalCMTID(), window.getStation().getName(), window.getComponent());
+	}
+	
 	private StaticCorrection getStaticCorrection(TimewindowInformation window) {
-		List<StaticCorrection> corrs = staticCorrectionSet.stream().filter(s -> isPair_record.test(s, window)).collect(Collectors.toList());
+		List<StaticCorrection> corrs = staticCorrectionMap.getOrDefault(keyOf(window), Collections.emptyList()).stream().filter(s -> isPair_record.test(s, window)).collect(Collectors.toList());
 		if (corrs.size() > 1)
 			throw new RuntimeException("Found more than 1 static correction for window " + window);
 		if (corrs.size() == 0)
@@ -473,7 +528,7 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 	 * @return
 	 */
 	private StaticCorrection getMantleCorrection(TimewindowInformation window) {
-		List<StaticCorrection> corrs = mantleCorrectionSet.stream().filter(s -> isPair_record.test(s, window)).collect(Collectors.toList());
+		List<StaticCorrection> corrs = mantleCorrectionMap.getOrDefault(keyOf(window), Collections.emptyList()).stream().filter(s -> isPair_record.test(s, window)).collect(Collectors.toList());
 		if (corrs.size() > 1)
 			throw new RuntimeException("Found more than 1 mantle correction for window " + window);
 		if (corrs.size() == 0)
@@ -667,259 +722,289 @@ public class ObservedSyntheticDatasetMaker implements Operation {
 	}
 
 	/**
-	 * 与えられたイベントフォルダの観測波形と理論波形を書き込む 両方ともが存在しないと書き込まない
+	 * @return pairs of observed and synthetic SAC files with time windows in order of events and file names
 	 */
-	private class Worker implements Runnable {
-
-		private EventFolder OBS_EVENT_DIR;
-
-		private Worker(EventFolder eventDir) {
-			OBS_EVENT_DIR = eventDir;
-		}
-
-		@Override
-		public void run() {
-			Path synEventPath = synPath.resolve(OBS_EVENT_DIR.getGlobalCMTID().toString());
-			if (!Files.exists(synEventPath))
-				throw new RuntimeException(synEventPath + " does not exist.");
-
+	private Iterator<SACPair> pairs() {
+		return eventDirs.stream().sorted(Comparator.comparing(EventFolder::getGlobalCMTID)).flatMap(eventDir -> {
+			Path synEventPath = synPath.resolve(eventDir.getGlobalCMTID().toString());
+			if (!Files.exists(synEventPath)) {
+				System.err.println(synEventPath + " does not exist.");
+				return Stream.empty();
+			}
 			Set<SACFileName> obsFiles;
 			try {
-				(obsFiles = OBS_EVENT_DIR.sacFileSet()).removeIf(sfn -> !sfn.isOBS());
-			} catch (IOException e2) {
-				e2.printStackTrace();
-				return;
+				obsFiles = eventDir.sacFileSet();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return Stream.empty();
 			}
+			return obsFiles.stream().filter(SACFileName::isOBS)
+					// データセットに含める成分かどうか
+					.filter(obsFileName -> components.contains(obsFileName.getComponent()))
+					.sorted(Comparator.comparing(SACFileName::getName)).map(obsFileName -> {
+						String stationName = obsFileName.getStationName();
+						GlobalCMTID id = obsFileName.getGlobalCMTID();
+						SACComponent component = obsFileName.getComponent();
+						List<TimewindowInformation> windows = timewindowMap
+								.getOrDefault(keyOf(id, stationName, component), Collections.emptyList());
+						// タイムウインドウの情報が入っていなければ次へ
+						if (windows.isEmpty())
+							return null;
+						String name = convolute
+								? stationName + "." + id + "." + SACExtension.valueOfConvolutedSynthetic(component)
+								: stationName + "." + id + "." + SACExtension.valueOfSynthetic(component);
+						return new SACPair(obsFileName, new SACFileName(synEventPath.resolve(name)), windows);
+					}).filter(Objects::nonNull);
+		}).iterator();
+	}
 
-			for (SACFileName obsFileName : obsFiles) {
-				// データセットに含める成分かどうか
-				if (!components.contains(obsFileName.getComponent())) continue;
-				String stationName = obsFileName.getStationName();
-				GlobalCMTID id = obsFileName.getGlobalCMTID();
-				SACComponent component = obsFileName.getComponent();
-				String name = convolute
-						? stationName + "." + id + "." + SACExtension.valueOfConvolutedSynthetic(component)
-						: stationName + "." + id + "." + SACExtension.valueOfSynthetic(component);
-				SACFileName synFileName = new SACFileName(synEventPath.resolve(name));
-
-				if (!synFileName.exists()) continue;
-
-				Set<TimewindowInformation> windows = timewindowInformationSet.stream()
-						.filter(info -> info.getStation().getName().equals(stationName))
-						.filter(info -> info.getGlobalCMTID().equals(id))
-						.filter(info -> info.getComponent() == component).collect(Collectors.toSet());
+	/**
+	 * The first stage of the pipeline: reads SAC files of the pair.
+	 *
+	 * @return the pair with the data, or null if there is no synthetic.
+	 */
+	private SACPair read(SACPair pair) throws IOException {
+		if (!pair.synFileName.exists())
+			return null;
+		pair.obsSac = pair.obsFileName.read();
+		pair.synSac = pair.synFileName.read();
+		return pair;
+	}
 
-				// タイムウインドウの情報が入っていなければ次へ
-				if (windows.isEmpty()) continue;
-				
-				SACData obsSac;
-				try {
-					obsSac = obsFileName.read();
-				} catch (IOException e1) {
-					System.err.println("error occured in reading " + obsFileName);
-					e1.printStackTrace();
-					continue;
-				}
+	/**
+	 * The second stage of the pipeline: applies corrections to the pair and cuts the windows.
+	 *
+	 * @return obs, syn, obsEnvelope, synEnvelope, obsHy, synHy, obsSpcAmp, synSpcAmp, obsSpcRe, synSpcRe, obsSpcIm,
+	 * synSpcIm for each window, or null if the pair is invalid
+	 */
+	private List<BasicID[]> cut(SACPair pair) {
+		SACData obsSac = pair.obsSac;
+		SACData synSac = pair.synSac;
+		// Sampling Hz of observed and synthetic must be same as the
+		// value declared in the input file
+		if (obsSac.getValue(SACHeaderEnum.DELTA) != 1 / sacSamplingHz
+				&& obsSac.getValue(SACHeaderEnum.DELTA) == synSac.getValue(SACHeaderEnum.DELTA)) {
+			System.err.println("Values of sampling Hz of observed and synthetic "
+					+ (1 / obsSac.getValue(SACHeaderEnum.DELTA)) + ", "
+					+ (1 / synSac.getValue(SACHeaderEnum.DELTA)) + " are invalid, they should be "
+					+ sacSamplingHz);
+			return null;
+		}
 
-				SACData synSac;
-				try {
-					synSac = synFileName.read();
-				} catch (IOException e1) {
-					System.err.println("error occured in reading " + synFileName);
-					e1.printStackTrace();
-					continue;
-				}
+		// bandpassの読み込み 観測波形と理論波形とで違えばスキップ
+		if (obsSac.getValue(SACHeaderEnum.USER0) != synSac.getValue(SACHeaderEnum.USER0)
+				|| obsSac.getValue(SACHeaderEnum.USER1) != synSac.getValue(SACHeaderEnum.USER1)) {
+			System.err.println("band pass filter difference");
+			return null;
+		}
+		double minPeriod = obsSac.getValue(SACHeaderEnum.USER0) == -12345 ? 0 : obsSac.getValue(SACHeaderEnum.USER0);
+		double maxPeriod = obsSac.getValue(SACHeaderEnum.USER1) == -12345 ? 0 : obsSac.getValue(SACHeaderEnum.USER1);
+
+		List<BasicID[]> ids = new ArrayList<>();
+		for (TimewindowInformation window : pair.windows) {
+			BasicID[] windowIDs = cut(pair, window, minPeriod, maxPeriod);
+			if (windowIDs != null)
+				ids.add(windowIDs);
+		}
+		// SAC data are not needed any more
+		pair.obsSac = null;
+		pair.synSac = null;
+		return ids;
+	}
 
-				// Sampling Hz of observed and synthetic must be same as the
-				// value declared in the input file
-				if (obsSac.getValue(SACHeaderEnum.DELTA) != 1 / sacSamplingHz
-						&& obsSac.getValue(SACHeaderEnum.DELTA) == synSac.getValue(SACHeaderEnum.DELTA)) {
-					System.err.println("Values of sampling Hz of observed and synthetic "
-							+ (1 / obsSac.getValue(SACHeaderEnum.DELTA)) + ", "
-							+ (1 / synSac.getValue(SACHeaderEnum.DELTA)) + " are invalid, they should be "
-							+ sacSamplingHz);
-					continue;
-				}
+	private BasicID[] cut(SACPair pair, TimewindowInformation window, double minPeriod, double maxPeriod) {
+		SACData obsSac = pair.obsSac;
+		SACData synSac = pair.synSac;
+		Station station = obsSac.getStation();
+		GlobalCMTID id = pair.obsFileName.getGlobalCMTID();
+		SACComponent component = pair.obsFileName.getComponent();
+		int npts = (int) ((window.getEndTime() - window.getStartTime()) * finalSamplingHz);
+		if (window.getEndTime() > synSac.getValue(SACHeaderEnum.E) - 10) return null;
+		double startTime = window.getStartTime();
+		double shift = 0;
+		double ratio = 1;
+		if (timeCorrection || amplitudeCorrection)
+			try {
+				StaticCorrection sc = getStaticCorrection(window);
+				shift = timeCorrection ? sc.getTimeshift() : 0;
+//						ratio = amplitudeCorrection ? sc.getAmplitudeRatio() : 1;
+				ratio = amplitudeCorrection ? sc.getAmplitudeRatio() : amplitudeCorrEventMap.get(window.getGlobalCMTID());
+			} catch (NoSuchElementException e) {
+				System.err.println("There is no static correction information for\\n " + window);
+				return null;
+			}
+		
+		if (correctMantle)
+			try {
+				StaticCorrection sc = getMantleCorrection(window);
+				shift += sc.getTimeshift();
+			} catch (NoSuchElementException e) {
+				System.err.println("There is no mantle correction information for\\n " + window);
+				return null;
+			}
+		
+		TimewindowInformation windowRef = null;
+		int nptsRef = 0;
+		if (timewindowRefInformationSet != null) {
+			List<TimewindowInformation> tmpwindows = timewindowRefMap.getOrDefault(keyOf(window), Collections.emptyList())
+					.stream().filter(tw -> tw.getStation().equals(window.getStation())).collect(Collectors.toList());
+			if (tmpwindows.size() != 1) {
+				System.err.println("Reference timewindow does not exist " + window);
+				return null;
+			}
+			else 
+				windowRef = tmpwindows.get(0); 
+			
+			nptsRef = (int) ((windowRef.getEndTime() - windowRef.getStartTime()) * finalSamplingHz);
+		}
+		
+		double[] obsData = null;
+		if (addNoise)
+			obsData = cutDataSacAddNoise(obsSac, startTime - shift, npts);
+		else
+			obsData = cutDataSac(obsSac, startTime - shift, npts);
+		double[] synData = cutDataSac(synSac, startTime, npts);
+
+		double[] obsEnvelope = cutEnvelopeSac(obsSac, startTime - shift, npts);
+		double[] synEnvelope = cutEnvelopeSac(synSac, startTime, npts);
+		
+		double[] obsHy = cutHySac(obsSac, startTime - shift, npts);
+		double[] synHy = cutHySac(synSac, startTime, npts);
+		
+		Trace obsSpcAmpTrace = null;
+		Trace synSpcAmpTrace = null;
+		
+		if (addNoise) {
+			obsSpcAmpTrace = cutSpcAmpSacAddNoise(obsSac, startTime - shift, npts);
+			synSpcAmpTrace = cutSpcAmpSac(synSac, startTime, npts);
+		}
+		else {
+			obsSpcAmpTrace = cutSpcAmpSac(obsSac, startTime - shift, npts);
+			synSpcAmpTrace = cutSpcAmpSac(synSac, startTime, npts);
+		}
+		
+		Complex[] obsFy = cutSpcFySac(obsSac, startTime - shift, npts);
+		Complex[] synFy = cutSpcFySac(synSac, startTime, npts);
+		
+		double[] obsSpcRe = Arrays.stream(obsFy).mapToDouble(Complex::getReal).toArray();
+		double[] synSpcRe = Arrays.stream(synFy).mapToDouble(Complex::getReal).toArray();
+		
+		double[] obsSpcIm = Arrays.stream(obsFy).mapToDouble(Complex::getImaginary).toArray();
+		double[] synSpcIm = Arrays.stream(synFy).mapToDouble(Complex::getImaginary).toArray();
+		
+		double[] obsSpcAmp = null;
+		double[] synSpcAmp = null;
+		
+		Trace refObsSpcAmpTrace = null;
+		Trace refSynSpcAmpTrace = null;
+		if (windowRef != null) {
+			if (addNoise) {
+				refObsSpcAmpTrace = cutSpcAmpSacAddNoise(obsSac, windowRef.getStartTime(), nptsRef);
+				refSynSpcAmpTrace = cutSpcAmpSac(synSac, windowRef.getStartTime(), nptsRef);
+			}
+			else {
+				refObsSpcAmpTrace = cutSpcAmpSac(obsSac, windowRef.getStartTime(), nptsRef);
+				refSynSpcAmpTrace = cutSpcAmpSac(synSac, windowRef.getStartTime(), nptsRef);
+			}
+			
+			if (amplitudeCorrection) {
+				obsSpcAmp = correctSpcAmp(obsSpcAmpTrace, refObsSpcAmpTrace);
+				synSpcAmp = correctSpcAmp(synSpcAmpTrace, refSynSpcAmpTrace);
+			}
+			else {
+				obsSpcAmp = obsSpcAmpTrace.getY();
+				synSpcAmp = synSpcAmpTrace.getY();
+				double corrratio = amplitudeCorrEventMap.get(window.getGlobalCMTID());
+				obsSpcAmp = Arrays.stream(obsSpcAmp).map(d -> d - Math.log(corrratio)).toArray();
+			}
+		}
+		else {
+			obsSpcAmp = obsSpcAmpTrace.getY();
+			synSpcAmp = synSpcAmpTrace.getY();
+		}
+		
+		double correctionRatio = ratio;
+		
+		Phase[] includePhases = window.getPhases();
+		
+		obsData = Arrays.stream(obsData).map(d -> d / correctionRatio).toArray();
+		BasicID synID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, npts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, synData);
+		BasicID obsID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, npts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, obsData);
+		
+		obsEnvelope = Arrays.stream(obsEnvelope).map(d -> d / correctionRatio).toArray();
+		BasicID synEnvelopeID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, npts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, synEnvelope);
+		BasicID obsEnvelopeID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, npts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, obsEnvelope);
+		
+		obsHy = Arrays.stream(obsHy).map(d -> d / correctionRatio).toArray();
+		BasicID synHyID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, npts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, synHy);
+		BasicID obsHyID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, npts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, obsHy);
+		
+		int fnpts = synSpcAmp.length;
+		
+		BasicID synSpcAmpID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, fnpts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, synSpcAmp);
+		BasicID obsSpcAmpID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, fnpts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, obsSpcAmp);
+		
+		BasicID synSpcReID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, fnpts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, synSpcRe);
+		BasicID obsSpcReID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, fnpts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, obsSpcRe);
+		
+		BasicID synSpcImID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, fnpts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, synSpcIm);
+		BasicID obsSpcImID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, fnpts, station, id,
+				component, minPeriod, maxPeriod, includePhases, 0, convolute, obsSpcIm);
+		return new BasicID[]{obsID, synID, obsEnvelopeID, synEnvelopeID, obsHyID, synHyID, obsSpcAmpID, synSpcAmpID,
+				obsSpcReID, synSpcReID, obsSpcImID, synSpcImID};
+	}
 
-				// bandpassの読み込み 観測波形と理論波形とで違えばスキップ
-				double minPeriod = 0;
-				double maxPeriod = Double.POSITIVE_INFINITY;
-				if (obsSac.getValue(SACHeaderEnum.USER0) != synSac.getValue(SACHeaderEnum.USER0)
-						|| obsSac.getValue(SACHeaderEnum.USER1) != synSac.getValue(SACHeaderEnum.USER1)) {
-					System.err.println("band pass filter difference");
-					continue;
-				}
-				minPeriod = obsSac.getValue(SACHeaderEnum.USER0) == -12345 ? 0 : obsSac.getValue(SACHeaderEnum.USER0);
-				maxPeriod = obsSac.getValue(SACHeaderEnum.USER1) == -12345 ? 0 : obsSac.getValue(SACHeaderEnum.USER1);
+	/**
+	 * The sink of the pipeline: writes the windows of a pair.
+	 */
+	private void write(List<BasicID[]> ids) throws IOException {
+		for (BasicID[] windowIDs : ids) {
+			dataWriter.addBasicID(windowIDs[0]);
+			dataWriter.addBasicID(windowIDs[1]);
+			envelopeWriter.addBasicID(windowIDs[2]);
+			envelopeWriter.addBasicID(windowIDs[3]);
+			hyWriter.addBasicID(windowIDs[4]);
+			hyWriter.addBasicID(windowIDs[5]);
+			spcAmpWriter.addBasicID(windowIDs[6]);
+			spcAmpWriter.addBasicID(windowIDs[7]);
+			spcReWriter.addBasicID(windowIDs[8]);
+			spcReWriter.addBasicID(windowIDs[9]);
+			spcImWriter.addBasicID(windowIDs[10]);
+			spcImWriter.addBasicID(windowIDs[11]);
+			numberOfPairs.incrementAndGet();
+		}
+	}
 
-				Station station = obsSac.getStation();
+	/**
+	 * 観測波形と理論波形のペア 両方ともが存在しないと書き込まない
+	 */
+	private static class SACPair {
+		private final SACFileName obsFileName;
+		private final SACFileName synFileName;
+		private final List<TimewindowInformation> windows;
+		private SACData obsSac;
+		private SACData synSac;
 
-				for (TimewindowInformation window : windows) {
-					int npts = (int) ((window.getEndTime() - window.getStartTime()) * finalSamplingHz);
-					if (window.getEndTime() > synSac.getValue(SACHeaderEnum.E) - 10) continue;
-					double startTime = window.getStartTime();
-					double shift = 0;
-					double ratio = 1;
-					if (timeCorrection || amplitudeCorrection)
-						try {
-							StaticCorrection sc = getStaticCorrection(window);
-							shift = timeCorrection ? sc.getTimeshift() : 0;
-//							ratio = amplitudeCorrection ? sc.getAmplitudeRatio() : 1;
-							ratio = amplitudeCorrection ? sc.getAmplitudeRatio() : amplitudeCorrEventMap.get(window.getGlobalCMTID());
-						} catch (NoSuchElementException e) {
-							System.err.println("There is no static correction information for\\n " + window);
-							continue;
-						}
-					
-					if (correctMantle)
-						try {
-							StaticCorrection sc = getMantleCorrection(window);
-							shift += sc.getTimeshift();
-						} catch (NoSuchElementException e) {
-							System.err.println("There is no mantle correction information for\\n " + window);
-							continue;
-						}
-					
-					TimewindowInformation windowRef = null;
-					int nptsRef = 0;
-					if (timewindowRefInformationSet != null) {
-						List<TimewindowInformation> tmpwindows = timewindowRefInformationSet.stream().filter(tw -> tw.getGlobalCMTID().equals(window.getGlobalCMTID())
-								&& tw.getStation().equals(window.getStation())
-								&& tw.getComponent().equals(window.getComponent())).collect(Collectors.toList());
-						if (tmpwindows.size() != 1) {
-							System.err.println("Reference timewindow does not exist " + window);
-							continue;
-						}
-						else 
-							windowRef = tmpwindows.get(0); 
-						
-						nptsRef = (int) ((windowRef.getEndTime() - windowRef.getStartTime()) * finalSamplingHz);
-					}
-					
-					double[] obsData = null;
-					if (addNoise)
-						obsData = cutDataSacAddNoise(obsSac, startTime - shift, npts);
-					else
-						obsData = cutDataSac(obsSac, startTime - shift, npts);
-					double[] synData = cutDataSac(synSac, startTime, npts);
+		private SACPair(SACFileName obsFileName, SACFileName synFileName, List<TimewindowInformation> windows) {
+			this.obsFileName = obsFileName;
+			this.synFileName = synFileName;
+			this.windows = windows;
+		}
 
-					double[] obsEnvelope = cutEnvelopeSac(obsSac, startTime - shift, npts);
-					double[] synEnvelope = cutEnvelopeSac(synSac, startTime, npts);
-					
-					double[] obsHy = cutHySac(obsSac, startTime - shift, npts);
-					double[] synHy = cutHySac(synSac, startTime, npts);
-					
-					Trace obsSpcAmpTrace = null;
-					Trace synSpcAmpTrace = null;
-					
-					if (addNoise) {
-						obsSpcAmpTrace = cutSpcAmpSacAddNoise(obsSac, startTime - shift, npts);
-						synSpcAmpTrace = cutSpcAmpSac(synSac, startTime, npts);
-					}
-					else {
-						obsSpcAmpTrace = cutSpcAmpSac(obsSac, startTime - shift, npts);
-						synSpcAmpTrace = cutSpcAmpSac(synSac, startTime, npts);
-					}
-					
-					Complex[] obsFy = cutSpcFySac(obsSac, startTime - shift, npts);
-					Complex[] synFy = cutSpcFySac(synSac, startTime, npts);
-					
-					double[] obsSpcRe = Arrays.stream(obsFy).mapToDouble(Complex::getReal).toArray();
-					double[] synSpcRe = Arrays.stream(synFy).mapToDouble(Complex::getReal).toArray();
-					
-					double[] obsSpcIm = Arrays.stream(obsFy).mapToDouble(Complex::getImaginary).toArray();
-					double[] synSpcIm = Arrays.stream(synFy).mapToDouble(Complex::getImaginary).toArray();
-					
-					double[] obsSpcAmp = null;
-					double[] synSpcAmp = null;
-					
-					Trace refObsSpcAmpTrace = null;
-					Trace refSynSpcAmpTrace = null;
-					if (windowRef != null) {
-						if (addNoise) {
-							refObsSpcAmpTrace = cutSpcAmpSacAddNoise(obsSac, windowRef.getStartTime(), nptsRef);
-							refSynSpcAmpTrace = cutSpcAmpSac(synSac, windowRef.getStartTime(), nptsRef);
-						}
-						else {
-							refObsSpcAmpTrace = cutSpcAmpSac(obsSac, windowRef.getStartTime(), nptsRef);
-							refSynSpcAmpTrace = cutSpcAmpSac(synSac, windowRef.getStartTime(), nptsRef);
-						}
-						
-						if (amplitudeCorrection) {
-							obsSpcAmp = correctSpcAmp(obsSpcAmpTrace, refObsSpcAmpTrace);
-							synSpcAmp = correctSpcAmp(synSpcAmpTrace, refSynSpcAmpTrace);
-						}
-						else {
-							obsSpcAmp = obsSpcAmpTrace.getY();
-							synSpcAmp = synSpcAmpTrace.getY();
-							double corrratio = amplitudeCorrEventMap.get(window.getGlobalCMTID());
-							obsSpcAmp = Arrays.stream(obsSpcAmp).map(d -> d - Math.log(corrratio)).toArray();
-						}
-					}
-					else {
-						obsSpcAmp = obsSpcAmpTrace.getY();
-						synSpcAmp = synSpcAmpTrace.getY();
-					}
-					
-					double correctionRatio = ratio;
-					
-					Phase[] includePhases = window.getPhases();
-					
-					obsData = Arrays.stream(obsData).map(d -> d / correctionRatio).toArray();
-					BasicID synID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, npts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, synData);
-					BasicID obsID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, npts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, obsData);
-					
-					obsEnvelope = Arrays.stream(obsEnvelope).map(d -> d / correctionRatio).toArray();
-					BasicID synEnvelopeID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, npts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, synEnvelope);
-					BasicID obsEnvelopeID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, npts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, obsEnvelope);
-					
-					obsHy = Arrays.stream(obsHy).map(d -> d / correctionRatio).toArray();
-					BasicID synHyID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, npts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, synHy);
-					BasicID obsHyID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, npts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, obsHy);
-					
-					int fnpts = synSpcAmp.length;
-					
-					BasicID synSpcAmpID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, fnpts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, synSpcAmp);
-					BasicID obsSpcAmpID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, fnpts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, obsSpcAmp);
-					
-					BasicID synSpcReID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, fnpts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, synSpcRe);
-					BasicID obsSpcReID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, fnpts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, obsSpcRe);
-					
-					BasicID synSpcImID = new BasicID(WaveformType.SYN, finalSamplingHz, startTime, fnpts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, synSpcIm);
-					BasicID obsSpcImID = new BasicID(WaveformType.OBS, finalSamplingHz, startTime - shift, fnpts, station, id,
-							component, minPeriod, maxPeriod, includePhases, 0, convolute, obsSpcIm);
-					
-					try {
-						dataWriter.addBasicID(obsID);
-						dataWriter.addBasicID(synID);
-						envelopeWriter.addBasicID(obsEnvelopeID);
-						envelopeWriter.addBasicID(synEnvelopeID);
-						hyWriter.addBasicID(obsHyID);
-						hyWriter.addBasicID(synHyID);
-						spcAmpWriter.addBasicID(obsSpcAmpID);
-						spcAmpWriter.addBasicID(synSpcAmpID);
-						spcReWriter.addBasicID(obsSpcReID);
-						spcReWriter.addBasicID(synSpcReID);
-						spcImWriter.addBasicID(obsSpcImID);
-						spcImWriter.addBasicID(synSpcImID);
-						numberOfPairs.incrementAndGet();
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-			}
-			System.err.print(".");
+		@Override
+		public String toString() {
+			return obsFileName.toString();
 		}
 	}
 	
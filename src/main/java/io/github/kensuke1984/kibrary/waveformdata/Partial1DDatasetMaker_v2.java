@@ -10,12 +10,14 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
@@ -65,8 +67,12 @@ import io.github.kensuke1984.kibrary.util.spc.VSConversion;
  * 
  * <b>Assume there are no station with the same name but different networks in
  * same events</b> TODO
+ * <p>
+ * If checkpointPath is set, completed events are recorded in a {@link PartialCheckpoint} in the folder. A run
+ * with the same folder skips them and writes the partials of all the runs in one file. Events with any failure
+ * (e.g. a missing or broken file) are not recorded and are computed again.
  * 
- * @version 0.2.0.3
+ * @version 0.2.1.1
  * 
  * @author Kensuke Konishi
  * 
@@ -120,6 +126,8 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 			pw.println("#timePartialPath");
 			pw.println("##Polynomial structure file (leave blank if PREM)");
 			pw.println("#ps");
+			pw.println("##Path of a folder to record completed events. A run with the same folder resumes. (no checkpoint)");
+			pw.println("#checkpointPath");
 		}
 		System.err.println(outPath + " is created.");
 	}
@@ -130,6 +138,11 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 	
 	private Path timePartialPath;
 
+	/**
+	 * folder for a {@link PartialCheckpoint}, or null if no checkpoint
+	 */
+	private Path checkpointPath;
+
 	private void checkAndPutDefaults() {
 		if (!property.containsKey("workPath"))
 			property.setProperty("workPath", ".");
@@ -201,6 +214,9 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 					throw new RuntimeException("The timePartialPath: " + timePartialPath + " does not exist");
 		}
 		
+		if (property.containsKey("checkpointPath"))
+			checkpointPath = getPath("checkpointPath");
+		
 		tlen = Double.parseDouble(property.getProperty("tlen"));
 		np = Integer.parseInt(property.getProperty("np"));
 		Set<double[]> periodsSet = Arrays.stream(property.getProperty("freqRanges").split("\\s+")).map(s 
@@ -321,6 +337,7 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 
 			if (!Files.exists(spcFolder)) {
 				System.err.println(spcFolder + " does not exist...");
+				failedUnits.add(PartialCheckpoint.unitOf(id));
 				return;
 			}
 
@@ -340,6 +357,7 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 				}
 			} catch (IOException e1) {
 				e1.printStackTrace();
+				failedUnits.add(PartialCheckpoint.unitOf(id));
 				return;
 			}
 			
@@ -413,6 +431,7 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 				} catch (Exception e) {
 					System.err.println(spcFileName + " is invalid.");
 					e.printStackTrace();
+					failedUnits.add(PartialCheckpoint.unitOf(id));
 					try {
 						writeLog(spcFileName + " is invalid.");
 					} catch (IOException e1) {
@@ -499,6 +518,7 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 				add();
 			} catch (Exception e) {
 				e.printStackTrace();
+				failedUnits.add(PartialCheckpoint.unitOf(id));
 			}
 		}
 
@@ -775,6 +795,7 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 						.collect(Collectors.toSet());
 			} catch (IOException e1) {
 				e1.printStackTrace();
+				failedUnits.add(timeUnitOf(id));
 				return;
 			}
 			
@@ -797,6 +818,7 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 				} catch (Exception e) {
 					System.err.println(sacname + " is invalid.");
 					e.printStackTrace();
+					failedUnits.add(timeUnitOf(id));
 					try {
 						writeLog(sacname + " is invalid.");
 					} catch (IOException e1) {
@@ -888,6 +910,7 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 				add();
 			} catch (Exception e) {
 				e.printStackTrace();
+				failedUnits.add(timeUnitOf(id));
 			}
 			
 		}
@@ -968,6 +991,10 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 
 	private Set<GlobalCMTID> idSet;
 	private Set<Station> stationSet;
+	/**
+	 * units with any failure in this run, which are not recorded in a {@link PartialCheckpoint} as completed
+	 */
+	private final Set<String> failedUnits = ConcurrentHashMap.newKeySet();
 	private Set<Location> perturbationLocationSet;
 	private Phase[] phases;
 
@@ -1061,15 +1088,23 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 
 		Path idPath = workPath.resolve("partial1DID" + dateString + ".dat");
 		Path datasetPath = workPath.resolve("partial1D" + dateString + ".dat");
-		try (WaveformDataWriter pdw = new WaveformDataWriter(idPath, datasetPath, stationSet, idSet, periodRanges,
-				phases, perturbationLocationSet)) {
+		PartialCheckpoint checkpoint = null;
+		if (checkpointPath != null) {
+			checkpoint = new PartialCheckpoint(checkpointPath, dateString);
+			writeLog(checkpoint.getNumberOfCompletedUnits() + " units are completed in " + checkpointPath);
+		}
+		try (WaveformDataWriter pdw = checkpoint == null
+				? new WaveformDataWriter(idPath, datasetPath, stationSet, idSet, periodRanges, phases,
+						perturbationLocationSet)
+				: new WaveformDataWriter(checkpoint.getIDPath(), checkpoint.getDataPath(), stationSet, idSet,
+						periodRanges, phases, perturbationLocationSet)) {
 
 			partialDataWriter = pdw;
 			for (EventFolder eventDir : eventDirs)
-				execs.execute(new Worker(eventDir));
+				execute(execs, new Worker(eventDir), PartialCheckpoint.unitOf(eventDir.getGlobalCMTID()), checkpoint);
 			// break;
 			for (EventFolder eventDir2 : timePartialEventDirs)
-				execs.execute(new WorkerTimePartial(eventDir2));
+				execute(execs, new WorkerTimePartial(eventDir2), timeUnitOf(eventDir2.getGlobalCMTID()), checkpoint);
 			execs.shutdown();
 
 			while (!execs.isTerminated())
@@ -1078,6 +1113,12 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 			e.printStackTrace();
 		}
 		
+		if (checkpoint != null) {
+			int n = checkpoint.merge(idPath, datasetPath, Partial1DDatasetMaker_v2::unitOf, stationSet, idSet,
+					periodRanges, phases, perturbationLocationSet);
+			writeLog(n + " partials in " + checkpointPath + " are merged");
+		}
+		
 		// computing PAR00
 		if (par00) {
 			PartialID[] partials = PartialIDFile.read(idPath, datasetPath);
@@ -1216,6 +1257,52 @@ public class Partial1DDatasetMaker_v2 implements Operation {
 		}
 	}
 
+	/**
+	 * Runs the worker unless the unit is completed, and records the unit after the worker unless it failed.
+	 */
+	private void execute(ExecutorService execs, Runnable worker, String unit, PartialCheckpoint checkpoint) {
+		if (checkpoint == null) {
+			execs.execute(worker);
+			return;
+		}
+		if (checkpoint.isCompleted(unit))
+			return;
+		execs.execute(() -> {
+			try {
+				worker.run();
+			} catch (RuntimeException e) {
+				failedUnits.add(unit);
+				e.printStackTrace();
+			}
+			if (failedUnits.contains(unit)) {
+				System.err.println(unit + " has failures and is not recorded as completed.");
+				return;
+			}
+			try {
+				checkpoint.complete(partialDataWriter, Collections.singletonList(unit));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * @param id of an event
+	 * @return name of the unit of the time partials of the event for a {@link PartialCheckpoint}
+	 */
+	private static String timeUnitOf(GlobalCMTID id) {
+		return id + " time";
+	}
+
+	/**
+	 * @param partial a partial
+	 * @return name of the unit of the partial for a {@link PartialCheckpoint}
+	 */
+	private static String unitOf(PartialID partial) {
+		return partial.getPartialType().isTimePartial() ? timeUnitOf(partial.getGlobalCMTID())
+				: PartialCheckpoint.unitOf(partial.getGlobalCMTID());
+	}
+
 	private void writeLog(String line) throws IOException {
 		Date now = new Date();
 		synchronized (this) {
@@ -0,0 +1,259 @@
+package io.github.kensuke1984.kibrary.waveformdata;
+
+import io.github.kensuke1984.anisotime.Phase;
+import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Checkpoint of a long computation of partials written by a {@link WaveformDataWriter}, so that an interrupted
+ * computation can be resumed.
+ * <p>
+ * The work is divided into units (e.g. an event and a station), and a unit is either completed or done again.
+ * Each run writes partials in its own fragment (a pair of ID and data files) in a checkpoint folder. When units are
+ * completed, the writer is flushed and synchronized to the disk, and then the units are appended to the journal
+ * with the sizes of the fragment files at that time. A later run with the same folder skips the completed units.
+ * <p>
+ * Fragments may contain partials of units which were not completed (e.g. by a crash).
+ * {@link #merge(Path, Path, Function, Set, Set, double[][], Phase[], Set)} truncates each fragment to the sizes at
+ * its last completion and writes only the partials of the completed units into one file.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1.1
+ */
+public final class PartialCheckpoint {
+
+	/**
+	 * name of the journal in a checkpoint folder
+	 */
+	public static final String JOURNAL = "progress.journal";
+
+	private final Path DIR;
+	/**
+	 * name of the fragment of this run
+	 */
+	private final String FRAGMENT;
+	/**
+	 * completed unit &rarr; the fragment where it was completed first
+	 */
+	private final Map<String, String> unitMap = new HashMap<>();
+	/**
+	 * fragment &rarr; sizes of the ID and data files at the last completion
+	 */
+	private final Map<String, long[]> sizeMap = new TreeMap<>();
+
+	/**
+	 * Reads the journal in the folder if any. A torn last line (by a crash while writing) is cut off from the
+	 * journal. Lines of fragments without files are ignored.
+	 *
+	 * @param dir      checkpoint folder
+	 * @param fragment name of the fragment of this run, e.g. {@link io.github.kensuke1984.kibrary.util.Utilities#getTemporaryString()}
+	 * @throws IOException if an I/O error occurs
+	 */
+	public PartialCheckpoint(Path dir, String fragment) throws IOException {
+		DIR = dir;
+		FRAGMENT = fragment;
+		Files.createDirectories(dir);
+		Path journal = dir.resolve(JOURNAL);
+		if (!Files.exists(journal))
+			return;
+		byte[] bytes = Files.readAllBytes(journal);
+		int end = bytes.length;
+		while (0 < end && bytes[end - 1] != '\n')
+			end--;
+		// drop a torn last line so that the next line is not appended to it
+		if (end < bytes.length)
+			truncate(journal, end);
+		for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+			// fragment, ID file size, data file size, unit
+			String[] parts = line.trim().split("\\s+", 4);
+			if (parts.length < 4)
+				continue;
+			// e.g. a torn fragment name glued to the next line
+			if (!Files.exists(idPathOf(parts[0])) || !Files.exists(dataPathOf(parts[0])))
+				continue;
+			long[] sizes;
+			try {
+				sizes = new long[] { Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			sizeMap.merge(parts[0], sizes, (a, b) -> a[0] < b[0] ? b : a);
+			unitMap.putIfAbsent(parts[3], parts[0]);
+		}
+	}
+
+	/**
+	 * @param id event of the unit
+	 * @return name of the unit of the event
+	 */
+	public static String unitOf(GlobalCMTID id) {
+		return id.toString();
+	}
+
+	/**
+	 * @param id      event of the unit
+	 * @param station station of the unit
+	 * @return name of the unit of the event and the station
+	 */
+	public static String unitOf(GlobalCMTID id, Station station) {
+		return id + " " + station.getStringID();
+	}
+
+	/**
+	 * @return path of the ID file of the fragment of this run
+	 */
+	public Path getIDPath() {
+		return idPathOf(FRAGMENT);
+	}
+
+	/**
+	 * @return path of the data file of the fragment of this run
+	 */
+	public Path getDataPath() {
+		return dataPathOf(FRAGMENT);
+	}
+
+	private Path idPathOf(String fragment) {
+		return DIR.resolve("partialID" + fragment + ".dat");
+	}
+
+	private Path dataPathOf(String fragment) {
+		return DIR.resolve("partial" + fragment + ".dat");
+	}
+
+	/**
+	 * @param unit name of a unit
+	 * @return if the unit is completed in this or earlier runs
+	 */
+	public synchronized boolean isCompleted(String unit) {
+		return unitMap.containsKey(unit);
+	}
+
+	/**
+	 * @return the number of the completed units
+	 */
+	public synchronized int getNumberOfCompletedUnits() {
+		return unitMap.size();
+	}
+
+	/**
+	 * Records the units as completed after all the partials written by the writer are on the disk.
+	 *
+	 * @param writer writing the fragment of this run
+	 * @param units  completed with the partials written so far
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void complete(WaveformDataWriter writer, Collection<String> units) throws IOException {
+		if (units.isEmpty())
+			return;
+		long[] sizes;
+		// no partials are added while flushing as adding is synchronized on the writer
+		synchronized (writer) {
+			writer.flush();
+			force(writer.getIDPath());
+			force(writer.getDataPath());
+			sizes = new long[] { Files.size(writer.getIDPath()), Files.size(writer.getDataPath()) };
+		}
+		StringBuilder lines = new StringBuilder();
+		for (String unit : units)
+			lines.append(FRAGMENT).append(' ').append(sizes[0]).append(' ').append(sizes[1]).append(' ').append(unit)
+					.append('\n');
+		synchronized (this) {
+			try (FileChannel channel = FileChannel.open(DIR.resolve(JOURNAL), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+				ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				channel.force(true);
+			}
+			sizeMap.put(FRAGMENT, sizes);
+			for (String unit : units)
+				unitMap.putIfAbsent(unit, FRAGMENT);
+		}
+	}
+
+	private static void force(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Writes the partials of the completed units in all the fragments in one file. Each fragment is truncated to the
+	 * sizes at its last completion first. A unit completed in several fragments is taken from the first one.
+	 * The writer of this run must be closed before.
+	 *
+	 * @param idPath             of the output
+	 * @param dataPath           of the output
+	 * @param unitOf             gives the name of the unit of a partial
+	 * @param stationSet         must contain all the stations of the partials
+	 * @param globalCMTIDSet     must contain all the events of the partials
+	 * @param periodRanges       must contain all the period ranges of the partials
+	 * @param phases             must contain all the phases of the partials
+	 * @param perturbationPoints must contain all the perturbation points of the partials
+	 * @return the number of the partials written
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized int merge(Path idPath, Path dataPath, Function<PartialID, String> unitOf,
+			Set<Station> stationSet, Set<GlobalCMTID> globalCMTIDSet, double[][] periodRanges, Phase[] phases,
+			Set<Location> perturbationPoints) throws IOException {
+		int n = 0;
+		try (WaveformDataWriter writer = new WaveformDataWriter(idPath, dataPath, stationSet, globalCMTIDSet,
+				periodRanges, phases, perturbationPoints)) {
+			for (Map.Entry<String, long[]> entry : sizeMap.entrySet()) {
+				String fragment = entry.getKey();
+				Path fragmentIDPath = idPathOf(fragment);
+				Path fragmentDataPath = dataPathOf(fragment);
+				if (!Files.exists(fragmentIDPath) || !Files.exists(fragmentDataPath)) {
+					System.err.println("Fragment " + fragment + " is not found in " + DIR);
+					continue;
+				}
+				truncate(fragmentIDPath, entry.getValue()[0]);
+				truncate(fragmentDataPath, entry.getValue()[1]);
+				PartialID[] ids = PartialIDFile.read(fragmentIDPath);
+				try (DataInputStream dis = new DataInputStream(
+						new BufferedInputStream(Files.newInputStream(fragmentDataPath)))) {
+					long position = 0;
+					for (PartialID id : ids) {
+						if (!fragment.equals(unitMap.get(unitOf.apply(id))))
+							continue;
+						for (long skip = id.START_BYTE - position; 0 < skip; )
+							skip -= dis.skip(skip);
+						double[] data = new double[id.NPTS];
+						for (int i = 0; i < data.length; i++)
+							data[i] = dis.readDouble();
+						position = id.START_BYTE + 8L * id.NPTS;
+						writer.addPartialID(id.setData(data));
+						n++;
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	private static void truncate(Path path, long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			if (size < channel.size())
+				channel.truncate(size);
+		}
+	}
+
+}
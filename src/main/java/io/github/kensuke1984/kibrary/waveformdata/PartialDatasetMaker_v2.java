@@ -2,6 +2,7 @@ package io.github.kensuke1984.kibrary.waveformdata;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -10,18 +11,22 @@ import java.nio.file.StandardOpenOption;
 import java.rmi.UnexpectedException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import javax.management.RuntimeErrorException;
@@ -40,9 +45,11 @@ import io.github.kensuke1984.kibrary.datacorrection.SourceTimeFunction;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformation;
 import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationFile;
+import io.github.kensuke1984.kibrary.timewindow.TimewindowInformationReader;
 import io.github.kensuke1984.kibrary.util.Earth;
 import io.github.kensuke1984.kibrary.util.EventFolder;
 import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.Pipeline;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Utilities;
 import io.github.kensuke1984.kibrary.util.addons.Phases;
@@ -90,8 +97,15 @@ import io.github.kensuke1984.kibrary.util.spc.SPCMode;
  * TODO
  * <p>
  * Because of DSM condition, stations can not have the same name...
+ * <p>
+ * If batchByEvent is true, the work is grouped by events (see {@link #runByEvent(int)}) so that each forward
+ * propagation is read only once. It does not support mode BOTH or catalogue.
+ * <p>
+ * If checkpointPath is set, completed pairs of an event and a station are recorded in a {@link PartialCheckpoint}
+ * in the folder. A run with the same folder skips them and writes the partials of all the runs in one file at
+ * the end. Pairs with any failure (e.g. a missing or broken file) are not recorded and are computed again.
  * 
- * @version 2.3.0.5
+ * @version 2.3.2.3
  * 
  * @author Kensuke Konishi
  */
@@ -238,6 +252,16 @@ public class PartialDatasetMaker_v2 implements Operation {
 			id = new GlobalCMTID(fpFile.getSourceID());
 		}
 		
+		/**
+		 * @param bp      back propagation
+		 * @param station of the back propagation
+		 * @param fp      forward propagation already read, which is not modified
+		 */
+		private PartialComputation(DSMOutput bp, Station station, DSMOutput fp) {
+			this(bp, station, fp.getSpcFileName());
+			this.fp = fp;
+		}
+		
 		private PartialComputation(DSMOutput bp_SH, DSMOutput bp_PSV, Station station, SPCFile fpFile_SH, SPCFile fpFile_PSV) {
 			this.bp = bp_PSV;
 			fpname = fpFile_PSV;
@@ -307,8 +331,21 @@ public class PartialDatasetMaker_v2 implements Operation {
 		
 		private boolean shiftConvolution;
 		
+		/**
+		 * A failure is recorded for the unit of the event and the station, so that it is not recorded as completed.
+		 */
 		@Override
 		public void run() {
+			try {
+				compute();
+			} catch (IOException | RuntimeException e) {
+				failedUnits.add(PartialCheckpoint.unitOf(id, station));
+				System.err.println("Error on " + id + " " + station);
+				e.printStackTrace();
+			}
+		}
+
+		private void compute() throws IOException {
 //			Location[] perturbationLocations = perturbationLocationSet.stream().toArray(Location[]::new);
 //			double[] perturbationRs = new double[perturbationLocations.length];
 //			for (int i = 0; i < perturbationRs.length; i++)
@@ -325,9 +362,8 @@ public class PartialDatasetMaker_v2 implements Operation {
 			touchedSet.add(id);
 			
 			// Pickup timewindows
-			Set<TimewindowInformation> timewindowList = timewindowInformation.stream()
-					.filter(info -> info.getStation().getStringID().equals(stationName))
-					.filter(info -> info.getGlobalCMTID().equals(id)).collect(Collectors.toSet());
+			Set<TimewindowInformation> timewindowList = timewindowReader.read(id, station).stream()
+					.filter(info -> info.getStation().getStringID().equals(stationName)).collect(Collectors.toSet());
 
 			System.out.println(id + " " + timewindowList.size() + " " + stationName);
 			
@@ -336,14 +372,10 @@ public class PartialDatasetMaker_v2 implements Operation {
 				return;
 
 			// System.out.println("I am " + Thread.currentThread().getName());
-			try {
+			if (fp == null)
 				fp = fpname.read();
-				if (mode.equals("BOTH"))
-					fp_other = fpname_other.read();
-			} catch (Exception e) {
-				e.printStackTrace();
-				return;
-			}
+			if (mode.equals("BOTH"))
+				fp_other = fpname_other.read();
 			
 			if (!checkPair(bp, fp))
 				throw new RuntimeException("BP and FP files are not a pair" + bp + " " + fp);
@@ -352,7 +384,7 @@ public class PartialDatasetMaker_v2 implements Operation {
 					throw new RuntimeException("BP and FP files are not a pair" + bp_other + " " + fp_other);
 			}
 			
-			ThreeDPartialMaker threedPartialMaker = null;
+			ThreeDPartialMaker threedPartialMaker;
 			if (mode.equals("BOTH")) {
 //				System.out.println("Using both PSV and SH");
 				threedPartialMaker = new ThreeDPartialMaker(fp, fp_other, bp, bp_other);
@@ -412,24 +444,39 @@ public class PartialDatasetMaker_v2 implements Operation {
 				if (!perturbationLocationSet.contains(location))
 					continue;
 				
-				for (PartialType type : partialTypes) {
-					if (type.isTimePartial())
-						continue;
-					for (SACComponent component : components) {
-						if (timewindowList.stream().noneMatch(info -> info.getComponent() == component))
-							continue;
+				PartialType[] bodyTypes = partialTypes.stream().filter(type -> !type.isTimePartial())
+						.toArray(PartialType[]::new);
+				SACComponent[] bodyComponents = components.stream().filter(
+						component -> timewindowList.stream().anyMatch(info -> info.getComponent() == component))
+						.toArray(SACComponent[]::new);
+				Complex[][][] spectra = frequencyDomainWindowing
+						? threedPartialMaker.createPartialsFrequencySerial(bodyComponents, ibody, bodyTypes) : null;
+				double[][][] partials = frequencyDomainWindowing ? null
+						: threedPartialMaker.createPartialsSerial(bodyComponents, ibody, bodyTypes);
+				for (int itype = 0; itype < bodyTypes.length; itype++) {
+					PartialType type = bodyTypes[itype];
+					for (int icomponent = 0; icomponent < bodyComponents.length; icomponent++) {
+						SACComponent component = bodyComponents[icomponent];
 //						System.out.println(bp.getBodyR()[ibody] + " " + fpname);
-						double[] partial = threedPartialMaker.createPartialSerial(component, ibody, type);
+						double[] partial = frequencyDomainWindowing ? null : partials[itype][icomponent];
+						Complex[] spectrum = frequencyDomainWindowing ? spectra[itype][icomponent] : null;
 //						System.out.println(component + " " + type + " " + new ArrayRealVector(partial).getLInfNorm());
 
 						timewindowList.stream().filter(info -> info.getComponent() == component).forEach(info -> {
 //							System.out.println(component + " " + info.getComponent());
-							Complex[] u;
-//							if (!shiftConvolution)
-							u = cutPartial(partial, info);
-							
-							u = filter.applyFilter(u);
-							double[] cutU = sampleOutput(u, info);
+							double[] cutU;
+							if (frequencyDomainWindowing)
+								cutU = threedPartialMaker.toTimeDomain(spectrum, filter,
+										(int) (info.getStartTime() * partialSamplingHz), step,
+										(int) ((info.getEndTime() - info.getStartTime()) * finalSamplingHz));
+							else {
+								Complex[] u;
+//								if (!shiftConvolution)
+								u = cutPartial(partial, info);
+								
+								u = filter.applyFilter(u);
+								cutU = sampleOutput(u, info);
+							}
 							
 							
 							//DEBUG
@@ -455,8 +502,8 @@ public class PartialDatasetMaker_v2 implements Operation {
 							try {
 								partialDataWriter.addPartialID(pid);
 								System.out.print(".");
-							} catch (Exception e) {
-								e.printStackTrace();
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
 							}
 						});
 					}
@@ -465,42 +512,69 @@ public class PartialDatasetMaker_v2 implements Operation {
 		}
 	}
 	
+	/**
+	 * Forward propagation of an event at a perturbation point, and the stations with windows for the event
+	 */
+	private static final class EventPoint {
+		private final GlobalCMTID id;
+		private final SPCFile fpFile;
+		private final List<Station> stations;
+		/**
+		 * if this is the last point of the event
+		 */
+		private final boolean last;
+		private DSMOutput fp;
+
+		private EventPoint(GlobalCMTID id, SPCFile fpFile, List<Station> stations, boolean last) {
+			this.id = id;
+			this.fpFile = fpFile;
+			this.stations = stations;
+			this.last = last;
+		}
+
+		@Override
+		public String toString() {
+			return fpFile.getName();
+		}
+	}
+	
 private class WorkerTimePartial implements Runnable {
 		
 		private EventFolder eventDir;
 		private GlobalCMTID id;
 		
+		/**
+		 * A failure is recorded for the unit of the time partials of the event, so that it is not recorded as
+		 * completed.
+		 */
 		@Override
 		public void run() {
 			try {
-				writeLog("Running on " + id);
-			} catch (IOException e1) {
-				e1.printStackTrace();
+				compute();
+			} catch (IOException | RuntimeException e) {
+				failedUnits.add(timeUnitOf(id));
+				System.err.println("Error on time partials for " + id);
+				e.printStackTrace();
 			}
+		}
+
+		private void compute() throws IOException {
+			writeLog("Running on " + id);
 			Path timePartialFolder = eventDir.toPath();
 
 			if (!Files.exists(timePartialFolder)) {
 				throw new RuntimeException(timePartialFolder + " does not exist...");
 			}
 			
-			Set<SACFileName> sacnameSet;
-			try {
-				sacnameSet = eventDir.sacFileSet()
-						.stream()
-						.filter(sacname -> sacname.isTemporalPartial())
-						.collect(Collectors.toSet());
-			} catch (IOException e1) {
-				e1.printStackTrace();
-				return;
-			}
+			Set<SACFileName> sacnameSet = eventDir.sacFileSet()
+					.stream()
+					.filter(sacname -> sacname.isTemporalPartial())
+					.collect(Collectors.toSet());
 			
 //			System.out.println(sacnameSet.size());
 //			sacnameSet.forEach(name -> System.out.println(name));
 			
-			Set<TimewindowInformation> timewindowCurrentEvent = timewindowInformation
-					.stream()
-					.filter(tw -> tw.getGlobalCMTID().equals(id))
-					.collect(Collectors.toSet());
+			Set<TimewindowInformation> timewindowCurrentEvent = new HashSet<>(timewindowReader.read(id));
 			
 			// すべてのsacファイルに対しての処理
 			for (SACFileName sacname : sacnameSet) {
@@ -513,11 +587,8 @@ private class WorkerTimePartial implements Runnable {
 				} catch (Exception e) {
 					System.err.println(sacname + " is invalid.");
 					e.printStackTrace();
-					try {
-						writeLog(sacname + " is invalid.");
-					} catch (IOException e1) {
-						e1.printStackTrace();
-					}
+					failedUnits.add(timeUnitOf(id));
+					writeLog(sacname + " is invalid.");
 					continue;
 				}
 			}
@@ -600,8 +671,8 @@ private class WorkerTimePartial implements Runnable {
 					partialDataWriter.addPartialID(PIDReceiverSide);
 				if (partialTypes.contains(PartialType.TIME_SOURCE))
 					partialDataWriter.addPartialID(PIDSourceSide);
-			} catch (Exception e) {
-				e.printStackTrace();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
 		}
 		
@@ -625,6 +696,11 @@ private class WorkerTimePartial implements Runnable {
 
 	private Set<TimewindowInformation> timewindowInformation;
 
+	/**
+	 * windows of an event or a station are read through this
+	 */
+	private TimewindowInformationReader timewindowReader;
+
 	private Set<GlobalCMTID> touchedSet = new HashSet<>();
 
 	public PartialDatasetMaker_v2(Properties property) throws IOException {
@@ -634,6 +710,34 @@ private class WorkerTimePartial implements Runnable {
 	
 	private boolean backward;
 
+	/**
+	 * if partials are sampled in time windows directly from the spectra with the filter in frequency domain
+	 */
+	private boolean frequencyDomainWindowing;
+
+	/**
+	 * if the work is grouped by events
+	 */
+	private boolean batchByEvent;
+	/**
+	 * the number of threads reading forward propagations in {@link #runByEvent(int)}
+	 */
+	private int nReadThreads;
+	/**
+	 * the maximum number of forward propagations in memory in {@link #runByEvent(int)}
+	 */
+	private int pipelineCapacity;
+
+	/**
+	 * folder for {@link #checkpoint}, or null if no checkpoint
+	 */
+	private Path checkpointPath;
+	private PartialCheckpoint checkpoint;
+	/**
+	 * units with any failure in this run, which are not recorded in {@link #checkpoint} as completed
+	 */
+	private final Set<String> failedUnits = ConcurrentHashMap.newKeySet();
+
 	private String mode;
 	
 	private boolean catalogue;
@@ -681,6 +785,17 @@ private class WorkerTimePartial implements Runnable {
 			pw.println("#filterNp");
 			pw.println("##Filter if backward filtering is applied (false)");
 			pw.println("#backward");
+			pw.println("##Boolean if partials in time windows are synthesized from spectra with the filter in frequency domain (false)");
+			pw.println("#frequencyDomainWindowing");
+			pw.println("##Boolean if each forward propagation is read once and used for all the stations of the event (false)");
+			pw.println("##Mode BOTH and catalogue are not supported.");
+			pw.println("#batchByEvent");
+			pw.println("##int number of threads reading forward propagations for batchByEvent (2)");
+			pw.println("#nReadThreads");
+			pw.println("##int maximum number of forward propagations in memory for batchByEvent (2 * the number of processors)");
+			pw.println("#pipelineCapacity");
+			pw.println("##Path of a folder to record completed events and stations. A run with the same folder resumes. (no checkpoint)");
+			pw.println("#checkpointPath");
 			pw.println("#double (20)");
 			pw.println("#partialSamplingHz cant change now");
 			pw.println("##double SamplingHz in output dataset (1)");
@@ -726,6 +841,14 @@ private class WorkerTimePartial implements Runnable {
 			property.setProperty("filterNp", "4");
 		if (!property.containsKey("backward"))
 			property.setProperty("backward", "false");
+		if (!property.containsKey("frequencyDomainWindowing"))
+			property.setProperty("frequencyDomainWindowing", "false");
+		if (!property.containsKey("batchByEvent"))
+			property.setProperty("batchByEvent", "false");
+		if (!property.containsKey("nReadThreads"))
+			property.setProperty("nReadThreads", "2");
+		if (!property.containsKey("pipelineCapacity"))
+			property.setProperty("pipelineCapacity", String.valueOf(2 * Runtime.getRuntime().availableProcessors()));
 		if (!property.containsKey("mode"))
 			property.setProperty("mode", "SH");
 		
@@ -782,12 +905,24 @@ private class WorkerTimePartial implements Runnable {
 		
 		backward = Boolean.parseBoolean(property.getProperty("backward"));
 		
+		frequencyDomainWindowing = Boolean.parseBoolean(property.getProperty("frequencyDomainWindowing"));
+		
+		batchByEvent = Boolean.parseBoolean(property.getProperty("batchByEvent"));
+		if (property.containsKey("checkpointPath"))
+			checkpointPath = getPath("checkpointPath");
+		nReadThreads = Integer.parseInt(property.getProperty("nReadThreads"));
+		pipelineCapacity = Integer.parseInt(property.getProperty("pipelineCapacity"));
+		
 		mode = property.getProperty("mode").trim().toUpperCase();
 		if (!(mode.equals("SH") || mode.equals("PSV") || mode.equals("BOTH")))
 				throw new RuntimeException("Error: mode should be one of the following: SH, PSV, BOTH");
 		System.out.println("Using mode " + mode);
+		if (batchByEvent && mode.equals("BOTH"))
+			throw new RuntimeException("batchByEvent is not supported for mode BOTH");
 		
 		catalogue = Boolean.parseBoolean(property.getProperty("catalogue"));
+		if (batchByEvent && catalogue)
+			throw new RuntimeException("batchByEvent is not supported with catalogue");
 		if (catalogue) {
 			double[] tmpthetainfo = Stream.of(property.getProperty("thetaInfo").trim().split("\\s+")).mapToDouble(Double::parseDouble)
 					.toArray();
@@ -812,6 +947,12 @@ private class WorkerTimePartial implements Runnable {
 		// 書き込み準備
 		Path idPath = workPath.resolve("partialID" + dateString + ".dat");
 		Path datasetPath = workPath.resolve("partial" + dateString + ".dat");
+		if (checkpointPath != null) {
+			checkpoint = new PartialCheckpoint(checkpointPath, dateString);
+			writeLog(checkpoint.getNumberOfCompletedUnits() + " units are completed in " + checkpointPath);
+			idPath = checkpoint.getIDPath();
+			datasetPath = checkpoint.getDataPath();
+		}
 
 		partialDataWriter = new WaveformDataWriter(idPath, datasetPath, stationSet, idSet, periodRanges,
 				phases, perturbationLocationSet);
@@ -905,8 +1046,13 @@ private class WorkerTimePartial implements Runnable {
 		if (timePartialPath != null) {
 			ExecutorService execs = Executors.newFixedThreadPool(N_THREADS);
 			Set<EventFolder> timePartialEventDirs = Utilities.eventFolderSet(timePartialPath);
+			List<String> timeUnits = new ArrayList<>();
 			for (EventFolder eventDir : timePartialEventDirs) {
+				String unit = timeUnitOf(eventDir.getGlobalCMTID());
+				if (checkpoint != null && checkpoint.isCompleted(unit))
+					continue;
 				execs.execute(new WorkerTimePartial(eventDir));
+				timeUnits.add(unit);
 				System.out.println("Working for time partials for " + eventDir);
 			}
 			execs.shutdown();
@@ -918,18 +1064,27 @@ private class WorkerTimePartial implements Runnable {
 				}
 			}
 			partialDataWriter.flush();
+			complete(timeUnits);
 			System.out.println();
 		}
 		
+		if (batchByEvent) {
+			runByEvent(N_THREADS);
+			timewindowReader.close();
+			terminate();
+			return;
+		}
+		
 		for (Station station : stationSet) {
 			Path bp0000Path = bpPath.resolve("0000" + station.toString());
 			Path bpModelPath = bp0000Path.resolve(modelName);
 
 			// Set of global cmt IDs for the station in the timewindow.
-			Set<GlobalCMTID> idSet = timewindowInformation.stream()
+			Set<GlobalCMTID> idSet = timewindowReader.read(station).stream()
 					.filter(info -> components.contains(info.getComponent()))
-					.filter(info -> info.getStation().equals(station)).map(TimewindowInformation::getGlobalCMTID)
-					.collect(Collectors.toSet());
+					.map(TimewindowInformation::getGlobalCMTID).collect(Collectors.toSet());
+			if (checkpoint != null)
+				idSet.removeIf(id -> checkpoint.isCompleted(PartialCheckpoint.unitOf(id, station)));
 
 			if (idSet.isEmpty())
 				continue;
@@ -953,6 +1108,10 @@ private class WorkerTimePartial implements Runnable {
 			if (!jointCMT) {
 				fpEventPaths = idSet.stream().map(id -> fpPath.resolve(id + "/" + modelName))
 					.filter(Files::exists).toArray(Path[]::new);
+				idSet.stream().filter(id -> !Files.exists(fpPath.resolve(id + "/" + modelName))).forEach(id -> {
+					System.err.println("Fp folder not found for " + id);
+					failedUnits.add(PartialCheckpoint.unitOf(id, station));
+				});
 			}
 			else {
 				fpPathList = collectFP_jointCMT(idSet);
@@ -992,11 +1151,13 @@ private class WorkerTimePartial implements Runnable {
 									fpEventPath.resolve(pointName + "." + eventName + ".PF..." + "PSV" + ".spc"));
 							if (!fpfile_PSV.exists()) {
 								System.err.println("Fp file not found " + fpfile_PSV);
+								failedUnits.add(PartialCheckpoint.unitOf(new GlobalCMTID(eventName), station));
 								continue;
 							}
 						}
 						if (!fpfile.exists()) {
 							System.err.println("Fp file not found " + fpfile);
+							failedUnits.add(PartialCheckpoint.unitOf(new GlobalCMTID(eventName), station));
 							continue;
 						}
 						
@@ -1018,12 +1179,114 @@ private class WorkerTimePartial implements Runnable {
 				}
 			}
 			partialDataWriter.flush();
+			complete(idSet.stream().map(id -> PartialCheckpoint.unitOf(id, station)).collect(Collectors.toList()));
 			System.out.println();
 			writeLog(bpnum++ + "th " + bp0000Path + " was done ");
 		}
+		timewindowReader.close();
 		terminate();
 	}
 	
+	/**
+	 * Computes partials event by event. For each event, the forward propagation at each perturbation point is read
+	 * once by {@link #nReadThreads} threads, and the back propagations of the stations with windows for the event
+	 * are streamed through it one by one in the computing threads. At most {@link #pipelineCapacity} forward
+	 * propagations are in memory at a time, and each computing thread holds one back propagation.
+	 *
+	 * @param nThreads the number of computing threads
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void runByEvent(int nThreads) throws IOException {
+		Map<Station, Map<String, SPCFile>> bpFileMap = new ConcurrentHashMap<>();
+		// failures are recorded instead of thrown, so that no point is dropped before the last one of its event
+		Pipeline<EventPoint, EventPoint, EventPoint> pipeline = new Pipeline<>("read FP", point -> {
+			try {
+				point.fp = point.fpFile.read();
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Error on reading " + point.fpFile);
+				e.printStackTrace();
+				point.stations.forEach(station -> failedUnits.add(PartialCheckpoint.unitOf(point.id, station)));
+			}
+			return point;
+		}, nReadThreads, "compute", point -> {
+			if (point.fp == null)
+				return point;
+			String pointName = point.fpFile.getObserverID();
+			for (Station station : point.stations) {
+				try {
+					SPCFile bpFile = bpFileMap.computeIfAbsent(station, this::collectBPFiles).get(pointName);
+					if (bpFile == null)
+						throw new RuntimeException("Bp file not found for " + pointName + " " + station);
+					new PartialComputation(bpFile.read(), station, point.fp).run();
+				} catch (IOException | RuntimeException e) {
+					failedUnits.add(PartialCheckpoint.unitOf(point.id, station));
+					System.err.println("Error on " + pointName + " " + station);
+					e.printStackTrace();
+				}
+			}
+			point.fp = null;
+			return point;
+		}, nThreads, "log", point -> {
+			if (point.last) {
+				partialDataWriter.flush();
+				complete(point.stations.stream().map(station -> PartialCheckpoint.unitOf(point.id, station))
+						.collect(Collectors.toList()));
+				writeLog(point.id + " was done");
+			}
+		}, pipelineCapacity);
+		try {
+			pipeline.run(eventPoints());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		partialDataWriter.flush();
+	}
+
+	/**
+	 * @return forward propagations of the events in order and the stations for each event
+	 */
+	private Iterator<EventPoint> eventPoints() {
+		return idSet.stream().sorted().flatMap(id -> {
+			Path fpEventPath = fpPath.resolve(id + "/" + modelName);
+			if (!Files.exists(fpEventPath)) {
+				System.err.println("Fp folder not found " + fpEventPath);
+				return Stream.empty();
+			}
+			try {
+				List<Station> stations = timewindowReader.read(id).stream()
+						.filter(info -> components.contains(info.getComponent())).map(TimewindowInformation::getStation)
+						.distinct().filter(station -> checkpoint == null
+								|| !checkpoint.isCompleted(PartialCheckpoint.unitOf(id, station)))
+						.collect(Collectors.toList());
+				if (stations.isEmpty())
+					return Stream.empty();
+				List<SPCFile> fpFiles = mode.equals("SH") ? Utilities.collectOrderedSHSpcFileName(fpEventPath)
+						: Utilities.collectOrderedPSVSpcFileName(fpEventPath);
+				System.out.println(id + " " + fpFiles.size() + " fpfiles for " + stations.size() + " stations");
+				return IntStream.range(0, fpFiles.size())
+						.mapToObj(i -> new EventPoint(id, fpFiles.get(i), stations, i == fpFiles.size() - 1));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}).iterator();
+	}
+
+	/**
+	 * @param station of the back propagations
+	 * @return point name &rarr; back propagation file of the station
+	 */
+	private Map<String, SPCFile> collectBPFiles(Station station) {
+		Path bpModelPath = bpPath.resolve("0000" + station).resolve(modelName);
+		try {
+			List<SPCFile> bpFiles = mode.equals("SH") ? Utilities.collectOrderedSHSpcFileName(bpModelPath)
+					: Utilities.collectOrderedPSVSpcFileName(bpModelPath);
+			return bpFiles.stream().collect(Collectors.toMap(SPCFile::getObserverID, bpFile -> bpFile));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
 	private List<Path[]> collectFP_jointCMT(Set<GlobalCMTID> idSet) {
 		List<Path[]> paths = new ArrayList<>();
 		
@@ -1170,12 +1433,54 @@ private class WorkerTimePartial implements Runnable {
 
 	private void terminate() throws IOException {
 		partialDataWriter.close();
+		Path idPath = partialDataWriter.getIDPath();
+		Path datasetPath = partialDataWriter.getDataPath();
+		if (checkpoint != null) {
+			idPath = workPath.resolve("partialID" + dateString + ".dat");
+			datasetPath = workPath.resolve("partial" + dateString + ".dat");
+			int n = checkpoint.merge(idPath, datasetPath, PartialDatasetMaker_v2::unitOf, stationSet, idSet,
+					periodRanges, phases, perturbationLocationSet);
+			writeLog(n + " partials in " + checkpointPath + " are merged");
+		}
 		endTime = System.nanoTime();
 		long nanoSeconds = endTime - startTime;
 		String endLine = "Everything is done in " + Utilities.toTimeString(nanoSeconds) + ". Over n out! ";
 		System.err.println(endLine);
 		writeLog(endLine);
-		writeLog(partialDataWriter.getIDPath() + " " + partialDataWriter.getDataPath() + " were created");
+		writeLog(idPath + " " + datasetPath + " were created");
+	}
+
+	/**
+	 * Records the units without failures in this run as completed in {@link #checkpoint} if any.
+	 *
+	 * @param units done in this run
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void complete(Collection<String> units) throws IOException {
+		if (checkpoint == null)
+			return;
+		List<String> cleanUnits = units.stream().filter(unit -> !failedUnits.contains(unit))
+				.collect(Collectors.toList());
+		checkpoint.complete(partialDataWriter, cleanUnits);
+		if (cleanUnits.size() < units.size())
+			writeLog(units.size() - cleanUnits.size() + " units with failures are not recorded as completed");
+	}
+
+	/**
+	 * @param id of an event
+	 * @return name of the unit of the time partials of the event for {@link #checkpoint}
+	 */
+	private static String timeUnitOf(GlobalCMTID id) {
+		return id + " time";
+	}
+
+	/**
+	 * @param partial a partial
+	 * @return name of the unit of the partial for {@link #checkpoint}
+	 */
+	private static String unitOf(PartialID partial) {
+		return partial.getPartialType().isTimePartial() ? timeUnitOf(partial.getGlobalCMTID())
+				: PartialCheckpoint.unitOf(partial.getGlobalCMTID(), partial.getStation());
 	}
 
 	private synchronized void writeLog(String line) throws IOException {
@@ -1206,6 +1511,7 @@ private class WorkerTimePartial implements Runnable {
 		// タイムウインドウの情報を読み取る。
 		System.err.println("Reading timewindow information");
 		timewindowInformation = TimewindowInformationFile.read(timewindowPath);
+		timewindowReader = new TimewindowInformationReader(timewindowPath);
 		idSet = new HashSet<>();
 		stationSet = new HashSet<>();
 		timewindowInformation.forEach(t -> {
@@ -52,7 +52,7 @@ import java.util.stream.IntStream;
  * READing has problem. TODO
  *
  * @author Kensuke Konishi
- * @version 0.3.2
+ * @version 0.3.2.1
  * @author anselme Added phase information
  */
 public final class PartialIDFile {
@@ -85,7 +85,7 @@ public final class PartialIDFile {
 				for (int j = 0; j < data.length; j++)
 					data[j] = dis.readDouble();
 				ids[i] = ids[i].setData(data);
-				if (i % (ids.length / 20) == 0)
+				if (i % Math.max(1, ids.length / 20) == 0)
                     System.err.print("\rReading partial data ... " + Math.ceil(i * 100.0 / ids.length) + " %");
 			}
 			System.err.println("\rReading partial data ... 100.0 %");
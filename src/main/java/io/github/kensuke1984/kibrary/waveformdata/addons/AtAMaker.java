@@ -10,6 +10,7 @@ import io.github.kensuke1984.kibrary.datacorrection.StaticCorrectionType;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
 import io.github.kensuke1984.kibrary.inversion.UnknownParameter;
 import io.github.kensuke1984.kibrary.inversion.UnknownParameterFile;
+import io.github.kensuke1984.kibrary.inversion.UnknownParameterIndex;
 import io.github.kensuke1984.kibrary.inversion.addons.HorizontalParameterMapping;
 import io.github.kensuke1984.kibrary.inversion.addons.ParameterMapping;
 import io.github.kensuke1984.kibrary.inversion.addons.ResampleGrid;
@@ -28,6 +29,7 @@ import io.github.kensuke1984.kibrary.util.addons.Phases;
 import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
 import io.github.kensuke1984.kibrary.util.sac.SACComponent;
 import io.github.kensuke1984.kibrary.util.sac.WaveformType;
+import io.github.kensuke1984.kibrary.util.spc.CatalogueStencil;
 import io.github.kensuke1984.kibrary.util.spc.DSMOutput;
 import io.github.kensuke1984.kibrary.util.spc.FormattedSPCFile;
 import io.github.kensuke1984.kibrary.util.spc.PartialType;
@@ -61,6 +63,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -77,6 +80,15 @@ import org.apache.commons.math3.transform.FastFourierTransformer;
 import org.apache.commons.math3.transform.TransformType;
 import org.apache.commons.math3.util.FastMath;
 
+/**
+ * Computes AtA and Atd directly from forward and backward propagations, window buffer by window buffer.
+ * <p>
+ * Unlike {@link io.github.kensuke1984.kibrary.waveformdata.PartialDatasetMaker_v2}, it has no
+ * {@link io.github.kensuke1984.kibrary.waveformdata.PartialCheckpoint} and an interrupted run must be started again.
+ * Each window buffer is added to all the AtA buffer files, which are read, updated and rewritten in place, and Atd
+ * is kept in memory until the end. Skipping completed units would need the AtA buffer files and Atd saved
+ * consistently with a journal at every window buffer.
+ */
 public class AtAMaker implements Operation {
 	private Properties PROPERTY;
 	
@@ -104,6 +116,11 @@ public class AtAMaker implements Operation {
 	
 	private boolean backward;
 	
+	/**
+	 * if partials are sampled in time windows directly from the spectra with the filter in frequency domain
+	 */
+	private boolean frequencyDomainWindowing;
+	
 	private PolynomialStructure structure;
 	
 	private int sourceTimeFunction;
@@ -119,6 +136,7 @@ public class AtAMaker implements Operation {
 	
 	private Path unknownParameterPath;
 	private final UnknownParameter[] originalUnknownParameters;
+	private final UnknownParameterIndex originalUnknownParameterIndex;
 	private final UnknownParameter[] newUnknownParameters;
 	private final Set<Double> originalUnkownRadii;
 	
@@ -402,6 +420,7 @@ public class AtAMaker implements Operation {
 //					.collect(Collectors.toSet());
 //		}
 		
+		originalUnknownParameterIndex = new UnknownParameterIndex(Arrays.asList(originalUnknownParameters));
 		nOriginalUnknown = originalUnknownParameters.length;
 		nNewUnknown = newUnknownParameters.length;
 		
@@ -517,6 +536,8 @@ public class AtAMaker implements Operation {
 			pw.println("#filterNp");
 			pw.println("##Filter if backward filtering is applied (false)");
 			pw.println("#backward");
+			pw.println("##Boolean if partials in time windows are synthesized from spectra with the filter in frequency domain (false)");
+			pw.println("#frequencyDomainWindowing");
 			pw.println("##partialSamplingHz cant change now");
 			pw.println("#double (20)");
 			pw.println("##double SamplingHz in output dataset (1)");
@@ -597,6 +618,7 @@ public class AtAMaker implements Operation {
 		if(!PROPERTY.containsKey("nproc")) PROPERTY.setProperty("nproc", "1");
 		if(!PROPERTY.containsKey("nwindowBuffer")) PROPERTY.setProperty("nwindowBuffer", "100");
 		if(!PROPERTY.containsKey("backward")) PROPERTY.setProperty("backward", "false");
+		if(!PROPERTY.containsKey("frequencyDomainWindowing")) PROPERTY.setProperty("frequencyDomainWindowing", "false");
 		if(!PROPERTY.containsKey("computationFlag")) PROPERTY.setProperty("computationFlag", "3");
 		if(!PROPERTY.containsKey("correctionBootstrap")) PROPERTY.setProperty("correctionBootstrap", "false");
 		if (!PROPERTY.containsKey("nSample")) PROPERTY.setProperty("nSample", "100");
@@ -671,6 +693,8 @@ public class AtAMaker implements Operation {
 		
 		backward = Boolean.parseBoolean(PROPERTY.getProperty("backward"));
 		
+		frequencyDomainWindowing = Boolean.parseBoolean(PROPERTY.getProperty("frequencyDomainWindowing"));
+		
 //		if (computationFlag == 3)
 //			partialIDs = new ArrayList<>();
 		
@@ -1544,6 +1568,38 @@ public class AtAMaker implements Operation {
 	
 	private List<HorizontalPosition> originalHorizontalPositions;
 	
+	/**
+	 * station &rarr; stencils of the BP catalogue for {@link #originalHorizontalPositions}
+	 */
+	private final Map<Station, CatalogueStencil[]> bpStencilMap = new ConcurrentHashMap<>();
+	
+	/**
+	 * The stencils depend only on the geometry, thus they are computed once for a station and used for all the events.
+	 * 
+	 * @param station source of BP
+	 * @return stencils of the BP catalogue for the station and {@link #originalHorizontalPositions}
+	 */
+	private CatalogueStencil[] bpStencilsOf(Station station) {
+		return bpStencilMap.computeIfAbsent(station, s -> {
+			Location bpSourceLoc = s.getPosition().toLocation(Earth.EARTH_RADIUS);
+			CatalogueStencil[] stencils = new CatalogueStencil[originalHorizontalPositions.size()];
+			for (int i = 0; i < stencils.length; i++) {
+				double distanceBP = bpSourceLoc.getEpicentralDistance(originalHorizontalPositions.get(i)) * 180. / Math.PI;
+				int ipointBP = (int) ((distanceBP - thetamin) / dtheta);
+				if (ipointBP < 0) {
+					System.err.println("Warning: BP distance smaller than thetamin " + distanceBP);
+					ipointBP = 0;
+				}
+				else if (ipointBP > bpnames.length - 3) {
+					System.err.println("Warning: BP distance greater than thetamax " + distanceBP);
+					ipointBP = bpnames.length - 3;
+				}
+				stencils[i] = CatalogueStencil.of(distanceBP, thetamin, dtheta, ipointBP);
+			}
+			return stencils;
+		});
+	}
+	
 	
 	private void canGO() {
 		if (basicIDArray[0].length < 2 * timewindowInformation.size())
@@ -1592,23 +1648,11 @@ public class AtAMaker implements Operation {
 	}
 	
 	private int getParameterIndex(Location loc, PartialType type) {
-		int i = 0;
-		for (UnknownParameter p : originalUnknownParameters) {
-			if (p.getLocation().equals(loc) && p.getPartialType().equals(type))
-				return i;
-			i++;
-		}
-		return -1;
+		return originalUnknownParameterIndex.indexOf(type, loc);
 	}
 	
 	private int getParameterIndex1D(double radius, PartialType type) {
-		int i = 0;
-		for (UnknownParameter p : originalUnknownParameters) {
-			if (p.getLocation().getR() == radius && p.getPartialType().equals(type))
-				return i;
-			i++;
-		}
-		return -1;
+		return originalUnknownParameterIndex.indexOf(type, radius);
 	}
 	
 	private PartialType to1D(PartialType type3D) {
@@ -1723,14 +1767,14 @@ public class AtAMaker implements Operation {
 				}
 			}
 			
-			if (!originalHorizontalPositions.contains(obsPos)) {
+			int ivoxel = originalHorizontalPositions.indexOf(obsPos);
+			if (ivoxel < 0) {
 				System.out.println("Position not contained " + obsPos);
 				return;
 			}
 			
 			Location bpSourceLoc = station.getPosition().toLocation(Earth.EARTH_RADIUS);
 			Location fpSourceLoc = event.getEvent().getCmtLocation();
-			double distanceBP = bpSourceLoc.getEpicentralDistance(obsPos) * 180. / Math.PI;
 			double distanceFP = fpSourceLoc.getEpicentralDistance(obsPos) * 180. / Math.PI;
 //			double distance = bpSourceLoc.getGeographicalDistance(obsPos) * 180. / Math.PI;
 			double phiBP = Math.PI - bpSourceLoc.getAzimuth(obsPos);
@@ -1754,17 +1798,8 @@ public class AtAMaker implements Operation {
 //					return;
 //			}
 			
-			int ipointBP = (int) ((distanceBP - thetamin) / dtheta);
-//			if (distanceBP < thetamin || distanceBP > thetamax)
-//				throw new RuntimeException("Error: cannot interpolate BP at epicentral distance " + distanceBP + "(deg)");
-			if (ipointBP < 0) {
-				System.err.println("Warning: BP distance smaller than thetamin " + distanceBP);
-				ipointBP = 0;
-			}
-			else if (ipointBP > bpnames.length - 3) {
-				System.err.println("Warning: BP distance greater than thetamax " + distanceBP);
-				ipointBP = bpnames.length - 3;
-			}
+			CatalogueStencil bpStencil = bpStencilsOf(station)[ivoxel];
+			int ipointBP = bpStencil.getIndex();
 			
 			if (distanceFP < thetamin || distanceFP > thetamax)
 				throw new RuntimeException("Error: cannot interpolate FP at epicentral distance " + distanceFP + "(deg)");
@@ -1817,25 +1852,7 @@ public class AtAMaker implements Operation {
 				}
 			}
 			
-			double[] dhBP = new double[3];
-			if (!quickAndDirty) {
-				double theta1 = thetamin + ipointBP * dtheta;
-				double theta2 = theta1 + dtheta;
-				double theta3 = theta2 + dtheta;
-				dhBP[0] = (distanceBP - theta1) / dtheta;
-				dhBP[1] = (distanceBP - theta2) / dtheta;
-				dhBP[2] = (distanceBP - theta3) / dtheta;
-			}
-			
-			double[] dhFP = new double[3];
-			if (!quickAndDirty) {
-				double theta1 = thetamin + ipointFP * dtheta;
-				double theta2 = theta1 + dtheta;
-				double theta3 = theta2 + dtheta;
-				dhFP[0] = (distanceFP - theta1) / dtheta;
-				dhFP[1] = (distanceFP - theta2) / dtheta;
-				dhFP[2] = (distanceFP - theta3) / dtheta;
-			}
+			CatalogueStencil fpStencil = CatalogueStencil.of(distanceFP, thetamin, dtheta, ipointFP);
 			
 			DSMOutput bpSpc1 = null;
 			DSMOutput bpSpc2 = null; 
@@ -1914,7 +1931,7 @@ public class AtAMaker implements Operation {
 					SPCBody body2 = bpSpc2.getSpcBodyList().get(i);
 					SPCBody body3 = bpSpc3.getSpcBodyList().get(i);
 					
-					SPCBody body = SPCBody.interpolate(body1, body2, body3, dhBP);
+					SPCBody body = SPCBody.interpolate(body1, body2, body3, bpStencil);
 					
 //					System.out.println("DEBUG BP test: " +  body.getSpcComponents()[20].getValueInFrequencyDomain()[10]);
 					
@@ -1977,7 +1994,7 @@ public class AtAMaker implements Operation {
 					SPCBody body2 = fpSpc2.getSpcBodyList().get(i);
 					SPCBody body3 = fpSpc3.getSpcBodyList().get(i);
 					
-					SPCBody body = SPCBody.interpolate(body1, body2, body3, dhFP);
+					SPCBody body = SPCBody.interpolate(body1, body2, body3, fpStencil);
 					
 //					System.out.println("DEBUG BP test: " +  body.getSpcComponents()[20].getValueInFrequencyDomain()[10]);
 					
@@ -2034,13 +2051,13 @@ public class AtAMaker implements Operation {
 			if (catalogueFP) {
 				if (!quickAndDirty) {
 					if (mode.equals("SH")) {
-						threedPartialMaker = new ThreeDPartialMaker(fpSpc1, fpSpc2, fpSpc3, bpSpc1, bpSpc2, bpSpc3, dhBP, dhFP);
+						threedPartialMaker = new ThreeDPartialMaker(fpSpc1, fpSpc2, fpSpc3, bpSpc1, bpSpc2, bpSpc3, bpStencil, fpStencil);
 					}
 					else if (mode.equals("PSV"))
-						threedPartialMaker = new ThreeDPartialMaker(fpSpc1_PSV, fpSpc2_PSV, fpSpc3_PSV, bpSpc1_PSV, bpSpc2_PSV, bpSpc3_PSV, dhBP, dhFP);
+						threedPartialMaker = new ThreeDPartialMaker(fpSpc1_PSV, fpSpc2_PSV, fpSpc3_PSV, bpSpc1_PSV, bpSpc2_PSV, bpSpc3_PSV, bpStencil, fpStencil);
 					else if (mode.equals("BOTH"))
 						threedPartialMaker = new ThreeDPartialMaker(fpSpc1, fpSpc1_PSV, fpSpc2, fpSpc2_PSV, fpSpc3, fpSpc3_PSV, bpSpc1, bpSpc1_PSV,
-								bpSpc2, bpSpc2_PSV, bpSpc3, bpSpc3_PSV, dhBP, dhFP);
+								bpSpc2, bpSpc2_PSV, bpSpc3, bpSpc3_PSV, bpStencil, fpStencil);
 				}
 				else {
 					if (mode.equals("SH"))
@@ -2054,12 +2071,12 @@ public class AtAMaker implements Operation {
 			else {
 				if (!quickAndDirty) {
 					if (mode.equals("SH"))
-						threedPartialMaker = new ThreeDPartialMaker(fpSpc, bpSpc1, bpSpc2, bpSpc3, dhBP);
+						threedPartialMaker = new ThreeDPartialMaker(fpSpc, bpSpc1, bpSpc2, bpSpc3, bpStencil);
 					else if (mode.equals("PSV"))
-						threedPartialMaker = new ThreeDPartialMaker(fpSpc_PSV, bpSpc1_PSV, bpSpc2_PSV, bpSpc3_PSV, dhBP);
+						threedPartialMaker = new ThreeDPartialMaker(fpSpc_PSV, bpSpc1_PSV, bpSpc2_PSV, bpSpc3_PSV, bpStencil);
 					else if (mode.equals("BOTH"))
 						threedPartialMaker = new ThreeDPartialMaker(fpSpc, fpSpc_PSV, bpSpc1, bpSpc1_PSV,
-								bpSpc2, bpSpc2_PSV, bpSpc3, bpSpc3_PSV, dhBP);
+								bpSpc2, bpSpc2_PSV, bpSpc3, bpSpc3_PSV, bpStencil);
 				}
 				else {
 					if (mode.equals("SH"))
@@ -2082,7 +2099,14 @@ public class AtAMaker implements Operation {
 				if (!originalUnkownRadii.contains(bodyR[ibody]))
 					continue;
 				
-				for (int ipar = 0; ipar < partialTypes.length; ipar++) {
+				PartialType[] bodyTypes = Arrays.stream(partialTypes)
+						.filter(type -> getParameterIndex(parameterLoc, type) >= 0).toArray(PartialType[]::new);
+				Complex[][][] bodySpectra = frequencyDomainWindowing
+						? threedPartialMaker.createPartialsFrequencySerial(components, ibody, bodyTypes) : null;
+				double[][][] bodyPartials = frequencyDomainWindowing ? null
+						: threedPartialMaker.createPartialsSerial(components, ibody, bodyTypes);
+				
+				for (int ipar = 0, itype = 0; ipar < partialTypes.length; ipar++) {
 					PartialType type = partialTypes[ipar];
 					int iunknown = getParameterIndex(parameterLoc, type);
 					if (iunknown < 0) {
@@ -2093,12 +2117,12 @@ public class AtAMaker implements Operation {
 					
 					Map<SACComponent, double[]> partialmap = new HashMap<>();
 					Map<SACComponent, Complex[]> partialFreqMap = new HashMap<>();
-					for (SACComponent component : components) {
-						double[] partial;
-						partial = threedPartialMaker.createPartialSerial(component, ibody, type);
-						partialmap.put(component, partial);
-						
-					}
+					for (int icomponent = 0; icomponent < components.length; icomponent++)
+						if (frequencyDomainWindowing)
+							partialFreqMap.put(components[icomponent], bodySpectra[itype][icomponent]);
+						else
+							partialmap.put(components[icomponent], bodyPartials[itype][icomponent]);
+					itype++;
 					
 					for (int iweight = 0; iweight < weightingTypes.length; iweight++) {
 						for (int ifreq = 0; ifreq < frequencyRanges.length; ifreq++) {
@@ -2154,10 +2178,17 @@ public class AtAMaker implements Operation {
 											}
 										}
 									
-										Complex[] u = cutPartial(partial, info, ifreq);
-										
-										u = filter[ifreq].applyFilter(u);
-										double[] cutU = sampleOutput(u, info, ifreq);
+										double[] cutU;
+										if (frequencyDomainWindowing)
+											cutU = threedPartialMaker.toTimeDomain(partialFreqMap.get(info.getComponent()),
+													filter[ifreq], (int) (info.getStartTime() * partialSamplingHz), step[ifreq],
+													(int) ((info.getEndTime() - info.getStartTime()) * finalSamplingHz));
+										else {
+											Complex[] u = cutPartial(partial, info, ifreq);
+											
+											u = filter[ifreq].applyFilter(u);
+											cutU = sampleOutput(u, info, ifreq);
+										}
 										
 										if (Double.isNaN(new ArrayRealVector(cutU).getLInfNorm()))
 											throw new RuntimeException("cutU is NaN " + originalUnknownParameters[iunknown] + " " + info);
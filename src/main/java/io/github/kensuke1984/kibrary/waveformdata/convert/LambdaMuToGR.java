@@ -2,6 +2,7 @@ package io.github.kensuke1984.kibrary.waveformdata.convert;
 
 import io.github.kensuke1984.anisotime.Phase;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
+import io.github.kensuke1984.kibrary.dsminformation.RadialProfile;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Utilities;
@@ -17,6 +18,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -59,6 +61,12 @@ public class LambdaMuToGR {
 			indexOrderedLambda[index] = i; 
 		});
 		
+		double[] radii = partialsMU.stream().mapToDouble(p -> p.getPerturbationLocation().getR()).distinct().sorted()
+				.toArray();
+		RadialProfile profile = structure.computeProfile(radii);
+		double[] mus = profile.getMu();
+		double[] vshs = profile.getVsh();
+		double[] vphs = profile.getVph();
 		for (int i = 0; i < partialsMU.size(); i++) {
 			PartialID partialMU = partialsMU.get(indexOrderedMU[i]);
 			PartialID partialLambda = partialsLambda.get(indexOrderedLambda[i]);
@@ -72,8 +80,9 @@ public class LambdaMuToGR {
 			}
 			
 			double r = partialMU.getPerturbationLocation().getR();
-			double mu = structure.computeMu(r);
-			double R = structure.getVshAt(r) / structure.getVphAt(r);
+			int ir = Arrays.binarySearch(radii, r);
+			double mu = mus[ir];
+			double R = vshs[ir] / vphs[ir];
 			
 			double[] muData = partialMU.getData();
 			double[] lambdaData = partialLambda.getData();
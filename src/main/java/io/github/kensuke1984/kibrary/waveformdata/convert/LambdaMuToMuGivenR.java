@@ -2,6 +2,7 @@ package io.github.kensuke1984.kibrary.waveformdata.convert;
 
 import io.github.kensuke1984.anisotime.Phase;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
+import io.github.kensuke1984.kibrary.dsminformation.RadialProfile;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Utilities;
@@ -19,6 +20,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -120,6 +122,11 @@ public class LambdaMuToMuGivenR {
 		WaveformDataWriter writer4 = new WaveformDataWriter(outID4, out4, stationSet, globalCMTIDSet, periodRanges, phases, locationSet);
 		
 		
+		double[] radii = partialsMU.stream().mapToDouble(p -> p.getPerturbationLocation().getR()).distinct().sorted()
+				.toArray();
+		RadialProfile profile = structure.computeProfile(radii);
+		double[] vphs = profile.getVph();
+		double[] vshs = profile.getVsh();
 		for (int i = 0; i < partialsMU.size(); i++) {
 			PartialID partialMU = partialsMU.get(indexOrderedMU[i]);
 			PartialID partialLambda = partialsLambda.get(indexOrderedLambda[i]);
@@ -139,8 +146,9 @@ public class LambdaMuToMuGivenR {
 			double Rsp3 = rKK01ah.get(depth);
 			double Rsp4 = rKK01ahae.get(depth);
 			
-			double vp = structure.getVphAt(r);
-			double vs = structure.getVshAt(r);
+			int ir = Arrays.binarySearch(radii, r);
+			double vp = vphs[ir];
+			double vs = vshs[ir];
 			
 			if (vs == 0)
 				throw new RuntimeException("Unexpected zero Vs");
@@ -2,6 +2,7 @@ package io.github.kensuke1984.kibrary.waveformdata.convert;
 
 import io.github.kensuke1984.anisotime.Phase;
 import io.github.kensuke1984.kibrary.dsminformation.PolynomialStructure;
+import io.github.kensuke1984.kibrary.dsminformation.RadialProfile;
 import io.github.kensuke1984.kibrary.util.Location;
 import io.github.kensuke1984.kibrary.util.Station;
 import io.github.kensuke1984.kibrary.util.Utilities;
@@ -17,6 +18,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -39,10 +41,15 @@ public class MuToVs {
 		System.out.println(partialsMU.size());
 		
 		PolynomialStructure structure = PolynomialStructure.PREM;
+		double[] radii = partialsMU.stream().mapToDouble(p -> p.getPerturbationLocation().getR()).distinct().sorted()
+				.toArray();
+		RadialProfile profile = structure.computeProfile(radii);
+		double[] rhos = profile.getRho();
+		double[] vshs = profile.getVsh();
 		
 		List<PartialID> partialsVs = partialsMU.stream().map(p -> {
-			double r = p.getPerturbationLocation().getR();
-			double[] vsData = new ArrayRealVector(p.getData()).mapMultiply(2 * structure.getRhoAt(r) * structure.getVshAt(r)).toArray();
+			int ir = Arrays.binarySearch(radii, p.getPerturbationLocation().getR());
+			double[] vsData = new ArrayRealVector(p.getData()).mapMultiply(2 * rhos[ir] * vshs[ir]).toArray();
 			
 			PartialID parVs = new PartialID(p.getStation(), p.getGlobalCMTID(), p.getSacComponent(), p.getSamplingHz(),
 					p.getStartTime(), p.getNpts(), p.getMinPeriod(), p.getMaxPeriod(),
@@ -6,13 +6,15 @@ import io.github.kensuke1984.kibrary.external.TauPPhase;
 import io.github.kensuke1984.kibrary.external.TauP_Time;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * @author Kensuke Konishi
- * @version 0.0.3
+ * @version 0.0.4
  */
 class RaypathCatalogTest {
     private static void readCheck() {
@@ -34,6 +36,28 @@ class RaypathCatalogTest {
     private RaypathCatalogTest() {
     }
 
+    /**
+     * The catalog computed concurrently must be identical to the one computed branch by branch.
+     * They are compared as the files written in the binary format.
+     */
+    private static void concurrencyCheck() throws IOException {
+        VelocityStructure structure = VelocityStructure.iprem();
+        ComputationalMesh mesh = ComputationalMesh.simple(structure);
+        double dDelta = Math.toRadians(1);
+        Path serial = Files.createTempFile("serial", ".bcat");
+        Path concurrent = Files.createTempFile("concurrent", ".bcat");
+        try {
+            RaypathCatalog.compute(structure, mesh, dDelta, false).write(serial);
+            RaypathCatalog.compute(structure, mesh, dDelta, true).write(concurrent);
+            if (!Arrays.equals(Files.readAllBytes(serial), Files.readAllBytes(concurrent)))
+                throw new RuntimeException("The concurrent catalog differs from the serial one.");
+            System.out.println("The concurrent catalog is identical to the serial one.");
+        } finally {
+            Files.deleteIfExists(serial);
+            Files.deleteIfExists(concurrent);
+        }
+    }
+
 
     private static void checkPhases() throws TauPException, IOException, TauModelException {
         double[] eventRs = {6371, 6271, 6171, 6071, 5971, 5871, 5771, 5671};
@@ -155,6 +179,7 @@ class RaypathCatalogTest {
     public static void main(String[] args) throws TauPException, IOException, TauModelException {
 //        debugPKJKP();
 //        readCheck();
+        concurrencyCheck();
         checkPhases();
     }
 
@@ -0,0 +1,85 @@
+package io.github.kensuke1984.anisotime;
+
+import java.util.Arrays;
+
+/**
+ * Checks {@link TravelTimeQuery} against the raypaths found by {@link RaypathCatalog#searchPath}.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+class TravelTimeQueryTest {
+
+    private TravelTimeQueryTest() {
+    }
+
+    /**
+     * [s] tolerance of travel times
+     */
+    private static final double TIME_TOLERANCE = 0.01;
+
+    /**
+     * The travel time of a raypath found by the catalog is corrected to the target &Delta; with its ray parameter.
+     * The raypaths with NaN &Delta;, which the search can return around the edges of branches, are ignored.
+     *
+     * @param delta    [deg] epicentral distance
+     * @param nArrival expected number of arrivals
+     */
+    private static void compare(RaypathCatalog catalog, TravelTimeQuery query, Phase phase, double eventR,
+                                double delta, int nArrival) {
+        double targetDelta = Math.toRadians(delta);
+        String name = phase + " at " + delta + " deg from " + eventR + " km: ";
+        double[] expected = Arrays.stream(catalog.searchPath(phase, eventR, targetDelta, false))
+                .filter(raypath -> !Double.isNaN(raypath.computeDelta(phase, eventR))).mapToDouble(
+                        raypath -> raypath.computeT(phase, eventR) + raypath.getRayParameter() *
+                                (targetDelta - raypath.computeDelta(phase, eventR))).sorted().toArray();
+        double[] times = Arrays.stream(query.compute(phase, eventR, targetDelta))
+                .mapToDouble(TravelTimeQuery.Arrival::getTravelTime).sorted().toArray();
+        if (expected.length != nArrival || times.length != nArrival) throw new RuntimeException(
+                name + expected.length + " raypaths and " + times.length + " arrivals instead of " + nArrival);
+        for (int i = 0; i < times.length; i++)
+            if (TIME_TOLERANCE < Math.abs(times[i] - expected[i]))
+                throw new RuntimeException(name + times[i] + " instead of " + expected[i]);
+        System.out.println(name + Arrays.toString(times));
+    }
+
+    /**
+     * Single arrivals
+     */
+    private static void normalCheck(RaypathCatalog catalog, TravelTimeQuery query) {
+        compare(catalog, query, Phase.P, 6371, 60, 1);
+        compare(catalog, query, Phase.P, 6371, 80, 1);
+        compare(catalog, query, Phase.S, 5971, 70, 1);
+        compare(catalog, query, Phase.ScS, 6271, 60, 1);
+    }
+
+    /**
+     * P in the triplications by the discontinuities in the upper mantle
+     */
+    private static void triplicationCheck(RaypathCatalog catalog, TravelTimeQuery query) {
+        compare(catalog, query, Phase.P, 6371, 20, 4);
+        compare(catalog, query, Phase.P, 6371, 22, 4);
+        compare(catalog, query, Phase.P, 6371, 25, 3);
+    }
+
+    /**
+     * Only the recently used interpolants are kept.
+     */
+    private static void capacityCheck(RaypathCatalog catalog) {
+        TravelTimeQuery query = new TravelTimeQuery(catalog, 2);
+        for (double eventR : new double[]{6371, 6271, 6171})
+            query.compute(Phase.P, eventR, Math.toRadians(60));
+        if (query.getNumberOfInterpolants() != 2)
+            throw new RuntimeException(query.getNumberOfInterpolants() + " interpolants are cached instead of 2");
+    }
+
+    public static void main(String[] args) {
+        VelocityStructure structure = VelocityStructure.iprem();
+        RaypathCatalog catalog =
+                RaypathCatalog.compute(structure, ComputationalMesh.simple(structure), Math.toRadians(0.5), true);
+        TravelTimeQuery query = new TravelTimeQuery(catalog);
+        normalCheck(catalog, query);
+        triplicationCheck(catalog, query);
+        capacityCheck(catalog);
+    }
+}
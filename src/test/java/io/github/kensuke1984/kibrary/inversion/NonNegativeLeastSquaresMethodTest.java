@@ -0,0 +1,136 @@
+package io.github.kensuke1984.kibrary.inversion;
+
+import io.github.kensuke1984.kibrary.math.Matrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Checks {@link NonNegativeLeastSquaresMethod} against solutions found by trying all the passive sets.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+class NonNegativeLeastSquaresMethodTest {
+
+    private NonNegativeLeastSquaresMethodTest() {
+    }
+
+    /**
+     * @return the NNLS solution of the full rank problem: the one on a passive set with positive elements which
+     * satisfies the Kuhn-Tucker conditions
+     */
+    private static RealVector bruteForce(RealMatrix ata, RealVector atd) {
+        int n = atd.getDimension();
+        for (int s = 0; s < 1 << n; s++) {
+            int set = s;
+            int[] passive = IntStream.range(0, n).filter(i -> (set >> i & 1) == 1).toArray();
+            RealVector x = new ArrayRealVector(n);
+            if (0 < passive.length) {
+                RealVector z = new LUDecomposition(ata.getSubMatrix(passive, passive)).getSolver()
+                        .solve(new ArrayRealVector(Arrays.stream(passive).mapToDouble(atd::getEntry).toArray()));
+                if (z.getMinValue() <= 0) continue;
+                for (int k = 0; k < passive.length; k++)
+                    x.setEntry(passive[k], z.getEntry(k));
+            }
+            RealVector w = atd.subtract(ata.operate(x));
+            if (w.getMaxValue() <= 1e-9 * (1 + atd.getNorm())) return x;
+        }
+        throw new RuntimeException("No solution found.");
+    }
+
+    private static Matrix random(Random random, int row, int column) {
+        Matrix a = new Matrix(row, column);
+        for (int i = 0; i < row; i++)
+            for (int j = 0; j < column; j++)
+                a.setEntry(i, j, random.nextGaussian());
+        return a;
+    }
+
+    private static void compareWithBruteForce() {
+        Random random = new Random(0);
+        for (int trial = 0; trial < 200; trial++) {
+            int n = 1 + random.nextInt(7);
+            Matrix a = random(random, n + 5, n);
+            RealVector d = new ArrayRealVector(n + 5);
+            for (int i = 0; i < d.getDimension(); i++)
+                d.setEntry(i, random.nextGaussian());
+            NonNegativeLeastSquaresMethod nnls = new NonNegativeLeastSquaresMethod(a, d);
+            nnls.compute();
+            RealVector expected = bruteForce(a.computeAtA(), a.preMultiply(d));
+            double difference = nnls.getAns(1).subtract(expected).getLInfNorm();
+            if (1e-8 < difference)
+                throw new RuntimeException("trial " + trial + ": difference " + difference);
+            checkCovariance(nnls, a.computeAtA());
+        }
+        System.out.println("200 random problems agree with the brute force solutions.");
+    }
+
+    /**
+     * The covariance must be the inverse of AtA on the passive set.
+     */
+    private static void checkCovariance(NonNegativeLeastSquaresMethod nnls, RealMatrix ata) {
+        RealMatrix base = nnls.getBaseVectors();
+        int[] passive = IntStream.range(0, base.getRowDimension())
+                .filter(i -> base.getRowVector(i).getL1Norm() != 0).toArray();
+        RealMatrix covariance = nnls.computeCovariance(2, 1);
+        if (passive.length == 0) {
+            if (covariance.getFrobeniusNorm() != 0) throw new RuntimeException("Covariance must be 0.");
+            return;
+        }
+        RealMatrix expected = new LUDecomposition(ata.getSubMatrix(passive, passive)).getSolver().getInverse()
+                .scalarMultiply(4);
+        double difference = covariance.getSubMatrix(passive, passive).subtract(expected).getNorm();
+        if (1e-8 * (1 + expected.getNorm()) < difference)
+            throw new RuntimeException("Covariance differs by " + difference);
+    }
+
+    /**
+     * A column which is a copy of another one can not enter the passive set with it. The misfit must still be the
+     * minimum one.
+     */
+    private static void dependentColumns() {
+        Random random = new Random(1);
+        Matrix a0 = random(random, 10, 3);
+        Matrix a = new Matrix(10, 4);
+        a.setSubMatrix(a0.getData(), 0, 0);
+        a.setColumnVector(3, a0.getColumnVector(0));
+        RealVector d = a0.operate(new ArrayRealVector(new double[]{1, 2, 3}));
+        NonNegativeLeastSquaresMethod nnls = new NonNegativeLeastSquaresMethod(a, d);
+        nnls.compute();
+        RealVector x = nnls.getAns(1);
+        double misfit = a.operate(x).subtract(d).getNorm();
+        if (x.getMinValue() < 0 || 1e-8 < misfit || 1e-8 < Math.abs(x.getEntry(0) + x.getEntry(3) - 1))
+            throw new RuntimeException("Wrong solution with dependent columns: " + x + " misfit " + misfit);
+        System.out.println("Dependent columns: " + x);
+    }
+
+    /**
+     * d = 0 must give x = 0.
+     */
+    private static void zero() {
+        Matrix a = random(new Random(2), 6, 3);
+        NonNegativeLeastSquaresMethod nnls = NonNegativeLeastSquaresMethod.ofAtA(a.computeAtA(), new ArrayRealVector(3));
+        nnls.compute();
+        if (nnls.getAns(1).getNorm() != 0) throw new RuntimeException("Non zero solution for d = 0");
+        if (nnls.getBaseVectors().getFrobeniusNorm() != 0) throw new RuntimeException("Non empty passive set");
+        RealMatrix identity = MatrixUtils.createRealIdentityMatrix(3);
+        NonNegativeLeastSquaresMethod unit = NonNegativeLeastSquaresMethod.ofAtA(identity, new ArrayRealVector(3, 1));
+        unit.compute();
+        if (unit.getAns(1).subtract(new ArrayRealVector(3, 1)).getNorm() != 0)
+            throw new RuntimeException("Wrong solution for the identity");
+        System.out.println("Trivial problems are solved.");
+    }
+
+    public static void main(String[] args) {
+        compareWithBruteForce();
+        dependentColumns();
+        zero();
+    }
+}
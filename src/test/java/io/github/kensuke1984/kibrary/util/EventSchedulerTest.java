@@ -0,0 +1,54 @@
+package io.github.kensuke1984.kibrary.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that {@link EventScheduler} starts heavy tasks first.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+class EventSchedulerTest {
+
+    private EventSchedulerTest() {
+    }
+
+    /**
+     * With skewed weights (2 tasks of 400 ms and 40 of 20 ms in 4 threads), both heavy tasks must be among the
+     * first tasks started, and the run must end close to the optimum of 400 ms instead of after the light tasks.
+     */
+    private static void skewedCheck() throws InterruptedException {
+        int nThreads = 4;
+        AtomicInteger started = new AtomicInteger();
+        int[] heavyStarts = new int[2];
+        List<EventScheduler.Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            tasks.add(new EventScheduler.Task("light" + i, null, 20, () -> {
+                started.incrementAndGet();
+                Thread.sleep(20);
+            }));
+        for (int i = 0; i < 2; i++) {
+            int heavy = i;
+            tasks.add(new EventScheduler.Task("heavy" + i, null, 400, () -> {
+                heavyStarts[heavy] = started.incrementAndGet();
+                Thread.sleep(400);
+            }));
+        }
+        EventScheduler.Summary summary = new EventScheduler(nThreads).setReportInterval(0).run(tasks);
+        if (summary.getNumberOfSucceeded() != tasks.size())
+            throw new RuntimeException("Only " + summary);
+        for (int start : heavyStarts)
+            if (nThreads < start)
+                throw new RuntimeException("A heavy task started at " + start + " of " + tasks.size());
+        double elapsed = summary.getElapsedTime() * 1e-9;
+        if (0.55 < elapsed)
+            throw new RuntimeException("The run took " + elapsed + " s for the optimum of 0.4 s");
+        System.out.println("Heavy tasks started at " + heavyStarts[0] + " and " + heavyStarts[1] + ", " + summary);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        skewedCheck();
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.kensuke1984.kibrary.util.spc;
+
+import io.github.kensuke1984.kibrary.butterworth.BandPassFilter;
+import io.github.kensuke1984.kibrary.util.HorizontalPosition;
+import io.github.kensuke1984.kibrary.util.Location;
+import org.apache.commons.math3.complex.Complex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that {@link ThreeDPartialMaker#toTimeDomain(Complex[], io.github.kensuke1984.kibrary.butterworth.ButterworthFilter,
+ * int, int, int)} agrees with the inverse transform of the whole record, the recursive filter and the sampling.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.1
+ */
+class ThreeDPartialMakerTest {
+
+    private ThreeDPartialMakerTest() {
+    }
+
+    private static final int NP = 1024;
+    private static final double TLEN = 409.6;
+    private static final double OMEGAI = -Math.log(0.01) / TLEN;
+
+    /**
+     * Output of DSM with no bodies, only for the time axis of {@link ThreeDPartialMaker}.
+     */
+    private static DSMOutput emptyOutput(Location source) {
+        return new DSMOutput() {
+            @Override
+            public int nbody() {
+                return 0;
+            }
+
+            @Override
+            public List<SPCBody> getSpcBodyList() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void setSpcBody(int i, SPCBody body) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public double[] getBodyR() {
+                return new double[0];
+            }
+
+            @Override
+            public Location getSourceLocation() {
+                return source;
+            }
+
+            @Override
+            public String getSourceID() {
+                return "source";
+            }
+
+            @Override
+            public String getObserverID() {
+                return "point";
+            }
+
+            @Override
+            public String getObserverNetwork() {
+                return null;
+            }
+
+            @Override
+            public HorizontalPosition getObserverPosition() {
+                return new HorizontalPosition(0, 0);
+            }
+
+            @Override
+            public double tlen() {
+                return TLEN;
+            }
+
+            @Override
+            public int np() {
+                return NP;
+            }
+
+            @Override
+            public double omegai() {
+                return OMEGAI;
+            }
+
+            @Override
+            public SPCType getSpcFileType() {
+                return null;
+            }
+
+            @Override
+            public SPCFile getSpcFileName() {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @param t0 [s] arrival of the pulse
+     * @return spectrum of a band-limited pulse at t0, with the damping of the growing exponential
+     */
+    private static Complex[] pulse(double t0) {
+        Complex[] spectrum = new Complex[NP + 1];
+        for (int m = 0; m <= NP; m++) {
+            double f = m / TLEN;
+            double omega = 2 * Math.PI * f;
+            spectrum[m] = new Complex(0, -omega * t0).exp().multiply(Math.exp(-f * f / 0.09 - OMEGAI * t0));
+        }
+        return spectrum;
+    }
+
+    /**
+     * A pulse at 150 s is sampled at 5 Hz in the window 120-180 s, far from the ends of the record where the
+     * recursive filter has its transients. Both paths must agree to round-off for forward and backward filtering.
+     */
+    private static void windowCheck() {
+        ThreeDPartialMaker maker = new ThreeDPartialMaker(emptyOutput(new Location(0, 10, 6000)),
+                emptyOutput(new Location(10, 0, 6371)));
+        double samplingHz = 20;
+        int step = 4;
+        int from = (int) (120 * samplingHz);
+        int n = (int) (60 * samplingHz / step);
+        Complex[] spectrum = pulse(150);
+        double[] record = maker.toRealTimeSeries(spectrum);
+        for (boolean backward : new boolean[]{false, true}) {
+            BandPassFilter filter = new BandPassFilter(2 * Math.PI / samplingHz * 0.5, 2 * Math.PI / samplingHz * 0.05,
+                    4);
+            filter.setBackward(backward);
+            double[] filtered = filter.applyFilter(record);
+            double[] direct = maker.toTimeDomain(spectrum, filter, from, step, n);
+            double max = 0;
+            double maxDifference = 0;
+            for (int j = 0; j < n; j++) {
+                max = Math.max(max, Math.abs(filtered[from + j * step]));
+                maxDifference = Math.max(maxDifference, Math.abs(direct[j] - filtered[from + j * step]));
+            }
+            double relative = maxDifference / max;
+            if (1e-9 < relative)
+                throw new RuntimeException(
+                        "The relative difference is " + relative + " with backward " + backward + " filtering.");
+            System.out.println("Relative difference " + relative + " with backward " + backward + " filtering.");
+        }
+    }
+
+    public static void main(String[] args) {
+        windowCheck();
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.kensuke1984.kibrary.waveformdata;
+
+import io.github.kensuke1984.anisotime.Phase;
+import io.github.kensuke1984.kibrary.util.HorizontalPosition;
+import io.github.kensuke1984.kibrary.util.Location;
+import io.github.kensuke1984.kibrary.util.Station;
+import io.github.kensuke1984.kibrary.util.globalcmt.GlobalCMTID;
+import io.github.kensuke1984.kibrary.util.sac.SACComponent;
+import io.github.kensuke1984.kibrary.util.spc.PartialType;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that {@link PartialCheckpoint#merge(Path, Path, java.util.function.Function, Set, Set, double[][], Phase[],
+ * Set)} keeps only the partials of the completed units after a crash.
+ *
+ * @author Kensuke Konishi
+ * @version 0.0.2
+ */
+class PartialCheckpointTest {
+
+    private PartialCheckpointTest() {
+    }
+
+    private static final GlobalCMTID ID = new GlobalCMTID("200503211243A");
+    private static final Station STATION1 = new Station("AAA", new HorizontalPosition(10, 20), "XX");
+    private static final Station STATION2 = new Station("BBB", new HorizontalPosition(30, 40), "XX");
+    private static final Set<Station> STATIONS = new HashSet<>(Arrays.asList(STATION1, STATION2));
+    private static final Set<GlobalCMTID> IDS = Collections.singleton(ID);
+    private static final double[][] PERIOD_RANGES = {{10, 100}};
+    private static final Phase[] PHASES = {Phase.S};
+    private static final Location POINT = new Location(0, 0, 5000);
+    private static final Set<Location> POINTS = Collections.singleton(POINT);
+    private static final String UNIT1 = PartialCheckpoint.unitOf(ID, STATION1);
+    private static final String UNIT2 = PartialCheckpoint.unitOf(ID, STATION2);
+    private static final String UNIT3 = PartialCheckpoint.unitOf(ID, new Station("CCC", new HorizontalPosition(50,
+            60), "XX"));
+
+    /**
+     * @param value of all the data, to tell where the partial comes from
+     */
+    private static PartialID partial(Station station, PartialType type, double value) {
+        double[] data = new double[5];
+        Arrays.fill(data, value);
+        return new PartialID(station, ID, SACComponent.T, 1, 0, data.length, 10, 100, PHASES, 0, true, POINT, type,
+                data);
+    }
+
+    private static WaveformDataWriter writerOf(PartialCheckpoint checkpoint) throws IOException {
+        return new WaveformDataWriter(checkpoint.getIDPath(), checkpoint.getDataPath(), STATIONS, IDS, PERIOD_RANGES,
+                PHASES, POINTS);
+    }
+
+    private static void append(Path path, byte[] bytes) throws IOException {
+        Files.write(path, bytes, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * The first run completes station 1 and crashes in station 2 with torn records in its fragment and a torn line
+     * in the journal. The second run resumes station 2, and also completes station 1 again. The merged file must
+     * have the partials of station 1 of the first run and of station 2 of the second run. A third run must read both
+     * stations as completed, i.e. the torn line must not swallow the next one, and must ignore a line of a fragment
+     * without files.
+     */
+    private static void resumeCheck(Path dir) throws IOException {
+        PartialCheckpoint first = new PartialCheckpoint(dir, "A");
+        try (WaveformDataWriter writer = writerOf(first)) {
+            writer.addPartialID(partial(STATION1, PartialType.MU, 1));
+            writer.addPartialID(partial(STATION1, PartialType.LAMBDA, 1));
+            first.complete(writer, Collections.singletonList(UNIT1));
+            writer.addPartialID(partial(STATION2, PartialType.MU, -1));
+        }
+        append(first.getIDPath(), new byte[]{1, 2, 3});
+        append(first.getDataPath(), new byte[]{4, 5});
+        append(dir.resolve(PartialCheckpoint.JOURNAL), "A 12".getBytes(StandardCharsets.UTF_8));
+
+        PartialCheckpoint second = new PartialCheckpoint(dir, "B");
+        if (!second.isCompleted(UNIT1) || second.isCompleted(UNIT2) || second.getNumberOfCompletedUnits() != 1)
+            throw new RuntimeException("Completed units are not read from the journal.");
+        try (WaveformDataWriter writer = writerOf(second)) {
+            writer.addPartialID(partial(STATION2, PartialType.MU, 2));
+            writer.addPartialID(partial(STATION1, PartialType.MU, 3));
+            second.complete(writer, Arrays.asList(UNIT2, UNIT1));
+        }
+
+        Path idPath = dir.resolve("mergedID.dat");
+        Path dataPath = dir.resolve("merged.dat");
+        int n = second.merge(idPath, dataPath, id -> PartialCheckpoint.unitOf(id.getGlobalCMTID(), id.getStation()),
+                STATIONS, IDS, PERIOD_RANGES, PHASES, POINTS);
+        PartialID[] merged = PartialIDFile.read(idPath, dataPath);
+        if (n != 3 || merged.length != 3)
+            throw new RuntimeException(n + " partials are merged and " + merged.length + " are read instead of 3");
+        for (PartialID id : merged) {
+            double expected = id.getStation().equals(STATION1) ? 1 : 2;
+            if (Arrays.stream(id.getData()).anyMatch(x -> x != expected))
+                throw new RuntimeException(id + " has " + Arrays.toString(id.getData()) + " instead of " + expected);
+        }
+        if (Files.size(first.getIDPath()) != Files.size(idPathOfUnit1Only(dir)))
+            throw new RuntimeException("The fragment A is not truncated to its last completion.");
+
+        append(dir.resolve(PartialCheckpoint.JOURNAL),
+                ("AB 0 0 " + UNIT3 + "\n").getBytes(StandardCharsets.UTF_8));
+        PartialCheckpoint third = new PartialCheckpoint(dir, "C");
+        if (!third.isCompleted(UNIT1) || !third.isCompleted(UNIT2) || third.isCompleted(UNIT3))
+            throw new RuntimeException("The journal is broken by the second run or a line of no fragment is read.");
+        System.out.println("Partials of the completed units are merged.");
+    }
+
+    /**
+     * @return ID file with only the partials of station 1, i.e. the fragment A at its completion
+     */
+    private static Path idPathOfUnit1Only(Path dir) throws IOException {
+        PartialCheckpoint reference = new PartialCheckpoint(dir.resolve("reference"), "A");
+        try (WaveformDataWriter writer = writerOf(reference)) {
+            writer.addPartialID(partial(STATION1, PartialType.MU, 1));
+            writer.addPartialID(partial(STATION1, PartialType.LAMBDA, 1));
+        }
+        return reference.getIDPath();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("checkpoint");
+        try {
+            resumeCheck(dir);
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+}